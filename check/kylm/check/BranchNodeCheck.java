@@ -0,0 +1,130 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import kylm.model.ngram.BranchNode;
+import kylm.model.ngram.NgramNode;
+
+/**
+ * Check that a BranchNode finds, lists and removes its children like a
+ *  sorted map, whether it searches them linearly, by binary search or with
+ *  a hash table, holds them indexed by id, or appends them while counting
+ * @author neubig
+ *
+ */
+public class BranchNodeCheck {
+
+	public static void main(String[] args) throws Exception {
+		Random rand = new Random(1);
+		int[] sizes = { 0, 1, 3, 4, 5, 16, 63, 64, 65, 200, 2000 };
+		for(int size : sizes) {
+			for(int mode = 0; mode < 3; mode++) {
+				// a child of the root, which searches its children, or the
+				//  root itself, which indexes them by id
+				BranchNode root = new BranchNode(0, null);
+				BranchNode node = (mode == 2 ? root : (BranchNode)root.getChild(1, NgramNode.ADD_BRANCH));
+				node.setCounting(mode == 1);
+				String name = (mode == 2 ? "a root" : (mode == 1 ? "a counting node" : "a node"))+" with "+size+" children";
+				TreeMap<Integer,NgramNode> expected = new TreeMap<Integer,NgramNode>();
+				while(expected.size() < size) {
+					int id = rand.nextInt(size*4);
+					NgramNode child = node.getChild(id, (rand.nextBoolean() ? NgramNode.ADD_LEAF : NgramNode.ADD_BRANCH));
+					if(expected.containsKey(id))
+						CheckUtils.check(child == expected.get(id), "Adding child "+id+" again to "+name+" made a new node");
+					expected.put(id, child);
+					CheckUtils.check(child.getId() == id && child.getParent() == node, "Child "+id+" of "+name+" is "+child);
+				}
+				node.setCounting(false);
+				check(node, expected, size*4, name);
+				// remove about half of the children while listing them
+				for(Iterator<NgramNode> it = node.iterator(); it.hasNext(); ) {
+					NgramNode child = it.next();
+					if(rand.nextBoolean()) {
+						it.remove();
+						expected.remove(child.getId());
+					}
+				}
+				check(node, expected, size*4, name+" after removal");
+				// keep every other child that is left
+				Vector<NgramNode> kept = new Vector<NgramNode>();
+				boolean keep = true;
+				for(NgramNode child : node) {
+					if(keep)
+						kept.add(child);
+					else
+						expected.remove(child.getId());
+					keep = !keep;
+				}
+				node.setChildren(kept);
+				check(node, expected, size*4, name+" after setChildren()");
+				// write the node out and read it back in, unless it has no
+				//  children left, which is read back in as a leaf
+				if(expected.size() == 0)
+					continue;
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				ObjectOutputStream out = new ObjectOutputStream(bytes);
+				out.writeObject(node);
+				out.close();
+				BranchNode read = (BranchNode)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+				CheckUtils.check(read.equals(node), "Reading in "+name+" gives a different node");
+				TreeMap<Integer,NgramNode> readExpected = new TreeMap<Integer,NgramNode>();
+				for(int id : expected.keySet())
+					readExpected.put(id, read.getChild(id));
+				check(read, readExpected, size*4, "read "+name);
+			}
+		}
+		// move the children of one root under another
+		BranchNode root = new BranchNode(0, null), other = new BranchNode(0, null);
+		TreeMap<Integer,NgramNode> expected = new TreeMap<Integer,NgramNode>();
+		for(int id = 0; id < 1000; id++)
+			expected.put(id, (id % 3 == 0 ? root : other).getChild(id, NgramNode.ADD_LEAF));
+		root.moveChildren(other);
+		CheckUtils.check(!other.hasChildren(), "Moving children left them under the other root");
+		check(root, expected, 1000, "a root with moved children");
+	}
+
+	// check that node has exactly the children in expected, in order of id
+	private static void check(BranchNode node, TreeMap<Integer,NgramNode> expected, int maxId, String name) {
+		CheckUtils.check(node.getChildCount() == expected.size(), name+" has "+node.getChildCount()+" children instead of "+expected.size());
+		for(int id = 0; id < maxId; id++) {
+			NgramNode child = node.getChild(id);
+			CheckUtils.check(child == expected.get(id), "Child "+id+" of "+name+" is "+child+" instead of "+expected.get(id));
+		}
+		Iterator<NgramNode> it = node.iterator();
+		for(Map.Entry<Integer,NgramNode> entry : expected.entrySet()) {
+			CheckUtils.check(it.hasNext(), name+" lists too few children");
+			CheckUtils.check(it.next() == entry.getValue(), name+" does not list child "+entry.getKey()+" in order");
+		}
+		CheckUtils.check(!it.hasNext(), name+" lists too many children");
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import kylm.model.LanguageModel;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.smoother.KNSmoother;
+import kylm.model.ngram.smoother.NgramSmoother;
+import kylm.model.ngram.smoother.WBSmoother;
+import kylm.reader.TextArraySentenceReader;
+
+/**
+ * Utilities shared by the checks, which build small models from corpora
+ *  generated at random so that they do not need any data files
+ * @author neubig
+ *
+ */
+public class CheckUtils {
+
+	/**
+	 * Generate a corpus whose words have a Zipf-like distribution, and
+	 *  whose words follow each other often enough to give long n-grams
+	 * @param seed The random seed
+	 * @param sentences The number of sentences
+	 * @param vocab The number of different words
+	 * @return The sentences, with words separated by spaces
+	 */
+	public static String[] makeCorpus(long seed, int sentences, int vocab) {
+		Random rand = new Random(seed);
+		String[] ret = new String[sentences];
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < sentences; i++) {
+			sb.setLength(0);
+			int len = 1+rand.nextInt(12), last = rand.nextInt(vocab);
+			for(int j = 0; j < len; j++) {
+				// often continue from the last word, otherwise pick a word
+				//  with a probability that falls with its rank
+				int w = (rand.nextInt(3) == 0 ? (last*7+3) % vocab : 
+					(int)(vocab*Math.pow(rand.nextDouble(), 3)));
+				if(j > 0)
+					sb.append(' ');
+				sb.append('w').append(w);
+				last = w;
+			}
+			ret[i] = sb.toString();
+		}
+		return ret;
+	}
+
+	/**
+	 * Split sentences into words
+	 * @param sents The sentences, with words separated by spaces
+	 * @return The words of each sentence
+	 */
+	public static String[][] split(String[] sents) {
+		String[][] ret = new String[sents.length][];
+		for(int i = 0; i < sents.length; i++)
+			ret[i] = sents[i].split(" ");
+		return ret;
+	}
+
+	/**
+	 * Train a model with words seen once treated as unknown words
+	 * @param n The length of the n-grams
+	 * @param smoother The smoother to use
+	 * @param corpus The training sentences
+	 * @return The trained model, which has not been packed
+	 */
+	public static NgramLM train(int n, NgramSmoother smoother, String[] corpus) throws Exception {
+		NgramLM lm = new NgramLM(n, smoother);
+		lm.setVocabFrequency(1);
+		return train(lm, corpus);
+	}
+
+	/**
+	 * Train a model that has already been set up
+	 * @param lm The model to train
+	 * @param corpus The training sentences
+	 * @return The trained model, which has not been packed
+	 */
+	public static NgramLM train(NgramLM lm, String[] corpus) throws Exception {
+		// the smoothers print the details of every n-gram
+		PrintStream err = System.err;
+		System.setErr(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) { }
+			@Override
+			public void write(byte[] b, int off, int len) { }
+		}));
+		try {
+			lm.trainModel(new TextArraySentenceReader(corpus));
+		} finally {
+			System.setErr(err);
+		}
+		return lm;
+	}
+
+	/**
+	 * Train a Kneser-Ney smoothed model on a generated corpus
+	 * @param n The length of the n-grams
+	 * @param seed The random seed of the corpus
+	 * @return The trained model, which has not been packed
+	 */
+	public static NgramLM train(int n, long seed) throws Exception {
+		return train(n, new KNSmoother(), makeCorpus(seed, 3000, 1000));
+	}
+
+	/**
+	 * Train a Kneser-Ney smoothed model on a generated corpus, with an
+	 *  unknown word model that scores the characters of unknown words
+	 * @param n The length of the n-grams
+	 * @param seed The random seed of the corpus
+	 * @return The trained model, which has not been packed
+	 */
+	public static NgramLM trainWithSpelling(int n, long seed) throws Exception {
+		NgramLM spelling = new NgramLM(2, new WBSmoother());
+		spelling.setSymbol("<unk>");
+		spelling.setVocabLimit(5000);
+		NgramLM lm = new NgramLM(n, new KNSmoother());
+		lm.setVocabFrequency(1);
+		lm.setUnknownModels(new LanguageModel[] { spelling });
+		return train(lm, makeCorpus(seed, 3000, 1000));
+	}
+
+	/**
+	 * Fail if a condition does not hold
+	 * @param ok The condition
+	 * @param message The message to fail with
+	 */
+	public static void check(boolean ok, String message) {
+		if(!ok)
+			throw new IllegalStateException(message);
+	}
+
+	/**
+	 * Fail unless two floats are exactly the same
+	 * @param expected The expected value
+	 * @param actual The actual value
+	 * @param message What is being compared
+	 */
+	public static void checkSame(float expected, float actual, String message) {
+		if(Float.floatToIntBits(expected) != Float.floatToIntBits(actual))
+			throw new IllegalStateException(message+": expected "+expected+" but got "+actual);
+	}
+
+	/**
+	 * @return The number of bytes allocated by the current thread so far, or
+	 *  -1 if the virtual machine cannot count them
+	 */
+	public static long getAllocatedBytes() {
+		try {
+			com.sun.management.ThreadMXBean bean = 
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			if(!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled())
+				return -1;
+			return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		} catch(ClassCastException e) {
+			return -1;
+		} catch(NoClassDefFoundError e) {
+			return -1;
+		}
+	}
+
+}
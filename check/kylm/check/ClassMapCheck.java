@@ -0,0 +1,151 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.Vector;
+
+import kylm.model.ClassMap;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.reader.MappedNgramReader;
+import kylm.model.ngram.reader.NgramReader;
+import kylm.model.ngram.reader.SerializedNgramReader;
+import kylm.model.ngram.smoother.WBSmoother;
+import kylm.model.ngram.writer.MappedNgramWriter;
+import kylm.model.ngram.writer.NgramWriter;
+import kylm.model.ngram.writer.SerializedNgramWriter;
+import kylm.reader.TextStreamClassMapReader;
+
+/**
+ * Check that a ClassMap holds the same entries as the vectors it used to
+ *  be made of, also after being written out and read back in, and that a
+ *  packed class-based model gives the same scores after being written to
+ *  the binary format or mapped
+ * @author neubig
+ *
+ */
+public class ClassMapCheck {
+
+	public static void main(String[] args) throws Exception {
+		// add entries at random, with gaps and overwrites
+		Random rand = new Random(1);
+		ClassMap map = new ClassMap(4);
+		for(int i = 0; i < 100; i++)
+			CheckUtils.check(map.addClass("c"+i) == i, "Class c"+i+" was given the wrong id");
+		Vector<Integer> ids = new Vector<Integer>();
+		Vector<Float> probs = new Vector<Float>();
+		for(int r = 0; r < 5000; r++) {
+			int vid = (r < 4000 ? rand.nextInt(r+1) : r*2), cid = rand.nextInt(100);
+			float prob = -rand.nextFloat();
+			while(vid >= ids.size()) {
+				ids.add(-1);
+				probs.add(0.0f);
+			}
+			ids.set(vid, cid);
+			probs.set(vid, prob);
+			map.addEntry(vid, cid, prob);
+			if(r % 10 == 0) {
+				// change a probability
+				vid = rand.nextInt(ids.size());
+				probs.set(vid, -1.0f);
+				map.setWordProb(vid, -1.0f);
+			}
+		}
+		check(map, ids, probs, "a class map");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(map);
+		out.close();
+		ClassMap read = (ClassMap)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		CheckUtils.check(read.equals(map), "Reading in a class map gives a different map");
+		check(read, ids, probs, "a read class map");
+
+		// a class-based model, with one class for every twentieth word
+		StringBuilder classes = new StringBuilder();
+		for(int i = 0; i < 1000; i++)
+			classes.append('c').append(i % 20).append(" w").append(i).append('\n');
+		NgramLM lm = new NgramLM(3, new WBSmoother());
+		lm.setVocabFrequency(0);
+		ClassMap cm = new TextStreamClassMapReader(new ByteArrayInputStream(classes.toString().getBytes("UTF-8")))
+			.readClassMap(lm.getVocab(), lm.getUnknownModelCount()+2, false);
+		cm.getClasses().addAlias(lm.getTerminalSymbol(), lm.getId(lm.getStartSymbol()));
+		lm.setClassMap(cm);
+		String[] corpus = CheckUtils.makeCorpus(1, 3000, 1000);
+		CheckUtils.train(lm, corpus);
+		// the sentence scores do not look words up through the class map, so
+		//  score the training sentences through the states of packed models
+		NgramLM bin = write(new SerializedNgramWriter(), lm, new SerializedNgramReader());
+		bin.pack();
+		lm.pack();
+		lm.setReadOnly(true);
+		String[][] test = CheckUtils.split(corpus);
+		float[] expected = new float[test.length];
+		for(int i = 0; i < test.length; i++)
+			expected[i] = score(lm, test[i]);
+		checkScores(bin, test, expected, "a class-based model read from the binary format");
+		checkScores(write(new MappedNgramWriter(), lm, new MappedNgramReader()), test, expected, "a mapped class-based model");
+	}
+
+	private static void check(ClassMap map, Vector<Integer> ids, Vector<Float> probs, String name) {
+		CheckUtils.check(map.getWordSize() == ids.size(), name+" has "+map.getWordSize()+" words instead of "+ids.size());
+		for(int i = 0; i < ids.size(); i++) {
+			CheckUtils.check(map.getWordClass(i) == ids.get(i), "The class of word "+i+" in "+name+" is "+map.getWordClass(i)+" instead of "+ids.get(i));
+			CheckUtils.checkSame(probs.get(i), map.getWordProb(i), "the probability of word "+i+" in "+name);
+		}
+		try {
+			map.getWordClass(ids.size());
+			CheckUtils.check(false, name+" has a class for a word past its end");
+		} catch(ArrayIndexOutOfBoundsException e) {
+			// this is what the vectors did as well
+		}
+	}
+
+	private static NgramLM write(NgramWriter writer, NgramLM lm, NgramReader reader) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writer.write(lm, os);
+		NgramLM ret = reader.read(new ByteArrayInputStream(os.toByteArray()));
+		ret.setReadOnly(true);
+		return ret;
+	}
+
+	private static void checkScores(NgramLM lm, String[][] test, float[] expected, String name) {
+		for(int i = 0; i < test.length; i++)
+			CheckUtils.checkSame(expected[i], score(lm, test[i]), "the score of sentence "+i+" with "+name);
+	}
+
+	private static float score(NgramLM lm, String[] sent) {
+		int[] ids = lm.getSentenceIds(sent);
+		long[] next = new long[1];
+		long state = lm.getStartState();
+		float ret = 0;
+		for(int i = 1; i < ids.length; i++) {
+			ret += lm.score(state, ids[i], next);
+			state = next[0];
+		}
+		return ret;
+	}
+
+}
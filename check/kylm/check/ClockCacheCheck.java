@@ -0,0 +1,126 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import kylm.util.ClockCache;
+
+/**
+ * Check that a ClockCache never holds more entries than its capacity, even
+ *  when several threads add entries at once, that it always gives the value
+ *  last added for a key, and that it keeps entries that are used often
+ * @author neubig
+ *
+ */
+public class ClockCacheCheck {
+
+	public static void main(String[] args) throws Exception {
+		// fill caches of every size with more keys than they can hold
+		Random rand = new Random(1);
+		int[] capacities = { 1, 2, 5, 16, 17, 100, 1000, 65536 };
+		for(int capacity : capacities) {
+			ClockCache<Integer> cache = new ClockCache<Integer>(capacity);
+			CheckUtils.check(cache.getCapacity() == capacity, "A cache of "+capacity+" has a capacity of "+cache.getCapacity());
+			for(int i = 0; i < capacity*3; i++) {
+				int key = rand.nextInt(capacity*2);
+				cache.put("k"+key, key);
+				CheckUtils.check(cache.getSize() <= capacity, "A cache of "+capacity+" holds "+cache.getSize()+" entries");
+			}
+			for(int i = 0; i < capacity*2; i++) {
+				Integer found = cache.get("k"+i);
+				CheckUtils.check(found == null || found == i, "A cache of "+capacity+" gives "+found+" for k"+i);
+			}
+			for(int i = 0; i < capacity*4; i++)
+				cache.put("x"+i, i);
+			CheckUtils.check(cache.getSize() == capacity, "A full cache of "+capacity+" holds "+cache.getSize()+" entries");
+			cache.clear();
+			CheckUtils.check(cache.getSize() == 0 && cache.get("x"+(capacity*4-1)) == null, "A cleared cache of "+capacity+" still holds entries");
+		}
+		try {
+			new ClockCache<Integer>(0);
+			CheckUtils.check(false, "A cache with no capacity was created");
+		} catch(IllegalArgumentException e) { }
+		// a key that has been used is passed over by the clock hand
+		ClockCache<Integer> small = new ClockCache<Integer>(16);
+		for(int i = 0; i < 16; i++)
+			small.put("k"+i, i);
+		small.get("k0");
+		small.put("k16", 16);
+		CheckUtils.check(small.get("k0") != null && small.get("k1") == null, "The clock did not evict the first unused key");
+		small.put("k2", 102);
+		CheckUtils.check(small.get("k2") == 102 && small.getSize() == 16, "Adding a key again did not replace its value");
+		// keys that are used often stay in the cache while others pass through
+		ClockCache<Integer> cache = new ClockCache<Integer>(1000);
+		for(int i = 0; i < 100000; i++) {
+			int hot = i % 100;
+			if(cache.get("hot"+hot) == null)
+				cache.put("hot"+hot, hot);
+			cache.put("cold"+i, i);
+		}
+		for(int i = 0; i < 100; i++)
+			CheckUtils.check(cache.get("hot"+i) != null, "A key that is used often was evicted");
+		// add and look up keys on several threads, while another checks the
+		//  size
+		final int capacity = 500;
+		final ClockCache<Integer> shared = new ClockCache<Integer>(capacity);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final AtomicBoolean done = new AtomicBoolean(false);
+		Thread[] threads = new Thread[5];
+		for(int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						if(seed == 0) {
+							while(!done.get())
+								CheckUtils.check(shared.getSize() <= capacity, "A shared cache of "+capacity+" holds "+shared.getSize()+" entries");
+							return;
+						}
+						Random rand = new Random(seed);
+						for(int i = 0; i < 200000; i++) {
+							int key = rand.nextInt(5000);
+							Integer found = shared.get("k"+key);
+							CheckUtils.check(found == null || found == key, "A shared cache gives "+found+" for k"+key);
+							if(found == null)
+								shared.put("k"+key, key);
+						}
+					} catch(Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(int t = 1; t < threads.length; t++)
+			threads[t].join();
+		done.set(true);
+		threads[0].join();
+		if(error.get() != null)
+			throw new IllegalStateException(error.get());
+		CheckUtils.check(shared.getSize() == capacity, "A full shared cache of "+capacity+" holds "+shared.getSize()+" entries");
+	}
+
+}
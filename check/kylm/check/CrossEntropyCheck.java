@@ -0,0 +1,88 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+
+import kylm.main.CrossEntropy;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.smoother.WBSmoother;
+import kylm.model.ngram.writer.ArpaNgramWriter;
+import kylm.model.ngram.writer.SerializedNgramWriter;
+
+/**
+ * Check that CrossEntropy prints the same totals and the same entropies for
+ *  every sentence with any number of threads, over a test set of several
+ *  chunks scored with two models, one of which has an unknown word model
+ * @author neubig
+ *
+ */
+public class CrossEntropyCheck {
+
+	public static void main(String[] args) throws Exception {
+		File arpa = File.createTempFile("kylm", ".arpa"), bin = File.createTempFile("kylm", ".bin"),
+			test = File.createTempFile("kylm", ".txt");
+		try {
+			NgramLM lm = CheckUtils.train(3, new WBSmoother(), CheckUtils.makeCorpus(2, 3000, 1200));
+			FileOutputStream os = new FileOutputStream(arpa);
+			new ArpaNgramWriter().write(lm, os);
+			os.close();
+			os = new FileOutputStream(bin);
+			new SerializedNgramWriter().write(CheckUtils.trainWithSpelling(3, 1), os);
+			os.close();
+			Writer out = new OutputStreamWriter(new FileOutputStream(test), "UTF-8");
+			for(String sent : CheckUtils.makeCorpus(7, 1000, 1500))
+				out.write(sent+"\n");
+			out.close();
+			String expected = run(arpa, bin, test, 1);
+			CheckUtils.check(expected.contains("1000 sentences"), "CrossEntropy did not score every sentence:\n"+expected);
+			int[] threads = { 2, 3, 8 };
+			for(int t : threads)
+				CheckUtils.check(expected.equals(run(arpa, bin, test, t)), "The output of CrossEntropy with "+t+" threads is different from one thread");
+		} finally {
+			arpa.delete();
+			bin.delete();
+			test.delete();
+		}
+	}
+
+	// run CrossEntropy, printing the entropy of every word
+	private static String run(File arpa, File bin, File test, int threads) throws Exception {
+		PrintStream out = System.out, err = System.err;
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(os, true, "UTF-8"));
+		System.setErr(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			CrossEntropy.main(new String[] { "-debug", "2", "-threads", ""+threads, "-arpa", arpa.getPath(), "-bin", bin.getPath(), test.getPath() });
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+		}
+		return os.toString("UTF-8");
+	}
+
+}
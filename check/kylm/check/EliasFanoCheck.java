@@ -0,0 +1,121 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import kylm.util.BitArray;
+import kylm.util.EliasFanoArray;
+
+/**
+ * Check BitArray and EliasFanoArray against plain arrays of longs, for
+ *  every bit width and for sparse, dense and repeated values, both in
+ *  memory and over direct buffers like those of a mapped file
+ * @author neubig
+ *
+ */
+public class EliasFanoCheck {
+
+	public static void main(String[] args) throws Exception {
+		Random rand = new Random(1);
+		// bit arrays of every width, with elements that cross longs
+		for(int width = 0; width <= 63; width++) {
+			final int size = 1000;
+			long[] expected = new long[size];
+			BitArray bits = new BitArray(size, width);
+			for(int r = 0; r < 3*size; r++) {
+				int i = rand.nextInt(size);
+				expected[i] = (width == 0 ? 0 : rand.nextLong() >>> (64-width));
+				bits.set(i, expected[i]);
+			}
+			BitArray mapped = new BitArray(toDirect(bits.getData()), size, width);
+			for(int i = 0; i < size; i++) {
+				CheckUtils.check(bits.get(i) == expected[i], "Element "+i+" of width "+width+" is "+bits.get(i)+" instead of "+expected[i]);
+				CheckUtils.check(mapped.get(i) == expected[i], "Mapped element "+i+" of width "+width+" is "+mapped.get(i)+" instead of "+expected[i]);
+			}
+		}
+		// Elias-Fano arrays with values spread from 0 to max
+		int[] sizes = { 0, 1, 2, 255, 256, 257, 1000, 5000 };
+		long[] maxes = { 0, 1, 10, 1000, 100000, 1L << 40 };
+		for(int size : sizes) {
+			for(long max : maxes) {
+				long[] values = new long[size];
+				for(int i = 0; i < size; i++)
+					values[i] = (max == 0 ? 0 : (rand.nextLong() >>> 1) % (max+1));
+				// make sure the largest value is held when there is one
+				if(size > 0)
+					values[0] = max;
+				Arrays.sort(values);
+				EliasFanoArray ef = new EliasFanoArray(size, max);
+				for(long val : values)
+					ef.add(val);
+				check(ef, values, max, rand);
+				check(new EliasFanoArray(toDirect(ef.getLowData()), toDirect(ef.getHighData()), size, max), values, max, rand);
+			}
+		}
+	}
+
+	private static void check(EliasFanoArray ef, long[] values, long max, Random rand) {
+		final int size = values.length;
+		String name = "an Elias-Fano array of "+size+" values up to "+max;
+		CheckUtils.check(ef.getSize() == size, "The size of "+name+" is "+ef.getSize());
+		for(int i = 0; i < size; i++)
+			CheckUtils.check(ef.get(i) == values[i], "Value "+i+" of "+name+" is "+ef.get(i)+" instead of "+values[i]);
+		// count around every value, and at random
+		for(int r = 0; r < 2*size+10; r++) {
+			long val = (r < 2*size ? values[r/2] - (r % 2) : (rand.nextLong() >>> 1) % (max+2) - 1);
+			// the index after the last value that is no larger
+			int count = 0, end = size;
+			while(count < end) {
+				int mid = (count+end) >>> 1;
+				if(values[mid] <= val)
+					count = mid+1;
+				else
+					end = mid;
+			}
+			CheckUtils.check(ef.countAtMost(val) == count, "countAtMost("+val+") of "+name+" is "+ef.countAtMost(val)+" instead of "+count);
+		}
+		// find values that are and are not in random ranges
+		for(int r = 0; r < 200 && size > 0; r++) {
+			int begin = rand.nextInt(size), end = begin + rand.nextInt(size-begin+1);
+			long val = (r % 2 == 0 ? values[rand.nextInt(size)] : (rand.nextLong() >>> 1) % (max+1));
+			long found = ef.find(begin, end, val);
+			if(found == -1) {
+				for(int i = begin; i < end; i++)
+					CheckUtils.check(values[i] != val, "find() of "+name+" missed "+val+" in ["+begin+","+end+")");
+			} else
+				CheckUtils.check(found >= begin && found < end && values[(int)found] == val, "find() of "+name+" found "+val+" at "+found+" outside ["+begin+","+end+")");
+		}
+	}
+
+	// copy a buffer into a direct buffer, as it would be read from a file
+	private static LongBuffer toDirect(LongBuffer buff) {
+		LongBuffer ret = ByteBuffer.allocateDirect(8*buff.limit()).asLongBuffer();
+		for(int i = 0; i < buff.limit(); i++)
+			ret.put(i, buff.get(i));
+		return ret;
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.util.Vector;
+
+import kylm.model.ngram.BranchNode;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.NgramNode;
+import kylm.model.ngram.smoother.GTSmoother;
+import kylm.model.ngram.smoother.KNSmoother;
+import kylm.model.ngram.smoother.NgramSmoother;
+import kylm.model.ngram.smoother.WBSmoother;
+
+/**
+ * Check that the fallbacks remembered by the nodes of an n-gram tree are
+ *  the nodes found by searching from the root, after n-grams have been
+ *  trimmed during smoothing and after a node has been removed by hand, and
+ *  that remembered fallbacks are not searched for again
+ * @author neubig
+ *
+ */
+public class FallbackCheck {
+
+	public static void main(String[] args) throws Exception {
+		String[] corpus = CheckUtils.makeCorpus(1, 3000, 1000);
+		NgramSmoother[] smoothers = { new KNSmoother(), new WBSmoother(), new GTSmoother() };
+		for(NgramSmoother smoother : smoothers) {
+			smoother.setCutoffs(new int[] { 0, 1, 1, 1 });
+			NgramLM lm = CheckUtils.train(4, smoother, corpus);
+			BranchNode root = lm.getRoot();
+			check(root, root, new int[4], 0);
+			// linked fallbacks are returned without walking up the tree, so
+			//  they survive cutting the tree above them
+			NgramNode trigram = findTrigram(root);
+			NgramNode fallback = trigram.getFallback(), unigram = trigram.getParent().getParent();
+			unigram.setParent(null);
+			CheckUtils.check(trigram.getFallback() == fallback, "The fallback of "+trigram+" was searched for again");
+			unigram.setParent(root);
+			// remove a unigram with bigrams under it, detaching only the
+			//  unigram itself, which leaves remembered fallbacks under the
+			//  removed node until the links are found again
+			lm.linkFallbacks();
+			remove(root, root.getChild(lm.getId("w1")), false);
+			lm.linkFallbacks();
+			check(root, root, new int[4], 0);
+			// trimming detaches every node under a removed one, which is
+			//  noticed without linking again
+			remove(root, root.getChild(lm.getId("w2")), true);
+			check(root, root, new int[4], 0);
+		}
+	}
+
+	private static void remove(BranchNode root, NgramNode removed, boolean all) {
+		Vector<NgramNode> children = new Vector<NgramNode>();
+		for(NgramNode child : root)
+			if(child != removed)
+				children.add(child);
+		root.setChildren(children);
+		if(all)
+			detach(removed);
+		else
+			removed.setParent(null);
+	}
+
+	private static NgramNode findTrigram(BranchNode root) {
+		for(NgramNode unigram : root)
+			if(unigram.hasChildren())
+				for(NgramNode bigram : unigram)
+					if(bigram.hasChildren() && bigram.getChildCount() > 0)
+						for(NgramNode trigram : bigram)
+							if(trigram.getFallback() != null)
+								return trigram;
+		throw new IllegalStateException("No trigram was found");
+	}
+
+	private static void detach(NgramNode node) {
+		node.setParent(null);
+		if(node.hasChildren())
+			for(NgramNode child : node)
+				detach(child);
+	}
+
+	// check the fallback of every node under node, whose n-gram is ids[0..lev)
+	private static void check(BranchNode root, NgramNode node, int[] ids, int lev) {
+		if(!node.hasChildren())
+			return;
+		for(NgramNode child : node) {
+			ids[lev] = child.getId();
+			NgramNode expected = root;
+			for(int i = 1; i <= lev && expected != null; i++)
+				expected = expected.getChild(ids[i]);
+			CheckUtils.check(child.getFallback() == expected, "The fallback of "+child+" is "+child.getFallback()+" instead of "+expected);
+			check(root, child, ids, lev+1);
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.reader.SerializedNgramReader;
+import kylm.model.ngram.smoother.AbsoluteSmoother;
+import kylm.model.ngram.smoother.KNSmoother;
+import kylm.model.ngram.writer.ArpaNgramWriter;
+import kylm.model.ngram.writer.NgramWriter;
+import kylm.model.ngram.writer.SerializedNgramWriter;
+
+/**
+ * Check that a frozen model writes the same ARPA and binary files and
+ *  gives the same scores as the model before it was frozen, with unknown
+ *  word models, trimming and n-grams counted off the heap, that it leaves
+ *  its vocabulary unchanged, and that the binary files read back
+ * @author neubig
+ *
+ */
+public class FreezeCheck {
+
+	public static void main(String[] args) throws Exception {
+		String[] corpus = CheckUtils.makeCorpus(1, 3000, 1000);
+		String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 500, 1500));
+		String[] names = { "kn with spelling", "trimmed abs", "off-heap kn" };
+		for(String name : names) {
+			NgramLM expected = makeModel(name, corpus), frozen = makeModel(name, corpus);
+			byte[] arpa = write(new ArpaNgramWriter(), expected), bin = write(new SerializedNgramWriter(), expected);
+			long reclaimed = frozen.freeze();
+			CheckUtils.check(frozen.isFrozen() && frozen.isReadOnly(), "The frozen "+name+" model is not frozen and read-only");
+			CheckUtils.check(reclaimed > 0, "Freezing the "+name+" model reclaimed "+reclaimed+" bytes");
+			if(frozen.getUnknownModels() != null)
+				CheckUtils.check(((NgramLM)frozen.getUnknownModels()[0]).isFrozen(), "The unknown word model of the frozen "+name+" model is not frozen");
+			CheckUtils.check(Arrays.equals(arpa, write(new ArpaNgramWriter(), frozen)), "The frozen "+name+" model writes a different ARPA file");
+			CheckUtils.check(Arrays.equals(bin, write(new SerializedNgramWriter(), frozen)), "The frozen "+name+" model writes a different binary file");
+			int size = frozen.getVocab().getSize();
+			// the binary file does not hold the backoffs of n-grams whose
+			//  children were all trimmed, which are not used
+			NgramLM read = new SerializedNgramReader().read(new ByteArrayInputStream(bin));
+			read.setReadOnly(true);
+			for(int i = 0; i < test.length; i++) {
+				float score = expected.getSentenceProb(test[i]);
+				CheckUtils.checkSame(score, frozen.getSentenceProb(test[i]), "the score of sentence "+i+" with the frozen "+name+" model");
+				CheckUtils.checkSame(score, read.getSentenceProb(test[i]), "the score of sentence "+i+" with the "+name+" model read from the binary file");
+			}
+			CheckUtils.check(frozen.getVocab().getSize() == size, "Scoring changed the vocabulary of the frozen "+name+" model");
+		}
+	}
+
+	private static NgramLM makeModel(String name, String[] corpus) throws Exception {
+		if(name.equals("kn with spelling"))
+			return CheckUtils.trainWithSpelling(3, 1);
+		NgramLM lm = new NgramLM(3, (name.equals("trimmed abs") ? new AbsoluteSmoother() : new KNSmoother()));
+		lm.setVocabFrequency(1);
+		if(name.equals("trimmed abs"))
+			lm.getSmoother().setCutoffs(new int[] { 0, 1, 1 });
+		else
+			lm.setOffHeap(true);
+		return CheckUtils.train(lm, corpus);
+	}
+
+	private static byte[] write(NgramWriter writer, NgramLM lm) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writer.write(lm, os);
+		return os.toByteArray();
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+
+import kylm.model.ngram.HashedNgramTrie;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.NgramTrie;
+import kylm.model.ngram.PackedNgramTrie;
+import kylm.model.ngram.reader.ArpaNgramReader;
+import kylm.model.ngram.reader.NgramReader;
+import kylm.model.ngram.smoother.KNSmoother;
+import kylm.model.ngram.writer.ArpaNgramWriter;
+import kylm.model.ngram.writer.MappedNgramWriter;
+import kylm.model.ngram.writer.NgramWriter;
+import kylm.model.ngram.writer.SerializedNgramWriter;
+import kylm.model.ngram.writer.WFSTNgramWriter;
+
+/**
+ * Check that a HashedNgramTrie finds the same n-grams and fallbacks as the
+ *  packed trie it was built from, that n-grams sharing a key are still told
+ *  apart, and that models held in one refuse to be written, quantized or
+ *  compressed
+ * @author neubig
+ *
+ */
+public class HashedTrieCheck {
+
+	// a hash with only 64 values, so nearly every n-gram shares its key
+	private static class CollidingTrie extends HashedNgramTrie {
+		public CollidingTrie(PackedNgramTrie trie) {
+			super(trie);
+		}
+		@Override
+		protected long hash(long key, int id) {
+			return (key*31+id) & 63;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String[] corpus = CheckUtils.makeCorpus(1, 2000, 800);
+		String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 300, 1000));
+		NgramLM lm = CheckUtils.train(4, new KNSmoother(), corpus);
+		lm.pack();
+		PackedNgramTrie packed = (PackedNgramTrie)lm.getTrie();
+		NgramTrie[] tries = { new HashedNgramTrie(packed), new CollidingTrie(packed) };
+		String[] names = { "hashed", "colliding" };
+		float[] expected = new float[test.length];
+		for(int i = 0; i < test.length; i++)
+			expected[i] = lm.getSentenceProb(test[i]);
+		Random rand = new Random(3);
+		for(int t = 0; t < tries.length; t++) {
+			NgramTrie trie = tries[t];
+			// every n-gram, its prefix and its chain of fallbacks
+			int found = checkNgrams(packed, trie, packed.getRoot(), trie.getRoot(), new int[4], 0, names[t]);
+			CheckUtils.check(found > 10000, "Only "+found+" n-grams were checked");
+			// random n-grams, most of which do not exist
+			int[] ngram = new int[4];
+			for(int i = 0; i < 100000; i++) {
+				int len = 2+rand.nextInt(3), start = rand.nextInt(5-len);
+				for(int j = 0; j < ngram.length; j++)
+					ngram[j] = rand.nextInt(20)-1;
+				long expectedNode = packed.findNgram(ngram, start, start+len), node = trie.findNgram(ngram, start, start+len);
+				CheckUtils.check((expectedNode == NgramTrie.NONE) == (node == NgramTrie.NONE), "The "+names[t]+" trie found a different n-gram");
+				if(node != NgramTrie.NONE)
+					checkNode(packed, trie, expectedNode, node, names[t]);
+			}
+			// sentences scored through the trie
+			lm.setTrie(trie);
+			for(int i = 0; i < test.length; i++)
+				CheckUtils.checkSame(expected[i], lm.getSentenceProb(test[i]), "the score of sentence "+i+" in the "+names[t]+" trie");
+			lm.setTrie(packed);
+		}
+		// a model read into a hashed trie can be scored, but not written
+		ByteArrayOutputStream arpa = new ByteArrayOutputStream();
+		new ArpaNgramWriter().write(lm, arpa);
+		ArpaNgramReader reader = new ArpaNgramReader();
+		reader.setStorage(NgramReader.HASH_STORAGE);
+		NgramLM hashed = reader.read(new ByteArrayInputStream(arpa.toByteArray()));
+		reader.setStorage(NgramReader.PACKED_STORAGE);
+		NgramLM read = reader.read(new ByteArrayInputStream(arpa.toByteArray()));
+		for(int i = 0; i < test.length; i++)
+			CheckUtils.checkSame(read.getSentenceProb(test[i]), hashed.getSentenceProb(test[i]), "the score of sentence "+i+" read into a hashed trie");
+		NgramWriter[] writers = { new ArpaNgramWriter(), new MappedNgramWriter(), new SerializedNgramWriter(), new WFSTNgramWriter() };
+		for(NgramWriter writer : writers) {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			checkRejected(hashed, writer, os);
+			CheckUtils.check(os.size() == 0, writer.getClass().getSimpleName()+" wrote "+os.size()+" bytes before failing");
+			File file = File.createTempFile("kylm", ".lm");
+			file.delete();
+			checkRejected(hashed, writer, file.getPath());
+			CheckUtils.check(!file.exists(), writer.getClass().getSimpleName()+" created a file before failing");
+		}
+		for(int i = 0; i < 2; i++) {
+			try {
+				if(i == 0)
+					hashed.quantize(8, 8);
+				else
+					hashed.compress();
+				CheckUtils.check(false, "A hashed model was "+(i == 0 ? "quantized" : "compressed"));
+			} catch(IllegalArgumentException e) {
+				CheckUtils.check(e.getMessage().contains("HashedNgramTrie"), "The error does not name the hashed trie: "+e.getMessage());
+			}
+		}
+	}
+
+	// check every n-gram under a node of the packed trie, returning the number checked
+	private static int checkNgrams(NgramTrie packed, NgramTrie trie, long expectedNode, long node, int[] ngram, int lev, String name) {
+		if(!packed.hasChildren(expectedNode))
+			return 0;
+		int ret = 0;
+		long end = NgramTrie.getIndex(packed.getChildEnd(expectedNode));
+		for(long i = NgramTrie.getIndex(packed.getChildBegin(expectedNode)); i < end; i++) {
+			long expectedChild = NgramTrie.getHandle(lev+1, i);
+			if(packed.getId(expectedChild) < 0)
+				continue;
+			ngram[lev] = packed.getId(expectedChild);
+			long child = trie.findNgram(ngram, 0, lev+1);
+			CheckUtils.check(child != NgramTrie.NONE, "The "+name+" trie lost an n-gram");
+			CheckUtils.check(trie.getChild(node, ngram[lev]) == child, "The "+name+" trie found a different child");
+			checkNode(packed, trie, expectedChild, child, name);
+			// the chain of fallbacks down to the root
+			long expectedFallback = expectedChild, fallback = child;
+			for(int start = 1; start <= lev+1; start++) {
+				expectedFallback = packed.getFallback(expectedFallback);
+				fallback = trie.getFallback(fallback);
+				CheckUtils.check((expectedFallback == NgramTrie.NONE) == (fallback == NgramTrie.NONE), "The "+name+" trie has a different fallback");
+				if(fallback == NgramTrie.NONE)
+					break;
+				CheckUtils.check(fallback == trie.findNgram(ngram, start, lev+1), "The "+name+" trie has a fallback that is not the n-gram without its first word");
+				checkNode(packed, trie, expectedFallback, fallback, name);
+			}
+			ret += 1+checkNgrams(packed, trie, expectedChild, child, ngram, lev+1, name);
+		}
+		return ret;
+	}
+
+	private static void checkNode(NgramTrie packed, NgramTrie trie, long expectedNode, long node, String name) {
+		CheckUtils.check(NgramTrie.getLevel(expectedNode) == NgramTrie.getLevel(node), "The "+name+" trie found an n-gram of a different length");
+		CheckUtils.check(packed.getId(expectedNode) == trie.getId(node), "The "+name+" trie found a different word");
+		CheckUtils.checkSame(packed.getScore(expectedNode), trie.getScore(node), "the score of an n-gram in the "+name+" trie");
+		CheckUtils.checkSame(packed.getBackoffScore(expectedNode), trie.getBackoffScore(node), "the backoff of an n-gram in the "+name+" trie");
+		CheckUtils.check(packed.hasChildren(expectedNode) == trie.hasChildren(node), "The "+name+" trie has different children");
+	}
+
+	private static void checkRejected(NgramLM lm, NgramWriter writer, Object out) throws Exception {
+		try {
+			if(out instanceof String)
+				writer.write(lm, (String)out);
+			else
+				writer.write(lm, (ByteArrayOutputStream)out);
+			CheckUtils.check(false, writer.getClass().getSimpleName()+" wrote a hashed model");
+		} catch(IllegalArgumentException e) {
+			CheckUtils.check(e.getMessage().contains("HashedNgramTrie"), "The error does not name the hashed trie: "+e.getMessage());
+		}
+	}
+
+}
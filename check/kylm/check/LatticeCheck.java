@@ -0,0 +1,194 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.Vector;
+
+import kylm.model.Lattice;
+import kylm.model.ngram.LatticeScorer;
+import kylm.model.ngram.NgramLM;
+
+/**
+ * Check that LatticeScorer finds the same forward score and best path as
+ *  listing every path through a lattice and scoring its words with
+ *  NgramLM.getSentenceProb(), for random lattices with null arcs, sentence
+ *  symbols and unknown words, and that the expanded lattices hold the same
+ *  scores
+ * @author neubig
+ *
+ */
+public class LatticeCheck {
+
+	public static void main(String[] args) throws Exception {
+		NgramLM lm = CheckUtils.trainWithSpelling(3, 1);
+		lm.pack();
+		lm.setReadOnly(true);
+		Random rand = new Random(5);
+		Lattice[] lattices = new Lattice[300];
+		for(int i = 0; i < lattices.length; i++)
+			lattices[i] = makeLattice(lm, rand);
+		float[][] scales = { { 1, 1 }, { 10, 0.1f } };
+		boolean[] terminals = { true, false };
+		for(boolean terminal : terminals) {
+			lm.setCountTerminals(terminal);
+			for(float[] scale : scales) {
+				LatticeScorer scorer = new LatticeScorer(lm);
+				scorer.setLMScale(scale[0]);
+				scorer.setAcousticScale(scale[1]);
+				for(int i = 0; i < lattices.length; i++)
+					check(lm, scorer, lattices[i], "lattice "+i+" with an LM scale of "+scale[0]+" and terminals "+(terminal ? "counted" : "not counted"));
+			}
+		}
+		// malformed lattices are reported as IOExceptions
+		String header = "N=2 L=1\n";
+		String[] bad = {
+			header+"I=2 t=0.0 W=a\n",
+			header+"I=-1 W=a\n",
+			header+"I=0 t=zero\n",
+			header+"I=0 t=0.0\nI=1 t=1.0\nJ=0 S=0 E=1 W=a a=x\n",
+			header+"I=0 t=0.0\nI=1 t=1.0\nJ=0 S=0 E=1 W=a l=1e\n",
+			header+"I=0 t=0.0\nJ=0 S=0 E=2 W=a\n",
+			header+"J=1 S=0 E=1 W=a\n",
+			header+"J=0 S=0 E=1 W=a\nJ=0 S=0 E=1 W=a\n",
+			"N=2\nI=0 t=0.0\n",
+			"N=-1 L=1\n",
+			"start=5 N=2 L=1\nI=0\nI=1\nJ=0 S=0 E=1 W=a\n",
+			"N=2 L=2\nI=0\nI=1\nJ=0 S=0 E=1 W=a\n",
+		};
+		for(String text : bad) {
+			try {
+				Lattice.read(new BufferedReader(new StringReader(text)));
+				CheckUtils.check(false, "A malformed lattice was read: "+text);
+			} catch(IOException e) {
+			}
+		}
+		Lattice good = Lattice.read(new BufferedReader(new StringReader(header+"I=0 t=0.0\nI=1 t=1.0 W=a\nJ=0 S=0 E=1 a=-2.5 l=1e-3\n")));
+		CheckUtils.check(good.getArcCount() == 1 && "a".equals(good.getArcWord(0)) && good.getTime(1) == 1.0f, "A lattice with the word on the node was not read");
+	}
+
+	// make a lattice in which every node leads to the next one, and some
+	//  arcs skip ahead
+	private static Lattice makeLattice(NgramLM lm, Random rand) {
+		Lattice ret = new Lattice();
+		int nodes = 2+rand.nextInt(8);
+		for(int i = 0; i < nodes; i++)
+			ret.addNode(i*0.1f);
+		for(int i = 0; i < nodes-1; i++) {
+			int arcs = 1+rand.nextInt(3);
+			for(int j = 0; j < arcs; j++) {
+				int to = (j == 0 ? i+1 : i+1+rand.nextInt(Math.min(3, nodes-1-i)));
+				int type = rand.nextInt(20);
+				String word = (type == 0 ? Lattice.NULL_WORD : type == 1 ? lm.getStartSymbol() : type == 2 ? lm.getTerminalSymbol() :
+					type < 5 ? "unk"+rand.nextInt(20) : "w"+rand.nextInt(1000));
+				ret.addArc(i, to, word, -5*rand.nextFloat(), 0);
+			}
+		}
+		ret.setStart(0);
+		ret.setEnd(nodes-1);
+		return ret;
+	}
+
+	private static void check(NgramLM lm, LatticeScorer scorer, Lattice lattice, String name) {
+		LatticeScorer.Result res = scorer.score(lattice);
+		// list every path
+		Vector<int[]> paths = new Vector<int[]>();
+		int[][] outs = lattice.getOutArcs();
+		addPaths(lattice, outs, lattice.getStart(), new int[0], paths);
+		double forward = Double.NEGATIVE_INFINITY, best = Double.NEGATIVE_INFINITY;
+		for(int[] path : paths) {
+			double score = scorer.getLMScale()*lm.getSentenceProb(getWords(lm, lattice, path));
+			for(int arc : path)
+				score += scorer.getAcousticScale()*lattice.getAcousticScore(arc);
+			forward = logAdd(forward, score);
+			best = Math.max(best, score);
+		}
+		checkClose(forward, res.getForwardScore(), "the forward score of "+name);
+		checkClose(best, res.getBestScore(), "the best score of "+name);
+		// the best path must go from the start to the end and have the best score
+		int[] path = res.getBestPath();
+		int node = lattice.getStart();
+		for(int arc : path) {
+			CheckUtils.check(lattice.getArcFrom(arc) == node, "The best path of "+name+" is not connected");
+			node = lattice.getArcTo(arc);
+		}
+		CheckUtils.check(node == lattice.getEnd(), "The best path of "+name+" does not reach the end");
+		double score = scorer.getLMScale()*lm.getSentenceProb(res.getBestWords());
+		for(int arc : path)
+			score += scorer.getAcousticScale()*lattice.getAcousticScore(arc);
+		checkClose(best, score, "the score of the best path of "+name);
+		// the paths of the expanded lattice hold the model scores
+		Lattice expanded = res.expand();
+		CheckUtils.check(expanded.getNodeCount() == res.getPairCount()+1, "The expansion of "+name+" has "+expanded.getNodeCount()+" nodes for "+res.getPairCount()+" pairs");
+		Vector<int[]> expandedPaths = new Vector<int[]>();
+		addPaths(expanded, expanded.getOutArcs(), expanded.getStart(), new int[0], expandedPaths);
+		CheckUtils.check(expandedPaths.size() == paths.size(), "The expansion of "+name+" has "+expandedPaths.size()+" paths instead of "+paths.size());
+		double expandedForward = Double.NEGATIVE_INFINITY;
+		for(int[] p : expandedPaths) {
+			double s = 0;
+			for(int arc : p)
+				s += scorer.getAcousticScale()*expanded.getAcousticScore(arc)+scorer.getLMScale()*expanded.getLMScore(arc);
+			expandedForward = logAdd(expandedForward, s);
+		}
+		checkClose(forward, expandedForward, "the forward score of the expansion of "+name);
+	}
+
+	private static void addPaths(Lattice lattice, int[][] outs, int node, int[] path, Vector<int[]> paths) {
+		if(node == lattice.getEnd()) {
+			paths.add(path);
+			return;
+		}
+		for(int arc : outs[node]) {
+			int[] next = new int[path.length+1];
+			System.arraycopy(path, 0, next, 0, path.length);
+			next[path.length] = arc;
+			addPaths(lattice, outs, lattice.getArcTo(arc), next, paths);
+		}
+	}
+
+	// get the words of a path without null arcs and sentence symbols
+	private static String[] getWords(NgramLM lm, Lattice lattice, int[] path) {
+		Vector<String> ret = new Vector<String>();
+		for(int arc : path) {
+			String word = lattice.getArcWord(arc);
+			if(!lattice.isNull(arc) && !word.equals(lm.getStartSymbol()) && !word.equals(lm.getTerminalSymbol()))
+				ret.add(word);
+		}
+		return ret.toArray(new String[ret.size()]);
+	}
+
+	private static double logAdd(double a, double b) {
+		if(a == Double.NEGATIVE_INFINITY)
+			return b;
+		double max = Math.max(a, b);
+		return max+Math.log10(Math.pow(10, a-max)+Math.pow(10, b-max));
+	}
+
+	// the scores are added up in a different order
+	private static void checkClose(double expected, double actual, String name) {
+		CheckUtils.check(Math.abs(expected-actual) < 1e-4*Math.max(1, Math.abs(expected)), name+" is "+actual+" instead of "+expected);
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.util.Arrays;
+
+import kylm.model.LanguageModel;
+import kylm.model.MultiModelScorer;
+import kylm.model.SentenceScores;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.smoother.KNSmoother;
+import kylm.model.ngram.smoother.WBSmoother;
+
+/**
+ * Check that a MultiModelScorer finds the same ids and gives the same
+ *  entropies as scoring with each model on its own, for models with
+ *  different vocabularies, unknown word models, vocabulary limits and
+ *  terminals that are not counted
+ * @author neubig
+ *
+ */
+public class MultiModelCheck {
+
+	public static void main(String[] args) throws Exception {
+		NgramLM spelling = CheckUtils.trainWithSpelling(3, 1);
+		NgramLM limited = new NgramLM(2, new WBSmoother());
+		limited.setVocabFrequency(1);
+		limited.setVocabLimit(3000);
+		CheckUtils.train(limited, CheckUtils.makeCorpus(2, 2000, 1200));
+		NgramLM uncounted = CheckUtils.train(3, new KNSmoother(), CheckUtils.makeCorpus(3, 2000, 800));
+		uncounted.setCountTerminals(false);
+		uncounted.pack();
+		LanguageModel[] models = { spelling, limited, uncounted };
+		String[] names = { "a model with spelling", "a model with a vocabulary limit", "a model without terminals" };
+		for(LanguageModel lm : models)
+			lm.setReadOnly(true);
+		MultiModelScorer scorer = new MultiModelScorer(models);
+		String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 1000, 1500));
+		SentenceScores[] scores = null;
+		for(int s = 0; s < test.length; s++) {
+			int[] shared = scorer.getSharedIds(test[s]);
+			scores = scorer.scoreSentence(test[s], scores);
+			for(int i = 0; i < models.length; i++) {
+				String where = "sentence "+s+" with "+names[i];
+				CheckUtils.check(Arrays.equals(models[i].getSentenceIds(test[s]), scorer.getModelIds(i, test[s], shared)), "The shared ids of "+where+" are different");
+				SentenceScores expected = models[i].scoreSentence(test[s]);
+				CheckUtils.check(scores[i].getLength() == expected.getLength(), "The scores of "+where+" have "+scores[i].getLength()+" words instead of "+expected.getLength());
+				for(int j = 0; j < expected.getLength(); j++) {
+					CheckUtils.checkSame(expected.getWordEntropies()[j], scores[i].getWordEntropies()[j], "the entropy of word "+j+" of "+where);
+					CheckUtils.checkSame(expected.getSimpleEntropies()[j], scores[i].getSimpleEntropies()[j], "the simple entropy of word "+j+" of "+where);
+					CheckUtils.checkSame(expected.getUnknownEntropies()[j], scores[i].getUnknownEntropies()[j], "the unknown entropy of word "+j+" of "+where);
+				}
+			}
+		}
+	}
+
+}
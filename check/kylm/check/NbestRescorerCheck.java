@@ -0,0 +1,138 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import kylm.model.ngram.NbestRescorer;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.reader.ArpaNgramReader;
+import kylm.model.ngram.reader.MappedNgramReader;
+import kylm.model.ngram.reader.NgramReader;
+import kylm.model.ngram.writer.ArpaNgramWriter;
+import kylm.model.ngram.writer.MappedNgramWriter;
+
+/**
+ * Check that NbestRescorer gives the same scores as adding up
+ *  NgramLM.score() word by word, and NgramLM.getSentenceProb() up to
+ *  rounding, for N-best lists that share prefixes and contain unknown
+ *  words, on each layout of the model, and that the scores stay the same
+ *  when the remembered states are cleared
+ * @author neubig
+ *
+ */
+public class NbestRescorerCheck {
+
+	public static void main(String[] args) throws Exception {
+		NgramLM lm = CheckUtils.trainWithSpelling(3, 1);
+		lm.pack();
+		lm.setReadOnly(true);
+		String[][][] lists = makeLists(CheckUtils.split(CheckUtils.makeCorpus(7, 300, 1500)));
+		check(lm, lists, "a packed model");
+		// the other layouts, read from the same ARPA file
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new ArpaNgramWriter().write(lm, os);
+		byte[] arpa = os.toByteArray();
+		int[] storages = { NgramReader.PACKED_STORAGE, NgramReader.HASH_STORAGE, NgramReader.SUCCINCT_STORAGE };
+		String[] names = { "packed", "hashed", "succinct" };
+		for(int i = 0; i < storages.length; i++) {
+			NgramReader reader = new ArpaNgramReader();
+			reader.setStorage(storages[i]);
+			NgramLM read = reader.read(new ByteArrayInputStream(arpa));
+			read.setReadOnly(true);
+			check(read, lists, "a "+names[i]+" model read from ARPA");
+		}
+		os = new ByteArrayOutputStream();
+		new MappedNgramWriter().write(lm, os);
+		NgramLM mapped = new MappedNgramReader().read(new ByteArrayInputStream(os.toByteArray()));
+		mapped.setReadOnly(true);
+		check(mapped, lists, "a mapped model");
+	}
+
+	// make an N-best list for each sentence by changing, cutting off, adding
+	//  and repeating words, some of which are unknown
+	private static String[][][] makeLists(String[][] sents) {
+		Random rand = new Random(3);
+		String[][][] ret = new String[sents.length][][];
+		for(int i = 0; i < sents.length; i++) {
+			String[] sent = sents[i];
+			ret[i] = new String[1+rand.nextInt(20)][];
+			ret[i][0] = sent;
+			for(int j = 1; j < ret[i].length; j++) {
+				String[] base = ret[i][rand.nextInt(j)];
+				int pos = rand.nextInt(base.length+1), len = base.length;
+				int change = rand.nextInt(4);
+				if(change == 1 && len > 1)
+					len--;
+				else if(change == 2)
+					len++;
+				String[] hyp = new String[len];
+				for(int k = 0; k < len; k++) {
+					int from = (change == 1 && k >= pos ? k+1 : (change == 2 && k > pos ? k-1 : k));
+					hyp[k] = (from < base.length ? base[from] : base[base.length-1]);
+				}
+				if(change == 0 || change == 2) {
+					int at = Math.min(pos, len-1);
+					hyp[at] = (rand.nextInt(5) == 0 ? "unk"+rand.nextInt(50) : "w"+rand.nextInt(1500));
+				}
+				ret[i][j] = hyp;
+			}
+		}
+		return ret;
+	}
+
+	private static void check(NgramLM lm, String[][][] lists, String name) {
+		float[][] expected = new float[lists.length][];
+		long[] next = new long[1];
+		for(int i = 0; i < lists.length; i++) {
+			expected[i] = new float[lists[i].length];
+			for(int j = 0; j < lists[i].length; j++) {
+				int[] ids = lm.getSentenceIds(lists[i][j]);
+				long state = lm.getStartState();
+				for(int k = 1; k < ids.length; k++) {
+					expected[i][j] += lm.score(state, ids[k], next);
+					state = next[0];
+				}
+				// getSentenceProb() adds the backoffs one at a time
+				float prob = lm.getSentenceProb(lists[i][j]);
+				CheckUtils.check(Math.abs(prob-expected[i][j]) < 1e-4, "The score of hypothesis "+j+" of utterance "+i+" with "+name+" is "+expected[i][j]+" word by word but "+prob+" as a sentence");
+			}
+		}
+		// remember every state, then clear them before almost every utterance
+		int[] limits = { Integer.MAX_VALUE, 1 };
+		for(int limit : limits) {
+			NbestRescorer rescorer = new NbestRescorer(lm);
+			rescorer.setStateLimit(limit);
+			for(int i = 0; i < lists.length; i++) {
+				float[] scores = rescorer.rescore(lists[i]);
+				CheckUtils.check(scores.length == lists[i].length, "The rescorer gave "+scores.length+" scores for "+lists[i].length+" hypotheses");
+				for(int j = 0; j < scores.length; j++)
+					CheckUtils.checkSame(expected[i][j], scores[j], "the score of hypothesis "+j+" of utterance "+i+" with "+name+" and a state limit of "+limit);
+			}
+			CheckUtils.check(rescorer.getLookupCount() <= rescorer.getPrefixCount() && rescorer.getPrefixCount() < rescorer.getWordCount(),
+					"The rescorer with "+name+" looked up "+rescorer.getLookupCount()+" words for "+rescorer.getPrefixCount()+" prefixes and "+rescorer.getWordCount()+" words");
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.NgramTrie;
+import kylm.model.ngram.reader.ArpaNgramReader;
+import kylm.model.ngram.reader.MappedNgramReader;
+import kylm.model.ngram.reader.NgramReader;
+import kylm.model.ngram.writer.ArpaNgramWriter;
+import kylm.model.ngram.writer.MappedNgramWriter;
+
+/**
+ * Check that NgramLM.topK() finds the same words with the same scores as
+ *  scoring every word in the vocabulary with NgramLM.score(), after
+ *  contexts of every length and with unknown words, on each layout of the
+ *  model that can be indexed
+ * @author neubig
+ *
+ */
+public class NextWordCheck {
+
+	public static void main(String[] args) throws Exception {
+		NgramLM lm = CheckUtils.train(4, 1);
+		lm.pack();
+		lm.setReadOnly(true);
+		String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 30, 1500));
+		check(lm, test, "a packed model");
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new ArpaNgramWriter().write(lm, os);
+		byte[] arpa = os.toByteArray();
+		int[] storages = { NgramReader.PACKED_STORAGE, NgramReader.SUCCINCT_STORAGE, NgramReader.OFFHEAP_STORAGE };
+		String[] names = { "packed", "succinct", "off-heap" };
+		for(int i = 0; i < storages.length; i++) {
+			NgramReader reader = new ArpaNgramReader();
+			reader.setStorage(storages[i]);
+			NgramLM read = reader.read(new ByteArrayInputStream(arpa));
+			read.setReadOnly(true);
+			check(read, test, "a "+names[i]+" model read from ARPA");
+		}
+		os = new ByteArrayOutputStream();
+		new MappedNgramWriter().write(lm, os);
+		NgramLM mapped = new MappedNgramReader().read(new ByteArrayInputStream(os.toByteArray()));
+		mapped.setReadOnly(true);
+		check(mapped, test, "a mapped model");
+		// a hashed trie cannot list the children of a context
+		NgramReader reader = new ArpaNgramReader();
+		reader.setStorage(NgramReader.HASH_STORAGE);
+		NgramLM hashed = reader.read(new ByteArrayInputStream(arpa));
+		try {
+			hashed.buildNextWordIndex();
+			CheckUtils.check(false, "A model in a hashed trie was indexed");
+		} catch(IllegalArgumentException e) {
+			// the index cannot be built
+		}
+	}
+
+	private static void check(NgramLM lm, String[][] test, String name) {
+		lm.buildNextWordIndex();
+		// the words that can be predicted are those with a unigram
+		NgramTrie trie = lm.getTrie();
+		long begin = NgramTrie.getIndex(trie.getChildBegin(trie.getRoot())), end = NgramTrie.getIndex(trie.getChildEnd(trie.getRoot()));
+		int[] words = new int[(int)(end-begin)];
+		int size = 0;
+		for(long i = begin; i < end; i++) {
+			int id = trie.getId(NgramTrie.getHandle(1, i));
+			if(id != -1)
+				words[size++] = id;
+		}
+		float[] all = new float[size];
+		int[] ks = { 1, 7, 100, size+10 };
+		int[] ids = new int[size+10];
+		float[] scores = new float[size+10];
+		long[] next = new long[1];
+		// the query in which each word was last found
+		int[] seen = new int[lm.getVocab().getSize()];
+		int queries = 0;
+		for(int s = 0; s < test.length; s++) {
+			int[] sent = lm.getSentenceIds(test[s]);
+			long state = lm.getStartState();
+			for(int len = 1; len < sent.length; len++) {
+				int[] context = Arrays.copyOf(sent, len);
+				if(len > 1) {
+					lm.score(state, sent[len-1], next);
+					state = next[0];
+				}
+				// score every word
+				for(int i = 0; i < size; i++)
+					all[i] = lm.score(state, words[i], null);
+				float[] best = all.clone();
+				Arrays.sort(best);
+				for(int k : ks) {
+					queries++;
+					String where = "after "+len+" words of sentence "+s+" with k="+k+" and "+name;
+					int found = lm.topK(context, k, ids, scores);
+					CheckUtils.check(found == Math.min(k, size), "topK() found "+found+" words instead of "+Math.min(k, size)+" "+where);
+					for(int i = 0; i < found; i++) {
+						CheckUtils.checkSame(best[size-1-i], scores[i], "score "+i+" of topK() "+where);
+						CheckUtils.checkSame(lm.score(state, ids[i], null), scores[i], "the score of word "+ids[i]+" of topK() "+where);
+						CheckUtils.check(seen[ids[i]] != queries, "topK() found word "+ids[i]+" twice "+where);
+						seen[ids[i]] = queries;
+					}
+				}
+			}
+		}
+		// queries on several threads at once find the same words
+		final NgramLM shared = lm;
+		final int[] context = lm.getSentenceIds(test[0]);
+		final int k = Math.min(7, size);
+		final int[] expected = new int[k];
+		lm.topK(context, k, expected, null);
+		final boolean[] same = new boolean[4];
+		Thread[] threads = new Thread[same.length];
+		for(int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					int[] found = new int[k];
+					boolean ok = true;
+					for(int r = 0; r < 2000 && ok; r++) {
+						shared.topK(Arrays.copyOf(context, 1+(r+thread)%context.length), k, found, null);
+						shared.topK(context, k, found, null);
+						ok = Arrays.equals(found, expected);
+					}
+					same[thread] = ok;
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		for(int t = 0; t < same.length; t++)
+			CheckUtils.check(same[t], "topK() on thread "+t+" found different words with "+name);
+		// repeated queries do not allocate once the buffers of the thread exist
+		long before = CheckUtils.getAllocatedBytes();
+		if(before == -1)
+			return;
+		for(int r = 0; r < 10000; r++)
+			lm.topK(context, k, ids, scores);
+		long allocated = CheckUtils.getAllocatedBytes()-before;
+		CheckUtils.check(allocated < 1024, "topK() allocated "+allocated+" bytes over 10000 queries with "+name);
+	}
+
+}
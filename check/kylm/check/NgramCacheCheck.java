@@ -0,0 +1,140 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import kylm.model.ngram.NgramCache;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.reader.ArpaNgramReader;
+import kylm.model.ngram.reader.MappedNgramReader;
+import kylm.model.ngram.reader.NgramReader;
+import kylm.model.ngram.smoother.KNSmoother;
+import kylm.model.ngram.writer.ArpaNgramWriter;
+import kylm.model.ngram.writer.MappedNgramWriter;
+
+/**
+ * Check that an NgramCache does not change any scores, whether it holds
+ *  every lookup, has to evict most of them or holds just one, when it is
+ *  shared by several threads, and on each layout that can use it
+ * @author neubig
+ *
+ */
+public class NgramCacheCheck {
+
+	public static void main(String[] args) throws Exception {
+		String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 2000, 1200));
+		// trimmed models have contexts whose fallbacks are missing
+		int[][] cutoffs = { null, { 0, 1, 1 } };
+		for(int[] cutoff : cutoffs) {
+			KNSmoother smoother = new KNSmoother();
+			smoother.setCutoffs(cutoff);
+			NgramLM lm = CheckUtils.train(3, smoother, CheckUtils.makeCorpus(1, 3000, 1000));
+			lm.pack();
+			lm.setReadOnly(true);
+			String name = (cutoff == null ? "a packed model" : "a trimmed packed model");
+			check(lm, test, name);
+			if(cutoff != null)
+				continue;
+			// the other layouts that can be written
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			new ArpaNgramWriter().write(lm, os);
+			NgramReader reader = new ArpaNgramReader();
+			reader.setStorage(NgramReader.SUCCINCT_STORAGE);
+			NgramLM succinct = reader.read(new ByteArrayInputStream(os.toByteArray()));
+			succinct.setReadOnly(true);
+			check(succinct, test, "a succinct model");
+			os = new ByteArrayOutputStream();
+			new MappedNgramWriter().write(lm, os);
+			NgramLM mapped = new MappedNgramReader().read(new ByteArrayInputStream(os.toByteArray()));
+			mapped.setReadOnly(true);
+			check(mapped, test, "a mapped model");
+		}
+	}
+
+	private static void check(final NgramLM lm, final String[][] test, String name) throws Exception {
+		// find the scores without a cache, sentence by sentence and word
+		//  by word
+		final float[] expected = new float[test.length];
+		final int[][] ids = new int[test.length][];
+		final float[][] wordScores = new float[test.length][];
+		final long[][] states = new long[test.length][];
+		long[] next = new long[1];
+		for(int i = 0; i < test.length; i++) {
+			expected[i] = lm.getSentenceProb(test[i]);
+			ids[i] = lm.getSentenceIds(test[i]);
+			wordScores[i] = new float[ids[i].length];
+			states[i] = new long[ids[i].length];
+			states[i][0] = lm.getStartState();
+			for(int j = 1; j < ids[i].length; j++) {
+				wordScores[i][j] = lm.score(states[i][j-1], ids[i][j], next);
+				states[i][j] = next[0];
+			}
+		}
+		for(int capacity : new int[] { 1, 16, 1000000 }) {
+			final String where = name+" and a cache of "+capacity;
+			lm.setCache(new NgramCache(capacity));
+			// go over the sentences twice, so the second time hits the cache
+			for(int rep = 0; rep < 2; rep++)
+				check(lm, test, expected, ids, wordScores, states, 0, 1, where);
+			CheckUtils.check(lm.getCache().getHits() > 0, "The cache was never used with "+where);
+			// share the cache between several threads
+			final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+			Thread[] threads = new Thread[4];
+			for(int t = 0; t < threads.length; t++) {
+				final int start = t % 2;
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							check(lm, test, expected, ids, wordScores, states, start, 2, where+" on several threads");
+						} catch(Throwable e) {
+							error.compareAndSet(null, e);
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for(Thread thread : threads)
+				thread.join();
+			if(error.get() != null)
+				throw new IllegalStateException(error.get());
+		}
+		lm.setCache(null);
+	}
+
+	// check every step'th sentence from start against the uncached scores
+	private static void check(NgramLM lm, String[][] test, float[] expected, int[][] ids, float[][] wordScores, long[][] states,
+			int start, int step, String name) {
+		long[] next = new long[1];
+		for(int i = start; i < test.length; i += step) {
+			CheckUtils.checkSame(expected[i], lm.getSentenceProb(test[i]), "getSentenceProb() of sentence "+i+" with "+name);
+			for(int j = 1; j < ids[i].length; j++) {
+				CheckUtils.checkSame(wordScores[i][j], lm.score(states[i][j-1], ids[i][j], next), "score() of word "+j+" of sentence "+i+" with "+name);
+				CheckUtils.check(next[0] == states[i][j], "score() gave a different state for word "+j+" of sentence "+i+" with "+name);
+			}
+		}
+	}
+
+}
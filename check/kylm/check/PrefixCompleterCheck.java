@@ -0,0 +1,93 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.util.Arrays;
+
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.NgramTrie;
+import kylm.model.ngram.PrefixCompleter;
+import kylm.util.SymbolSet;
+
+/**
+ * Check that a PrefixCompleter finds the same words as scoring every word
+ *  with the prefix, and that queries allocate nothing once the buffers of
+ *  the thread have grown
+ * @author neubig
+ *
+ */
+public class PrefixCompleterCheck {
+
+	public static void main(String[] args) throws Exception {
+		NgramLM lm = CheckUtils.train(3, 1);
+		lm.pack();
+		lm.setReadOnly(true);
+		PrefixCompleter completer = new PrefixCompleter(lm);
+		SymbolSet vocab = lm.getVocab();
+		NgramTrie trie = lm.getTrie();
+		String[] prefixes = { "", "w", "w1", "w12", "w5", "w99", "x" };
+		final int k = 8;
+		int[] ids = new int[k];
+		float[] scores = new float[k];
+		float[] all = new float[vocab.getSize()];
+		long[] next = new long[1];
+		String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 200, 1200));
+		for(String[] sent : test) {
+			int[] sentIds = lm.getSentenceIds(sent);
+			long state = lm.getStartState();
+			for(int len = 1; len < sentIds.length; len++) {
+				int[] context = Arrays.copyOf(sentIds, len);
+				for(String prefix : prefixes) {
+					// score every word with the prefix
+					int count = 0;
+					for(int id = lm.getUnknownModelCount()+2; id < vocab.getSize(); id++)
+						if(vocab.getSymbol(id).startsWith(prefix) && trie.getChild(trie.getRoot(), id) != NgramTrie.NONE)
+							all[count++] = lm.score(state, id, null);
+					Arrays.sort(all, 0, count);
+					int found = completer.complete(context, prefix, k, ids, scores);
+					CheckUtils.check(found == Math.min(k, count), "Found "+found+" words for \""+prefix+"\" instead of "+Math.min(k, count));
+					for(int i = 0; i < found; i++) {
+						CheckUtils.checkSame(all[count-1-i], scores[i], "the score of completion "+i+" of \""+prefix+"\"");
+						CheckUtils.checkSame(lm.score(state, ids[i], null), scores[i], "the score of word "+ids[i]);
+						CheckUtils.check(vocab.getSymbol(ids[i]).startsWith(prefix), "Completed \""+prefix+"\" with "+vocab.getSymbol(ids[i]));
+					}
+				}
+				if(len < sentIds.length-1) {
+					lm.score(state, sentIds[len], next);
+					state = next[0];
+				}
+			}
+		}
+		// repeat a query whose context is known, after the buffers have grown
+		int[] context = { 0, lm.getId("w1") };
+		completer.complete(context, "w", k, ids, scores);
+		long before = CheckUtils.getAllocatedBytes();
+		if(before == -1)
+			return;
+		for(int r = 0; r < 10000; r++)
+			for(String prefix : prefixes)
+				completer.complete(context, prefix, k, ids, scores);
+		long allocated = CheckUtils.getAllocatedBytes()-before;
+		CheckUtils.check(allocated < 1024, "complete() allocated "+allocated+" bytes over "+10000*prefixes.length+" queries");
+	}
+
+}
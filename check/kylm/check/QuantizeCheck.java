@@ -0,0 +1,146 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Vector;
+
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.NgramTrie;
+import kylm.model.ngram.QuantizedNgramTrie;
+import kylm.model.ngram.smoother.KNSmoother;
+import kylm.model.ngram.writer.ArpaNgramWriter;
+import kylm.util.BitArray;
+
+/**
+ * Check that the codebooks of QuantizedNgramTrie hold every value exactly
+ *  when they fit, give values that are not finite their own codes, and
+ *  otherwise encode each value as the closest of no more codes than the
+ *  bits allow, and that a model whose levels have few values is kept
+ *  exactly when it is quantized
+ * @author neubig
+ *
+ */
+public class QuantizeCheck {
+
+	public static void main(String[] args) throws Exception {
+		Random rand = new Random(1);
+		int[] sizes = { 0, 1, 5, 1000, 20000 }, bitCounts = { 1, 2, 4, 8, 12 };
+		float[] special = { Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NaN };
+		for(int size : sizes) {
+			for(int type = 0; type < 3; type++) {
+				// spread values, repeated values, and spread values with some
+				//  that are not finite
+				float[] vals = new float[size];
+				for(int i = 0; i < size; i++)
+					vals[i] = (type == 1 ? -rand.nextInt(50)/4.0f : -8*rand.nextFloat());
+				if(type == 2)
+					for(int i = 0; i < size; i += 7)
+						vals[i] = special[i%special.length];
+				for(int bits : bitCounts)
+					check(vals, bits, "type "+type+" with "+size+" values and "+bits+" bits");
+			}
+		}
+
+		// a small model whose levels have few enough values to be kept
+		String[] corpus = CheckUtils.makeCorpus(1, 30, 15);
+		NgramLM lm = CheckUtils.train(3, new KNSmoother(), corpus), quantized = CheckUtils.train(3, new KNSmoother(), corpus);
+		quantized.quantize(8, 8);
+		CheckUtils.check(Arrays.equals(writeArpa(lm), writeArpa(quantized)), "Quantizing a small model changed its ARPA file");
+		for(String[] sent : CheckUtils.split(corpus))
+			CheckUtils.checkSame(lm.getSentenceProb(sent), quantized.getSentenceProb(sent), "the score of a sentence of a small quantized model");
+		// a larger model, which has more values than codes
+		lm = CheckUtils.train(3, 1);
+		lm.quantize(12, 8);
+		NgramTrie trie = lm.getTrie();
+		Vector<HashSet<Float>> scores = new Vector<HashSet<Float>>(), backoffs = new Vector<HashSet<Float>>();
+		for(int i = 0; i <= trie.getN(); i++) {
+			scores.add(new HashSet<Float>());
+			backoffs.add(new HashSet<Float>());
+		}
+		addValues(trie, trie.getRoot(), 0, scores, backoffs);
+		for(int i = 1; i <= trie.getN(); i++) {
+			CheckUtils.check(scores.get(i).size() <= 1 << 12, "Level "+i+" of a model quantized to 12 bits has "+scores.get(i).size()+" scores");
+			if(i < trie.getN())
+				CheckUtils.check(backoffs.get(i).size() <= 1 << 8, "Level "+i+" of a model quantized to 8 bits has "+backoffs.get(i).size()+" backoffs");
+		}
+		CheckUtils.check(scores.get(trie.getN()).size() > 1 << 8, "The scores of the top level were not kept to 12 bits");
+	}
+
+	private static void check(float[] vals, int bits, String name) {
+		float[] book = QuantizedNgramTrie.makeCodebook(vals, bits);
+		float[] distinct = QuantizedNgramTrie.getDistinct(vals);
+		CheckUtils.check(book.length <= 1 << bits, "The codebook of "+name+" has "+book.length+" codes");
+		CheckUtils.check(vals.length == 0 || book.length > 0, "The codebook of "+name+" is empty");
+		if(distinct.length > 1 && distinct[0] == Float.NEGATIVE_INFINITY)
+			CheckUtils.check(book[0] == Float.NEGATIVE_INFINITY, "The codebook of "+name+" lost -Infinity");
+		boolean finite = false, finiteCode = false;
+		for(float val : vals)
+			finite |= Math.abs(val) < Float.POSITIVE_INFINITY;
+		for(float code : book)
+			finiteCode |= Math.abs(code) < Float.POSITIVE_INFINITY;
+		CheckUtils.check(finite == finiteCode, "The codebook of "+name+" has no code for the finite values");
+		for(int i = 1; i < book.length; i++)
+			CheckUtils.check(Float.compare(book[i-1], book[i]) <= 0, "The codebook of "+name+" is not sorted");
+		BitArray codes = QuantizedNgramTrie.encode(vals, book);
+		for(int i = 0; i < vals.length; i++) {
+			float val = book[(int)codes.get(i)];
+			if(distinct.length <= 1 << bits || (bits > 1 && !(Math.abs(vals[i]) < Float.POSITIVE_INFINITY))) {
+				// values that fit, and values that are not finite when there
+				//  are enough codes for all of them, are exact
+				CheckUtils.check(Float.compare(vals[i], val) == 0, "Value "+i+" of "+name+" is "+val+" instead of "+vals[i]);
+			} else if(i % 11 == 0 && Math.abs(vals[i]) < Float.POSITIVE_INFINITY) {
+				// other finite values are encoded as the closest code
+				for(float code : book)
+					if(Math.abs(code) < Float.POSITIVE_INFINITY)
+						CheckUtils.check(Math.abs(vals[i]-val) <= Math.abs(vals[i]-code), "Value "+i+" of "+name+" is "+val+" instead of "+code+" for "+vals[i]);
+			}
+		}
+	}
+
+	// add the scores and backoffs of every n-gram under a node
+	private static void addValues(NgramTrie trie, long node, int lev, Vector<HashSet<Float>> scores, Vector<HashSet<Float>> backoffs) {
+		if(lev > 0) {
+			scores.get(lev).add(trie.getScore(node));
+			if(lev < trie.getN())
+				backoffs.get(lev).add(trie.getBackoffScore(node));
+		}
+		if(lev == trie.getN() || !trie.hasChildren(node))
+			return;
+		long end = NgramTrie.getIndex(trie.getChildEnd(node));
+		for(long i = NgramTrie.getIndex(trie.getChildBegin(node)); i < end; i++) {
+			long child = NgramTrie.getHandle(lev+1, i);
+			if(trie.getId(child) != -1)
+				addValues(trie, child, lev+1, scores, backoffs);
+		}
+	}
+
+	private static byte[] writeArpa(NgramLM lm) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new ArpaNgramWriter().write(lm, os);
+		return os.toByteArray();
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReference;
+
+import kylm.model.LanguageModel;
+import kylm.model.ngram.NgramLM;
+
+/**
+ * Check that a read-only model gives the same scores as one that adds
+ *  unknown words to its vocabulary, with any size of unknown word cache
+ *  and from several threads at once, while leaving its vocabulary and
+ *  that of its unknown word model unchanged
+ * @author neubig
+ *
+ */
+public class ReadOnlyCheck {
+
+	public static void main(String[] args) throws Exception {
+		// the test words go beyond the training words, which are also
+		//  unknown if they were seen only once
+		final String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 2000, 1500));
+		NgramLM writable = CheckUtils.trainWithSpelling(3, 1);
+		final float[] expected = new float[test.length];
+		for(int i = 0; i < test.length; i++)
+			expected[i] = writable.getSentenceProb(test[i]);
+		int[] cacheSizes = { 1, 10, 100000 };
+		for(int cacheSize : cacheSizes) {
+			final NgramLM lm = CheckUtils.trainWithSpelling(3, 1);
+			lm.setReadOnly(true);
+			lm.setUnknownCacheSize(cacheSize);
+			LanguageModel spelling = lm.getUnknownModels()[0];
+			int size = lm.getVocab().getSize(), spellingSize = spelling.getVocab().getSize();
+			Vector<String> unknown = new Vector<String>();
+			for(String[] sent : test)
+				for(String word : sent)
+					if(lm.getVocab().findId(word) == -1)
+						unknown.add(word);
+			CheckUtils.check(unknown.size() > 0, "The test set has no unknown words");
+			final String name = "a read-only model with an unknown word cache of "+cacheSize;
+			for(int i = 0; i < test.length; i++)
+				CheckUtils.checkSame(expected[i], lm.getSentenceProb(test[i]), "the score of sentence "+i+" with "+name);
+			// score from several threads, which share the caches
+			final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+			Thread[] threads = new Thread[4];
+			for(int t = 0; t < threads.length; t++) {
+				final int start = t;
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							for(int i = start; i < test.length; i += 2)
+								CheckUtils.checkSame(expected[i], lm.getSentenceProb(test[i]), "the score of sentence "+i+" with "+name+" on several threads");
+						} catch(Throwable e) {
+							error.compareAndSet(null, e);
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for(Thread thread : threads)
+				thread.join();
+			if(error.get() != null)
+				throw new IllegalStateException(error.get());
+			CheckUtils.check(lm.getVocab().getSize() == size && spelling.getVocab().getSize() == spellingSize, "Scoring changed the vocabulary of "+name);
+			for(String word : unknown)
+				CheckUtils.check(lm.getVocab().findId(word) == -1, "Scoring added "+word+" to the vocabulary of "+name);
+		}
+	}
+
+}
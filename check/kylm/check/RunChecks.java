@@ -0,0 +1,84 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+/**
+ * Run every check, stopping at the first that fails
+ * @author neubig
+ *
+ */
+public class RunChecks {
+
+	public static void main(String[] args) throws Exception {
+		long time = System.currentTimeMillis();
+		System.out.println("NgramCacheCheck");
+		NgramCacheCheck.main(args);
+		System.out.println("ScoreBatchCheck");
+		ScoreBatchCheck.main(args);
+		System.out.println("PrefixCompleterCheck");
+		PrefixCompleterCheck.main(args);
+		System.out.println("SentenceProbCheck");
+		SentenceProbCheck.main(args);
+		System.out.println("FallbackCheck");
+		FallbackCheck.main(args);
+		System.out.println("TrieLayoutCheck");
+		TrieLayoutCheck.main(args);
+		System.out.println("EliasFanoCheck");
+		EliasFanoCheck.main(args);
+		System.out.println("BranchNodeCheck");
+		BranchNodeCheck.main(args);
+		System.out.println("SymbolSetCheck");
+		SymbolSetCheck.main(args);
+		System.out.println("ReadOnlyCheck");
+		ReadOnlyCheck.main(args);
+		System.out.println("ClassMapCheck");
+		ClassMapCheck.main(args);
+		System.out.println("NbestRescorerCheck");
+		NbestRescorerCheck.main(args);
+		System.out.println("NextWordCheck");
+		NextWordCheck.main(args);
+		System.out.println("LatticeCheck");
+		LatticeCheck.main(args);
+		System.out.println("SpellingCheck");
+		SpellingCheck.main(args);
+		System.out.println("ShardedCountCheck");
+		ShardedCountCheck.main(args);
+		System.out.println("FreezeCheck");
+		FreezeCheck.main(args);
+		System.out.println("ScoreSentenceCheck");
+		ScoreSentenceCheck.main(args);
+		System.out.println("StateCheck");
+		StateCheck.main(args);
+		System.out.println("CrossEntropyCheck");
+		CrossEntropyCheck.main(args);
+		System.out.println("MultiModelCheck");
+		MultiModelCheck.main(args);
+		System.out.println("QuantizeCheck");
+		QuantizeCheck.main(args);
+		System.out.println("HashedTrieCheck");
+		HashedTrieCheck.main(args);
+		System.out.println("ClockCacheCheck");
+		ClockCacheCheck.main(args);
+		System.out.println("All checks passed - "+(System.currentTimeMillis()-time)+" ms");
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.smoother.KNSmoother;
+
+/**
+ * Check that NgramLM.scoreBatch() gives the same scores as score(), and
+ *  that it allocates nothing once the model is ready, even for words that
+ *  are scored as unknown words
+ * @author neubig
+ *
+ */
+public class ScoreBatchCheck {
+
+	public static void main(String[] args) throws Exception {
+		// a vocabulary with words that never occur, which have no unigram,
+		//  and without the rarer words, which become unknown words
+		String[] vocab = new String[850];
+		for(int i = 0; i < 800; i++)
+			vocab[i] = "w"+i;
+		for(int i = 800; i < vocab.length; i++)
+			vocab[i] = "x"+i;
+		NgramLM lm = new NgramLM(3, new KNSmoother());
+		lm.setVocabulary(vocab);
+		lm = CheckUtils.train(lm, CheckUtils.makeCorpus(1, 3000, 1000));
+		lm.pack();
+		lm.setReadOnly(true);
+		// lay out the test sentences, some words of which have no unigram
+		String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 500, 900));
+		for(int i = 0; i < test.length; i += 3)
+			test[i][0] = "x"+(800+i%50);
+		int[] offsets = new int[test.length+1];
+		for(int i = 0; i < test.length; i++)
+			offsets[i+1] = offsets[i]+test[i].length+2;
+		int[] ids = new int[offsets[test.length]];
+		for(int i = 0; i < test.length; i++)
+			lm.getSentenceIds(test[i], ids, offsets[i]);
+		float[] tokenScores = new float[ids.length], sentenceScores = new float[test.length];
+		lm.scoreBatch(ids, offsets, test.length, tokenScores, sentenceScores);
+		// compare with scoring word by word
+		long[] state = new long[1];
+		for(int i = 0; i < test.length; i++) {
+			state[0] = lm.getStartState();
+			float total = 0;
+			for(int j = offsets[i]+1; j < offsets[i+1]; j++) {
+				float score = lm.score(state[0], ids[j], state);
+				CheckUtils.checkSame(score, tokenScores[j], "the score of word "+j);
+				total += score;
+			}
+			CheckUtils.checkSame(total, sentenceScores[i], "the score of sentence "+i);
+		}
+		// count the bytes allocated while scoring many times
+		long before = CheckUtils.getAllocatedBytes();
+		if(before == -1) {
+			System.out.println("  the allocations of threads cannot be counted by this virtual machine");
+			return;
+		}
+		final int rounds = 2000;
+		for(int r = 0; r < rounds; r++)
+			lm.scoreBatch(ids, offsets, test.length, tokenScores, sentenceScores);
+		long allocated = CheckUtils.getAllocatedBytes()-before;
+		// allow for the bytes allocated by counting them
+		CheckUtils.check(allocated < 1024, "scoreBatch() allocated "+allocated+" bytes over "+rounds+" calls");
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import kylm.model.SentenceScores;
+import kylm.model.ngram.NgramLM;
+
+/**
+ * Check that scoreSentence() gives the same entropies as the older
+ *  getWordEntropies() interface, when the scores are reused for sentences
+ *  of other lengths, and from several threads sharing one read-only model,
+ *  and that the coverage counted by several threads is the same as by one
+ * @author neubig
+ *
+ */
+public class ScoreSentenceCheck {
+
+	public static void main(String[] args) throws Exception {
+		final String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 1000, 1500));
+		boolean[] packs = { false, true };
+		for(boolean pack : packs) {
+			final String name = (pack ? "a packed model" : "a tree");
+			NgramLM lm = makeModel(pack);
+			// the older interface, which remembers the last sentence
+			final float[][][] expected = new float[test.length][][];
+			for(int i = 0; i < test.length; i++) {
+				float[] word = lm.getWordEntropies(test[i]).clone();
+				expected[i] = new float[][] { word, lm.getSimpleEntropies().clone(), lm.getClassEntropies().clone(), lm.getUnknownEntropies().clone() };
+			}
+			// new scores, and reused scores in reverse order
+			for(int i = 0; i < test.length; i++)
+				check(expected[i], lm.scoreSentence(test[i]), "sentence "+i+" with "+name);
+			SentenceScores scores = null;
+			for(int i = test.length-1; i >= 0; i--) {
+				scores = lm.scoreSentence(test[i], scores);
+				check(expected[i], scores, "sentence "+i+" with reused scores and "+name);
+			}
+			// score once on one thread and once on several
+			NgramLM single = makeModel(pack);
+			for(int i = 0; i < test.length; i++)
+				single.scoreSentence(test[i]);
+			final NgramLM shared = makeModel(pack);
+			final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+			Thread[] threads = new Thread[4];
+			for(int t = 0; t < threads.length; t++) {
+				final int start = t, step = threads.length;
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							SentenceScores scores = null;
+							for(int i = start; i < test.length; i += step) {
+								scores = shared.scoreSentence(test[i], scores);
+								check(expected[i], scores, "sentence "+i+" with "+name+" on several threads");
+							}
+						} catch(Throwable e) {
+							error.compareAndSet(null, e);
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for(Thread thread : threads)
+				thread.join();
+			if(error.get() != null)
+				throw new IllegalStateException(error.get());
+			CheckUtils.check(single.printReport().equals(shared.printReport()), "The coverage of "+name+" on several threads is "+shared.printReport()+" instead of "+single.printReport());
+		}
+	}
+
+	private static NgramLM makeModel(boolean pack) throws Exception {
+		NgramLM lm = CheckUtils.trainWithSpelling(3, 1);
+		if(pack)
+			lm.pack();
+		lm.setReadOnly(true);
+		return lm;
+	}
+
+	private static void check(float[][] expected, SentenceScores scores, String name) {
+		CheckUtils.check(scores.getLength() == expected[0].length, "The scores of "+name+" have "+scores.getLength()+" words instead of "+expected[0].length);
+		float[][] actual = { scores.getWordEntropies(), scores.getSimpleEntropies(), scores.getClassEntropies(), scores.getUnknownEntropies() };
+		String[] types = { "word", "simple", "class", "unknown" };
+		for(int t = 0; t < types.length; t++)
+			for(int i = 0; i < expected[t].length; i++)
+				CheckUtils.checkSame(expected[t][i], actual[t][i], "the "+types[t]+" entropy of word "+i+" of "+name);
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Vector;
+
+import kylm.main.SentenceProb;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.smoother.KNSmoother;
+
+/**
+ * Check that SentenceProb writes the same results with any number of
+ *  threads, and that when a sentence cannot be scored, every sentence
+ *  before it is still written before the error is passed on
+ * @author neubig
+ *
+ */
+public class SentenceProbCheck {
+
+	public static void main(String[] args) throws Exception {
+		// a vocabulary without singletons gives a closed model
+		NgramLM lm = CheckUtils.train(3, new KNSmoother(), CheckUtils.makeCorpus(1, 3000, 500));
+		lm.setReadOnly(true);
+		String[][] test = CheckUtils.split(CheckUtils.makeCorpus(3, 1000, 500));
+		// the expected results with a single thread
+		byte[] expected = score(lm, Arrays.asList(test), 1);
+		CheckUtils.check(count(expected) == test.length, "Wrote "+count(expected)+" lines for "+test.length+" sentences");
+		for(int threads = 2; threads <= 4; threads++)
+			CheckUtils.check(Arrays.equals(expected, score(lm, Arrays.asList(test), threads)), "The results with "+threads+" threads differ");
+		// an unknown word in the middle of the third chunk
+		final int bad = 600;
+		Vector<String[]> failing = new Vector<String[]>(Arrays.asList(test));
+		String[] sent = Arrays.copyOf(test[bad], test[bad].length+1);
+		sent[sent.length-1] = "unknown";
+		failing.set(bad, sent);
+		for(int threads = 1; threads <= 4; threads++) {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			try {
+				SentenceProb.scoreSentences(lm, failing, os, SentenceProb.TSV_FORMAT, threads);
+				CheckUtils.check(false, "An unknown word was scored in a closed model");
+			} catch(IllegalArgumentException e) {
+				// this is the error that scoring the sentence gives
+			}
+			byte[] written = os.toByteArray();
+			CheckUtils.check(count(written) == bad, "Wrote "+count(written)+" lines before an error at sentence "+bad+" with "+threads+" threads");
+			CheckUtils.check(Arrays.equals(Arrays.copyOf(expected, written.length), written), "The results before an error differ with "+threads+" threads");
+		}
+	}
+
+	private static byte[] score(NgramLM lm, Iterable<String[]> sents, int threads) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SentenceProb.scoreSentences(lm, sents, os, SentenceProb.TSV_FORMAT, threads);
+		return os.toByteArray();
+	}
+
+	private static int count(byte[] text) {
+		int lines = 0;
+		for(byte b : text)
+			if(b == '\n')
+				lines++;
+		return lines;
+	}
+
+}
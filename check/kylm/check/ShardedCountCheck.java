@@ -0,0 +1,126 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import kylm.model.ClassMap;
+import kylm.model.LanguageModel;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.smoother.AbsoluteSmoother;
+import kylm.model.ngram.smoother.GTSmoother;
+import kylm.model.ngram.smoother.KNSmoother;
+import kylm.model.ngram.smoother.MKNSmoother;
+import kylm.model.ngram.smoother.MLSmoother;
+import kylm.model.ngram.smoother.NgramSmoother;
+import kylm.model.ngram.smoother.WBSmoother;
+import kylm.model.ngram.writer.ArpaNgramWriter;
+import kylm.model.ngram.writer.SerializedNgramWriter;
+import kylm.reader.TextArraySentenceReader;
+import kylm.reader.TextStreamClassMapReader;
+
+/**
+ * Check that counting n-grams with several threads gives the same model
+ *  as counting them with one, written out as ARPA and in the binary
+ *  format, for each smoother, with trimming, classes and unknown word
+ *  models, and for a corpus that spans several batches
+ * @author neubig
+ *
+ */
+public class ShardedCountCheck {
+
+	public static void main(String[] args) throws Exception {
+		String[] corpus = CheckUtils.makeCorpus(1, 2000, 1000);
+		String[] names = { "kn", "mkn", "wb", "gt", "ml", "abs", "trimmed kn", "class", "unknown" };
+		byte[][] expected;
+		for(String name : names) {
+			expected = null;
+			for(int threads = 1; threads <= 3; threads++) {
+				NgramLM lm = makeModel(name, corpus);
+				lm.setCountThreads(threads);
+				byte[][] written = write(CheckUtils.train(lm, corpus));
+				if(expected == null)
+					expected = written;
+				else
+					check(expected, written, "a "+name+" model counted with "+threads+" threads");
+			}
+		}
+		// a corpus of several batches of ids, which is only counted, as the
+		//  smoothing takes much longer
+		corpus = CheckUtils.makeCorpus(2, 80000, 5000);
+		expected = null;
+		for(int threads = 1; threads <= 3; threads += 2) {
+			NgramLM lm = new NgramLM(3);
+			lm.setCountThreads(threads);
+			lm.countNgrams(new TextArraySentenceReader(corpus));
+			byte[][] written = write(lm);
+			if(expected == null)
+				expected = written;
+			else
+				check(expected, written, "a large model counted with "+threads+" threads");
+		}
+	}
+
+	private static NgramLM makeModel(String name, String[] corpus) throws Exception {
+		NgramSmoother smoother = (name.equals("mkn") ? new MKNSmoother() : name.equals("gt") ? new GTSmoother() :
+			name.equals("ml") ? new MLSmoother() : name.equals("abs") ? new AbsoluteSmoother() :
+			name.equals("wb") || name.equals("class") ? new WBSmoother() : new KNSmoother());
+		if(name.equals("trimmed kn"))
+			smoother.setCutoffs(new int[] { 0, 1, 1 });
+		NgramLM lm = new NgramLM(3, smoother);
+		lm.setVocabFrequency(1);
+		if(name.equals("class")) {
+			StringBuilder classes = new StringBuilder();
+			for(int i = 0; i < 1000; i++)
+				classes.append('c').append(i % 20).append(" w").append(i).append('\n');
+			lm.setVocabFrequency(0);
+			ClassMap cm = new TextStreamClassMapReader(new ByteArrayInputStream(classes.toString().getBytes("UTF-8")))
+				.readClassMap(lm.getVocab(), lm.getUnknownModelCount()+2, false);
+			cm.getClasses().addAlias(lm.getTerminalSymbol(), lm.getId(lm.getStartSymbol()));
+			lm.setClassMap(cm);
+		} else if(name.equals("unknown")) {
+			NgramLM spelling = new NgramLM(2, new WBSmoother());
+			spelling.setSymbol("<unk>");
+			spelling.setVocabLimit(5000);
+			lm.setUnknownModels(new LanguageModel[] { spelling });
+		}
+		return lm;
+	}
+
+	// write a model as ARPA, where it has been smoothed and can be listed,
+	//  and in the binary format
+	private static byte[][] write(NgramLM lm) throws Exception {
+		ByteArrayOutputStream arpa = new ByteArrayOutputStream(), bin = new ByteArrayOutputStream();
+		if(lm.getSmoother() != null && lm.getClassMap() == null)
+			new ArpaNgramWriter().write(lm, arpa);
+		new SerializedNgramWriter().write(lm, bin);
+		return new byte[][] { arpa.toByteArray(), bin.toByteArray() };
+	}
+
+	private static void check(byte[][] expected, byte[][] actual, String name) {
+		CheckUtils.check(Arrays.equals(expected[0], actual[0]), "The ARPA file of "+name+" is different from one thread");
+		CheckUtils.check(Arrays.equals(expected[1], actual[1]), "The binary file of "+name+" is different from one thread");
+	}
+
+}
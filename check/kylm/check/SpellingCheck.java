@@ -0,0 +1,109 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.smoother.WBSmoother;
+import kylm.util.KylmTextUtils;
+
+/**
+ * Check that a packed unknown word model scores spellings with
+ *  scoreChars() the same as an unpacked one and as scoring the split
+ *  characters, including characters that are unknown or outside of the
+ *  basic multilingual plane, that a model with packed unknown word models
+ *  scores the same with any size of spelling cache, and that scoring the
+ *  spelling of a word whose characters are all known allocates nothing
+ * @author neubig
+ *
+ */
+public class SpellingCheck {
+
+	public static void main(String[] args) throws Exception {
+		String[] split = KylmTextUtils.splitChars("a\ud83d\ude00\u65e5b");
+		CheckUtils.check(split.length == 4 && split[1].equals("\ud83d\ude00"), "splitChars() split a character outside of the BMP");
+
+		// a spelling model of words with some uncommon characters, and
+		//  characters seen once, which make the model open
+		String[] words = CheckUtils.makeCorpus(1, 300, 1000);
+		String[] extra = { "\u65e5", "\ud83d\ude00" }, once = { "\u00e9", "\ud83d\ude01", "q" };
+		for(int i = 0; i < words.length; i += 7)
+			words[i] = words[i]+extra[i%extra.length];
+		for(int i = 0; i < once.length; i++)
+			words[i+1] = once[i]+words[i+1];
+		String[] corpus = new String[words.length];
+		for(int i = 0; i < words.length; i++)
+			corpus[i] = KylmTextUtils.join(" ", KylmTextUtils.splitChars(words[i].replace(" ", "_")));
+		NgramLM tree = makeSpelling(corpus), packed = makeSpelling(corpus);
+		packed.pack();
+		tree.setReadOnly(true);
+		packed.setReadOnly(true);
+		String[] test = { "w12", "w999", "w_1", "x", "\u00e9w", "w\ud83d\ude00", "\ud83d\ude01\ud83d\ude00", "\ud83d\ude02", "\u672cw1", "zz\u65e5" };
+		for(String word : test) {
+			float expected = tree.scoreChars(word);
+			CheckUtils.checkSame(expected, packed.scoreSentence(KylmTextUtils.splitChars(word)).getSentenceEntropy(), "the entropy of the split characters of "+word);
+			CheckUtils.checkSame(expected, packed.scoreChars(word), "the entropy of the characters of "+word+" in a packed model");
+		}
+
+		// a model whose unknown word model is packed, with spelling caches of
+		//  any size
+		String[][] sents = CheckUtils.split(CheckUtils.makeCorpus(7, 1000, 1500));
+		NgramLM writable = CheckUtils.trainWithSpelling(3, 1);
+		float[] expected = new float[sents.length];
+		for(int i = 0; i < sents.length; i++)
+			expected[i] = writable.getSentenceProb(sents[i]);
+		int[] cacheSizes = { 1, 10, 100000 };
+		for(int cacheSize : cacheSizes) {
+			NgramLM lm = CheckUtils.trainWithSpelling(3, 1);
+			lm.pack();
+			((NgramLM)lm.getUnknownModels()[0]).pack();
+			lm.setReadOnly(true);
+			lm.setSpellingCacheSize(cacheSize);
+			for(int r = 0; r < 2; r++)
+				for(int i = 0; i < sents.length; i++)
+					CheckUtils.checkSame(expected[i], lm.getSentenceProb(sents[i]), "the score of sentence "+i+" with a spelling cache of "+cacheSize);
+		}
+
+		// count the bytes allocated while scoring known characters
+		for(int i = 0; i < 100; i++)
+			packed.scoreChars(test[i%2]);
+		long before = CheckUtils.getAllocatedBytes();
+		if(before == -1) {
+			System.out.println("  the allocations of threads cannot be counted by this virtual machine");
+			return;
+		}
+		final int rounds = 100000;
+		for(int i = 0; i < rounds; i++)
+			packed.scoreChars(test[i%3]);
+		long allocated = CheckUtils.getAllocatedBytes()-before;
+		// allow for the bytes allocated by counting them
+		CheckUtils.check(allocated < 1024, "scoreChars() allocated "+allocated+" bytes over "+rounds+" calls");
+	}
+
+	private static NgramLM makeSpelling(String[] corpus) throws Exception {
+		NgramLM ret = new NgramLM(3, new WBSmoother());
+		ret.setSymbol("<unk>");
+		ret.setVocabLimit(5000);
+		ret.setVocabFrequency(1);
+		return CheckUtils.train(ret, corpus);
+	}
+
+}
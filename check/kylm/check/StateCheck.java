@@ -0,0 +1,108 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.NgramTrie;
+import kylm.model.ngram.reader.ArpaNgramReader;
+import kylm.model.ngram.reader.MappedNgramReader;
+import kylm.model.ngram.reader.NgramReader;
+import kylm.model.ngram.writer.ArpaNgramWriter;
+import kylm.model.ngram.writer.MappedNgramWriter;
+
+/**
+ * Check that scoring word by word with NgramLM.score() gives the same
+ *  score to each word as scoreSentence() does with the whole sentence,
+ *  and that each state is the longest suffix of the words so far that is
+ *  a context with all of its suffixes, on each layout of the model
+ * @author neubig
+ *
+ */
+public class StateCheck {
+
+	public static void main(String[] args) throws Exception {
+		NgramLM lm = CheckUtils.train(4, 1);
+		lm.pack();
+		lm.setReadOnly(true);
+		String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 1000, 1500));
+		check(lm, test, "a packed model");
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new ArpaNgramWriter().write(lm, os);
+		byte[] arpa = os.toByteArray();
+		int[] storages = { NgramReader.PACKED_STORAGE, NgramReader.HASH_STORAGE, NgramReader.SUCCINCT_STORAGE, NgramReader.OFFHEAP_STORAGE };
+		String[] names = { "packed", "hashed", "succinct", "off-heap" };
+		for(int i = 0; i < storages.length; i++) {
+			NgramReader reader = new ArpaNgramReader();
+			reader.setStorage(storages[i]);
+			NgramLM read = reader.read(new ByteArrayInputStream(arpa));
+			read.setReadOnly(true);
+			check(read, test, "a "+names[i]+" model read from ARPA");
+		}
+		os = new ByteArrayOutputStream();
+		new MappedNgramWriter().write(lm, os);
+		NgramLM mapped = new MappedNgramReader().read(new ByteArrayInputStream(os.toByteArray()));
+		mapped.setReadOnly(true);
+		check(mapped, test, "a mapped model");
+	}
+
+	private static void check(NgramLM lm, String[][] test, String name) {
+		NgramTrie trie = lm.getTrie();
+		long[] next = new long[1];
+		for(int s = 0; s < test.length; s++) {
+			float[] expected = lm.scoreSentence(test[s]).getWordEntropies();
+			int[] ids = lm.getSentenceIds(test[s]);
+			long state = lm.getStartState();
+			for(int i = 1; i < ids.length; i++) {
+				String where = "word "+i+" of sentence "+s+" with "+name;
+				CheckUtils.check(state == findState(trie, ids, i), "The state before "+where+" is not the longest context");
+				CheckUtils.checkSame(expected[i-1], lm.score(state, ids[i], next), "the score of "+where);
+				state = next[0];
+			}
+		}
+		// the empty state gives the unigram scores
+		long root = lm.getNullState();
+		for(int id = 0; id < lm.getVocab().getSize(); id++) {
+			long unigram = trie.getChild(root, id);
+			if(unigram != NgramTrie.NONE)
+				CheckUtils.checkSame(trie.getScore(unigram), lm.score(root, id, null), "the score of word "+id+" in the empty state of "+name);
+		}
+	}
+
+	// find the longest suffix of the first words of a sentence that has
+	//  children and all of whose suffixes exist
+	private static long findState(NgramTrie trie, int[] ids, int end) {
+		for(int start = Math.max(0, end-trie.getN()+1); start < end; start++) {
+			long node = trie.findNgram(ids, start, end);
+			if(node == NgramTrie.NONE || !trie.hasChildren(node))
+				continue;
+			int i;
+			for(i = start+1; i < end && trie.findNgram(ids, i, end) != NgramTrie.NONE; i++);
+			if(i == end)
+				return node;
+		}
+		return trie.getRoot();
+	}
+
+}
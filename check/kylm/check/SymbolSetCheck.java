@@ -0,0 +1,219 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Vector;
+
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.reader.MappedNgramReader;
+import kylm.model.ngram.writer.MappedNgramWriter;
+import kylm.util.SymbolSet;
+
+/**
+ * Check that a SymbolSet, and the MappedSymbolSet of a mapped model, find
+ *  the same ids as a HashMap, for symbols with characters of every UTF-8
+ *  length, aliases and pushed symbols, looked up as Strings, slices of
+ *  CharSequences and slices of UTF-8 bytes, and after being written out
+ *  and read back in. Unpaired surrogates must be kept as they are, and the
+ *  deprecated ids and syms fields must show the same symbols.
+ * @author neubig
+ *
+ */
+public class SymbolSetCheck {
+
+	// characters that take one to four bytes in UTF-8, and unpaired
+	//  surrogates, which must not be confused with '?'
+	private static final String[] CHARS = { "a", "z", "0", "_", "?", "\u00e9", "\u00df", "\u65e5", "\u672c", "\ud83d\ude00", "\ud800", "\udfff" };
+
+	@SuppressWarnings("deprecation")
+	public static void main(String[] args) throws Exception {
+		Random rand = new Random(1);
+		SymbolSet set = new SymbolSet();
+		Vector<String> symbols = new Vector<String>();
+		HashMap<String,Integer> ids = new HashMap<String,Integer>();
+		HashSet<String> aliases = new HashSet<String>();
+		for(int i = 0; i < set.getSize(); i++) {
+			symbols.add(set.getSymbol(i));
+			ids.put(set.getSymbol(i), i);
+		}
+		for(int r = 0; r < 20000; r++) {
+			String sym = makeSymbol(rand);
+			if(r % 20 == 0 && !ids.containsKey(sym) && symbols.size() > 0) {
+				// make an alias of an existing id
+				int id = rand.nextInt(symbols.size());
+				set.addAlias(sym, id);
+				ids.put(sym, id);
+				aliases.add(sym);
+			} else {
+				int id = set.addSymbol(sym);
+				if(!ids.containsKey(sym)) {
+					symbols.add(sym);
+					ids.put(sym, symbols.size()-1);
+				}
+				CheckUtils.check(id == ids.get(sym), "Adding "+sym+" gave id "+id+" instead of "+ids.get(sym));
+			}
+		}
+		check(set, symbols, ids, rand, "a symbol set");
+		// unpaired surrogates are not '?', and are encoded as UTF-8 is
+		//  otherwise
+		int surrogate = set.addSymbol("a\ud800"), question = set.addSymbol("a?");
+		CheckUtils.check(surrogate != question, "a\\ud800 and a? have the same id");
+		for(String sym : new String[] { "a\ud800", "a?", "\udc00\ud800", "\ud83d\ude00" }) {
+			SymbolSet one = new SymbolSet();
+			one.addSymbol(sym);
+			CheckUtils.check(one.getSymbol(0).equals(sym), "A symbol with unpaired surrogates was changed");
+			byte[] b = SymbolSet.encode(sym);
+			CheckUtils.check(SymbolSet.decode(java.nio.ByteBuffer.wrap(b), 0, b.length).equals(sym), "Decoding the bytes of a symbol changed it");
+		}
+		for(int r = 0; r < 1000; r++) {
+			String sym = makeSymbol(rand);
+			if(sym.indexOf('\ud800') == -1 && sym.indexOf('\udfff') == -1)
+				CheckUtils.check(Arrays.equals(SymbolSet.encode(sym), sym.getBytes(SymbolSet.UTF8)), "The bytes of "+sym+" are not UTF-8");
+		}
+		if(!ids.containsKey("a\ud800")) {
+			symbols.add("a\ud800");
+			ids.put("a\ud800", surrogate);
+		}
+		if(!ids.containsKey("a?")) {
+			symbols.add("a?");
+			ids.put("a?", question);
+		}
+		checkViews(set, symbols, ids, true, "a symbol set");
+		// the decoded symbols are kept
+		CheckUtils.check(set.getSymbol(symbols.size()-1) == set.getSymbol(symbols.size()-1), "getSymbol() decoded a symbol twice");
+		// write the set out and read it back in
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(set);
+		out.close();
+		SymbolSet read = (SymbolSet)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		CheckUtils.check(read.equals(set), "Reading in a symbol set gives a different set");
+		check(read, symbols, ids, rand, "a read symbol set");
+		// push symbols again, which gives them a second id but leaves
+		//  them pointing to the first
+		for(int r = 0; r < 100; r++) {
+			String sym = symbols.get(rand.nextInt(symbols.size()));
+			if(aliases.contains(sym))
+				continue;
+			symbols.add(sym);
+			CheckUtils.check(set.pushSymbol(sym) == symbols.size()-1, "Pushing "+sym+" gave the wrong id");
+		}
+		check(set, symbols, ids, rand, "a symbol set with pushed symbols");
+		// map a model after adding aliases to its vocabulary
+		NgramLM lm = CheckUtils.train(2, 1);
+		SymbolSet vocab = lm.getVocab();
+		symbols.clear();
+		ids.clear();
+		// the terminal symbol is an alias of the start symbol that has been
+		//  pushed, so take the ids of the model's own symbols from it
+		for(int i = 0; i < vocab.getSize(); i++) {
+			symbols.add(vocab.getSymbol(i));
+			ids.put(vocab.getSymbol(i), vocab.findId(vocab.getSymbol(i)));
+		}
+		for(int r = 0; r < 2000; r++) {
+			String sym = makeSymbol(rand);
+			if(!ids.containsKey(sym)) {
+				int id = rand.nextInt(symbols.size());
+				vocab.addAlias(sym, id);
+				ids.put(sym, id);
+			}
+		}
+		check(vocab, symbols, ids, rand, "a model vocabulary");
+		ByteArrayOutputStream mapped = new ByteArrayOutputStream();
+		new MappedNgramWriter().write(lm, mapped);
+		SymbolSet mappedVocab = new MappedNgramReader().read(new ByteArrayInputStream(mapped.toByteArray())).getVocab();
+		check(mappedVocab, symbols, ids, rand, "a mapped vocabulary");
+		// the model's vocabulary has aliases of its own, for words that were
+		//  not kept
+		checkViews(vocab, symbols, ids, false, "a model vocabulary");
+		checkViews(mappedVocab, symbols, new HashMap<String,Integer>(vocab.ids), true, "a mapped vocabulary");
+		// symbols added through the deprecated fields, as older code did
+		SymbolSet old = new SymbolSet();
+		for(String sym : new String[] { "x", "y", "x", "z\udbff" }) {
+			old.syms.add(sym);
+			old.ids.put(sym, old.syms.size()-1);
+		}
+		old.ids.put("w", 1);
+		CheckUtils.check(old.getSize() == 4 && old.getSymbol(2).equals("x") && old.findId("x") == 2 && old.findId("w") == 1 && old.findId("z\udbff") == 3, "Symbols added through the deprecated fields are wrong");
+	}
+
+	// check the deprecated views of a set, where ids holds all of its keys
+	//  if all is true
+	@SuppressWarnings("deprecation")
+	private static void checkViews(SymbolSet set, Vector<String> symbols, HashMap<String,Integer> ids, boolean all, String name) {
+		CheckUtils.check(set.syms.equals(symbols), "The syms of "+name+" are different");
+		CheckUtils.check(set.syms.size() == symbols.size(), "The syms of "+name+" have the wrong size");
+		int i = 0;
+		for(String sym : set.syms)
+			CheckUtils.check(sym.equals(symbols.get(i++)), "Symbol "+(i-1)+" of the syms of "+name+" is "+sym);
+		if(all) {
+			CheckUtils.check(set.ids.equals(ids), "The ids of "+name+" are different");
+			CheckUtils.check(set.ids.size() == ids.size(), "The ids of "+name+" have the wrong size");
+		}
+		for(String sym : ids.keySet())
+			CheckUtils.check(ids.get(sym).equals(set.ids.get(sym)), "The id of "+sym+" in the ids of "+name+" is "+set.ids.get(sym));
+		CheckUtils.check(set.ids.get("\ud801x") == null && !set.ids.containsKey("\ud801x"), "The ids of "+name+" hold a symbol that was never added");
+	}
+
+	private static String makeSymbol(Random rand) {
+		StringBuilder sb = new StringBuilder();
+		int length = 1+rand.nextInt(3);
+		for(int i = 0; i < length; i++)
+			sb.append(CHARS[rand.nextInt(CHARS.length)]);
+		return sb.toString();
+	}
+
+	// check every symbol and key of the set, and symbols that are not in it
+	private static void check(SymbolSet set, Vector<String> symbols, HashMap<String,Integer> ids, Random rand, String name) {
+		CheckUtils.check(set.getSize() == symbols.size(), name+" has "+set.getSize()+" symbols instead of "+symbols.size());
+		for(int i = 0; i < symbols.size(); i++)
+			CheckUtils.check(symbols.get(i).equals(set.getSymbol(i)), "Symbol "+i+" of "+name+" is "+set.getSymbol(i)+" instead of "+symbols.get(i));
+		for(String sym : ids.keySet())
+			checkId(set, sym, ids.get(sym), name);
+		for(int r = 0; r < 1000; r++) {
+			String sym = makeSymbol(rand)+makeSymbol(rand)+makeSymbol(rand);
+			checkId(set, sym, (ids.containsKey(sym) ? ids.get(sym) : -1), name);
+		}
+	}
+
+	// look up a symbol in every way
+	private static void checkId(SymbolSet set, String sym, int id, String name) {
+		Integer boxed = set.getId(sym);
+		CheckUtils.check((boxed == null ? -1 : boxed) == id, "getId("+sym+") of "+name+" is "+boxed+" instead of "+id);
+		CheckUtils.check(set.findId(sym) == id, "findId("+sym+") of "+name+" is "+set.findId(sym)+" instead of "+id);
+		StringBuilder line = new StringBuilder("x ").append(sym).append(" y");
+		int found = set.findId(line, 2, 2+sym.length());
+		CheckUtils.check(found == id, "findId() of "+sym+" in a line of "+name+" is "+found+" instead of "+id);
+		byte[] b = SymbolSet.encode(line);
+		found = set.findId(b, 2, b.length-2);
+		CheckUtils.check(found == id, "findId() of the bytes of "+sym+" in "+name+" is "+found+" instead of "+id);
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.NgramNode;
+import kylm.model.ngram.reader.ArpaNgramReader;
+import kylm.model.ngram.reader.MappedNgramReader;
+import kylm.model.ngram.reader.NgramReader;
+import kylm.model.ngram.writer.ArpaNgramWriter;
+import kylm.model.ngram.writer.MappedNgramWriter;
+import kylm.model.ngram.writer.NgramWriter;
+import kylm.model.ngram.smoother.KNSmoother;
+
+/**
+ * Check that every way of holding the n-grams gives the same scores and
+ *  writes the same ARPA file as the n-gram tree: packed, hashed, succinct
+ *  and off-heap tries, models mapped from the binary format, and models
+ *  counted off the heap. Quantized models may only change the scores a
+ *  little, and must be the same when compressed or mapped. Counts off the
+ *  heap may be larger than an int, and can then only be read as longs.
+ * @author neubig
+ *
+ */
+public class TrieLayoutCheck {
+
+	public static void main(String[] args) throws Exception {
+		String[] corpus = CheckUtils.makeCorpus(1, 3000, 1000);
+		String[][] test = CheckUtils.split(CheckUtils.makeCorpus(7, 500, 1200));
+		NgramLM tree = CheckUtils.train(3, new KNSmoother(), corpus);
+		tree.setReadOnly(true);
+		byte[] arpa = write(new ArpaNgramWriter(), tree);
+		float[] expected = score(tree, test);
+		checkSame(map(tree), expected, arpa, test, "mapped tree");
+		// read the ARPA file, which rounds the scores, into every storage
+		//  and compare with the tree that it is read into
+		int[] storages = { NgramReader.TREE_STORAGE, NgramReader.PACKED_STORAGE, NgramReader.HASH_STORAGE,
+				NgramReader.SUCCINCT_STORAGE, NgramReader.OFFHEAP_STORAGE };
+		String[] names = { "tree", "packed", "hashed", "succinct", "off-heap" };
+		float[] readExpected = null;
+		byte[] readArpa = null;
+		for(int i = 0; i < storages.length; i++) {
+			ArpaNgramReader reader = new ArpaNgramReader();
+			reader.setStorage(storages[i]);
+			NgramLM lm = reader.read(new ByteArrayInputStream(arpa));
+			if(readExpected == null) {
+				lm.setReadOnly(true);
+				readExpected = score(lm, test);
+				readArpa = write(new ArpaNgramWriter(), lm);
+			}
+			// the n-grams of a hashed trie cannot be listed, so it can only
+			//  be scored
+			if(storages[i] == NgramReader.HASH_STORAGE) {
+				checkSame(lm, readExpected, null, test, "read "+names[i]);
+				continue;
+			}
+			checkSame(lm, readExpected, readArpa, test, "read "+names[i]);
+			checkSame(map(lm), readExpected, readArpa, test, "mapped "+names[i]);
+		}
+		// convert the trained model in memory
+		NgramLM lm = CheckUtils.train(3, new KNSmoother(), corpus);
+		lm.pack();
+		checkSame(lm, expected, arpa, test, "packed in memory");
+		lm.compress();
+		checkSame(lm, expected, arpa, test, "compressed in memory");
+		// count off the heap
+		lm = new NgramLM(3, new KNSmoother());
+		lm.setOffHeap(true);
+		CheckUtils.train(lm, corpus);
+		checkSame(lm, expected, arpa, test, "counted off the heap");
+		// counts can be read as ints while they fit, and only as longs after
+		int[] counts = lm.getNgramCounts();
+		for(int i = 0; i < counts.length; i++)
+			CheckUtils.check(counts[i] == lm.getNgramCountsLong()[i], "The number of n-grams on level "+(i+1)+" is "+counts[i]+" as an int");
+		NgramNode node = lm.getRootNode().getChild(lm.getId("w1"));
+		CheckUtils.check(node.getCount() == node.getCountLong(), "The count of a node is "+node.getCount()+" as an int");
+		node.setCountLong(3000000000L);
+		CheckUtils.check(node.getCountLong() == 3000000000L, "A count off the heap was cut to "+node.getCountLong());
+		try {
+			node.getCount();
+			CheckUtils.check(false, "A count too large for an int was read as one");
+		} catch(IllegalArgumentException e) { }
+		lm.getNgramCountsLong()[0] = 3000000000L;
+		try {
+			lm.getNgramCounts();
+			CheckUtils.check(false, "A number of n-grams too large for an int was read as one");
+		} catch(IllegalArgumentException e) { }
+		lm.setNgramCounts(counts);
+		CheckUtils.check(lm.getNgramCountsLong()[0] == counts[0], "The numbers of n-grams were not set from ints");
+		// quantize, which changes the scores a little on average, and
+		//  compress or map the quantized model
+		lm = CheckUtils.train(3, new KNSmoother(), corpus);
+		lm.quantize(8, 8);
+		float[] quantized = score(lm, test);
+		double diff = 0;
+		int words = 0;
+		for(int i = 0; i < test.length; i++) {
+			diff += Math.abs(quantized[i]-expected[i]);
+			words += test[i].length+1;
+		}
+		CheckUtils.check(diff/words < 0.01, "Quantizing changes the score of each word by "+diff/words+" on average");
+		byte[] quantArpa = write(new ArpaNgramWriter(), lm);
+		checkSame(map(lm), quantized, quantArpa, test, "mapped quantized");
+		lm.compress();
+		checkSame(lm, quantized, quantArpa, test, "compressed quantized");
+		checkSame(map(lm), quantized, quantArpa, test, "mapped compressed quantized");
+	}
+
+	// write the model to the binary format and map it back in
+	private static NgramLM map(NgramLM lm) throws Exception {
+		byte[] mapped = write(new MappedNgramWriter(), lm);
+		return new MappedNgramReader().read(new ByteArrayInputStream(mapped));
+	}
+
+	private static byte[] write(NgramWriter writer, NgramLM lm) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writer.write(lm, os);
+		return os.toByteArray();
+	}
+
+	private static float[] score(NgramLM lm, String[][] test) {
+		float[] ret = new float[test.length];
+		for(int i = 0; i < test.length; i++)
+			ret[i] = lm.getSentenceProb(test[i]);
+		return ret;
+	}
+
+	private static void checkSame(NgramLM lm, float[] expected, byte[] arpa, String[][] test, String name) throws Exception {
+		lm.setReadOnly(true);
+		float[] actual = score(lm, test);
+		for(int i = 0; i < test.length; i++)
+			CheckUtils.checkSame(expected[i], actual[i], "the "+name+" score of sentence "+i);
+		if(arpa != null)
+			CheckUtils.check(Arrays.equals(arpa, write(new ArpaNgramWriter(), lm)), "The "+name+" model writes a different ARPA file");
+	}
+
+}
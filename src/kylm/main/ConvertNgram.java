@@ -2,6 +2,7 @@ package kylm.main;
 
 import java.io.IOException;
 
+import kylm.model.ngram.NgramLM;
 import kylm.model.ngram.reader.*;
 import kylm.model.ngram.writer.*;
 import kylm.util.KylmConfigUtils;
@@ -26,12 +27,17 @@ public class ConvertNgram {
 		config.addGroup("Input format options");
 		config.addEntry("arpain", KylmConfigUtils.BOOLEAN_TYPE, false, false, "input model is in arpa format");
 		config.addEntry("binin", KylmConfigUtils.BOOLEAN_TYPE, false, false, "input model is in binary format");
+		config.addEntry("mappedin", KylmConfigUtils.BOOLEAN_TYPE, false, false, "input model is in memory-mapped format");
+		config.addEntry("packed", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into packed arrays, which use less memory");
 
 		// Debugging options
 		config.addGroup("Output format options");
 		config.addEntry("arpaout", KylmConfigUtils.BOOLEAN_TYPE, false, false, "output model is in arpa format");
 		config.addEntry("binout", KylmConfigUtils.BOOLEAN_TYPE, false, false, "output model is in binary format");
+		config.addEntry("mappedout", KylmConfigUtils.BOOLEAN_TYPE, false, false, "output model is in memory-mapped format");
 		config.addEntry("wfstout", KylmConfigUtils.BOOLEAN_TYPE, false, false, "output model is in wfst format");
+		config.addEntry("quantize", KylmConfigUtils.INT_ARRAY_TYPE, null, false, "quantize scores and backoffs to this many bits before output (8 or 12:8)");
+		config.addEntry("succinct", KylmConfigUtils.BOOLEAN_TYPE, false, false, "compress the model into a succinct trie before output, which makes memory-mapped models smaller");
 
 		// parse the arguments
 		args = config.parseArguments(args);
@@ -44,10 +50,14 @@ public class ConvertNgram {
 			ngr = new ArpaNgramReader();
 		else if(config.getBoolean("binin"))
 			ngr = new SerializedNgramReader();
+		else if(config.getBoolean("mappedin"))
+			ngr = new MappedNgramReader();
 		else {
-			System.err.println("Must select an input format (-arpain/-binin)");
+			System.err.println("Must select an input format (-arpain/-binin/-mappedin)");
 			System.exit(1);
 		}
+		if(config.getBoolean("packed"))
+			ngr.setStorage(NgramReader.PACKED_STORAGE);
 		
 		// get the writer
 		NgramWriter ngw = null;
@@ -55,16 +65,24 @@ public class ConvertNgram {
 			ngw = new ArpaNgramWriter();
 		else if(config.getBoolean("binout"))
 			ngw = new SerializedNgramWriter();
+		else if(config.getBoolean("mappedout"))
+			ngw = new MappedNgramWriter();
 		else if(config.getBoolean("wfstout"))
 			ngw = new WFSTNgramWriter();
 		else {
-			System.err.println("Must select an output format (-arpaout/-binout/-wfstout)");
+			System.err.println("Must select an output format (-arpaout/-binout/-mappedout/-wfstout)");
 			System.exit(1);
 		}
 		
 		// convert
+		int[] quantBits = config.getIntArray("quantize");
 		try {
-			ngw.write(ngr.read(args[0]), args[1]);
+			NgramLM lm = ngr.read(args[0]);
+			if(quantBits != null)
+				lm.quantize(quantBits[0], (quantBits.length > 1 ? quantBits[1] : quantBits[0]));
+			if(config.getBoolean("succinct"))
+				lm.compress();
+			ngw.write(lm, args[1]);
 		} catch (IOException e) {
 			System.err.println("Error while printing: "+e.getMessage());
 			System.exit(1);
@@ -52,6 +52,9 @@ public class CountNgrams {
 		"the trimming for each level of the n-gram (example: 0:1:1)");
 		config.addEntry("name", KylmConfigUtils.STRING_TYPE, null, false, "the name of the model");
 		config.addEntry("smoothuni", KylmConfigUtils.BOOLEAN_TYPE, false, false, "whether or not to smooth unigrams");
+		config.addEntry("offheap", KylmConfigUtils.BOOLEAN_TYPE, false, false, "count n-grams outside of the Java heap, for models with more than 2^31 n-grams (cannot be used with -trim)");
+		config.addEntry("freeze", KylmConfigUtils.BOOLEAN_TYPE, false, false, "freeze the model into packed arrays after training, which frees the memory used for counting before it is written");
+		config.addEntry("threads", KylmConfigUtils.INT_TYPE, 1, false, "the number of threads to count n-grams with (cannot be used with -offheap)");
 
 		// vocabulary options
 		config.addGroup("Symbol/Vocabulary options");
@@ -145,6 +148,24 @@ public class CountNgrams {
 		// create the n-gram model
 		NgramLM lm = new NgramLM(n, smoother);
 		lm.getSmoother().setCutoffs(config.getIntArray("trim"));
+		if(config.getBoolean("offheap")) {
+			if(config.getIntArray("trim") != null) {
+				System.err.println("N-grams cannot be trimmed when they are counted off the heap");
+				config.exitOnUsage(1);
+			}
+			lm.setOffHeap(true);
+		}
+		if(config.getInt("threads") < 1) {
+			System.err.println("The number of threads must be at least 1");
+			config.exitOnUsage(1);
+		}
+		if(config.getInt("threads") > 1) {
+			if(config.getBoolean("offheap")) {
+				System.err.println("N-grams cannot be counted by several threads when they are counted off the heap");
+				config.exitOnUsage(1);
+			}
+			lm.setCountThreads(config.getInt("threads"));
+		}
 		lm.setDebug(debug);
 		lm.setName(config.getString("name"));
 		lm.setUnknownSymbol(config.getString("uksym"));
@@ -191,6 +212,9 @@ public class CountNgrams {
 		if(config.getBoolean("ukexpand"))
 			lm.expandUnknowns();
 
+		if(config.getBoolean("freeze"))
+			lm.freeze();
+
 		if(debug > 0)
 			System.err.println("CountNgrams, Started writing");
 		long time = System.currentTimeMillis();
@@ -23,10 +23,20 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
 package kylm.main;
 
 import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import kylm.model.LanguageModel;
+import kylm.model.MultiModelScorer;
+import kylm.model.SentenceScores;
+import kylm.model.ngram.NgramLM;
 import kylm.model.ngram.reader.ArpaNgramReader;
+import kylm.model.ngram.reader.MappedNgramReader;
+import kylm.model.ngram.reader.NgramReader;
 import kylm.model.ngram.reader.SerializedNgramReader;
 import kylm.reader.*;
 import kylm.util.*;
@@ -57,25 +67,79 @@ public class CrossEntropy {
 		return sb.toString();
 	}
 
-	public static void main(String args[]) throws Exception {
-
-		final String br = System.getProperty("line.separator");
-		KylmConfigUtils config = new KylmConfigUtils(
-				"CrossEntropy"+br+
-				"A program to find the cross-entropy of one or more language models over a test set"+br+
-		"Example: java -cp kylm.jar kylm.main.CrossEntropy -arpa model1.arpa:model2.arpa test.txt");
-
-		// Input format options
-		config.addEntry("arpa", KylmConfigUtils.STRING_ARRAY_TYPE, null, false, "models in arpa format (model1.arpa:model2.arpa)");
-		config.addEntry("bin", KylmConfigUtils.STRING_ARRAY_TYPE, null, false, "models in binary format (model3.bin:model4.bin)");
-
-		// Debugging options
-		config.addEntry("debug", KylmConfigUtils.INT_TYPE, 0, false, "the level of debugging information to print");
+	// a chunk of the test set, which is scored by every model
+	private static class Chunk extends SentenceChunk {
+		private MultiModelScorer scorer;
+		private SentenceScores[][] scores;
+		public Chunk(MultiModelScorer scorer, String[][] sents) {
+			super(sents);
+			this.scorer = scorer;
+			scores = new SentenceScores[sents.length][];
+		}
+		@Override
+		protected void score(int j) {
+			scores[j] = scorer.scoreSentence(sents[j], null);
+		}
+	}
 
-		// parse the arguments
-		args = config.parseArguments(args);
-		int debug = config.getInt("debug");
+	// the entropies summed over the test set, which are only changed by the
+	//  main thread, one sentence at a time in input order, so the results do
+	//  not depend on the number of threads
+	private static class Totals {
+		private float[] words, simples, unknowns, classes;
+		private int wordCount = 0, sentenceCount = 0;
+		public Totals(int modelCount) {
+			words = new float[modelCount];
+			simples = new float[modelCount];
+			unknowns = new float[modelCount];
+			classes = new float[modelCount];
+		}
+		// merge the sentences that were scored, and then pass on the error
+		//  that stopped the chunk, if any
+		public void merge(SentenceChunk scored, Vector<LanguageModel> models, int debug) {
+			Chunk chunk = (Chunk)scored;
+			float[] wordSents = new float[words.length], simpleSents = new float[words.length],
+								unkSents = new float[words.length], classSents = new float[words.length];
+			for(int k = 0; k < chunk.getScoredCount(); k++) {
+				String[] sent = chunk.sents[k];
+				SentenceScores[] scores = chunk.scores[k];
+				wordCount += sent.length;
+				sentenceCount++;
+				for(int i = 0; i < words.length; i++) {
+					words[i] += (wordSents[i] = scores[i].getSentenceEntropy());
+					simples[i] += (simpleSents[i] = scores[i].getSentenceSimpleEntropy());
+					classes[i] += (classSents[i] = scores[i].getSentenceClassEntropy());
+					unknowns[i] += (unkSents[i] = scores[i].getSentenceUnknownEntropy());
+				}
+				if(debug > 0) {
+					System.out.println(KylmTextUtils.join(" ", sent));
+					for(int i = 0; i < wordSents.length; i++)
+						System.out.println(models.get(i).getName()+": "+
+								makeEnt(wordSents[i], simpleSents[i], classSents[i], unkSents[i], null));
+					if(debug > 1) {
+						for(int j = 0; j < scores[0].getLength(); j++) {
+							System.out.print(" "+(j<sent.length?sent[j]:models.get(0).getTerminalSymbol())+"\tent: ");
+							for(int i = 0; i < scores.length; i++) {
+								if(i != 0) System.out.print(", ");
+								float unk = scores[i].getUnknownEntropies()[j];
+								String unkSym = (unk == 0 ? null :
+									models.get(i).getVocab().getSymbol(models.get(i).findUnknownId(sent[j])));
+								System.out.print(makeEnt(scores[i].getWordEntropies()[j], scores[i].getSimpleEntropies()[j],
+										scores[i].getClassEntropies()[j], unk, unkSym));
+							}
+							System.out.println();
+						}
+					}
+					System.out.println();
+				}
+			}
+			if(chunk.getError() != null)
+				throw chunk.getError();
+		}
+	}
 
+	// load the models given on the command line
+	private static Vector<LanguageModel> loadModels(KylmConfigUtils config, int storage) throws IOException {
 		// a vector to hold the models
 		Vector<LanguageModel> models = new Vector<LanguageModel>();
 
@@ -83,6 +147,7 @@ public class CrossEntropy {
 		String[] arpaFiles = config.getStringArray("arpa");
 		if(arpaFiles != null) {
 			ArpaNgramReader anr = new ArpaNgramReader();
+			anr.setStorage(storage);
 			for(String arpa : arpaFiles) {
 				LanguageModel next = anr.read(arpa);
 				if(next.getName() == null) next.setName(arpa);
@@ -94,6 +159,7 @@ public class CrossEntropy {
 		String[] binFiles = config.getStringArray("bin");
 		if(binFiles != null) {
 			SerializedNgramReader snr = new SerializedNgramReader();
+			snr.setStorage(storage);
 			for(String bin : binFiles) {
 				LanguageModel next = snr.read(bin);
 				if(next.getName() == null) next.setName(bin);
@@ -101,64 +167,114 @@ public class CrossEntropy {
 			}
 		}
 
+		// map the memory-mapped files
+		String[] mappedFiles = config.getStringArray("mapped");
+		if(mappedFiles != null) {
+			MappedNgramReader mnr = new MappedNgramReader();
+			for(String mapped : mappedFiles) {
+				LanguageModel next = mnr.read(mapped);
+				if(next.getName() == null) next.setName(mapped);
+				models.add(next);
+			}
+		}
+
+		// the models are only queried, so unknown words do not change them
+		for(LanguageModel next : models)
+			next.setReadOnly(true);
+
+		return models;
+	}
+
+	public static void main(String args[]) throws Exception {
+
+		final String br = System.getProperty("line.separator");
+		KylmConfigUtils config = new KylmConfigUtils(
+				"CrossEntropy"+br+
+				"A program to find the cross-entropy of one or more language models over a test set"+br+
+		"Example: java -cp kylm.jar kylm.main.CrossEntropy -arpa model1.arpa:model2.arpa test.txt");
+
+		// Input format options
+		config.addEntry("arpa", KylmConfigUtils.STRING_ARRAY_TYPE, null, false, "models in arpa format (model1.arpa:model2.arpa)");
+		config.addEntry("bin", KylmConfigUtils.STRING_ARRAY_TYPE, null, false, "models in binary format (model3.bin:model4.bin)");
+		config.addEntry("mapped", KylmConfigUtils.STRING_ARRAY_TYPE, null, false, "models in memory-mapped format (model5.map:model6.map)");
+		config.addEntry("packed", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read models into packed arrays, which use less memory");
+		config.addEntry("hashed", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read models into hash tables, which are faster to search");
+		config.addEntry("succinct", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read models into a compressed trie, which uses the least memory");
+		config.addEntry("offheap", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read models into arrays outside of the Java heap, for models with more than 2^31 n-grams");
+		config.addEntry("quantize", KylmConfigUtils.INT_ARRAY_TYPE, null, false, "also evaluate each model quantized to this many bits for scores and backoffs (8 or 12:8), and report the change in perplexity");
+
+		config.addEntry("threads", KylmConfigUtils.INT_TYPE, 1, false, "the number of threads to score the test set with");
+
+		// Debugging options
+		config.addEntry("debug", KylmConfigUtils.INT_TYPE, 0, false, "the level of debugging information to print");
+
+		// parse the arguments
+		args = config.parseArguments(args);
+		int debug = config.getInt("debug");
+		int storage = (config.getBoolean("hashed") ? NgramReader.HASH_STORAGE :
+			(config.getBoolean("succinct") ? NgramReader.SUCCINCT_STORAGE :
+			(config.getBoolean("offheap") ? NgramReader.OFFHEAP_STORAGE :
+			(config.getBoolean("packed") ? NgramReader.PACKED_STORAGE : NgramReader.TREE_STORAGE))));
+
+		// load the models
+		Vector<LanguageModel> models = loadModels(config, storage);
+
 		// check to make sure at least one language model has been loaded
 		if(models.size() == 0) {
 			System.err.println("At least one language model must be specified."+br);
 			config.exitOnUsage(1);
 		}
 
+		// add a quantized copy of every model
+		int[] quantBits = config.getIntArray("quantize");
+		final int modelCount = models.size();
+		if(quantBits != null) {
+			int scoreBits = quantBits[0], backoffBits = (quantBits.length > 1 ? quantBits[1] : quantBits[0]);
+			for(LanguageModel next : loadModels(config, NgramReader.PACKED_STORAGE)) {
+				((NgramLM)next).quantize(scoreBits, backoffBits);
+				next.setName(next.getName()+" (quantized "+scoreBits+":"+backoffBits+")");
+				models.add(next);
+			}
+		}
+
 		// get the input stream to load the input
 		InputStream is = (args.length == 0?System.in:new FileInputStream(args[0]));
 		TextStreamSentenceReader tssl = new TextStreamSentenceReader(is);
 
-		// calculate the entropies
-		float[] words = new float[models.size()], simples = new float[models.size()],
-							unknowns = new float[models.size()], classes = new float[models.size()];
-		float[] wordSents = new float[words.length], simpleSents = new float[words.length],
-							unkSents = new float[words.length], classSents = new float[words.length];
-		float[][] wordEnts = new float[words.length][], simpleEnts = new float[words.length][],
-							unkEnts = new float[words.length][], classEnts = new float[words.length][];
-		String[][] unkSyms = new String[words.length][];
-		int wordCount = 0, sentenceCount = 0;
-		for(String[] sent : tssl) {
-			wordCount += sent.length;
-			sentenceCount++;
-			// calculate
-			for(int i = 0; i < words.length; i++) {
-				LanguageModel mod = models.get(i);
-				wordEnts[i] = mod.getWordEntropies(sent); 
-				words[i] += (wordSents[i] = KylmMathUtils.sum(wordEnts[i]));
-				simpleEnts[i] = mod.getSimpleEntropies(); 
-				simples[i] += (simpleSents[i] = KylmMathUtils.sum(simpleEnts[i]));
-				classEnts[i] = mod.getClassEntropies(); 
-				classes[i] += (classSents[i] = KylmMathUtils.sum(classEnts[i]));
-				unkEnts[i] = mod.getUnknownEntropies(); 
-				unknowns[i] +=  (unkSents[i] = KylmMathUtils.sum(unkEnts[i]));
-				unkSyms[i] = new String[unkEnts[i].length];
-				SymbolSet vocab = models.get(i).getVocab();
-				for(int j = 0; j < unkEnts[i].length; j++)
-					if(unkEnts[i][j] != 0)
-						unkSyms[i][j] = vocab.getSymbol(models.get(i).findUnknownId(sent[j]));
-			}
-
-			if(debug > 0) {
-				System.out.println(KylmTextUtils.join(" ", sent));
-				for(int i = 0; i < wordSents.length; i++)
-					System.out.println(models.get(i).getName()+": "+
-							makeEnt(wordSents[i], simpleSents[i], classSents[i], unkSents[i], null));
-				if(debug > 1) {
-					for(int j = 0; j < wordEnts[0].length; j++) {
-						System.out.print(" "+(j<sent.length?sent[j]:models.get(0).getTerminalSymbol())+"\tent: ");
-						for(int i = 0; i < wordEnts.length; i++) {
-							if(i != 0) System.out.print(", ");
-							System.out.print(makeEnt(wordEnts[i][j], simpleEnts[i][j], classEnts[i][j], unkEnts[i][j], unkSyms[i][j]));
-						}
-						System.out.println();
-					}
+		// score chunks of the test set with every model on worker threads,
+		//  keeping a bounded number in flight and merging them in the order
+		//  they were read
+		int threads = config.getInt("threads");
+		if(threads < 1) {
+			System.err.println("The number of threads must be at least 1"+br);
+			config.exitOnUsage(1);
+		}
+		ExecutorService executor = (threads > 1 ? Executors.newFixedThreadPool(threads) : null);
+		// split each sentence into words once and translate them for each model
+		MultiModelScorer scorer = new MultiModelScorer(models.toArray(new LanguageModel[models.size()]));
+		LinkedList<Future<SentenceChunk>> pending = new LinkedList<Future<SentenceChunk>>();
+		Totals totals = new Totals(models.size());
+		Iterator<String[]> it = tssl.iterator();
+		try {
+			while(it.hasNext()) {
+				Chunk chunk = new Chunk(scorer, SentenceChunk.readSentences(it));
+				if(executor == null)
+					totals.merge(chunk.call(), models, debug);
+				else {
+					pending.add(executor.submit(chunk));
+					if(pending.size() > threads*2)
+						totals.merge(pending.removeFirst().get(), models, debug);
 				}
-				System.out.println();
 			}
+			while(pending.size() > 0)
+				totals.merge(pending.removeFirst().get(), models, debug);
+		} finally {
+			if(executor != null)
+				executor.shutdownNow();
 		}
+		float[] words = totals.words, simples = totals.simples,
+							unknowns = totals.unknowns, classes = totals.classes;
+		int wordCount = totals.wordCount, sentenceCount = totals.sentenceCount;
 
 		// change from log10
 		final float log2 = (float)Math.log10(2);
@@ -174,6 +290,14 @@ public class CrossEntropy {
 			System.out.println(models.get(i).printReport());
 		}
 
+		// print the change in perplexity caused by quantization
+		if(quantBits != null) {
+			for(int i = 0; i < modelCount; i++) {
+				double pp = Math.pow(2, words[i]), diff = Math.pow(2, words[i+modelCount]) - pp;
+				System.out.println(models.get(i).getName()+": perplexity change with quantization="+diff+" ("+(diff*100/pp)+"%)");
+			}
+		}
+
 	}
 
 }
@@ -0,0 +1,140 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package kylm.main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import kylm.model.Lattice;
+import kylm.model.ngram.LatticeScorer;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.reader.ArpaNgramReader;
+import kylm.model.ngram.reader.MappedNgramReader;
+import kylm.model.ngram.reader.NgramReader;
+import kylm.model.ngram.reader.SerializedNgramReader;
+import kylm.util.KylmConfigUtils;
+
+/**
+ * A program to score word lattices in HTK format with an n-gram model,
+ *  printing the forward score, the best score and the best path of each
+ *  lattice, or writing the lattices expanded to the order of the model.
+ * @author neubig
+ *
+ */
+public class LatticeScore {
+
+	public static void main(String[] args) throws IOException {
+		final String br = System.getProperty("line.separator");
+		KylmConfigUtils config = new KylmConfigUtils(
+				"LatticeScore"+br+
+				"A program to score word lattices in HTK format with an n-gram model"+br+
+		"Example: java -cp kylm.jar kylm.main.LatticeScore -arpa model1.arpa lattice1.lat lattice2.lat");
+
+		// Input format options
+		config.addGroup("Model options");
+		config.addEntry("arpa", KylmConfigUtils.STRING_TYPE, null, true, "model in arpa format");
+		config.addEntry("bin", KylmConfigUtils.STRING_TYPE, null, false, "model in binary format");
+		config.addEntry("mapped", KylmConfigUtils.STRING_TYPE, null, false, "model in memory-mapped format");
+		config.addEntry("hashed", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into hash tables, which are faster to search");
+		config.addEntry("succinct", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into a compressed trie, which uses the least memory");
+		config.addEntry("offheap", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into arrays outside of the Java heap, for models with more than 2^31 n-grams");
+
+		// Scoring options
+		config.addGroup("Scoring options");
+		config.addEntry("lmscale", KylmConfigUtils.FLOAT_TYPE, 1.0f, false, "the weight of the language model scores");
+		config.addEntry("acscale", KylmConfigUtils.FLOAT_TYPE, 1.0f, false, "the weight of the acoustic scores");
+		config.addEntry("expand", KylmConfigUtils.BOOLEAN_TYPE, false, false, "write each lattice expanded to the order of the model instead of its scores");
+
+		// parse the arguments
+		args = config.parseArguments(args);
+
+		// read in the model
+		String lmFile = config.getString("arpa");
+		NgramReader nr;
+		if (lmFile==null && config.getString("mapped") != null) {
+			lmFile = config.getString("mapped");
+			nr = new MappedNgramReader();
+		} else if (lmFile==null) {
+			lmFile = config.getString("bin");
+			nr = new SerializedNgramReader();
+		} else
+			nr = new ArpaNgramReader();
+		if(config.getBoolean("hashed"))
+			nr.setStorage(NgramReader.HASH_STORAGE);
+		else if(config.getBoolean("succinct"))
+			nr.setStorage(NgramReader.SUCCINCT_STORAGE);
+		else if(config.getBoolean("offheap"))
+			nr.setStorage(NgramReader.OFFHEAP_STORAGE);
+		else
+			nr.setStorage(NgramReader.PACKED_STORAGE);
+		NgramLM lm = null;
+		try { lm = nr.read(lmFile); } catch(IOException e) {
+			System.err.println("Problem reading model from file "+lmFile+": "+e.getMessage());
+			System.exit(1);
+		}
+		lm.setReadOnly(true);
+
+		LatticeScorer scorer = new LatticeScorer(lm);
+		scorer.setLMScale(config.getFloat("lmscale"));
+		scorer.setAcousticScale(config.getFloat("acscale"));
+		boolean expand = config.getBoolean("expand");
+
+		// score the lattices in each file, or from standard input
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 65536);
+		for(int i = 0; i < Math.max(args.length, 1); i++) {
+			BufferedReader in = new BufferedReader(
+					args.length == 0 ? new InputStreamReader(System.in) : new FileReader(args[i]));
+			try {
+				Lattice lattice;
+				while((lattice = Lattice.read(in)) != null) {
+					LatticeScorer.Result res = scorer.score(lattice);
+					if(expand) {
+						res.expand().write(out);
+						continue;
+					}
+					StringBuilder sb = new StringBuilder();
+					sb.append(lattice.getName()).append('\t').append(res.getForwardScore())
+						.append('\t').append(res.getBestScore()).append('\t');
+					String[] words = res.getBestWords();
+					for(int j = 0; words != null && j < words.length; j++) {
+						if(j != 0) sb.append(' ');
+						sb.append(words[j]);
+					}
+					out.write(sb.append(br).toString());
+				}
+			} catch(IOException e) {
+				System.err.println("Problem reading lattices from "+(args.length == 0 ? "standard input" : args[i])+": "+e.getMessage());
+				System.exit(1);
+			} finally {
+				in.close();
+			}
+		}
+		out.flush();
+	}
+
+}
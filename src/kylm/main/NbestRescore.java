@@ -0,0 +1,182 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package kylm.main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+import kylm.model.ngram.NbestRescorer;
+import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.reader.ArpaNgramReader;
+import kylm.model.ngram.reader.MappedNgramReader;
+import kylm.model.ngram.reader.NgramReader;
+import kylm.model.ngram.reader.SerializedNgramReader;
+import kylm.util.KylmConfigUtils;
+
+/**
+ * A program to rescore N-best lists with an n-gram model.<br>
+ * Each line of the input holds one hypothesis in the form
+ *  "id ||| w1 w2 ... wn", optionally followed by more fields separated by
+ *  "|||" that are copied to the output. Consecutive lines with the same id
+ *  are the hypotheses of one utterance. Each line is written out again with
+ *  " ||| " and the log10 probability of the hypothesis added to the end.
+ * @author neubig
+ *
+ */
+public class NbestRescore {
+
+	private static final String SEPARATOR = "|||";
+
+	/**
+	 * Rescore every hypothesis read from an N-best list
+	 * @param rescorer The rescorer to use
+	 * @param is The stream to read the N-best list from
+	 * @param os The stream to write the rescored list to
+	 * @throws IOException If the list could not be read or written
+	 */
+	public static void rescore(NbestRescorer rescorer, InputStream is, Writer os) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(is));
+		Vector<String> lines = new Vector<String>();
+		Vector<String[]> hyps = new Vector<String[]>();
+		String line, id = null;
+		int lineNum = 0;
+		while((line = br.readLine()) != null) {
+			lineNum++;
+			int first = line.indexOf(SEPARATOR);
+			if(first == -1)
+				throw new IllegalArgumentException("Line "+lineNum+" of the N-best list does not start with \"id "+SEPARATOR+"\": "+line);
+			int second = line.indexOf(SEPARATOR, first+SEPARATOR.length());
+			String myId = line.substring(0, first).trim();
+			if(id != null && !myId.equals(id)) {
+				write(rescorer, lines, hyps, os);
+				lines.clear();
+				hyps.clear();
+			}
+			id = myId;
+			StringTokenizer st = new StringTokenizer(
+					line.substring(first+SEPARATOR.length(), (second == -1 ? line.length() : second)));
+			String[] hyp = new String[st.countTokens()];
+			for(int i = 0; i < hyp.length; i++)
+				hyp[i] = st.nextToken();
+			lines.add(line);
+			hyps.add(hyp);
+		}
+		write(rescorer, lines, hyps, os);
+		os.flush();
+	}
+
+	// rescore the hypotheses of one utterance and write them out
+	private static void write(NbestRescorer rescorer, Vector<String> lines, Vector<String[]> hyps, Writer os) throws IOException {
+		if(hyps.size() == 0)
+			return;
+		float[] probs = rescorer.rescore(hyps.toArray(new String[hyps.size()][]));
+		for(int i = 0; i < probs.length; i++) {
+			os.write(lines.get(i));
+			os.write(" "+SEPARATOR+" ");
+			os.write(Float.toString(probs[i]));
+			os.write('\n');
+		}
+	}
+
+	/**
+	 * @param args
+	 * @throws FileNotFoundException
+	 */
+	public static void main(String[] args) throws FileNotFoundException {
+		final String br = System.getProperty("line.separator");
+		KylmConfigUtils config = new KylmConfigUtils(
+				"NbestRescore"+br+
+				"A program to add language model scores to an N-best list of \"id ||| hypothesis [||| ...]\" lines"+br+
+		"Example: java -cp kylm.jar kylm.main.NbestRescore -arpa model1.arpa nbest.txt");
+
+		// Input format options
+		config.addEntry("arpa", KylmConfigUtils.STRING_TYPE, null, true, "model in arpa format");
+		config.addEntry("bin", KylmConfigUtils.STRING_TYPE, null, false, "model in binary format");
+		config.addEntry("mapped", KylmConfigUtils.STRING_TYPE, null, false, "model in memory-mapped format");
+		config.addEntry("hashed", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into hash tables, which are faster to search");
+		config.addEntry("succinct", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into a compressed trie, which uses the least memory");
+		config.addEntry("offheap", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into arrays outside of the Java heap, for models with more than 2^31 n-grams");
+		config.addEntry("statelimit", KylmConfigUtils.INT_TYPE, 1000000, false, "the number of model states to remember across utterances");
+		config.addEntry("debug", KylmConfigUtils.INT_TYPE, 0, false, "the level of debugging information to print");
+
+		// parse the arguments
+		args = config.parseArguments(args);
+		if(args.length > 1)
+			config.exitOnUsage();
+
+		// read in the model
+		String lmFile = config.getString("arpa");
+		NgramReader nr;
+		if (lmFile==null && config.getString("mapped") != null) {
+			lmFile = config.getString("mapped");
+			nr = new MappedNgramReader();
+		} else if (lmFile==null) {
+			lmFile = config.getString("bin");
+			nr = new SerializedNgramReader();
+		} else
+			nr = new ArpaNgramReader();
+		if(config.getBoolean("hashed"))
+			nr.setStorage(NgramReader.HASH_STORAGE);
+		else if(config.getBoolean("succinct"))
+			nr.setStorage(NgramReader.SUCCINCT_STORAGE);
+		else if(config.getBoolean("offheap"))
+			nr.setStorage(NgramReader.OFFHEAP_STORAGE);
+		else
+			nr.setStorage(NgramReader.PACKED_STORAGE);
+		NgramLM lm = null;
+		try { lm = nr.read(lmFile); } catch(IOException e) {
+			System.err.println("Problem reading model from file "+lmFile+": "+e.getMessage());
+			System.exit(1);
+		}
+		lm.setReadOnly(true);
+
+		NbestRescorer rescorer = new NbestRescorer(lm);
+		try {
+			rescorer.setStateLimit(config.getInt("statelimit"));
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage()+br);
+			config.exitOnUsage(1);
+		}
+		InputStream is = (args.length == 0?System.in:new FileInputStream(args[0]));
+		Writer os = new BufferedWriter(new OutputStreamWriter(System.out), 65536);
+		try {
+			rescore(rescorer, is, os);
+		} catch(IOException e) {
+			System.err.println("Problem rescoring the N-best list: "+e.getMessage());
+			System.exit(1);
+		}
+		if(config.getInt("debug") > 0)
+			System.err.println("NbestRescore, "+rescorer.getWordCount()+" words, "+
+					rescorer.getPrefixCount()+" prefixes, "+rescorer.getLookupCount()+" model lookups");
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.main;
+
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+
+/**
+ * A chunk of sentences that is read together and scored by one worker
+ *  thread. If scoring fails part way through, the chunk keeps the error
+ *  and the number of sentences that were scored before it, so the results
+ *  of those sentences can still be output in order before the error is
+ *  passed on.
+ * @author neubig
+ *
+ */
+abstract class SentenceChunk implements Callable<SentenceChunk> {
+
+	/**
+	 * The largest number of sentences in a chunk
+	 */
+	public static final int CHUNK_SIZE = 256;
+
+	protected String[][] sents;
+	// the number of sentences that have been scored
+	private int scored = 0;
+	// the error that stopped scoring, if any
+	private RuntimeException error = null;
+
+	protected SentenceChunk(String[][] sents) {
+		this.sents = sents;
+	}
+
+	/**
+	 * Score a single sentence of the chunk
+	 * @param i The index of the sentence in the chunk
+	 */
+	protected abstract void score(int i);
+
+	@Override
+	public SentenceChunk call() {
+		try {
+			for( ; scored < sents.length; scored++)
+				score(scored);
+		} catch(RuntimeException e) {
+			error = e;
+		}
+		return this;
+	}
+
+	/**
+	 * @return The sentences of the chunk
+	 */
+	public String[][] getSentences() {
+		return sents;
+	}
+
+	/**
+	 * @return The number of sentences at the start of the chunk that were scored
+	 */
+	public int getScoredCount() {
+		return scored;
+	}
+
+	/**
+	 * @return The error that stopped scoring, or null if every sentence was scored
+	 */
+	public RuntimeException getError() {
+		return error;
+	}
+
+	/**
+	 * Read up to CHUNK_SIZE sentences
+	 * @param it The iterator to read sentences from
+	 * @return The sentences, which are empty only at the end of the input
+	 */
+	public static String[][] readSentences(Iterator<String[]> it) {
+		Vector<String[]> sents = new Vector<String[]>(CHUNK_SIZE);
+		while(sents.size() < CHUNK_SIZE && it.hasNext())
+			sents.add(it.next());
+		return sents.toArray(new String[sents.size()][]);
+	}
+
+}
@@ -25,14 +25,29 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import kylm.model.ngram.NgramCache;
 import kylm.model.ngram.NgramLM;
 import kylm.model.ngram.reader.ArpaNgramReader;
+import kylm.model.ngram.reader.MappedNgramReader;
 import kylm.model.ngram.reader.NgramReader;
 import kylm.model.ngram.reader.SerializedNgramReader;
 import kylm.reader.TextStreamSentenceReader;
 import kylm.util.KylmConfigUtils;
-import kylm.util.KylmTextUtils;
 
 /**
  * A program to calculate the probability of sentences given in a text file.
@@ -41,6 +56,183 @@ import kylm.util.KylmTextUtils;
  */
 public class SentenceProb {
 
+	/**
+	 * Print each sentence with its log likelihood in human-readable form
+	 */
+	public static final int TEXT_FORMAT = 0;
+	/**
+	 * Print tab-separated lines of the log likelihood, the log likelihood
+	 *  divided by the number of words, and the sentence
+	 */
+	public static final int TSV_FORMAT = 1;
+	/**
+	 * Write the log likelihood of each sentence as a 4-byte big-endian float
+	 */
+	public static final int FLOAT_FORMAT = 2;
+
+	// the size of the writer's output buffer
+	private static final int BUFFER_SIZE = 65536;
+
+	// a chunk of sentences, which is scored by a worker thread
+	private static class Chunk extends SentenceChunk {
+		private NgramLM lm;
+		private float[] probs;
+		public Chunk(NgramLM lm, String[][] sents) {
+			super(sents);
+			this.lm = lm;
+			probs = new float[sents.length];
+		}
+		@Override
+		protected void score(int i) {
+			probs[i] = lm.getSentenceProb(sents[i]);
+		}
+	}
+
+	// the writer stage, which takes scored chunks in the order that they were
+	//  read and writes them through a single reusable buffer. An empty chunk
+	//  marks the end of the input.
+	private static class ChunkWriter extends Thread {
+		private BlockingQueue<Future<SentenceChunk>> queue;
+		private OutputStream os;
+		private int format;
+		private ByteBuffer buff = ByteBuffer.allocate(BUFFER_SIZE);
+		private StringBuilder sb = new StringBuilder();
+		private CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private String br = System.getProperty("line.separator");
+		// the first error that occurred, after which the rest is not written
+		private volatile Exception error = null;
+		public ChunkWriter(BlockingQueue<Future<SentenceChunk>> queue, OutputStream os, int format) {
+			this.queue = queue;
+			this.os = os;
+			this.format = format;
+		}
+		@Override
+		public void run() {
+			while(true) {
+				Chunk chunk;
+				try {
+					chunk = (Chunk)queue.take().get();
+				} catch(InterruptedException e) {
+					error = e;
+					return;
+				} catch(ExecutionException e) {
+					// keep taking chunks so the reader is not blocked
+					if(error == null)
+						error = e;
+					continue;
+				}
+				if(chunk.sents.length == 0)
+					break;
+				// write the sentences that were scored before any error
+				if(error == null) {
+					try { write(chunk); } catch(IOException e) { error = e; }
+					if(error == null)
+						error = chunk.getError();
+				}
+			}
+			// flush what was written, unless writing itself failed
+			if(!(error instanceof IOException)) {
+				try { flush(); } catch(IOException e) { if(error == null) error = e; }
+			}
+		}
+		private void write(Chunk chunk) throws IOException {
+			for(int i = 0; i < chunk.getScoredCount(); i++) {
+				final String[] sent = chunk.sents[i];
+				final float prob = chunk.probs[i];
+				if(format == FLOAT_FORMAT) {
+					if(buff.remaining() < 4)
+						flushBuffer();
+					buff.putFloat(prob);
+					continue;
+				}
+				sb.setLength(0);
+				if(format == TSV_FORMAT)
+					sb.append(prob).append('\t').append(prob/sent.length).append('\t');
+				else
+					sb.append("Log likelihood of sentence \"");
+				for(int j = 0; j < sent.length; j++) {
+					if(j != 0) sb.append(' ');
+					sb.append(sent[j]);
+				}
+				if(format == TEXT_FORMAT)
+					sb.append("\": ").append(prob).append('(').append(prob/sent.length).append(')');
+				sb.append(br);
+				encode(CharBuffer.wrap(sb), false);
+			}
+		}
+		private void encode(CharBuffer cb, boolean end) throws IOException {
+			while(true) {
+				CoderResult cr = encoder.encode(cb, buff, end);
+				if(cr.isOverflow())
+					flushBuffer();
+				else if(cr.isUnderflow())
+					return;
+				else
+					cr.throwException();
+			}
+		}
+		private void flushBuffer() throws IOException {
+			os.write(buff.array(), 0, buff.position());
+			buff.clear();
+		}
+		private void flush() throws IOException {
+			if(format != FLOAT_FORMAT) {
+				encode(CharBuffer.wrap(""), true);
+				while(encoder.flush(buff).isOverflow())
+					flushBuffer();
+			}
+			flushBuffer();
+			os.flush();
+		}
+	}
+
+	/**
+	 * Score every sentence and write out the results in order. The input is
+	 *  read by the calling thread, scored by a pool of worker threads, and
+	 *  written by a separate writer thread, with a bounded number of chunks
+	 *  in flight.
+	 * @param lm The model to score with, which should be read-only
+	 * @param sents The sentences to score
+	 * @param os The stream to write the results to
+	 * @param format The format to write the results in (TEXT_FORMAT, TSV_FORMAT or FLOAT_FORMAT)
+	 * @param threads The number of worker threads
+	 * @throws IOException If the results could not be written
+	 */
+	public static void scoreSentences(NgramLM lm, Iterable<String[]> sents, OutputStream os, int format, int threads) throws IOException {
+		if(threads < 1)
+			throw new IllegalArgumentException("The number of threads must be at least 1, but got "+threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		BlockingQueue<Future<SentenceChunk>> queue = new ArrayBlockingQueue<Future<SentenceChunk>>(threads*2);
+		ChunkWriter writer = new ChunkWriter(queue, os, format);
+		writer.setDaemon(true);
+		writer.start();
+		try {
+			Iterator<String[]> it = sents.iterator();
+			String[][] chunk;
+			do {
+				chunk = SentenceChunk.readSentences(it);
+				queue.put(executor.submit(new Chunk(lm, chunk)));
+			} while(chunk.length > 0 && writer.error == null);
+			if(chunk.length > 0)
+				queue.put(executor.submit(new Chunk(lm, new String[0][])));
+			writer.join();
+		} catch(InterruptedException e) {
+			throw new IOException("Interrupted while scoring sentences");
+		} finally {
+			executor.shutdownNow();
+		}
+		// pass on errors from the workers as they would have been thrown
+		Exception error = writer.error;
+		if(error instanceof RuntimeException)
+			throw (RuntimeException)error;
+		else if(error instanceof IOException)
+			throw (IOException)error;
+		else if(error != null)
+			throw new IOException("Could not score sentences: "+error);
+	}
+
 	/**
 	 * @param args
 	 * @throws FileNotFoundException
@@ -55,6 +247,17 @@ public class SentenceProb {
 		// Input format options
 		config.addEntry("arpa", KylmConfigUtils.STRING_TYPE, null, true, "model in arpa format");
 		config.addEntry("bin", KylmConfigUtils.STRING_TYPE, null, false, "model in binary format");
+		config.addEntry("mapped", KylmConfigUtils.STRING_TYPE, null, false, "model in memory-mapped format");
+		config.addEntry("packed", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into packed arrays, which use less memory");
+		config.addEntry("hashed", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into hash tables, which are faster to search");
+		config.addEntry("succinct", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into a compressed trie, which uses the least memory");
+		config.addEntry("offheap", KylmConfigUtils.BOOLEAN_TYPE, false, false, "read the model into arrays outside of the Java heap, for models with more than 2^31 n-grams");
+
+		// Output options
+		config.addEntry("tsv", KylmConfigUtils.BOOLEAN_TYPE, false, false, "print tab-separated lines of the log likelihood, the log likelihood per word, and the sentence");
+		config.addEntry("floats", KylmConfigUtils.BOOLEAN_TYPE, false, false, "write the log likelihood of each sentence as a 4-byte big-endian float");
+		config.addEntry("threads", KylmConfigUtils.INT_TYPE, 1, false, "the number of threads to score sentences with");
+		config.addEntry("cache", KylmConfigUtils.INT_TYPE, 0, false, "the number of n-gram lookups to cache, which packs the model if it is not already (default: 0, no cache)");
 
 		// parse the arguments
 		args = config.parseArguments(args);
@@ -65,28 +268,53 @@ public class SentenceProb {
 		System.err.println("Reading model");
 		String lmFile = config.getString("arpa");
 		NgramReader nr;
-		if (lmFile==null) {
+		if (lmFile==null && config.getString("mapped") != null) {
+			lmFile = config.getString("mapped");
+			nr = new MappedNgramReader();
+		} else if (lmFile==null) {
 			lmFile = config.getString("bin");
 			nr = new SerializedNgramReader();
 		} else
 			nr = new ArpaNgramReader();
+		if(config.getBoolean("hashed"))
+			nr.setStorage(NgramReader.HASH_STORAGE);
+		else if(config.getBoolean("succinct"))
+			nr.setStorage(NgramReader.SUCCINCT_STORAGE);
+		else if(config.getBoolean("offheap"))
+			nr.setStorage(NgramReader.OFFHEAP_STORAGE);
+		else if(config.getBoolean("packed"))
+			nr.setStorage(NgramReader.PACKED_STORAGE);
 		NgramLM lm = null;
 		try { lm = nr.read(lmFile); } catch(IOException e) {
 			System.err.println("Problem reading model from file "+lmFile+": "+e.getMessage());
 			System.exit(1);
 		}
+		if(config.getInt("cache") > 0) {
+			if(lm.getTrie() == null)
+				lm.pack();
+			lm.setCache(new NgramCache(config.getInt("cache")));
+		}
+		lm.setReadOnly(true);
 
 		// get the input stream to load the input
 		InputStream is = (args.length == 0?System.in:new FileInputStream(args[0]));
 		TextStreamSentenceReader tssl = new TextStreamSentenceReader(is);
 
-		for(String[] sent : tssl) {
-			// looks like getSentenceIds() adds <s> and </s> automatically
-			//sent = KylmTextUtils.addStartEnd(sent);
-			float prob = lm.getSentenceProb(sent);
-			System.out.println("Log likelihood of sentence \""+KylmTextUtils.join(" ",sent)+
-					"\": "+prob+"("+prob/sent.length+")");
+		// looks like getSentenceIds() adds <s> and </s> automatically
+		int format = (config.getBoolean("floats") ? FLOAT_FORMAT :
+			(config.getBoolean("tsv") ? TSV_FORMAT : TEXT_FORMAT));
+		if(config.getInt("threads") < 1) {
+			System.err.println("The number of threads must be at least 1"+br);
+			config.exitOnUsage(1);
+		}
+		try {
+			scoreSentences(lm, tssl, System.out, format, config.getInt("threads"));
+		} catch(IOException e) {
+			System.err.println("Problem writing the results: "+e.getMessage());
+			System.exit(1);
 		}
+		if(lm.getCache() != null)
+			System.err.println(lm.getCache());
 	}
 
 
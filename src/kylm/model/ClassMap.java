@@ -4,17 +4,26 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Vector;
 
 import kylm.util.SymbolSet;
 
+/**
+ * A mapping from words to their classes and the probabilities of the words
+ * given their classes. The classes and probabilities are held in primitive
+ * arrays indexed by word id, so looking them up costs no more than an array
+ * access.
+ */
 public class ClassMap implements Serializable {
 
 	private static final long serialVersionUID = 1707818585575921117L;
 	
 	public SymbolSet classes = null;
-	public Vector<Integer> idMap = null;
-	public Vector<Float> probMap = null;
+	// the class of each word, or -1, and its log10 probability given the class
+	private int[] idMap = null;
+	private float[] probMap = null;
+	private int size = 0;
 	
 	private static boolean eq(Object o1, Object o2) {
 		if(o1 == null) return o2 == null;
@@ -22,32 +31,37 @@ public class ClassMap implements Serializable {
 	}
 	public boolean equals(Object o) {
 		ClassMap cm = (ClassMap)o;
-		cm.idMap.trimToSize();
-		cm.probMap.trimToSize();
-		return eq(classes, cm.classes) &&
-				eq(idMap, cm.idMap) &&
-				eq(probMap, cm.probMap);
+		if(!eq(classes, cm.classes) || size != cm.size)
+			return false;
+		for(int i = 0; i < size; i++)
+			if(idMap[i] != cm.idMap[i] || Float.compare(probMap[i], cm.probMap[i]) != 0)
+				return false;
+		return true;
 	}
 	
 	public ClassMap() {
-		classes = new SymbolSet();
-		idMap = new Vector<Integer>(); //new int[size];
-		probMap = new Vector<Float>();
+		this(16);
 	}
 	
 	public ClassMap(int size) {
 		classes = new SymbolSet();
-		idMap = new Vector<Integer>(size,-1); //new int[size];
-		probMap = new Vector<Float>(size,0);
+		idMap = new int[Math.max(size, 1)];
+		probMap = new float[idMap.length];
 	}
 
 	public void addEntry(int vid, int cid, float prob) {
-		while(vid >= idMap.size()) {
-			idMap.add(-1);
-			probMap.add(0.0f);
+		if(vid >= idMap.length) {
+			int newSize = Math.max(vid+1, idMap.length*2);
+			idMap = Arrays.copyOf(idMap, newSize);
+			probMap = Arrays.copyOf(probMap, newSize);
+		}
+		// words that are skipped over have no class
+		for( ; size <= vid; size++) {
+			idMap[size] = -1;
+			probMap[size] = 0;
 		}
-		idMap.set(vid, cid);
-		probMap.set(vid, prob);
+		idMap[vid] = cid;
+		probMap[vid] = prob;
 	}
 
 	public int addClass(String symbol) {
@@ -55,14 +69,18 @@ public class ClassMap implements Serializable {
 	}
 
 	public int getWordSize() {
-		return idMap.size();
+		return size;
 	}
 	
 	public int getWordClass(int i) {
-		return idMap.get(i);
+		if(i >= size)
+			throw new ArrayIndexOutOfBoundsException(i);
+		return idMap[i];
 	}
 	public float getWordProb(int i) {
-		return probMap.get(i);
+		if(i >= size)
+			throw new ArrayIndexOutOfBoundsException(i);
+		return probMap[i];
 	}
 
 	public String getClassSymbol(int wordClass) {
@@ -74,23 +92,41 @@ public class ClassMap implements Serializable {
 	}
 
 	public void setWordProb(int i, float prob) {
-		probMap.set(i, prob);
+		if(i >= size)
+			throw new ArrayIndexOutOfBoundsException(i);
+		probMap[i] = prob;
 	}
 	
 	///////////////////////////////
 	// methods for serialization //
 	///////////////////////////////
+	// the maps are written as vectors, as they were before they were arrays
 	private void writeObject(ObjectOutputStream out) throws IOException {
+		Vector<Integer> ids = new Vector<Integer>(size);
+		Vector<Float> probs = new Vector<Float>(size);
+		for(int i = 0; i < size; i++) {
+			ids.add(idMap[i]);
+			probs.add(probMap[i]);
+		}
 		out.writeObject(classes);
-		out.writeObject(idMap);
-		out.writeObject(probMap);
+		out.writeObject(ids);
+		out.writeObject(probs);
 	}
 	
 	@SuppressWarnings("unchecked")
 	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		Vector<Integer> ids = null;
+		Vector<Float> probs = null;
 		try { classes = (SymbolSet) in.readObject(); } catch(NullPointerException e) { }
-		try { idMap = (Vector<Integer>) in.readObject(); } catch(NullPointerException e) { }
-		try { probMap = (Vector<Float>) in.readObject(); } catch(NullPointerException e) { }
+		try { ids = (Vector<Integer>) in.readObject(); } catch(NullPointerException e) { }
+		try { probs = (Vector<Float>) in.readObject(); } catch(NullPointerException e) { }
+		size = (ids == null ? 0 : ids.size());
+		idMap = new int[Math.max(size, 1)];
+		probMap = new float[idMap.length];
+		for(int i = 0; i < size; i++) {
+			idMap[i] = ids.get(i);
+			probMap[i] = probs.get(i);
+		}
 	}
 	public SymbolSet getClasses() {
 		return classes;
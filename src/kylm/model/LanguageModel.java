@@ -68,6 +68,26 @@ public abstract class LanguageModel implements Serializable {
 	protected int ukModelCount = 1;
 	protected boolean modelAllWords = true;
 
+	/**
+	 * The default number of unknown words whose ids are cached in read-only
+	 * mode
+	 */
+	public static final int DEFAULT_UNKNOWN_CACHE_SIZE = 65536;
+	/**
+	 * The default number of unknown words whose spelling entropies are cached
+	 *  in read-only mode
+	 */
+	public static final int DEFAULT_SPELLING_CACHE_SIZE = 65536;
+
+	// whether the vocabulary is left unchanged when unknown words are seen
+	protected transient boolean readOnly = false;
+	// the ids of unknown words seen in read-only mode
+	protected transient ClockCache<Integer> unknownCache = null;
+	protected transient int unknownCacheSize = DEFAULT_UNKNOWN_CACHE_SIZE;
+	// the spelling entropies of unknown words seen in read-only mode
+	protected transient ClockCache<Float> spellingCache = null;
+	protected transient int spellingCacheSize = DEFAULT_SPELLING_CACHE_SIZE;
+
 	// class map
 	protected ClassMap classMap;
 	
@@ -95,7 +115,7 @@ public abstract class LanguageModel implements Serializable {
 			eq(symbol, mod.symbol) &&
 			eq(name, mod.name) &&
 			eq(regex, mod.regex) &&
-			(vocab == null?mod.vocab==null:vocab.syms.equals(mod.vocab.syms)) &&
+			(vocab == null?mod.vocab==null:Arrays.equals(vocab.getSymbols(), mod.vocab.getSymbols())) &&
 			eq(startSymbol, mod.startSymbol) &&
 			eq(terminalSymbol, mod.terminalSymbol) &&
 			eq(ukSymbol, mod.ukSymbol) &&
@@ -118,38 +138,67 @@ public abstract class LanguageModel implements Serializable {
 	public abstract float getWordEntropy(int[] ids, int pos);
 
 	/**
-	 * Get the entropies of every word in a sentence by ID. The version implemented
-	 *  in LanguageModel calls getWordEntropy individually for each value, but might
-	 *  be overridden for higher efficiency.
+	 * Score every word in a sentence by ID, filling the given scores. This is
+	 *  the method that models override, and it must not change any state of
+	 *  the model so that sentences can be scored from several threads. The
+	 *  version implemented in LanguageModel calls getWordEntropy individually
+	 *  for each value, but might be overridden for higher efficiency.
 	 * @param ids The IDs of the words in the sentence. Will always start
 	 *  and end with the sentence terminal symbol.
-	 * @return An array of entropies of length ids.length-1. The first non-terminal
-	 *  symbol need not be assigned an entropy.
+	 * @param scores The scores to fill, which have been reset to a length of
+	 *  ids.length-1
 	 */
-	public float[] getWordEntropies(int[] ids) {
-		wordEnts = new float[ids.length-1];
-		for(int i = 0; i < wordEnts.length; i++)
-			wordEnts[i] = getWordEntropy(ids, i+1);
-		return wordEnts;
+	protected void scoreIds(int[] ids, SentenceScores scores) {
+		float[] ents = scores.getWordEntropies();
+		for(int i = 0; i < ents.length; i++)
+			ents[i] = getWordEntropy(ids, i+1);
+		System.arraycopy(ents, 0, scores.getSimpleEntropies(), 0, ents.length);
 	}
 
 	/**
-	 * Get the entropies of every word in a sentence. Sent should not contain
-	 *  terminal symbols.
+	 * Get the scores of every word in a sentence. Sent should not contain
+	 *  terminal symbols. This does not use any buffers held by the model, so
+	 *  one model can be used by several threads at once if it is read-only.
 	 * @param sent The string of words
-	 * @return Returns an array of float entropies.
+	 * @return The scores, which hold the entropies of each word
 	 */
-	public float[] getWordEntropies(String[] sent) {
-		// get the sentence IDs
-		int[] ids = getSentenceIds(sent);
+	public SentenceScores scoreSentence(String[] sent) {
+		return scoreSentence(sent, null);
+	}
+
+	/**
+	 * Get the scores of every word in a sentence, reusing an object that was
+	 *  returned by an earlier call.
+	 * @param sent The string of words
+	 * @param scores The scores to fill, or null to create new ones
+	 * @return The scores, which hold the entropies of each word
+	 */
+	public SentenceScores scoreSentence(String[] sent, SentenceScores scores) {
+		return scoreSentence(sent, getSentenceIds(sent), scores);
+	}
+
+	/**
+	 * Get the scores of every word in a sentence that has already been
+	 *  converted into IDs, for example by a MultiModelScorer.
+	 * @param sent The string of words
+	 * @param ids The IDs of the sentence as returned by getSentenceIds(), which
+	 *  may be changed
+	 * @param scores The scores to fill, or null to create new ones
+	 * @return The scores, which hold the entropies of each word
+	 */
+	public SentenceScores scoreSentence(String[] sent, int[] ids, SentenceScores scores) {
+		if(scores == null)
+			scores = new SentenceScores();
+		scores.reset(ids.length-1);
 		// actually calculate
-		wordEnts = getWordEntropies(ids);
-		// add unknown word penalties for models if necessary
-		unkEnts = new float[sent.length+1];
+		scoreIds(ids, scores);
+		float[] wordEnts = scores.getWordEntropies(), unkEnts = scores.getUnknownEntropies();
+		// add unknown word penalties for models if necessary, only checking
+		//  the vocabulary again for words whose ids are not in it
 		if(ukModels != null) {
 			for(int i = 0; i < sent.length; i++)
-				if(!isInVocab(sent[i])) {
-					unkEnts[i] = ukModels[ids[i+1]-2].getSentenceEntropy(KylmTextUtils.splitChars(sent[i]));
+				if(!isInVocab(ids[i+1]) && !isInVocab(sent[i])) {
+					unkEnts[i] = getSpellingEntropy(ids[i+1]-2, sent[i]);
 					wordEnts[i] += unkEnts[i];
 				}
 		}
@@ -160,11 +209,74 @@ public abstract class LanguageModel implements Serializable {
 				throw new IllegalArgumentException("vocab size has exceeded the vocab size limit");
 			float ukPenalty = (float) Math.log10(1.0/remaining);
 			for(int i = 0; i < sent.length; i++)
-				if(!isInVocab(sent[i])) {
+				if(!isInVocab(ids[i+1]) && !isInVocab(sent[i])) {
 					unkEnts[i] += ukPenalty;
 					wordEnts[i] += ukPenalty;
 				}
 		}
+		return scores;
+	}
+
+	// get the entropy of an unknown word's spelling under an unknown word
+	//  model, through the bounded cache in read-only mode
+	private float getSpellingEntropy(int model, String word) {
+		if(spellingCache == null)
+			return ukModels[model].scoreChars(word);
+		Float ent = spellingCache.get(word);
+		if(ent == null) {
+			ent = ukModels[model].scoreChars(word);
+			spellingCache.put(word, ent);
+		}
+		return ent;
+	}
+
+	/**
+	 * Get the entropy of the spelling of a word, treating each of its
+	 *  characters (Unicode code points) as a word in a sentence. This is how
+	 *  unknown word models score the words that they are given.
+	 * @param word The word to score
+	 * @return The entropy of the word's characters, including the terminal
+	 *  symbol if it is counted
+	 */
+	public float scoreChars(String word) {
+		return scoreSentence(KylmTextUtils.splitChars(word)).getSentenceEntropy();
+	}
+
+	// remember the scores of the last sentence for the older interface
+	private void setLastScores(SentenceScores scores) {
+		wordEnts = scores.getWordEntropies();
+		simpleEnts = scores.getSimpleEntropies();
+		classEnts = scores.getClassEntropies();
+		unkEnts = scores.getUnknownEntropies();
+	}
+
+	/**
+	 * Get the entropies of every word in a sentence by ID. The other entropies
+	 *  can be found afterwards with getSimpleEntropies() and so on, which
+	 *  means that this cannot be used by several threads at once. Use
+	 *  scoreSentence() instead.
+	 * @param ids The IDs of the words in the sentence. Will always start
+	 *  and end with the sentence terminal symbol.
+	 * @return An array of entropies of length ids.length-1. The first non-terminal
+	 *  symbol need not be assigned an entropy.
+	 */
+	public float[] getWordEntropies(int[] ids) {
+		SentenceScores scores = new SentenceScores(ids.length-1);
+		scoreIds(ids, scores);
+		setLastScores(scores);
+		return wordEnts;
+	}
+
+	/**
+	 * Get the entropies of every word in a sentence. Sent should not contain
+	 *  terminal symbols. The other entropies can be found afterwards with
+	 *  getSimpleEntropies() and so on, which means that this cannot be used by
+	 *  several threads at once. Use scoreSentence() instead.
+	 * @param sent The string of words
+	 * @return Returns an array of float entropies.
+	 */
+	public float[] getWordEntropies(String[] sent) {
+		setLastScores(scoreSentence(sent));
 		return wordEnts;
 	}
 	
@@ -173,7 +285,8 @@ public abstract class LanguageModel implements Serializable {
 	public float[] getUnknownEntropies() { return unkEnts; }
 
 	/**
-	 * Returns the entropy of an entire sentence.
+	 * Returns the entropy of an entire sentence. Like getWordEntropies(), this
+	 *  remembers the other entropies of the sentence.
 	 * @param sent The sentence to find the entropy of
 	 * @return The entropy of the sentence
 	 */
@@ -250,8 +363,8 @@ public abstract class LanguageModel implements Serializable {
 	 * @return whether or not the symbol is in the vocab
 	 */
 	public boolean isInVocab(String str) {
-		Integer idx = vocab.getId(str);
-		return idx != null && isInVocab(idx);
+		int idx = vocab.findId(str);
+		return idx != -1 && isInVocab(idx);
 	}
 	/**
 	 * Returns whether or not an id is in the vocabulary.
@@ -275,6 +388,27 @@ public abstract class LanguageModel implements Serializable {
 		return ret;
 	}
 
+	/**
+	 * Convert a sentence into IDs as getSentenceIds(String[]) does, but write
+	 *  them into a buffer, so that many sentences can be laid out one after
+	 *  another without allocating anything.
+	 * @param sent The sentence to convert
+	 * @param buff The buffer to write the IDs into
+	 * @param pos The position in buff to start writing at
+	 * @return The position after the IDs of the sentence
+	 */
+	public int getSentenceIds(String[] sent, int[] buff, int pos) {
+		final int len = sent.length+(countTerminals?2:1);
+		if(pos+len > buff.length)
+			throw new IllegalArgumentException("A buffer of length "+buff.length+" cannot hold "+len+" ids at position "+pos);
+		buff[pos] = 0;
+		for(int i = 0; i < sent.length; i++)
+			buff[pos+i+1] = getId(sent[i]);
+		if(countTerminals)
+			buff[pos+len-1] = 0;
+		return pos+len;
+	}
+
 	/**
 	 * Get all in vocabulary words.
 	 * @return An array containing every vocabulary word
@@ -351,14 +485,78 @@ public abstract class LanguageModel implements Serializable {
 	 * @return The id of the word pointing to IVs or the unknown model for OOVs
 	 */
 	public int getId(String word) {
-		Integer idx = vocab.getId(word);
-		if(idx == null) {
+		int idx = vocab.findId(word);
+		if(idx == -1) {
+			if(readOnly)
+				return findCachedUnknownId(word);
 			idx = findUnknownId(word);
 			vocab.addAlias(word, idx);
 		}
 		return idx;
 	}
 
+	// find the unknown model for a word through the bounded cache, which
+	//  evicts a word that has not been used recently when it is full
+	private int findCachedUnknownId(String word) {
+		Integer idx = unknownCache.get(word);
+		if(idx == null) {
+			idx = findUnknownId(word);
+			unknownCache.put(word, idx);
+		}
+		return idx;
+	}
+
+	/**
+	 * Set whether the model is only being queried. In read-only mode, unknown
+	 *  words are not added to the vocabulary as aliases, which would make it
+	 *  grow without bound in a long-running process. Instead, the unknown
+	 *  models that they belong to are held in a bounded cache that can be used
+	 *  from several threads at once. Unknown word models are set as well.
+	 * @param readOnly Whether the model is read-only
+	 */
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+		unknownCache = (readOnly ? new ClockCache<Integer>(unknownCacheSize) : null);
+		spellingCache = (readOnly ? new ClockCache<Float>(spellingCacheSize) : null);
+		if(ukModels != null)
+			for(LanguageModel lm : ukModels)
+				lm.setReadOnly(readOnly);
+	}
+
+	/**
+	 * @return Whether the model is read-only
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Set the number of unknown words whose ids are cached in read-only mode.
+	 *  When the cache is full, a word that has not been used recently is
+	 *  evicted, and the bound holds even when several threads add words.
+	 * @param unknownCacheSize The size of the cache
+	 */
+	public void setUnknownCacheSize(int unknownCacheSize) {
+		if(unknownCacheSize < 1)
+			throw new IllegalArgumentException("The unknown word cache must hold at least one word");
+		this.unknownCacheSize = unknownCacheSize;
+		if(unknownCache != null)
+			unknownCache = new ClockCache<Integer>(unknownCacheSize);
+	}
+
+	/**
+	 * Set the number of unknown words whose spelling entropies are cached in
+	 *  read-only mode, so the unknown word models only score each word once
+	 * @param spellingCacheSize The size of the cache
+	 */
+	public void setSpellingCacheSize(int spellingCacheSize) {
+		if(spellingCacheSize < 1)
+			throw new IllegalArgumentException("The spelling cache must hold at least one word");
+		this.spellingCacheSize = spellingCacheSize;
+		if(spellingCache != null)
+			spellingCache = new ClockCache<Float>(spellingCacheSize);
+	}
+
 	///////////////////////////////
 	// methods for serialization //
 	///////////////////////////////
@@ -399,6 +597,8 @@ public abstract class LanguageModel implements Serializable {
 		if(ukModels != null) ukModelCount = ukModels.length;
 		else ukModelCount = 1;
 		try { classMap = (ClassMap) in.readObject(); } catch(NullPointerException e) { }
+		unknownCacheSize = DEFAULT_UNKNOWN_CACHE_SIZE;
+		spellingCacheSize = DEFAULT_SPELLING_CACHE_SIZE;
 		
 	}
 
@@ -0,0 +1,406 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package kylm.model;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/**
+ * A word lattice, such as the output of a speech recognizer. Nodes are
+ *  numbered from zero, and each arc goes from one node to another with a
+ *  word, an acoustic score and a language model score. All scores are log10
+ *  probabilities. Arcs with the word NULL_WORD do not consume a word.<br>
+ * Lattices can be read and written in a subset of the HTK Standard Lattice
+ *  Format (SLF), in which scores are natural logs:
+ * <pre>
+ * VERSION=1.0
+ * UTTERANCE=name
+ * N=3 L=2
+ * I=0 t=0.00
+ * I=1 t=0.25
+ * I=2 t=0.50
+ * J=0 S=0 E=1 W=hello a=-120.5 l=0.0
+ * J=1 S=1 E=2 W=world a=-98.2 l=0.0
+ * </pre>
+ * Words may be given on arcs, or on the node that an arc ends at. The start
+ *  and end nodes may be given with start= and end= in the header, and
+ *  otherwise are the first node that no arc enters and the first node that
+ *  no arc leaves.
+ * @author neubig
+ *
+ */
+public class Lattice {
+
+	/**
+	 * The word of arcs that do not consume a word
+	 */
+	public static final String NULL_WORD = "!NULL";
+
+	private static final double LN10 = Math.log(10);
+
+	private String name = null;
+	private int nodeCount = 0, arcCount = 0;
+	private int start = -1, end = -1;
+	// the time of each node, or NaN if it is not known
+	private float[] times = new float[16];
+	// the arcs
+	private int[] froms = new int[16], tos = new int[16];
+	private String[] words = new String[16];
+	private float[] acousticScores = new float[16], lmScores = new float[16];
+
+	/**
+	 * Add a node
+	 * @param time The time of the node in seconds, or NaN if not known
+	 * @return The index of the node
+	 */
+	public int addNode(float time) {
+		if(nodeCount == times.length)
+			times = Arrays.copyOf(times, nodeCount*2);
+		times[nodeCount] = time;
+		return nodeCount++;
+	}
+
+	/**
+	 * Add an arc between two nodes that have already been added
+	 * @param from The node the arc leaves
+	 * @param to The node the arc enters
+	 * @param word The word of the arc, or NULL_WORD
+	 * @param acousticScore The log10 acoustic score
+	 * @param lmScore The log10 language model score
+	 * @return The index of the arc
+	 */
+	public int addArc(int from, int to, String word, float acousticScore, float lmScore) {
+		if(from < 0 || from >= nodeCount || to < 0 || to >= nodeCount)
+			throw new IllegalArgumentException("Arc from node "+from+" to node "+to+" is outside of the "+nodeCount+" nodes");
+		if(arcCount == froms.length) {
+			int size = arcCount*2;
+			froms = Arrays.copyOf(froms, size);
+			tos = Arrays.copyOf(tos, size);
+			words = Arrays.copyOf(words, size);
+			acousticScores = Arrays.copyOf(acousticScores, size);
+			lmScores = Arrays.copyOf(lmScores, size);
+		}
+		froms[arcCount] = from;
+		tos[arcCount] = to;
+		words[arcCount] = (word == null ? NULL_WORD : word);
+		acousticScores[arcCount] = acousticScore;
+		lmScores[arcCount] = lmScore;
+		return arcCount++;
+	}
+
+	/**
+	 * Find the arcs that leave each node
+	 * @return For each node, the indices of the arcs leaving it
+	 */
+	public int[][] getOutArcs() {
+		int[] counts = new int[nodeCount];
+		for(int i = 0; i < arcCount; i++)
+			counts[froms[i]]++;
+		int[][] ret = new int[nodeCount][];
+		for(int i = 0; i < nodeCount; i++)
+			ret[i] = new int[counts[i]];
+		Arrays.fill(counts, 0);
+		for(int i = 0; i < arcCount; i++)
+			ret[froms[i]][counts[froms[i]]++] = i;
+		return ret;
+	}
+
+	/**
+	 * Sort the nodes so that every arc goes from an earlier node to a later
+	 *  one
+	 * @return The nodes in topological order
+	 */
+	public int[] getTopologicalOrder() {
+		int[] ins = new int[nodeCount];
+		for(int i = 0; i < arcCount; i++)
+			ins[tos[i]]++;
+		int[][] outs = getOutArcs();
+		int[] ret = new int[nodeCount];
+		int head = 0, tail = 0;
+		for(int i = 0; i < nodeCount; i++)
+			if(ins[i] == 0)
+				ret[tail++] = i;
+		while(head < tail) {
+			for(int arc : outs[ret[head++]])
+				if(--ins[tos[arc]] == 0)
+					ret[tail++] = tos[arc];
+		}
+		if(tail != nodeCount)
+			throw new IllegalArgumentException("Lattice "+name+" has a cycle");
+		return ret;
+	}
+
+	/**
+	 * Get the words on a path, leaving out arcs with NULL_WORD
+	 * @param arcs The arcs of the path
+	 * @return The words
+	 */
+	public String[] getWords(int[] arcs) {
+		int count = 0;
+		for(int arc : arcs)
+			if(!isNull(arc))
+				count++;
+		String[] ret = new String[count];
+		count = 0;
+		for(int arc : arcs)
+			if(!isNull(arc))
+				ret[count++] = words[arc];
+		return ret;
+	}
+
+	/**
+	 * @param arc The index of the arc
+	 * @return Whether the arc does not consume a word
+	 */
+	public boolean isNull(int arc) {
+		return NULL_WORD.equals(words[arc]);
+	}
+
+	/**
+	 * Read a lattice in HTK format
+	 * @param fileName The file to read
+	 * @return The lattice
+	 * @throws IOException If the file could not be read or is not a lattice
+	 */
+	public static Lattice readFromFile(String fileName) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(fileName));
+		try {
+			Lattice ret = read(br);
+			if(ret == null)
+				throw new IOException("No lattice was found in "+fileName);
+			return ret;
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * Read the next lattice in HTK format from a reader, which may hold
+	 *  several lattices one after another. Each lattice ends after the number
+	 *  of nodes and arcs given by N= and L= have been read.
+	 * @param br The reader
+	 * @return The lattice, or null if there are no more lattices
+	 * @throws IOException If the lattice could not be read or is malformed
+	 */
+	public static Lattice read(BufferedReader br) throws IOException {
+		Lattice ret = null;
+		int nodes = -1, arcs = -1, nodesRead = 0, arcsRead = 0;
+		String[] nodeWords = null;
+		int[] arcIds = null;
+		String line;
+		while((nodes == -1 || nodesRead < nodes || arcsRead < arcs) && (line = br.readLine()) != null) {
+			line = line.trim();
+			if(line.length() == 0 || line.startsWith("#"))
+				continue;
+			if(ret == null)
+				ret = new Lattice();
+			StringTokenizer st = new StringTokenizer(line);
+			String first = st.nextToken();
+			if(first.startsWith("I=")) {
+				if(nodeWords == null)
+					throw new IOException("Node found before N= and L= in lattice: "+line);
+				int id = parseInt(first, line);
+				if(id < 0 || id >= nodes)
+					throw new IOException("Node "+id+" is outside of the "+nodes+" nodes: "+line);
+				float time = Float.NaN;
+				while(st.hasMoreTokens()) {
+					String tok = st.nextToken();
+					if(tok.startsWith("t="))
+						time = (float)parseDouble(tok, line);
+					else if(tok.startsWith("W="))
+						nodeWords[id] = getValue(tok);
+				}
+				ret.times[id] = time;
+				nodesRead++;
+			} else if(first.startsWith("J=")) {
+				if(nodeWords == null)
+					throw new IOException("Arc found before N= and L= in lattice: "+line);
+				if(arcsRead == arcs)
+					throw new IOException("More than the "+arcs+" arcs given by L= in lattice: "+line);
+				int id = parseInt(first, line), from = -1, to = -1;
+				String word = null;
+				float ac = 0, lm = 0;
+				while(st.hasMoreTokens()) {
+					String tok = st.nextToken();
+					if(tok.startsWith("S="))
+						from = parseInt(tok, line);
+					else if(tok.startsWith("E="))
+						to = parseInt(tok, line);
+					else if(tok.startsWith("W="))
+						word = getValue(tok);
+					else if(tok.startsWith("a="))
+						ac = (float)(parseDouble(tok, line)/LN10);
+					else if(tok.startsWith("l="))
+						lm = (float)(parseDouble(tok, line)/LN10);
+				}
+				if(id < 0 || id >= arcs || from < 0 || from >= nodes || to < 0 || to >= nodes)
+					throw new IOException("Illegal arc in lattice: "+line);
+				ret.froms[id] = from;
+				ret.tos[id] = to;
+				ret.words[id] = word;
+				ret.acousticScores[id] = ac;
+				ret.lmScores[id] = lm;
+				arcIds[arcsRead++] = id;
+			} else {
+				// header fields
+				for(String tok = first; tok != null; tok = (st.hasMoreTokens() ? st.nextToken() : null)) {
+					if(tok.startsWith("UTTERANCE="))
+						ret.name = getValue(tok);
+					else if(tok.startsWith("start="))
+						ret.start = parseInt(tok, line);
+					else if(tok.startsWith("end="))
+						ret.end = parseInt(tok, line);
+					else if(tok.startsWith("N="))
+						nodes = parseInt(tok, line);
+					else if(tok.startsWith("L="))
+						arcs = parseInt(tok, line);
+				}
+				if(nodes < -1 || arcs < -1)
+					throw new IOException("Negative number of nodes or arcs in lattice: "+line);
+				if(nodes != -1 && arcs != -1 && nodeWords == null) {
+					ret.nodeCount = nodes;
+					ret.arcCount = arcs;
+					ret.times = new float[Math.max(nodes, 1)];
+					Arrays.fill(ret.times, Float.NaN);
+					ret.froms = new int[Math.max(arcs, 1)];
+					ret.tos = new int[ret.froms.length];
+					ret.words = new String[ret.froms.length];
+					ret.acousticScores = new float[ret.froms.length];
+					ret.lmScores = new float[ret.froms.length];
+					nodeWords = new String[nodes];
+					arcIds = new int[arcs];
+				}
+			}
+		}
+		if(ret == null)
+			return null;
+		if(nodes == -1 || arcs == -1)
+			throw new IOException("Lattice "+ret.name+" does not give N= and L=");
+		if(arcsRead < arcs)
+			throw new IOException("Lattice "+ret.name+" ended after "+arcsRead+" of "+arcs+" arcs");
+		// take words from the nodes that arcs end at if they are not on the arcs
+		for(int i = 0; i < arcsRead; i++) {
+			int arc = arcIds[i];
+			if(ret.words[arc] == null)
+				ret.words[arc] = (nodeWords[ret.tos[arc]] != null ? nodeWords[ret.tos[arc]] : NULL_WORD);
+		}
+		for(int i = 0; i < arcs; i++)
+			if(ret.words[i] == null)
+				throw new IOException("Arc "+i+" of lattice "+ret.name+" was not given");
+		if(ret.start < -1 || ret.start >= nodes || ret.end < -1 || ret.end >= nodes)
+			throw new IOException("Start "+ret.start+" or end "+ret.end+" of lattice "+ret.name+" is outside of the "+nodes+" nodes");
+		ret.findEnds();
+		return ret;
+	}
+
+	// find the start and end nodes if they were not given
+	private void findEnds() {
+		boolean[] hasIn = new boolean[nodeCount], hasOut = new boolean[nodeCount];
+		for(int i = 0; i < arcCount; i++) {
+			hasOut[froms[i]] = true;
+			hasIn[tos[i]] = true;
+		}
+		for(int i = 0; i < nodeCount && start == -1; i++)
+			if(!hasIn[i])
+				start = i;
+		for(int i = 0; i < nodeCount && end == -1; i++)
+			if(!hasOut[i])
+				end = i;
+	}
+
+	// get the value of a key=value token, removing quotes
+	private static String getValue(String tok) {
+		String ret = tok.substring(tok.indexOf('=')+1);
+		if(ret.length() > 1 && ret.startsWith("\"") && ret.endsWith("\""))
+			ret = ret.substring(1, ret.length()-1);
+		return ret;
+	}
+
+	private static int parseInt(String tok, String line) throws IOException {
+		try {
+			return Integer.parseInt(getValue(tok));
+		} catch(NumberFormatException e) {
+			throw new IOException("Illegal number in "+tok+": "+line);
+		}
+	}
+
+	private static double parseDouble(String tok, String line) throws IOException {
+		try {
+			return Double.parseDouble(getValue(tok));
+		} catch(NumberFormatException e) {
+			throw new IOException("Illegal number in "+tok+": "+line);
+		}
+	}
+
+	/**
+	 * Write the lattice in HTK format, with words on the arcs
+	 * @param out The writer to write to
+	 * @throws IOException If the lattice could not be written
+	 */
+	public void write(Writer out) throws IOException {
+		final String br = System.getProperty("line.separator");
+		StringBuilder sb = new StringBuilder();
+		sb.append("VERSION=1.0").append(br);
+		if(name != null)
+			sb.append("UTTERANCE=").append(name).append(br);
+		sb.append("start=").append(start).append(" end=").append(end).append(br);
+		sb.append("N=").append(nodeCount).append(" L=").append(arcCount).append(br);
+		for(int i = 0; i < nodeCount; i++) {
+			sb.append("I=").append(i);
+			if(!Float.isNaN(times[i]))
+				sb.append(" t=").append(times[i]);
+			sb.append(br);
+		}
+		for(int i = 0; i < arcCount; i++) {
+			sb.append("J=").append(i).append(" S=").append(froms[i]).append(" E=").append(tos[i])
+				.append(" W=").append(words[i])
+				.append(" a=").append((float)(acousticScores[i]*LN10))
+				.append(" l=").append((float)(lmScores[i]*LN10)).append(br);
+			if(sb.length() > 8192) {
+				out.write(sb.toString());
+				sb.setLength(0);
+			}
+		}
+		out.write(sb.toString());
+	}
+
+	public String getName() { return name; }
+	public void setName(String name) { this.name = name; }
+	public int getNodeCount() { return nodeCount; }
+	public int getArcCount() { return arcCount; }
+	public int getStart() { return start; }
+	public void setStart(int start) { this.start = start; }
+	public int getEnd() { return end; }
+	public void setEnd(int end) { this.end = end; }
+	public float getTime(int node) { return times[node]; }
+	public int getArcFrom(int arc) { return froms[arc]; }
+	public int getArcTo(int arc) { return tos[arc]; }
+	public String getArcWord(int arc) { return words[arc]; }
+	public float getAcousticScore(int arc) { return acousticScores[arc]; }
+	public float getLMScore(int arc) { return lmScores[arc]; }
+
+}
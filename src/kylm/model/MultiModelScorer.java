@@ -0,0 +1,137 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package kylm.model;
+
+import kylm.util.SymbolSet;
+
+/**
+ * A class that scores each sentence with several language models at once.
+ *  Each word is looked up only once, in a vocabulary that holds the words of
+ *  every model, and its id is translated into the id of each model with
+ *  tables that are built when the scorer is created. Words that are in none
+ *  of the vocabularies are looked up by each model as usual.<br>
+ * The scorer does not change after it has been created, so it can be used by
+ *  several threads at once if the models are read-only.
+ * @author neubig
+ *
+ */
+public class MultiModelScorer {
+
+	private LanguageModel[] models = null;
+	// the words of every model
+	private SymbolSet vocab = null;
+	// the id of each shared word in each model, or -1 if it is not in the
+	//  model's vocabulary
+	private int[][] translations = null;
+
+	/**
+	 * Create a scorer, building the shared vocabulary and translation tables
+	 * @param models The models to score with
+	 */
+	public MultiModelScorer(LanguageModel[] models) {
+		this.models = models;
+		vocab = new SymbolSet();
+		for(LanguageModel lm : models)
+			for(String sym : lm.getVocab().getSymbols())
+				if(sym != null)
+					vocab.addSymbol(sym);
+		String[] syms = vocab.getSymbols();
+		translations = new int[models.length][syms.length];
+		for(int i = 0; i < models.length; i++) {
+			SymbolSet modelVocab = models[i].getVocab();
+			for(int j = 0; j < syms.length; j++)
+				translations[i][j] = modelVocab.findId(syms[j]);
+		}
+	}
+
+	/**
+	 * Find the shared id of every word in a sentence
+	 * @param sent The sentence
+	 * @return The ids in the shared vocabulary, with -1 for words that are in
+	 *  no model's vocabulary
+	 */
+	public int[] getSharedIds(String[] sent) {
+		int[] ret = new int[sent.length];
+		for(int i = 0; i < sent.length; i++)
+			ret[i] = vocab.findId(sent[i]);
+		return ret;
+	}
+
+	/**
+	 * Convert a sentence into the ids of one model, in the same form as
+	 *  LanguageModel.getSentenceIds()
+	 * @param model The index of the model
+	 * @param sent The sentence
+	 * @param shared The shared ids of the sentence from getSharedIds()
+	 * @return The ids of the sentence in the model
+	 */
+	public int[] getModelIds(int model, String[] sent, int[] shared) {
+		LanguageModel lm = models[model];
+		int[] table = translations[model];
+		int[] ret = new int[sent.length+(lm.getCountTerminals()?2:1)];
+		for(int i = 0; i < sent.length; i++) {
+			int id = (shared[i] == -1 ? -1 : table[shared[i]]);
+			ret[i+1] = (id == -1 ? lm.getId(sent[i]) : id);
+		}
+		return ret;
+	}
+
+	/**
+	 * Score a sentence with every model
+	 * @param sent The sentence, without terminal symbols
+	 * @param scores An array with one element for each model that receives
+	 *  the scores, whose elements may be null or reused from earlier calls,
+	 *  or null to create a new array
+	 * @return The scores of each model
+	 */
+	public SentenceScores[] scoreSentence(String[] sent, SentenceScores[] scores) {
+		if(scores == null)
+			scores = new SentenceScores[models.length];
+		int[] shared = getSharedIds(sent);
+		for(int i = 0; i < models.length; i++)
+			scores[i] = models[i].scoreSentence(sent, getModelIds(i, sent, shared), scores[i]);
+		return scores;
+	}
+
+	/**
+	 * @return The vocabulary holding the words of every model
+	 */
+	public SymbolSet getVocab() {
+		return vocab;
+	}
+
+	/**
+	 * @return The number of models
+	 */
+	public int getModelCount() {
+		return models.length;
+	}
+
+	/**
+	 * @param i The index of the model
+	 * @return The model
+	 */
+	public LanguageModel getModel(int i) {
+		return models[i];
+	}
+
+}
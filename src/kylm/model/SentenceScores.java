@@ -0,0 +1,119 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package kylm.model;
+
+import java.util.Arrays;
+
+import kylm.util.KylmMathUtils;
+
+/**
+ * The entropies of every word in a sentence, as calculated by
+ *  LanguageModel.scoreSentence(). Each call fills its own object instead of
+ *  buffers held by the model, so one model can score sentences from several
+ *  threads at once. An object can be passed back in to be reused, which only
+ *  allocates new buffers when the length of the sentence changes.<br>
+ * Every array has one entry for each word after the first, which is the
+ *  sentence start symbol.
+ * @author neubig
+ *
+ */
+public class SentenceScores {
+
+	// the total entropy of each word
+	protected float[] wordEnts = null;
+	// the entropy of each word from the n-grams alone
+	protected float[] simpleEnts = null;
+	// the entropy of each word given its class
+	protected float[] classEnts = null;
+	// the entropy of spelling out each unknown word
+	protected float[] unkEnts = null;
+	// the number of words found at each n-gram level, with 0 for unknowns
+	protected int[] hits = null;
+
+	/**
+	 * Create an empty object, to be filled by a language model
+	 */
+	public SentenceScores() { }
+
+	/**
+	 * Create an object with zeroed buffers
+	 * @param length The number of words to be scored
+	 */
+	public SentenceScores(int length) {
+		reset(length);
+	}
+
+	/**
+	 * Clear the scores, resizing the buffers if the length has changed
+	 * @param length The number of words to be scored
+	 */
+	public void reset(int length) {
+		if(wordEnts == null || wordEnts.length != length) {
+			wordEnts = new float[length];
+			simpleEnts = new float[length];
+			classEnts = new float[length];
+			unkEnts = new float[length];
+		} else {
+			Arrays.fill(wordEnts, 0);
+			Arrays.fill(simpleEnts, 0);
+			Arrays.fill(classEnts, 0);
+			Arrays.fill(unkEnts, 0);
+		}
+		if(hits != null)
+			Arrays.fill(hits, 0);
+	}
+
+	/**
+	 * Get the buffer for counting the n-gram levels that words were found at,
+	 *  creating it if necessary
+	 * @param levels The number of levels, including 0 for unknown words
+	 * @return The zeroed buffer
+	 */
+	public int[] getHits(int levels) {
+		if(hits == null || hits.length != levels)
+			hits = new int[levels];
+		return hits;
+	}
+
+	/**
+	 * @return The number of words found at each n-gram level, with 0 for
+	 *  unknown words, or null if the model does not keep track of this
+	 */
+	public int[] getHits() { return hits; }
+
+	/**
+	 * @return The number of words scored
+	 */
+	public int getLength() { return wordEnts.length; }
+
+	public float[] getWordEntropies() { return wordEnts; }
+	public float[] getSimpleEntropies() { return simpleEnts; }
+	public float[] getClassEntropies() { return classEnts; }
+	public float[] getUnknownEntropies() { return unkEnts; }
+
+	public float getSentenceEntropy() { return KylmMathUtils.sum(wordEnts); }
+	public float getSentenceSimpleEntropy() { return KylmMathUtils.sum(simpleEnts); }
+	public float getSentenceClassEntropy() { return KylmMathUtils.sum(classEnts); }
+	public float getSentenceUnknownEntropy() { return KylmMathUtils.sum(unkEnts); }
+
+}
@@ -3,11 +3,23 @@ package kylm.model.ngram;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Vector;
 
+/**
+ * A node in the n-gram tree that can have children.<br>
+ * The root holds its children in an array indexed by id. Other nodes hold
+ *  the ids of their children in a primitive array next to the children
+ *  themselves, which is searched linearly when there are only a few children
+ *  and by binary search when there are more. Nodes with a large number of
+ *  children also keep an open-addressing hash table of positions.<br>
+ * While n-grams are being counted, new children are appended instead of
+ *  being inserted in order, and are sorted once counting is finished.
+ * @author neubig
+ *
+ */
 public final class BranchNode extends NgramNode {
 
 	private class SkipIterator implements Iterator<NgramNode> {
@@ -22,37 +34,76 @@ public final class BranchNode extends NgramNode {
 
 		@Override
 		public boolean hasNext() {
-			while(pos < root.children.size() && root.children.get(pos) == null)
+			while(pos < root.children.length && root.children[pos] == null)
 				pos++;
-			return pos < root.children.size();
+			return pos < root.children.length;
 		}
 
 		@Override
 		public NgramNode next() {
-			while(pos < root.children.size() && root.children.get(pos) == null)
+			while(pos < root.children.length && root.children[pos] == null)
 				pos++;
-			if(pos >= root.children.size())
+			if(pos >= root.children.length)
 				throw new NoSuchElementException();
 			last = pos;
-			return root.children.get(pos++);
+			return root.children[pos++];
 		}
 
 		@Override
 		public void remove() {
-			root.children.set(last, null);
+			root.children[last] = null;
 			root.childCount--;
 		}
 
 	}
 
+	private class ChildIterator implements Iterator<NgramNode> {
+
+		private int pos = 0;
+
+		@Override
+		public boolean hasNext() {
+			return pos < childCount;
+		}
+
+		@Override
+		public NgramNode next() {
+			if(pos >= childCount)
+				throw new NoSuchElementException();
+			return children[pos++];
+		}
+
+		@Override
+		public void remove() {
+			if(pos == 0)
+				throw new IllegalStateException();
+			removeChild(--pos);
+		}
+
+	}
+
 	/**
 	 * For serialization
 	 */
 	private static final long serialVersionUID = 435179356854434311L;
 
+	// nodes with this many children or less are searched linearly
+	private static final int SMALL_SIZE = 4;
+	// nodes with more than this many children are given a hash table
+	private static final int HASH_SIZE = 64;
+
 	protected float boscore = 0;
-	protected Vector<NgramNode> children = null;
+	// the children, indexed by id if childIds is null, or in the order of childIds
+	protected NgramNode[] children = null;
+	// the ids of the children
+	protected int[] childIds = null;
+	// a hash table holding the position+1 of each child, used for large nodes
+	protected int[] childIndex = null;
 	protected int childCount;
+	// whether childIds is in order
+	protected boolean sorted = true;
+	// whether n-grams are being counted, in which case sorting is put off
+	protected boolean counting = false;
 
 	public BranchNode(int id, NgramNode parent) {
 		super(id, parent);
@@ -65,44 +116,179 @@ public final class BranchNode extends NgramNode {
 
 	@Override
 	public NgramNode getChild(int id, int add) {
-		NgramNode child = null;
-		int bot = 0, top, mid = 0;
-		if(children != null) {
-			// root node is indexed lookup
-			if(parent == null) {
-				while(id >= children.size())
-					children.add(null);
-				child = children.get(id);
-			}
-			// otherwise search
+		int pos = -1;
+		// the root node is indexed lookup
+		if(isIndexed()) {
+			if(id < children.length && children[id] != null)
+				return children[id];
+		}
+		// otherwise search
+		else if(children != null) {
+			pos = findChild(id);
+			if(pos >= 0)
+				return children[pos];
+		}
+		if(add == ADD_NONE)
+			return null;
+		NgramNode child;
+		if(add == ADD_LEAF)
+			child = new NgramNode(id, this);
+		else {
+			BranchNode branch = new BranchNode(id, this);
+			branch.counting = counting;
+			child = branch;
+		}
+		if(children == null) {
+			if(parent == null)
+				setChildrenSize(id+1);
 			else {
-				top = children.size();
-				while(bot < top) {
-					mid = (bot+top)/2;
-					child = children.get(mid);
-					if(child.id > id)
-						top = mid;
-					else if(child.id < id)
-						bot = ++mid;
-					else
-						return child;
-				}
-				child = null;
+				children = new NgramNode[1];
+				childIds = new int[1];
 			}
 		}
-		if(child == null && add != ADD_NONE) {
-			if(children == null)
-				children = new Vector<NgramNode>(1);
-			child = ( add == ADD_LEAF ? new NgramNode(id, this) : new BranchNode(id, this) );
-			if(parent == null)
-				children.set(id, child);
-			else
-				children.insertElementAt(child, mid);
+		if(isIndexed()) {
+			if(id >= children.length)
+				setChildrenSize(Math.max(id+1, children.length*2));
+			children[id] = child;
 			childCount++;
 		}
+		else
+			insertChild(-pos-1, child);
 		return child;
 	}
 
+	// check whether the children are held in an array indexed by id
+	private final boolean isIndexed() {
+		return children != null && childIds == null;
+	}
+
+	// find the position of a child, or -(the insertion point)-1 if it does
+	//  not exist
+	private int findChild(int id) {
+		// large nodes use the hash table
+		if(childIndex != null) {
+			int mask = childIndex.length-1;
+			for(int slot = getSlot(id, mask), pos; (pos = childIndex[slot]) != 0; slot = (slot+1) & mask)
+				if(childIds[pos-1] == id)
+					return pos-1;
+			return -childCount-1;
+		}
+		// small or unsorted nodes are searched linearly
+		if(!sorted || childCount <= SMALL_SIZE) {
+			int i;
+			for(i = 0; i < childCount; i++) {
+				if(childIds[i] == id)
+					return i;
+				else if(sorted && childIds[i] > id)
+					break;
+			}
+			return -i-1;
+		}
+		// others use binary search
+		int bot = 0, top = childCount, mid;
+		while(bot < top) {
+			mid = (bot+top) >>> 1;
+			if(childIds[mid] > id)
+				top = mid;
+			else if(childIds[mid] < id)
+				bot = mid+1;
+			else
+				return mid;
+		}
+		return -bot-1;
+	}
+
+	// insert a child at a position, appending it instead if the positions in
+	//  the hash table must stay valid or sorting is being put off
+	private void insertChild(int pos, NgramNode child) {
+		if(childCount == childIds.length) {
+			int size = (childCount < SMALL_SIZE ? SMALL_SIZE : childCount*2);
+			childIds = Arrays.copyOf(childIds, size);
+			children = Arrays.copyOf(children, size);
+		}
+		if(counting || childIndex != null)
+			pos = childCount;
+		if(pos < childCount) {
+			System.arraycopy(childIds, pos, childIds, pos+1, childCount-pos);
+			System.arraycopy(children, pos, children, pos+1, childCount-pos);
+		}
+		else if(childCount > 0 && childIds[childCount-1] > child.id)
+			sorted = false;
+		childIds[pos] = child.id;
+		children[pos] = child;
+		childCount++;
+		if(childIndex != null && childCount*2 <= childIndex.length)
+			addToIndex(pos);
+		else if(childCount > HASH_SIZE)
+			makeIndex();
+	}
+
+	private void removeChild(int pos) {
+		System.arraycopy(childIds, pos+1, childIds, pos, childCount-pos-1);
+		System.arraycopy(children, pos+1, children, pos, childCount-pos-1);
+		children[--childCount] = null;
+		if(childIndex != null)
+			makeIndex();
+	}
+
+	// put the children in order of id
+	private void sortChildren() {
+		if(sorted)
+			return;
+		// ids are unique, so sort the ids and positions together
+		long[] keys = new long[childCount];
+		for(int i = 0; i < childCount; i++)
+			keys[i] = ((long)childIds[i] << 32) | i;
+		Arrays.sort(keys);
+		NgramNode[] newChildren = new NgramNode[children.length];
+		for(int i = 0; i < childCount; i++) {
+			childIds[i] = (int)(keys[i] >> 32);
+			newChildren[i] = children[(int)keys[i]];
+		}
+		children = newChildren;
+		sorted = true;
+		if(childIndex != null)
+			makeIndex();
+	}
+
+	private static int getSlot(int id, int mask) {
+		int h = id * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	// build a hash table that is between a quarter and half full
+	private void makeIndex() {
+		childIndex = new int[Integer.highestOneBit(Math.max(childCount, 1))*4];
+		for(int i = 0; i < childCount; i++)
+			addToIndex(i);
+	}
+
+	private void addToIndex(int pos) {
+		int mask = childIndex.length-1, slot = getSlot(childIds[pos], mask);
+		while(childIndex[slot] != 0)
+			slot = (slot+1) & mask;
+		childIndex[slot] = pos+1;
+	}
+
+	/**
+	 * Set whether n-grams are being counted under this node and its
+	 *  descendants. While counting, new children are appended without being
+	 *  sorted, and when counting is finished the children of every node are
+	 *  sorted by id.
+	 * @param counting Whether n-grams are being counted
+	 */
+	public void setCounting(boolean counting) {
+		this.counting = counting;
+		if(children == null)
+			return;
+		if(!counting)
+			sortChildren();
+		int size = (isIndexed() ? children.length : childCount);
+		for(int i = 0; i < size; i++)
+			if(children[i] instanceof BranchNode)
+				((BranchNode)children[i]).setCounting(counting);
+	}
+
 	@Override
 	public boolean hasChildren() {
 		return children != null;
@@ -135,24 +321,41 @@ public final class BranchNode extends NgramNode {
 	public boolean equals(Object obj) {
 		try {
 			BranchNode nod = (BranchNode)obj;
-			return
-				super.equals(nod) &&
+			if(!(super.equals(nod) &&
 				eq(childCount, nod.childCount) &&
 				eq(boscore, nod.boscore) &&
-				eq(children, nod.children);
+				hasChildren() == nod.hasChildren()))
+				return false;
+			// compare the children in order of id
+			Iterator<NgramNode> it = nod.iterator();
+			for(NgramNode child : this)
+				if(!it.hasNext() || !eq(child, it.next()))
+					return false;
+			return !it.hasNext();
 		} catch(Exception e) { }
 		return false;
 	}
 
 	@Override
 	public void setChildren(Vector<NgramNode> newChildren) {
-		if(parent == null) {
-			Collections.fill(children, null);
+		if(isIndexed()) {
+			Arrays.fill(children, null);
 			for(NgramNode child : newChildren)
-				children.set(child.getId(), child);
-		} else
-			children = new Vector<NgramNode>(newChildren);
+				children[child.getId()] = child;
+		} else {
+			children = newChildren.toArray(new NgramNode[newChildren.size()]);
+			childIds = new int[children.length];
+			sorted = true;
+			for(int i = 0; i < children.length; i++) {
+				childIds[i] = children[i].id;
+				if(i > 0 && childIds[i-1] > childIds[i])
+					sorted = false;
+			}
+			childIndex = null;
+		}
 		childCount = newChildren.size();
+		if(childIds != null && childCount > HASH_SIZE)
+			makeIndex();
 	}
 
 	///////////////////////////////
@@ -164,19 +367,18 @@ public final class BranchNode extends NgramNode {
 		if(children == null)
 			out.writeInt(0);
 		else {
-			if(children.size() == childCount)
-				out.writeInt(children.size()*-1);
+			int size = (isIndexed() ? children.length : childCount);
+			if(size == childCount)
+				out.writeInt(size*-1);
 			else {
-				out.writeInt(children.size());
+				out.writeInt(size);
 				out.writeInt(childCount);
 			}
 			out.writeFloat(boscore);
 			int check = 0;
-			for(NgramNode node : children) {
-				if(node != null) {
-					out.writeObject(node);
-					check++;
-				}
+			for(NgramNode node : this) {
+				out.writeObject(node);
+				check++;
 			}
 			if(check != childCount)
 				throw new IllegalArgumentException("wrote a wrong number of values");
@@ -185,6 +387,7 @@ public final class BranchNode extends NgramNode {
 	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
 		id = in.readInt();
 		score = in.readFloat();
+		sorted = true;
 		int size = in.readInt();
 		if(size != 0) {
 			if(size < 0) {
@@ -193,32 +396,81 @@ public final class BranchNode extends NgramNode {
 			}
 			else
 				childCount = in.readInt();
-			children = new Vector<NgramNode>(Math.abs(size));
-			children.setSize(Math.abs(size));
+			children = new NgramNode[size];
+			if(size == childCount)
+				childIds = new int[size];
 			boscore = in.readFloat();
 			for(int i = 0; i < childCount; i++) {
 				NgramNode node = (NgramNode)in.readObject();
 				if(size != childCount)
-					children.set(node.id, node);
-				else
-					children.set(i, node);
+					children[node.id] = node;
+				else {
+					children[i] = node;
+					childIds[i] = node.id;
+				}
 				node.parent = this;
 			}
+			if(childIds != null && childCount > HASH_SIZE)
+				makeIndex();
 		}
 	}
 
+	/**
+	 * Hold the children of this node in an array indexed by id, with room
+	 *  for ids less than size. This is used for the root, which has a child
+	 *  for almost every id.
+	 * @param size The size of the array
+	 */
 	public void setChildrenSize(int size) {
-		if(children == null)
-			children = new Vector<NgramNode>(size);
-		children.setSize(size);
+		if(childIds != null) {
+			for(int i = 0; i < childCount; i++)
+				size = Math.max(size, childIds[i]+1);
+			NgramNode[] newChildren = new NgramNode[size];
+			for(int i = 0; i < childCount; i++)
+				newChildren[childIds[i]] = children[i];
+			children = newChildren;
+			childIds = null;
+			childIndex = null;
+			sorted = true;
+		}
+		else
+			children = (children == null ? new NgramNode[size] : Arrays.copyOf(children, size));
+	}
+
+	/**
+	 * Move every child of another node that holds its children in an array
+	 *  indexed by id, such as the root of a tree counted by another thread,
+	 *  under this node. The two nodes must not have a child in common, and
+	 *  the other node is left without children.
+	 * @param other The node to take the children of
+	 */
+	public void moveChildren(BranchNode other) {
+		if(other.children == null)
+			return;
+		if(!other.isIndexed())
+			throw new IllegalArgumentException("Only the children of a node indexed by id can be moved");
+		if(!isIndexed() || children.length < other.children.length)
+			setChildrenSize(Math.max(other.children.length, children == null ? 0 : children.length));
+		for(int i = 0; i < other.children.length; i++) {
+			NgramNode child = other.children[i];
+			if(child == null)
+				continue;
+			if(children[i] != null)
+				throw new IllegalArgumentException("Both nodes have a child with id "+i);
+			child.parent = this;
+			children[i] = child;
+			childCount++;
+		}
+		other.children = null;
+		other.childCount = 0;
 	}
 
 	@Override
 	public Iterator<NgramNode> iterator() {
-		if(parent != null)
-			return children.iterator();
-		else
+		if(isIndexed())
 			return new SkipIterator(this);
+		sortChildren();
+		return new ChildIterator();
 	}
 
 	@Override
@@ -226,4 +478,20 @@ public final class BranchNode extends NgramNode {
 		return childCount;
 	}
 
+	@Override
+	public long getMemorySize() {
+		// the node's own fields plus boscore, the child arrays and the flags
+		long size = 56;
+		if(children != null)
+			size += getArraySize(children.length);
+		if(childIds != null)
+			size += getArraySize(childIds.length);
+		if(childIndex != null)
+			size += getArraySize(childIndex.length);
+		if(childCount != 0)
+			for(NgramNode child : this)
+				size += child.getMemorySize();
+		return size;
+	}
+
 }
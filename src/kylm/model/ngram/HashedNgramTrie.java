@@ -0,0 +1,306 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import kylm.util.BitArray;
+
+/**
+ * An n-gram trie where every level above the unigrams is stored in an open
+ * addressing hash table. Each n-gram is keyed by a 64-bit hash of its whole
+ * sequence of ids, which can be calculated without visiting its prefixes, so
+ * finding an n-gram only requires probing one table. Unigrams are indexed
+ * directly by id.<br>
+ * Keys only narrow down the search: a slot whose key matches is only
+ * returned once the id of its last word, and the ids of the chain of
+ * prefixes it points to, match as well, so lookups never return the wrong
+ * n-gram. Two n-grams share a key with a probability of about m^2/2^65 for m
+ * n-grams on a level (less than 10^-7 for a billion n-grams), in which case
+ * probing just takes a little longer.<br>
+ * The children of a node are not stored next to each other, so they cannot
+ * be listed, and this trie can be used for scoring, but not for writing,
+ * packing, quantizing or compressing models.
+ * @author neubig
+ *
+ */
+public class HashedNgramTrie extends NgramTrie {
+
+	// the key of the root, and the key of empty slots
+	private static final long ROOT_KEY = 0x5bd1e9955bd1e995L;
+	private static final long EMPTY = 0;
+
+	// the length of the longest n-grams
+	private int n = 0;
+
+	// the tables for each level, with level 0 holding only the root and
+	//  level 1 indexed by id
+	private long[][] keys = null;
+	private int[][] ids = null;
+	private float[][] scores = null;
+	private float[][] backoffs = null;
+	private BitArray[] hasChildren = null;
+	// the slot of the fallback on the previous level, for levels 3 and up
+	private int[][] fallbacks = null;
+	// the slot of the prefix on the previous level, for levels 2 and up
+	private int[][] parents = null;
+
+	/**
+	 * Create a hashed trie holding the same n-grams as a packed trie
+	 * @param trie The packed trie
+	 */
+	public HashedNgramTrie(PackedNgramTrie trie) {
+		n = trie.getN();
+		keys = new long[n+1][];
+		ids = new int[n+1][];
+		scores = new float[n+1][];
+		backoffs = new float[n][];
+		hasChildren = new BitArray[n];
+		fallbacks = new int[n+1][];
+		parents = new int[n+1][];
+		// the root and unigrams are stored in the same way as the packed trie
+		long[] parentKeys = new long[] { ROOT_KEY }, myKeys;
+		int[] parentSlots = null, myParents = null;
+		for(int lev = 0; lev <= n; lev++) {
+			final int size = trie.ids[lev].length;
+			// find the keys and prefixes of every n-gram on this level
+			if(lev == 0)
+				myKeys = parentKeys;
+			else {
+				myKeys = new long[size];
+				myParents = new int[size];
+				final int[] offs = trie.offsets[lev-1];
+				for(int p = 0; p < parentKeys.length; p++) {
+					for(int i = offs[p]; i < offs[p+1]; i++) {
+						myKeys[i] = getKey(parentKeys[p], trie.ids[lev][i]);
+						myParents[i] = (parentSlots == null ? p : parentSlots[p]);
+					}
+				}
+			}
+			// copy directly or hash into the table
+			int[] slots = null;
+			if(lev < 2) {
+				ids[lev] = trie.ids[lev];
+				scores[lev] = trie.scores[lev];
+				if(lev < n)
+					backoffs[lev] = trie.backoffs[lev];
+			} else {
+				int capacity = 2;
+				while(capacity < size+size/2)
+					capacity *= 2;
+				keys[lev] = new long[capacity];
+				ids[lev] = new int[capacity];
+				parents[lev] = new int[capacity];
+				scores[lev] = new float[capacity];
+				if(lev < n)
+					backoffs[lev] = new float[capacity];
+				slots = new int[size];
+				for(int i = 0; i < size; i++) {
+					int slot = getSlot(myKeys[i], capacity-1);
+					while(keys[lev][slot] != EMPTY)
+						slot = (slot+1) & (capacity-1);
+					keys[lev][slot] = myKeys[i];
+					ids[lev][slot] = trie.ids[lev][i];
+					parents[lev][slot] = myParents[i];
+					scores[lev][slot] = trie.scores[lev][i];
+					if(lev < n)
+						backoffs[lev][slot] = trie.backoffs[lev][i];
+					slots[i] = slot;
+				}
+				if(lev > 2) {
+					fallbacks[lev] = new int[capacity];
+					for(int i = 0; i < size; i++) {
+						final int fb = trie.fallbacks[lev][i];
+						fallbacks[lev][slots[i]] = (fb == -1 ? -1 : parentSlots[fb]);
+					}
+				}
+			}
+			// mark the n-grams that have children
+			if(lev < n) {
+				hasChildren[lev] = new BitArray(ids[lev].length, 1);
+				final int[] offs = trie.offsets[lev];
+				for(int i = 0; i < size; i++)
+					if(offs[i+1] > offs[i])
+						hasChildren[lev].set(slots == null ? i : slots[i], 1);
+			}
+			parentKeys = myKeys;
+			parentSlots = slots;
+		}
+	}
+
+	/**
+	 * Hash an n-gram from the key of its prefix. Lookups are exact whatever
+	 *  this returns, but n-grams that share a key take longer to find.
+	 * @param key The key of the prefix
+	 * @param id The id of the last word
+	 * @return The hash of the n-gram
+	 */
+	protected long hash(long key, int id) {
+		long z = key * 0x9E3779B97F4A7C15L + id + 1;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	// get the key of an n-gram from the key of its prefix, which is never
+	//  the key of empty slots
+	private long getKey(long key, int id) {
+		final long z = hash(key, id);
+		return (z == EMPTY ? 1 : z);
+	}
+
+	private static int getSlot(long key, int mask) {
+		return (int)(key ^ (key >>> 32)) & mask;
+	}
+
+	// find the slot of the child of a prefix, or -1 if it does not exist
+	private int find(int lev, long key, int parent, int id) {
+		final long[] myKeys = keys[lev];
+		final int[] myIds = ids[lev], myParents = parents[lev];
+		final int mask = myKeys.length-1;
+		long k;
+		for(int slot = getSlot(key, mask); (k = myKeys[slot]) != EMPTY; slot = (slot+1) & mask)
+			if(k == key && myIds[slot] == id && myParents[slot] == parent)
+				return slot;
+		return -1;
+	}
+
+	// find the slot of an n-gram, or -1 if it does not exist
+	private int find(int lev, long key, int[] ngram, int start) {
+		final long[] myKeys = keys[lev];
+		final int mask = myKeys.length-1;
+		long k;
+		for(int slot = getSlot(key, mask); (k = myKeys[slot]) != EMPTY; slot = (slot+1) & mask)
+			if(k == key && matches(lev, slot, ngram, start))
+				return slot;
+		return -1;
+	}
+
+	// check whether a slot holds the n-gram that starts at start
+	private boolean matches(int lev, int slot, int[] ngram, int start) {
+		for(int l = lev; l > 1; l--) {
+			if(ids[l][slot] != ngram[start+l-1])
+				return false;
+			slot = parents[l][slot];
+		}
+		return slot == ngram[start];
+	}
+
+	// get the key of an existing node
+	private long getKey(long node) {
+		final int lev = getLevel(node);
+		if(lev == 0)
+			return ROOT_KEY;
+		else if(lev == 1)
+			return getKey(ROOT_KEY, (int)getIndex(node));
+		return keys[lev][(int)getIndex(node)];
+	}
+
+	@Override
+	public int getN() {
+		return n;
+	}
+
+	@Override
+	public long getMemorySize() {
+		long size = getArraySize(ids) + getArraySize(scores) + getArraySize(backoffs) +
+			getArraySize(fallbacks) + getArraySize(parents) + getBitArraySize(hasChildren);
+		for(long[] arr : keys)
+			if(arr != null)
+				size += 8L*arr.length;
+		return size;
+	}
+
+	@Override
+	public long getChild(long node, int id) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return NONE;
+		if(lev == 0)
+			return (id >= 0 && id < ids[1].length && ids[1][id] == id ? getHandle(1, id) : NONE);
+		final int slot = find(lev+1, getKey(getKey(node), id), (int)getIndex(node), id);
+		return (slot == -1 ? NONE : getHandle(lev+1, slot));
+	}
+
+	@Override
+	public long findNgram(int[] ngram, int start, int end) {
+		final int lev = end-start;
+		if(lev > n)
+			return NONE;
+		else if(lev < 2)
+			return (lev == 0 ? getRoot() : getChild(getRoot(), ngram[start]));
+		long key = ROOT_KEY;
+		for(int i = start; i < end; i++)
+			key = getKey(key, ngram[i]);
+		final int slot = find(lev, key, ngram, start);
+		return (slot == -1 ? NONE : getHandle(lev, slot));
+	}
+
+	@Override
+	public long getFallback(long node) {
+		final int lev = getLevel(node);
+		if(lev < 2)
+			return (lev == 0 ? NONE : getRoot());
+		final int slot = (int)getIndex(node);
+		// bigrams fall back to the unigram of their last word
+		if(lev == 2)
+			return getChild(getRoot(), ids[2][slot]);
+		final int fb = fallbacks[lev][slot];
+		return (fb == -1 ? NONE : getHandle(lev-1, fb));
+	}
+
+	@Override
+	public int getId(long node) {
+		return ids[getLevel(node)][(int)getIndex(node)];
+	}
+
+	@Override
+	public float getScore(long node) {
+		return scores[getLevel(node)][(int)getIndex(node)];
+	}
+
+	@Override
+	public float getBackoffScore(long node) {
+		final int lev = getLevel(node);
+		return (lev < n ? backoffs[lev][(int)getIndex(node)] : Float.NaN);
+	}
+
+	@Override
+	public boolean hasChildren(long node) {
+		final int lev = getLevel(node);
+		return lev < n && hasChildren[lev].get(getIndex(node)) != 0;
+	}
+
+	@Override
+	public int getChildCount(long node) {
+		throw new IllegalArgumentException("The children of an n-gram in a HashedNgramTrie cannot be counted");
+	}
+
+	@Override
+	public long getChildBegin(long node) {
+		throw new IllegalArgumentException("The children of an n-gram in a HashedNgramTrie cannot be listed");
+	}
+
+	@Override
+	public long getChildEnd(long node) {
+		throw new IllegalArgumentException("The children of an n-gram in a HashedNgramTrie cannot be listed");
+	}
+
+}
@@ -0,0 +1,345 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+
+import kylm.model.Lattice;
+
+/**
+ * A class that scores word lattices with an n-gram model without listing
+ *  their paths. Each node of the lattice is split into one node for each
+ *  model state that it can be reached in, and the pairs of node and state
+ *  are searched in topological order, so the time taken grows with the
+ *  number of arcs and states instead of the number of paths.<br>
+ * The score of an arc is its acoustic score times the acoustic scale plus
+ *  the model's score of its word times the model scale, and the language
+ *  model scores in the lattice are ignored. Arcs with Lattice.NULL_WORD or
+ *  the sentence start or terminal symbol do not consume a word, as the
+ *  start of the sentence is the start node and its end is scored at the end
+ *  node if terminals are counted.<br>
+ * The model must be packed or frozen, as states are found with
+ *  NgramLM.score().
+ * @author neubig
+ *
+ */
+public class LatticeScorer {
+
+	private NgramLM lm = null;
+	private float lmScale = 1, acousticScale = 1;
+
+	/**
+	 * The result of scoring a lattice
+	 */
+	public class Result {
+		private Lattice lattice;
+		// the pairs of node and state that can be reached, with the sum and
+		//  maximum of the scores of the paths that reach them, and the pair
+		//  and arc before on the best path
+		private int size = 0;
+		private int[] nodes = new int[16];
+		private long[] states = new long[16];
+		private double[] forward = new double[16];
+		private float[] best = new float[16];
+		private int[] backPairs = new int[16], backArcs = new int[16];
+		// the arcs between pairs, with their model scores
+		private int arcSize = 0;
+		private int[] arcFroms = new int[16], arcTos = new int[16], arcs = new int[16];
+		private float[] arcScores = new float[16];
+		// the pairs at the end node, with the score of the terminal symbol
+		private int[] ends = null;
+		private float[] endScores = null;
+		private double forwardScore = Double.NEGATIVE_INFINITY;
+		private float bestScore = Float.NEGATIVE_INFINITY;
+		private int bestEnd = -1;
+
+		private Result(Lattice lattice) {
+			this.lattice = lattice;
+		}
+
+		// add a pair of node and state
+		private int addPair(int node, long state) {
+			if(size == nodes.length) {
+				int cap = size*2;
+				nodes = Arrays.copyOf(nodes, cap);
+				states = Arrays.copyOf(states, cap);
+				forward = Arrays.copyOf(forward, cap);
+				best = Arrays.copyOf(best, cap);
+				backPairs = Arrays.copyOf(backPairs, cap);
+				backArcs = Arrays.copyOf(backArcs, cap);
+			}
+			nodes[size] = node;
+			states[size] = state;
+			forward[size] = Double.NEGATIVE_INFINITY;
+			best[size] = Float.NEGATIVE_INFINITY;
+			backPairs[size] = -1;
+			backArcs[size] = -1;
+			return size++;
+		}
+
+		// add an arc between pairs
+		private void addArc(int from, int to, int arc, float score) {
+			if(arcSize == arcFroms.length) {
+				int cap = arcSize*2;
+				arcFroms = Arrays.copyOf(arcFroms, cap);
+				arcTos = Arrays.copyOf(arcTos, cap);
+				arcs = Arrays.copyOf(arcs, cap);
+				arcScores = Arrays.copyOf(arcScores, cap);
+			}
+			arcFroms[arcSize] = from;
+			arcTos[arcSize] = to;
+			arcs[arcSize] = arc;
+			arcScores[arcSize++] = score;
+		}
+
+		/**
+		 * @return The log10 of the sum of the probabilities of every path
+		 *  through the lattice, as found by the forward algorithm
+		 */
+		public float getForwardScore() {
+			return (float)forwardScore;
+		}
+
+		/**
+		 * @return The score of the best path through the lattice
+		 */
+		public float getBestScore() {
+			return bestScore;
+		}
+
+		/**
+		 * @return The arcs of the best path through the lattice, in order,
+		 *  or null if the end node cannot be reached
+		 */
+		public int[] getBestPath() {
+			if(bestEnd == -1)
+				return null;
+			int length = 0;
+			for(int pair = bestEnd; backPairs[pair] != -1; pair = backPairs[pair])
+				length++;
+			int[] ret = new int[length];
+			for(int pair = bestEnd; backPairs[pair] != -1; pair = backPairs[pair])
+				ret[--length] = backArcs[pair];
+			return ret;
+		}
+
+		/**
+		 * @return The words of the best path through the lattice, or null if
+		 *  the end node cannot be reached
+		 */
+		public String[] getBestWords() {
+			int[] path = getBestPath();
+			if(path == null)
+				return null;
+			Vector<String> ret = new Vector<String>(path.length);
+			for(int arc : path)
+				if(getWordId(lattice, arc) != -1)
+					ret.add(lattice.getArcWord(arc));
+			return ret.toArray(new String[ret.size()]);
+		}
+
+		/**
+		 * Expand the lattice to the order of the model, so that every node has
+		 *  a single model state and the model score of every arc is known. The
+		 *  new lattice has one node for every pair of node and state, and one
+		 *  more end node that is entered by arcs with the terminal symbol,
+		 *  which hold its score if terminals are counted. The model scores of
+		 *  the arcs are unscaled log10 probabilities.
+		 * @return The expanded lattice
+		 */
+		public Lattice expand() {
+			Lattice ret = new Lattice();
+			ret.setName(lattice.getName());
+			for(int i = 0; i < size; i++)
+				ret.addNode(lattice.getTime(nodes[i]));
+			for(int i = 0; i < arcSize; i++)
+				ret.addArc(arcFroms[i], arcTos[i], lattice.getArcWord(arcs[i]), lattice.getAcousticScore(arcs[i]), arcScores[i]);
+			int end = ret.addNode(lattice.getTime(lattice.getEnd()));
+			for(int i = 0; i < ends.length; i++)
+				ret.addArc(ends[i], end, lm.getTerminalSymbol(), 0, endScores[i]);
+			ret.setStart(0);
+			ret.setEnd(end);
+			return ret;
+		}
+
+		/**
+		 * @return The number of pairs of node and state, which is the number of
+		 *  nodes in the expanded lattice without the end node
+		 */
+		public int getPairCount() {
+			return size;
+		}
+
+		/**
+		 * @return The lattice that was scored
+		 */
+		public Lattice getLattice() {
+			return lattice;
+		}
+	}
+
+	/**
+	 * Create a scorer
+	 * @param lm The model to score with, which must be packed or frozen
+	 */
+	public LatticeScorer(NgramLM lm) {
+		if(lm.getTrie() == null)
+			throw new IllegalArgumentException("The model must be packed or frozen before it can score lattices");
+		this.lm = lm;
+	}
+
+	// get the id of the word of an arc, or -1 if it does not consume a word
+	private int getWordId(Lattice lattice, int arc) {
+		if(lattice.isNull(arc))
+			return -1;
+		String word = lattice.getArcWord(arc);
+		if(word.equals(lm.getStartSymbol()) || word.equals(lm.getTerminalSymbol()))
+			return -1;
+		return lm.getId(word);
+	}
+
+	/**
+	 * Score a lattice, finding the forward score, the best path and the pairs
+	 *  of node and state that the lattice can be expanded into
+	 * @param lattice The lattice to score
+	 * @return The result
+	 */
+	public Result score(Lattice lattice) {
+		if(lattice.getStart() == -1 || lattice.getEnd() == -1)
+			throw new IllegalArgumentException("Lattice "+lattice.getName()+" has no start or end node");
+		Result res = new Result(lattice);
+		int[] order = lattice.getTopologicalOrder();
+		int[][] outs = lattice.getOutArcs();
+		int[] ids = new int[lattice.getArcCount()];
+		for(int i = 0; i < ids.length; i++)
+			ids[i] = getWordId(lattice, i);
+		// the pairs at each node, by state
+		Vector<HashMap<Long, Integer>> pairs = new Vector<HashMap<Long, Integer>>(lattice.getNodeCount());
+		for(int i = 0; i < lattice.getNodeCount(); i++)
+			pairs.add(null);
+		HashMap<Long, Integer> startPairs = new HashMap<Long, Integer>();
+		int first = res.addPair(lattice.getStart(), lm.getStartState());
+		res.forward[first] = 0;
+		res.best[first] = 0;
+		startPairs.put(res.states[first], first);
+		pairs.set(lattice.getStart(), startPairs);
+		long[] nextState = new long[1];
+		for(int node : order) {
+			HashMap<Long, Integer> here = pairs.get(node);
+			if(here == null || node == lattice.getEnd())
+				continue;
+			for(int pair : here.values()) {
+				long state = res.states[pair];
+				for(int arc : outs[node]) {
+					float lmScore = 0;
+					long next = state;
+					if(ids[arc] != -1) {
+						lmScore = lm.score(state, ids[arc], nextState);
+						next = nextState[0];
+					}
+					float score = acousticScale*lattice.getAcousticScore(arc)+lmScale*lmScore;
+					// find the pair that the arc enters
+					int to = lattice.getArcTo(arc);
+					HashMap<Long, Integer> there = pairs.get(to);
+					if(there == null) {
+						there = new HashMap<Long, Integer>();
+						pairs.set(to, there);
+					}
+					Integer target = there.get(next);
+					if(target == null) {
+						target = res.addPair(to, next);
+						there.put(next, target);
+					}
+					res.forward[target] = logAdd(res.forward[target], res.forward[pair]+score);
+					if(res.best[pair]+score > res.best[target]) {
+						res.best[target] = res.best[pair]+score;
+						res.backPairs[target] = pair;
+						res.backArcs[target] = arc;
+					}
+					res.addArc(pair, target, arc, lmScore);
+				}
+			}
+		}
+		// score the end of the sentence at the end node
+		HashMap<Long, Integer> endPairs = pairs.get(lattice.getEnd());
+		int count = (endPairs == null ? 0 : endPairs.size());
+		res.ends = new int[count];
+		res.endScores = new float[count];
+		if(endPairs != null) {
+			int i = 0;
+			for(int pair : endPairs.values()) {
+				res.ends[i] = pair;
+				res.endScores[i] = (lm.getCountTerminals() ? lm.score(res.states[pair], 0, null) : 0);
+				float score = lmScale*res.endScores[i++];
+				res.forwardScore = logAdd(res.forwardScore, res.forward[pair]+score);
+				if(res.best[pair]+score > res.bestScore) {
+					res.bestScore = res.best[pair]+score;
+					res.bestEnd = pair;
+				}
+			}
+		}
+		return res;
+	}
+
+	// add two log10 probabilities
+	private static double logAdd(double a, double b) {
+		if(a == Double.NEGATIVE_INFINITY)
+			return b;
+		if(b == Double.NEGATIVE_INFINITY)
+			return a;
+		if(a < b) {
+			double t = a; a = b; b = t;
+		}
+		return a+Math.log10(1+Math.pow(10, b-a));
+	}
+
+	/**
+	 * @return The weight of the model's scores
+	 */
+	public float getLMScale() {
+		return lmScale;
+	}
+
+	/**
+	 * @param lmScale The weight of the model's scores
+	 */
+	public void setLMScale(float lmScale) {
+		this.lmScale = lmScale;
+	}
+
+	/**
+	 * @return The weight of the acoustic scores
+	 */
+	public float getAcousticScale() {
+		return acousticScale;
+	}
+
+	/**
+	 * @param acousticScale The weight of the acoustic scores
+	 */
+	public void setAcousticScale(float acousticScale) {
+		this.acousticScale = acousticScale;
+	}
+
+}
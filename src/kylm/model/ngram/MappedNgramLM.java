@@ -0,0 +1,457 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+import kylm.model.ClassMap;
+import kylm.model.LanguageModel;
+import kylm.model.ngram.smoother.NgramSmoother;
+import kylm.util.BitArray;
+import kylm.util.EliasFanoArray;
+import kylm.util.MappedSymbolSet;
+import kylm.util.SymbolSet;
+
+/**
+ * An n-gram model that is read in place from a file that has been mapped into
+ * memory, so it can be used almost as soon as it is opened, and the pages of
+ * the file can be shared by every process that uses the same model.<br>
+ * The file holds the following, all in big-endian order:
+ * <ul>
+ * <li>A magic number and the version of the format</li>
+ * <li>The length of the settings, followed by the settings of the model,
+ *  including any unknown word models and class map, as serialized objects</li>
+ * <li>The vocabulary: the UTF-8 bytes of every symbol and alias, their
+ *  offsets, the ids of the aliases, and a hash table of symbols</li>
+ * <li>For each level of the trie from 0 to n: the ids and scores, and the
+ *  backoffs and child offsets for all but the last level, and the index of
+ *  the fallback of each n-gram for levels 3 and up. If the model has
+ *  been quantized, each set of scores or backoffs is held as a codebook
+ *  followed by the packed codes.</li>
+ * </ul>
+ * If the model has been compressed into a SuccinctNgramTrie, each level
+ * instead holds the unigram bits or the Elias-Fano coded ids, the codebooks
+ * and codes of the scores and backoffs, the Elias-Fano coded child offsets,
+ * and the packed fallbacks. Each Elias-Fano array is stored as its size and
+ * largest value followed by its low and high bits.
+ * Each array is preceded by its number of elements as a long. The arrays are
+ * laid out in the same way as in PackedNgramTrie.<br>
+ * The model cannot be trained further.
+ * @author neubig
+ *
+ */
+public class MappedNgramLM extends NgramLM {
+
+	private static final long serialVersionUID = 7312058496124553079L;
+
+	/**
+	 * The number at the beginning of every file ("KYLM")
+	 */
+	public static final int MAGIC = 0x4b594c4d;
+
+	/**
+	 * The version of the format
+	 */
+	public static final int VERSION = 1;
+
+	// the ways that the trie can be laid out
+	private static final int PLAIN_LAYOUT = 0;
+	private static final int QUANTIZED_LAYOUT = 1;
+	private static final int SUCCINCT_LAYOUT = 2;
+
+	// the source of the data being read
+	private transient FileChannel channel = null;
+	private transient ByteBuffer data = null;
+	private transient long pos = 0;
+
+	/**
+	 * Map a model from a file
+	 * @param fileName The name of the file
+	 * @throws IOException If the file could not be read or is not in the proper format
+	 */
+	public MappedNgramLM(String fileName) throws IOException {
+		super(-1);
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			channel = file.getChannel();
+			load();
+		} finally {
+			// mappings stay valid after the file is closed
+			channel = null;
+			file.close();
+		}
+	}
+
+	/**
+	 * Read a model from a stream. As the stream cannot be mapped, the whole
+	 *  model is read into memory first.
+	 * @param is The stream to read from
+	 * @throws IOException If the stream could not be read or is not in the proper format
+	 */
+	public MappedNgramLM(InputStream is) throws IOException {
+		super(-1);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buff = new byte[65536];
+		int len;
+		while((len = is.read(buff)) != -1)
+			bytes.write(buff, 0, len);
+		data = ByteBuffer.wrap(bytes.toByteArray());
+		load();
+		data = null;
+	}
+
+	// get the next region of the data
+	private ByteBuffer getRegion(long len) throws IOException {
+		ByteBuffer ret;
+		if(channel != null) {
+			if(pos+len > channel.size())
+				throw new IOException("Unexpected end of mapped model");
+			ret = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+		} else {
+			if(pos+len > data.limit())
+				throw new IOException("Unexpected end of mapped model");
+			ret = data.duplicate();
+			ret.position((int)pos);
+			ret.limit((int)(pos+len));
+			ret = ret.slice();
+		}
+		pos += len;
+		return ret;
+	}
+
+	private ByteBuffer getBytes() throws IOException {
+		return getRegion(getRegion(8).getLong());
+	}
+	private IntBuffer getInts() throws IOException {
+		return getRegion(getRegion(8).getLong()*4).asIntBuffer();
+	}
+	private FloatBuffer getFloats() throws IOException {
+		return getRegion(getRegion(8).getLong()*4).asFloatBuffer();
+	}
+
+	private LongBuffer getLongs() throws IOException {
+		return getRegion(getRegion(8).getLong()*8).asLongBuffer();
+	}
+	// codebooks are small, so they are copied into memory
+	private float[] getCodebook() throws IOException {
+		FloatBuffer buff = getFloats();
+		float[] ret = new float[buff.limit()];
+		buff.get(ret);
+		return ret;
+	}
+
+	private void load() throws IOException {
+		ByteBuffer head = getRegion(12);
+		if(head.getInt() != MAGIC)
+			throw new IOException("Not a mapped n-gram model");
+		int version = head.getInt();
+		if(version != VERSION)
+			throw new IOException("Unsupported mapped model version "+version);
+		// read the settings
+		ByteBuffer settings = getRegion(head.getInt());
+		byte[] b = new byte[settings.limit()];
+		settings.get(b);
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(b));
+		int unigramCount, layout;
+		try {
+			name = (String) in.readObject();
+			symbol = (String) in.readObject();
+			regex = (Pattern) in.readObject();
+			closed = in.readBoolean();
+			countTerminals = in.readBoolean();
+			maxLength = in.readInt();
+			vocabFrequency = in.readInt();
+			vocabLimit = in.readInt();
+			startSymbol = (String) in.readObject();
+			terminalSymbol = (String) in.readObject();
+			ukSymbol = (String) in.readObject();
+			ukModels = (LanguageModel[]) in.readObject();
+			ukModelCount = (ukModels == null ? 1 : ukModels.length);
+			classMap = (ClassMap) in.readObject();
+			setN(in.readInt());
+			counts = (long[]) in.readObject();
+			smoother = (NgramSmoother) in.readObject();
+			unigramCount = in.readInt();
+			layout = in.readInt();
+		} catch(ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+		// read the vocabulary
+		ByteBuffer symBytes = getBytes();
+		IntBuffer symOffsets = getInts(), aliasIds = getInts(), table = getInts();
+		vocab = new MappedSymbolSet(symBytes, symOffsets, aliasIds, table, symOffsets.limit()-1-aliasIds.limit());
+		// read the trie
+		if(layout == QUANTIZED_LAYOUT) {
+			loadQuantized(unigramCount);
+			return;
+		} else if(layout == SUCCINCT_LAYOUT) {
+			loadSuccinct(unigramCount);
+			return;
+		}
+		IntBuffer[] ids = new IntBuffer[n+1], offsets = new IntBuffer[n], fallbacks = new IntBuffer[n+1];
+		FloatBuffer[] scores = new FloatBuffer[n+1], backoffs = new FloatBuffer[n];
+		for(int i = 0; i <= n; i++) {
+			ids[i] = getInts();
+			scores[i] = getFloats();
+			if(i < n) {
+				backoffs[i] = getFloats();
+				offsets[i] = getInts();
+			}
+			if(i > 2)
+				fallbacks[i] = getInts();
+		}
+		setTrie(new MappedNgramTrie(ids, scores, backoffs, offsets, fallbacks, unigramCount));
+	}
+
+	private void loadQuantized(int unigramCount) throws IOException {
+		IntBuffer[] ids = new IntBuffer[n+1], offsets = new IntBuffer[n], fallbacks = new IntBuffer[n+1];
+		float[][] scoreBooks = new float[n+1][], backoffBooks = new float[n][];
+		BitArray[] scoreCodes = new BitArray[n+1], backoffCodes = new BitArray[n];
+		for(int i = 0; i <= n; i++) {
+			ids[i] = getInts();
+			scoreBooks[i] = getCodebook();
+			scoreCodes[i] = new BitArray(getLongs(), ids[i].limit(), QuantizedNgramTrie.getCodeWidth(scoreBooks[i]));
+			if(i < n) {
+				backoffBooks[i] = getCodebook();
+				backoffCodes[i] = new BitArray(getLongs(), ids[i].limit(), QuantizedNgramTrie.getCodeWidth(backoffBooks[i]));
+				offsets[i] = getInts();
+			}
+			if(i > 2)
+				fallbacks[i] = getInts();
+		}
+		setTrie(new QuantizedNgramTrie(ids, offsets, fallbacks, scoreBooks, scoreCodes, backoffBooks, backoffCodes, unigramCount));
+	}
+
+	private EliasFanoArray getEliasFano() throws IOException {
+		ByteBuffer head = getRegion(16);
+		long size = head.getLong(), max = head.getLong();
+		return new EliasFanoArray(getLongs(), getLongs(), size, max);
+	}
+
+	private void loadSuccinct(int unigramCount) throws IOException {
+		float[][] scoreBooks = new float[n+1][], backoffBooks = new float[n][];
+		BitArray[] scoreCodes = new BitArray[n+1], backoffCodes = new BitArray[n], fallbacks = new BitArray[n+1];
+		EliasFanoArray[] ids = new EliasFanoArray[n+1], offsets = new EliasFanoArray[n];
+		BitArray unigrams = null;
+		long size = 1, lastSize = 0;
+		for(int i = 0; i <= n; i++) {
+			if(i == 1) {
+				size = getRegion(8).getLong();
+				unigrams = new BitArray(getLongs(), size, 1);
+			} else if(i > 1) {
+				ids[i] = getEliasFano();
+				size = ids[i].getSize();
+			}
+			scoreBooks[i] = getCodebook();
+			scoreCodes[i] = new BitArray(getLongs(), size, QuantizedNgramTrie.getCodeWidth(scoreBooks[i]));
+			if(i < n) {
+				backoffBooks[i] = getCodebook();
+				backoffCodes[i] = new BitArray(getLongs(), size, QuantizedNgramTrie.getCodeWidth(backoffBooks[i]));
+				if(i > 0)
+					offsets[i] = getEliasFano();
+			}
+			if(i > 2)
+				fallbacks[i] = new BitArray(getLongs(), size, BitArray.getWidth(lastSize));
+			lastSize = size;
+		}
+		setTrie(new SuccinctNgramTrie(scoreBooks, scoreCodes, backoffBooks, backoffCodes,
+				unigrams, ids, offsets, fallbacks, unigramCount));
+	}
+
+	/**
+	 * Write a model in the format that can be mapped by this class
+	 * @param lm The model to write, which may be held in a tree or a trie
+	 *  that can list its n-grams
+	 * @param os The stream to write to
+	 * @throws IOException If there was an error during output
+	 */
+	public static void write(NgramLM lm, OutputStream os) throws IOException {
+		lm.checkListable();
+		// get the n-grams as packed arrays, as quantized codes, or compressed
+		QuantizedNgramTrie quant = null;
+		SuccinctNgramTrie succinct = null;
+		PackedNgramTrie trie = null;
+		int layout = PLAIN_LAYOUT, unigramCount;
+		if(lm.trie instanceof QuantizedNgramTrie) {
+			quant = (QuantizedNgramTrie) lm.trie;
+			layout = QUANTIZED_LAYOUT;
+			unigramCount = quant.unigramCount;
+		} else if(lm.trie instanceof SuccinctNgramTrie) {
+			succinct = (SuccinctNgramTrie) lm.trie;
+			layout = SUCCINCT_LAYOUT;
+			unigramCount = succinct.unigramCount;
+		} else {
+			trie = lm.getPackedTrie();
+			unigramCount = trie.unigramCount;
+		}
+		// write the settings
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		oos.writeObject(lm.getName());
+		oos.writeObject(lm.getSymbol());
+		oos.writeObject(lm.getRegex());
+		oos.writeBoolean(lm.isClosed());
+		oos.writeBoolean(lm.getCountTerminals());
+		oos.writeInt(lm.getMaxLength());
+		oos.writeInt(lm.getVocabFrequency());
+		oos.writeInt(lm.getVocabLimit());
+		oos.writeObject(lm.getStartSymbol());
+		oos.writeObject(lm.getTerminalSymbol());
+		oos.writeObject(lm.getUnknownSymbol());
+		oos.writeObject(lm.getUnknownModels());
+		oos.writeObject(lm.getClassMap());
+		oos.writeInt(lm.n);
+		oos.writeObject(lm.counts);
+		oos.writeObject(lm.smoother);
+		oos.writeInt(unigramCount);
+		oos.writeInt(layout);
+		oos.close();
+		DataOutputStream out = new DataOutputStream(os);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+		// write the vocabulary
+		SymbolSet vocab = lm.getVocab();
+		if(vocab instanceof MappedSymbolSet)
+			vocab = ((MappedSymbolSet)vocab).toSymbolSet();
+		Vector<String> keys = new Vector<String>();
+		Vector<Integer> aliasIds = new Vector<Integer>();
+		int[] table = MappedSymbolSet.makeTable(vocab, keys, aliasIds);
+		bytes.reset();
+		int[] keyOffsets = new int[keys.size()+1];
+		for(int i = 0; i < keys.size(); i++) {
+			bytes.write(MappedSymbolSet.encode(keys.get(i)));
+			keyOffsets[i+1] = bytes.size();
+		}
+		out.writeLong(bytes.size());
+		bytes.writeTo(out);
+		writeInts(out, keyOffsets, keyOffsets.length);
+		out.writeLong(aliasIds.size());
+		for(int id : aliasIds)
+			out.writeInt(id);
+		writeInts(out, table, table.length);
+		// write the trie
+		if(quant != null) {
+			writeQuantized(out, quant);
+			out.flush();
+			return;
+		} else if(succinct != null) {
+			writeSuccinct(out, succinct);
+			out.flush();
+			return;
+		}
+		for(int i = 0; i <= lm.n; i++) {
+			int size = trie.ids[i].length;
+			writeInts(out, trie.ids[i], size);
+			writeFloats(out, trie.scores[i], size);
+			if(i < lm.n) {
+				writeFloats(out, trie.backoffs[i], size);
+				writeInts(out, trie.offsets[i], size+1);
+			}
+			if(i > 2)
+				writeInts(out, trie.fallbacks[i], size);
+		}
+		out.flush();
+	}
+
+	private static void writeQuantized(DataOutputStream out, QuantizedNgramTrie trie) throws IOException {
+		for(int i = 0; i <= trie.n; i++) {
+			writeInts(out, trie.ids[i]);
+			writeFloats(out, trie.scoreBooks[i], trie.scoreBooks[i].length);
+			writeLongs(out, trie.scoreCodes[i].getData());
+			if(i < trie.n) {
+				writeFloats(out, trie.backoffBooks[i], trie.backoffBooks[i].length);
+				writeLongs(out, trie.backoffCodes[i].getData());
+				writeInts(out, trie.offsets[i]);
+			}
+			if(i > 2)
+				writeInts(out, trie.fallbacks[i]);
+		}
+	}
+
+	private static void writeSuccinct(DataOutputStream out, SuccinctNgramTrie trie) throws IOException {
+		for(int i = 0; i <= trie.n; i++) {
+			if(i == 1) {
+				out.writeLong(trie.unigrams.getSize());
+				writeLongs(out, trie.unigrams.getData());
+			} else if(i > 1)
+				writeEliasFano(out, trie.ids[i]);
+			writeFloats(out, trie.scoreBooks[i], trie.scoreBooks[i].length);
+			writeLongs(out, trie.scoreCodes[i].getData());
+			if(i < trie.n) {
+				writeFloats(out, trie.backoffBooks[i], trie.backoffBooks[i].length);
+				writeLongs(out, trie.backoffCodes[i].getData());
+				if(i > 0)
+					writeEliasFano(out, trie.offsets[i]);
+			}
+			if(i > 2)
+				writeLongs(out, trie.fallbacks[i].getData());
+		}
+	}
+
+	private static void writeEliasFano(DataOutputStream out, EliasFanoArray arr) throws IOException {
+		out.writeLong(arr.getSize());
+		out.writeLong(arr.getMax());
+		writeLongs(out, arr.getLowData());
+		writeLongs(out, arr.getHighData());
+	}
+
+	private static void writeInts(DataOutputStream out, IntBuffer buff) throws IOException {
+		final int len = buff.limit();
+		out.writeLong(len);
+		for(int i = 0; i < len; i++)
+			out.writeInt(buff.get(i));
+	}
+	private static void writeLongs(DataOutputStream out, LongBuffer buff) throws IOException {
+		final int len = buff.limit();
+		out.writeLong(len);
+		for(int i = 0; i < len; i++)
+			out.writeLong(buff.get(i));
+	}
+	private static void writeInts(DataOutputStream out, int[] arr, int len) throws IOException {
+		out.writeLong(len);
+		for(int i = 0; i < len; i++)
+			out.writeInt(arr[i]);
+	}
+	private static void writeFloats(DataOutputStream out, float[] arr, int len) throws IOException {
+		out.writeLong(len);
+		for(int i = 0; i < len; i++)
+			out.writeFloat(arr[i]);
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * An n-gram trie with the same layout as a PackedNgramTrie, but held in
+ * buffers that are usually mapped from a file, so it can be searched without
+ * being loaded into memory first.
+ * @author neubig
+ *
+ */
+public class MappedNgramTrie extends NgramTrie {
+
+	// the length of the longest n-grams
+	protected int n = 0;
+
+	// the buffers for each level, with level 0 holding only the root
+	protected IntBuffer[] ids = null;
+	protected FloatBuffer[] scores = null;
+	protected FloatBuffer[] backoffs = null;
+	protected IntBuffer[] offsets = null;
+	protected IntBuffer[] fallbacks = null;
+
+	// the number of unigrams that actually exist
+	protected int unigramCount = 0;
+
+	/**
+	 * Create a trie over buffers laid out as in PackedNgramTrie
+	 * @param ids The ids of each level from 0 to n
+	 * @param scores The scores of each level from 0 to n
+	 * @param backoffs The backoffs of each level from 0 to n-1
+	 * @param offsets The child offsets of each level from 0 to n-1
+	 * @param fallbacks The fallback indices of each level from 3 to n, with
+	 *  the other levels null
+	 * @param unigramCount The number of unigrams that exist
+	 */
+	public MappedNgramTrie(IntBuffer[] ids, FloatBuffer[] scores, FloatBuffer[] backoffs, IntBuffer[] offsets, IntBuffer[] fallbacks, int unigramCount) {
+		this.n = ids.length-1;
+		this.ids = ids;
+		this.scores = scores;
+		this.backoffs = backoffs;
+		this.offsets = offsets;
+		this.fallbacks = fallbacks;
+		this.unigramCount = unigramCount;
+	}
+
+	@Override
+	public int getN() {
+		return n;
+	}
+
+	@Override
+	public long getMemorySize() {
+		return getBufferSize(ids) + getBufferSize(scores) + getBufferSize(backoffs) +
+			getBufferSize(offsets) + getBufferSize(fallbacks);
+	}
+
+	@Override
+	public long getChild(long node, int id) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return NONE;
+		final int idx = (int)getIndex(node);
+		final IntBuffer myIds = ids[lev+1];
+		// unigrams are indexed by id
+		if(lev == 0)
+			return (id >= 0 && id < myIds.limit() && myIds.get(id) == id ? getHandle(1, id) : NONE);
+		// otherwise search
+		final IntBuffer myOffsets = offsets[lev];
+		int bot = myOffsets.get(idx), top = myOffsets.get(idx+1), mid, midId;
+		while(bot < top) {
+			mid = (bot+top) >>> 1;
+			midId = myIds.get(mid);
+			if(midId > id)
+				top = mid;
+			else if(midId < id)
+				bot = mid+1;
+			else
+				return getHandle(lev+1, mid);
+		}
+		return NONE;
+	}
+
+	@Override
+	public long getFallback(long node) {
+		final int lev = getLevel(node);
+		if(lev < 2)
+			return (lev == 0 ? NONE : getRoot());
+		final int idx = (int)getIndex(node);
+		// bigrams fall back to the unigram of their last word
+		if(lev == 2)
+			return getChild(getRoot(), ids[2].get(idx));
+		final int fb = fallbacks[lev].get(idx);
+		return (fb == -1 ? NONE : getHandle(lev-1, fb));
+	}
+
+	@Override
+	public int getId(long node) {
+		return ids[getLevel(node)].get((int)getIndex(node));
+	}
+
+	@Override
+	public float getScore(long node) {
+		return scores[getLevel(node)].get((int)getIndex(node));
+	}
+
+	@Override
+	public float getBackoffScore(long node) {
+		final int lev = getLevel(node);
+		return (lev < n ? backoffs[lev].get((int)getIndex(node)) : Float.NaN);
+	}
+
+	@Override
+	public boolean hasChildren(long node) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return false;
+		final int idx = (int)getIndex(node);
+		return offsets[lev].get(idx+1) > offsets[lev].get(idx);
+	}
+
+	@Override
+	public int getChildCount(long node) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return 0;
+		if(lev == 0)
+			return unigramCount;
+		final int idx = (int)getIndex(node);
+		return offsets[lev].get(idx+1) - offsets[lev].get(idx);
+	}
+
+	@Override
+	public long getChildBegin(long node) {
+		final int lev = getLevel(node);
+		return getHandle(lev+1, (lev < n ? offsets[lev].get((int)getIndex(node)) : 0));
+	}
+
+	@Override
+	public long getChildEnd(long node) {
+		final int lev = getLevel(node);
+		return getHandle(lev+1, (lev < n ? offsets[lev].get((int)getIndex(node)+1) : 0));
+	}
+
+}
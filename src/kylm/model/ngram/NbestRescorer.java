@@ -0,0 +1,211 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.util.HashMap;
+
+/**
+ * A class to rescore N-best lists of hypotheses with an n-gram model.<br>
+ * The hypotheses of an utterance are placed in a prefix trie, so a prefix
+ *  that is shared by several hypotheses is only scored once. In addition,
+ *  the words that have been scored after each model state are remembered
+ *  across hypotheses and utterances, so a word that follows the same state
+ *  again is not looked up in the model. As states are the shortest context
+ *  that the model can use, different prefixes often lead to the same state.
+ *  The remembered states are cleared when there are more than the state
+ *  limit between utterances.<br>
+ * The scores are the sums of NgramLM.score() over the words, which only
+ *  differ from NgramLM.getSentenceProb() by rounding, and the model must
+ *  be packed or frozen as for NgramLM.score(). A rescorer keeps
+ *  its own cache, so each thread should use its own rescorer.
+ * @author neubig
+ *
+ */
+public class NbestRescorer {
+
+	// a state of the model and the words that have been scored after it
+	private static class State {
+		private long state;
+		private HashMap<Integer, Arc> arcs = new HashMap<Integer, Arc>();
+		public State(long state) {
+			this.state = state;
+		}
+	}
+
+	// the score of a word after a state, and the state that follows it
+	private static class Arc {
+		private float score;
+		private State next;
+		public Arc(float score, State next) {
+			this.score = score;
+			this.next = next;
+		}
+	}
+
+	// a prefix of one or more hypotheses
+	private static class Prefix {
+		private State state;
+		private float score;
+		private HashMap<Integer, Prefix> children = null;
+		public Prefix(State state, float score) {
+			this.state = state;
+			this.score = score;
+		}
+	}
+
+	private NgramLM lm = null;
+	private HashMap<Long, State> states = new HashMap<Long, State>();
+	private int stateLimit = 1000000;
+	private long[] nextState = new long[1];
+
+	// statistics
+	private long wordCount = 0, prefixCount = 0, lookupCount = 0;
+
+	/**
+	 * Create a rescorer for a model
+	 * @param lm The model to score with, which must be packed or frozen
+	 */
+	public NbestRescorer(NgramLM lm) {
+		this.lm = lm;
+	}
+
+	/**
+	 * Score every hypothesis of an utterance
+	 * @param hyps The hypotheses, each of which is an array of words
+	 * @return The log10 probability of each hypothesis
+	 */
+	public float[] rescore(String[][] hyps) {
+		int[][] ids = new int[hyps.length][];
+		for(int i = 0; i < hyps.length; i++)
+			ids[i] = lm.getSentenceIds(hyps[i]);
+		return rescore(ids);
+	}
+
+	/**
+	 * Score every hypothesis of an utterance that has already been converted
+	 *  to IDs
+	 * @param hyps The IDs of each hypothesis as returned by
+	 *  NgramLM.getSentenceIds(), starting with the sentence start symbol
+	 * @return The log10 probability of each hypothesis
+	 */
+	public float[] rescore(int[][] hyps) {
+		if(states.size() > stateLimit)
+			states.clear();
+		Prefix root = new Prefix(getState(lm.getStartState()), 0);
+		float[] ret = new float[hyps.length];
+		for(int i = 0; i < hyps.length; i++) {
+			int[] hyp = hyps[i];
+			Prefix prefix = root;
+			for(int j = 1; j < hyp.length; j++) {
+				if(prefix.children == null)
+					prefix.children = new HashMap<Integer, Prefix>();
+				Prefix child = prefix.children.get(hyp[j]);
+				if(child == null) {
+					Arc arc = getArc(prefix.state, hyp[j]);
+					child = new Prefix(arc.next, prefix.score+arc.score);
+					prefix.children.put(hyp[j], child);
+					prefixCount++;
+				}
+				prefix = child;
+			}
+			wordCount += hyp.length-1;
+			ret[i] = prefix.score;
+		}
+		return ret;
+	}
+
+	// find the arc for a word after a state, scoring it if necessary
+	private Arc getArc(State state, int id) {
+		Arc arc = state.arcs.get(id);
+		if(arc == null) {
+			float score = lm.score(state.state, id, nextState);
+			arc = new Arc(score, getState(nextState[0]));
+			state.arcs.put(id, arc);
+			lookupCount++;
+		}
+		return arc;
+	}
+
+	// find the remembered state, or add a new one
+	private State getState(long state) {
+		State ret = states.get(state);
+		if(ret == null) {
+			ret = new State(state);
+			states.put(state, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Forget every remembered state, for example when the model has changed
+	 */
+	public void clear() {
+		states.clear();
+	}
+
+	/**
+	 * @return The model that is used for scoring
+	 */
+	public NgramLM getModel() {
+		return lm;
+	}
+
+	/**
+	 * @param stateLimit The number of states to remember before the cache is
+	 *  cleared
+	 */
+	public void setStateLimit(int stateLimit) {
+		if(stateLimit < 1)
+			throw new IllegalArgumentException("The state limit must be at least 1, but got "+stateLimit);
+		this.stateLimit = stateLimit;
+	}
+
+	/**
+	 * @return The number of states to remember before the cache is cleared
+	 */
+	public int getStateLimit() {
+		return stateLimit;
+	}
+
+	/**
+	 * @return The number of words in every hypothesis that has been rescored
+	 */
+	public long getWordCount() {
+		return wordCount;
+	}
+
+	/**
+	 * @return The number of distinct prefixes that have been scored
+	 */
+	public long getPrefixCount() {
+		return prefixCount;
+	}
+
+	/**
+	 * @return The number of words that were looked up in the model, which
+	 *  were not found in the cache
+	 */
+	public long getLookupCount() {
+		return lookupCount;
+	}
+
+}
@@ -0,0 +1,218 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.util.Arrays;
+
+/**
+ * An index that finds the most likely next words after a context without
+ *  scoring every word in the vocabulary.<br>
+ * For every n-gram that is the context of longer n-grams, the children are
+ *  stored sorted by their score. A query walks down the sorted children of
+ *  the context and each of its fallbacks at the same time, always taking the
+ *  word with the highest score after adding the backoffs of the longer
+ *  contexts, as in the threshold algorithm. A word is skipped at a level if
+ *  a longer context predicts it, as it has been or will be scored there, so
+ *  the first k words that are taken are the k best, and the time taken
+ *  depends on k instead of the number of children.<br>
+ * The index takes four bytes for each n-gram. It is built from the trie and
+ *  must be built again if the trie is replaced. Queries do not change the
+ *  index, so it can be used by several threads at once, and each thread
+ *  keeps its own buffers so that queries do not allocate memory.
+ * @author neubig
+ *
+ */
+public class NextWordIndex {
+
+	private NgramTrie trie = null;
+	// the index of each child at each level, sorted by score within the range
+	//  of children of each parent, with -1 for unused slots at the end
+	private int[][] sorted = null;
+
+	// the buffers used by one thread's queries, so that a query does not
+	//  need to allocate anything
+	private class Workspace {
+		private long[] contexts = new long[trie.getN()];
+		// the position of the next child at each level, the end of the
+		//  children, the total backoff of the longer contexts, and the best
+		//  score that is left
+		private int[] pos = new int[trie.getN()], end = new int[trie.getN()];
+		private float[] backoffs = new float[trie.getN()], heads = new float[trie.getN()];
+	}
+	private final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+		@Override
+		protected Workspace initialValue() {
+			return new Workspace();
+		}
+	};
+
+	/**
+	 * Build an index of a trie. A trie that cannot list the children of an
+	 *  n-gram, such as a HashedNgramTrie, cannot be indexed.
+	 * @param trie The trie to index
+	 */
+	public NextWordIndex(NgramTrie trie) {
+		this.trie = trie;
+		final int n = trie.getN();
+		sorted = new int[n+1][];
+		long[] buff = new long[0];
+		int parents = 1;
+		for(int lev = 1; lev <= n; lev++) {
+			// find the number of slots in the level
+			long size = 0;
+			for(int p = 0; p < parents; p++) {
+				long parent = NgramTrie.getHandle(lev-1, p);
+				if(lev > 1 && trie.getId(parent) == -1)
+					continue;
+				size = Math.max(size, NgramTrie.getIndex(trie.getChildEnd(parent)));
+			}
+			if(size > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Level "+lev+" has too many n-grams to index ("+size+")");
+			sorted[lev] = new int[(int)size];
+			// sort the children of each parent
+			for(int p = 0; p < parents; p++) {
+				long parent = NgramTrie.getHandle(lev-1, p);
+				if(lev > 1 && trie.getId(parent) == -1)
+					continue;
+				int begin = (int)NgramTrie.getIndex(trie.getChildBegin(parent)),
+					end = (int)NgramTrie.getIndex(trie.getChildEnd(parent)), count = 0;
+				if(end-begin > buff.length)
+					buff = new long[end-begin];
+				for(int i = begin; i < end; i++) {
+					long child = NgramTrie.getHandle(lev, i);
+					if(trie.getId(child) != -1)
+						buff[count++] = getKey(trie.getScore(child), i-begin);
+				}
+				Arrays.sort(buff, 0, count);
+				for(int i = 0; i < count; i++)
+					sorted[lev][begin+i] = begin+(int)buff[i];
+				Arrays.fill(sorted[lev], begin+count, end, -1);
+			}
+			parents = (int)size;
+		}
+	}
+
+	// make a key that sorts higher scores first, then lower positions
+	private static long getKey(float score, int pos) {
+		int bits = Float.floatToIntBits(score);
+		// make the bits of negative floats increase with the value
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return ((long)~bits << 32) | pos;
+	}
+
+	/**
+	 * Find the k most likely words after a context, with the scores that
+	 *  NgramLM.score() would give them after the same words
+	 * @param context The ids of the words before, which may be longer than
+	 *  the n-gram context. Start with the sentence start symbol (0) to
+	 *  predict words at the start of a sentence.
+	 * @param k The number of words to find
+	 * @param ids A buffer of at least k elements that receives the ids of the
+	 *  words, the most likely first. The terminal symbol has id 0.
+	 * @param scores A buffer of at least k elements that receives the log10
+	 *  probability of each word, or null if not needed
+	 * @return The number of words found, which is less than k only if the
+	 *  model has fewer than k words
+	 */
+	public int topK(int[] context, int k, int[] ids, float[] scores) {
+		Workspace w = workspace.get();
+		long[] contexts = w.contexts;
+		int[] pos = w.pos, end = w.end;
+		float[] backoffs = w.backoffs, heads = w.heads;
+		int levels = findContexts(trie, context, contexts);
+		float backoff = 0;
+		for(int j = 0; j < levels; j++) {
+			int lev = NgramTrie.getLevel(contexts[j])+1;
+			pos[j] = (int)NgramTrie.getIndex(trie.getChildBegin(contexts[j]));
+			end[j] = (int)NgramTrie.getIndex(trie.getChildEnd(contexts[j]));
+			backoffs[j] = backoff;
+			if(pos[j] < end[j] && sorted[lev][pos[j]] == -1)
+				pos[j] = end[j];
+			else if(pos[j] < end[j])
+				heads[j] = backoff+trie.getScore(NgramTrie.getHandle(lev, sorted[lev][pos[j]]));
+			backoff += trie.getBackoffScore(contexts[j]);
+		}
+		int found = 0;
+		while(found < k) {
+			// take the best child of any level
+			int best = -1;
+			for(int j = 0; j < levels; j++)
+				if(pos[j] < end[j] && (best == -1 || heads[j] > heads[best]))
+					best = j;
+			if(best == -1)
+				break;
+			int lev = NgramTrie.getLevel(contexts[best])+1;
+			long child = NgramTrie.getHandle(lev, sorted[lev][pos[best]]);
+			float score = heads[best];
+			if(++pos[best] < end[best] && sorted[lev][pos[best]] == -1)
+				pos[best] = end[best];
+			else if(pos[best] < end[best])
+				heads[best] = backoffs[best]+trie.getScore(NgramTrie.getHandle(lev, sorted[lev][pos[best]]));
+			// skip the word if a longer context predicts it
+			int id = trie.getId(child), j;
+			for(j = 0; j < best && trie.getChild(contexts[j], id) == NgramTrie.NONE; j++);
+			if(j < best)
+				continue;
+			ids[found] = id;
+			if(scores != null)
+				scores[found] = score;
+			found++;
+		}
+		return found;
+	}
+
+	// find the contexts that a word after the given words is scored in, from
+	//  longest to shortest, starting with the longest that has children as
+	//  NgramLM.score() does and ending with the root
+	static int findContexts(NgramTrie trie, int[] context, long[] contexts) {
+		int levels = 0;
+		for(int start = Math.max(0, context.length-trie.getN()+1); start <= context.length; start++) {
+			long node = trie.findNgram(context, start, context.length);
+			if(node != NgramTrie.NONE && (levels > 0 || trie.hasChildren(node)))
+				contexts[levels++] = node;
+		}
+		return levels;
+	}
+
+	// get the index of the child at a position in the sorted children of a
+	//  level, or -1 if the slot is not used
+	int getSortedChild(int level, int pos) {
+		return sorted[level][pos];
+	}
+
+	/**
+	 * @return The trie that is indexed
+	 */
+	public NgramTrie getTrie() {
+		return trie;
+	}
+
+	/**
+	 * Estimate the number of bytes of memory used by the index, not
+	 *  including the trie
+	 * @return The estimated size in bytes
+	 */
+	public long getMemorySize() {
+		return 16+NgramTrie.getArraySize(sorted);
+	}
+
+}
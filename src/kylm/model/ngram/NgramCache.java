@@ -0,0 +1,316 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.util.Arrays;
+
+/**
+ * A cache of the scores of words after the states of an NgramLM, which
+ *  avoids searching the trie and summing backoffs again for pairs of state
+ *  and word that are looked up often. It can also hold the n-gram that a
+ *  word was found as after a context, so that the search can be skipped.<br>
+ * Each entry is found by a hash of the state, which stands for the ids of
+ *  the context, and the id of the word. The cache holds at most a fixed
+ *  number of entries, and evicts them with the CLOCK algorithm, which keeps
+ *  entries that have been used since the clock hand last passed them.
+ *  Entries are split into stripes that are locked separately, so threads
+ *  that look up different entries rarely wait for each other.
+ * @author neubig
+ *
+ */
+public class NgramCache {
+
+	// the default number of stripes
+	private static final int STRIPES = 16;
+
+	// one separately locked part of the cache
+	private static class Stripe {
+		// the entries
+		private long[] states;
+		private int[] ids;
+		private float[] scores;
+		private long[] nextStates;
+		private boolean[] referenced;
+		// a linear probing hash table of entry positions plus one, with zero
+		//  for empty positions
+		private int[] index;
+		private int size = 0, hand = 0;
+		private long hits = 0, misses = 0;
+		public Stripe(int capacity) {
+			states = new long[capacity];
+			ids = new int[capacity];
+			scores = new float[capacity];
+			nextStates = new long[capacity];
+			referenced = new boolean[capacity];
+			int indexSize = 2;
+			while(indexSize < capacity*2)
+				indexSize <<= 1;
+			index = new int[indexSize];
+		}
+		// find the position of an entry in the index
+		private int find(long state, int id, long hash) {
+			final int mask = index.length-1;
+			for(int pos = (int)hash & mask; index[pos] != 0; pos = (pos+1) & mask) {
+				int e = index[pos]-1;
+				if(states[e] == state && ids[e] == id)
+					return pos;
+			}
+			return -1;
+		}
+		// remove an entry from the index, moving back entries that follow it
+		private void remove(int e) {
+			final int mask = index.length-1;
+			int i = (int)hash(states[e], ids[e]) & mask;
+			while(index[i] != e+1)
+				i = (i+1) & mask;
+			for(int j = (i+1) & mask; index[j] != 0; j = (j+1) & mask) {
+				int f = index[j]-1;
+				int home = (int)hash(states[f], ids[f]) & mask;
+				// leave entries whose home is cyclically in (i, j]
+				if(i <= j ? (i < home && home <= j) : (i < home || home <= j))
+					continue;
+				index[i] = index[j];
+				i = j;
+			}
+			index[i] = 0;
+		}
+		private synchronized float get(long state, int id, long hash, long[] nextState) {
+			int pos = find(state, id, hash);
+			if(pos == -1) {
+				misses++;
+				return Float.NaN;
+			}
+			int e = index[pos]-1;
+			hits++;
+			referenced[e] = true;
+			if(nextState != null)
+				nextState[0] = nextStates[e];
+			return scores[e];
+		}
+		private synchronized void put(long state, int id, long hash, float score, long nextState) {
+			if(find(state, id, hash) != -1)
+				return;
+			int e;
+			if(size < states.length)
+				e = size++;
+			else {
+				// move the clock hand past entries that were used recently
+				while(referenced[hand]) {
+					referenced[hand] = false;
+					hand = (hand+1) % states.length;
+				}
+				e = hand;
+				hand = (hand+1) % states.length;
+				remove(e);
+			}
+			states[e] = state;
+			ids[e] = id;
+			scores[e] = score;
+			nextStates[e] = nextState;
+			referenced[e] = false;
+			final int mask = index.length-1;
+			int pos = (int)hash & mask;
+			while(index[pos] != 0)
+				pos = (pos+1) & mask;
+			index[pos] = e+1;
+		}
+		private synchronized void clear() {
+			Arrays.fill(index, 0);
+			size = 0;
+			hand = 0;
+			hits = 0;
+			misses = 0;
+		}
+	}
+
+	private Stripe[] stripes;
+	private int capacity;
+	// a buffer for the n-grams returned by getNgram()
+	private static final ThreadLocal<long[]> NGRAM_BUFFER = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	/**
+	 * Create a cache
+	 * @param capacity The largest number of entries to hold
+	 */
+	public NgramCache(int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("The capacity of a cache must be at least 1, but got "+capacity);
+		int count = 1;
+		while(count < STRIPES && count*2 <= capacity)
+			count <<= 1;
+		stripes = new Stripe[count];
+		for(int i = 0; i < count; i++)
+			stripes[i] = new Stripe((capacity+count-1)/count);
+		this.capacity = stripes[0].states.length*count;
+	}
+
+	// mix the bits of a state and a word, as both are often small numbers
+	private static long hash(long state, int id) {
+		long h = (state ^ ((long)id << 32 | (id & 0xffffffffL))) * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	// choose the stripe from the high bits, as the low bits are used inside it
+	private Stripe getStripe(long hash) {
+		return stripes[(int)(hash >>> 58) & (stripes.length-1)];
+	}
+
+	/**
+	 * Look up the score of a word after a state
+	 * @param state The state before the word
+	 * @param id The id of the word
+	 * @param nextState An array whose first element is set to the state after
+	 *  the word if it is found, or null if the state is not needed
+	 * @return The score, or NaN if it is not in the cache
+	 */
+	public float get(long state, int id, long[] nextState) {
+		long hash = hash(state, id);
+		return getStripe(hash).get(state, id, hash, nextState);
+	}
+
+	/**
+	 * Add the score of a word after a state, evicting an entry that has not
+	 *  been used recently if the cache is full
+	 * @param state The state before the word
+	 * @param id The id of the word
+	 * @param score The score of the word
+	 * @param nextState The state after the word
+	 */
+	public void put(long state, int id, float score, long nextState) {
+		long hash = hash(state, id);
+		getStripe(hash).put(state, id, hash, score, nextState);
+	}
+
+	/**
+	 * Look up the n-gram that was found for a word by falling back from a
+	 *  context, as NgramLM.getSentenceProb() does. These entries are held
+	 *  apart from the scores of states, so a handle can be used as both.
+	 * @param context The handle of the context that the search started from
+	 * @param id The id of the word
+	 * @return The handle of the n-gram, or NgramTrie.NONE if it is not in
+	 *  the cache
+	 */
+	public long getNgram(long context, int id) {
+		// the ids of words are never negative, so ~id cannot be a word
+		long hash = hash(context, ~id);
+		long[] ngram = NGRAM_BUFFER.get();
+		float found = getStripe(hash).get(context, ~id, hash, ngram);
+		return (Float.isNaN(found) ? NgramTrie.NONE : ngram[0]);
+	}
+
+	/**
+	 * Add the n-gram that was found for a word by falling back from a context
+	 * @param context The handle of the context that the search started from
+	 * @param id The id of the word
+	 * @param ngram The handle of the n-gram
+	 */
+	public void putNgram(long context, int id, long ngram) {
+		long hash = hash(context, ~id);
+		getStripe(hash).put(context, ~id, hash, 0, ngram);
+	}
+
+	/**
+	 * Remove every entry and reset the statistics, which must be done when
+	 *  the n-grams of the model change
+	 */
+	public void clear() {
+		for(Stripe stripe : stripes)
+			stripe.clear();
+	}
+
+	/**
+	 * @return The largest number of entries the cache can hold
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The number of entries in the cache
+	 */
+	public int getSize() {
+		int ret = 0;
+		for(Stripe stripe : stripes)
+			synchronized(stripe) { ret += stripe.size; }
+		return ret;
+	}
+
+	/**
+	 * @return The number of lookups that were found in the cache
+	 */
+	public long getHits() {
+		long ret = 0;
+		for(Stripe stripe : stripes)
+			synchronized(stripe) { ret += stripe.hits; }
+		return ret;
+	}
+
+	/**
+	 * @return The number of lookups that were not found in the cache
+	 */
+	public long getMisses() {
+		long ret = 0;
+		for(Stripe stripe : stripes)
+			synchronized(stripe) { ret += stripe.misses; }
+		return ret;
+	}
+
+	/**
+	 * @return The fraction of lookups that were found in the cache, or 0 if
+	 *  there have been no lookups
+	 */
+	public double getHitRate() {
+		long hits = getHits(), total = hits+getMisses();
+		return (total == 0 ? 0 : (double)hits/total);
+	}
+
+	/**
+	 * Estimate the number of bytes of memory used by the cache
+	 * @return The estimated size in bytes
+	 */
+	public long getMemorySize() {
+		long size = 16+getArraySize(stripes.length, 4);
+		for(Stripe stripe : stripes) {
+			int cap = stripe.states.length;
+			size += 48 + 2*getArraySize(cap, 8) + 2*getArraySize(cap, 4) +
+				getArraySize(cap, 1) + getArraySize(stripe.index.length, 4);
+		}
+		return size;
+	}
+
+	// the size of an array with elements of the given width
+	private static long getArraySize(int length, int width) {
+		return (16+(long)width*length+7)&~7L;
+	}
+
+	@Override
+	public String toString() {
+		return "NgramCache: "+getSize()+"/"+capacity+" entries, "+getHits()+" hits, "+
+			getMisses()+" misses ("+(float)(getHitRate()*100)+"% hit rate)";
+	}
+
+}
@@ -29,8 +29,13 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import kylm.model.LanguageModel;
+import kylm.model.SentenceScores;
+import kylm.model.ngram.reader.NgramReader;
+import kylm.model.ngram.reader.SerializedNgramReader;
 import kylm.model.ngram.smoother.NgramSmoother;
 import kylm.reader.TextArraySentenceReader;
 import kylm.util.KylmTextUtils;
@@ -51,21 +56,41 @@ public class NgramLM extends LanguageModel implements Serializable {
 	protected int n = 0;
 
 	// the number of counts for the ngram
-	protected int[] counts = null;
+	protected long[] counts = null;
 
 	// the root of the ngram node tree
 	protected BranchNode root = null;
 
+	// the frozen storage that replaces the tree, if it has been packed
+	protected transient NgramTrie trie = null;
+
+	// whether to count n-grams in an OffHeapNgramTrie instead of the tree
+	protected transient boolean offHeap = false;
+	// the number of threads to count n-grams with
+	protected transient int countThreads = 1;
+
 	// the smoother to use
 	protected NgramSmoother smoother = null;
 
-	// keep track of what hits have been made
-	protected int hits[] = null;
-	protected int sentHits = 0;
+	// keep track of what hits have been made, from any number of threads
+	protected transient AtomicLongArray hits = null;
+	protected transient AtomicLong sentHits = null;
 
 	// unknown words to store for training
 	protected HashSet<String> ukWords = null;
 
+	// whether the model has been frozen for scoring
+	protected transient boolean frozen = false;
+
+	// an optional cache of the scores of words after states
+	protected transient NgramCache cache = null;
+
+	// an optional index of the most likely words after each context
+	protected transient NextWordIndex nextWords = null;
+	// the id that each id is scored as on the trie, which is the id of its
+	//  unknown word model if it has no unigram, or -1 if there is none
+	private transient volatile int[] unigramIds = null;
+
 	/**
 	 * A constructor that creates a model of size n
 	 * @param n the length of the context of the n-gram model
@@ -73,34 +98,68 @@ public class NgramLM extends LanguageModel implements Serializable {
 	public NgramLM(int n) {
 		this.n = n;
 		if(n != -1) {
-			counts = new int[n];
-			hits = new int[n+1];
+			counts = new long[n];
+			hits = new AtomicLongArray(n+1);
 		}
 		root = new BranchNode(-1, null);
-		sentHits = 0;
+		sentHits = new AtomicLong();
 	}
 
 	public NgramLM(int n, NgramSmoother smoother) {
 		this.n = n;
 		if(n != -1) {
-			counts = new int[n];
-			hits = new int[n+1];
+			counts = new long[n];
+			hits = new AtomicLongArray(n+1);
 		}
 		root = new BranchNode(-1, null);
-		sentHits = 0;
+		sentHits = new AtomicLong();
 		this.smoother = smoother;
 
 	}
 
+	// check whether a unigram exists for an id
+	private boolean hasUnigram(int id) {
+		if(trie != null)
+			return trie.getChild(trie.getRoot(), id) != NgramTrie.NONE;
+		return root.getChild(id) != null;
+	}
+
+	// get the id that an id is scored as on the trie, using the table built by
+	//  getUnigramIds() so that no symbol needs to be looked up
+	private int getUnigramId(int id) {
+		int[] table = unigramIds;
+		if(table == null)
+			table = getUnigramIds();
+		if(id < table.length && table[id] != -1)
+			return table[id];
+		// ids added since the table was built, and words that no model matches
+		return (hasUnigram(id) ? id : findUnknownId(vocab.getSymbol(id)));
+	}
+
+	// build the table of the ids that each id is scored as
+	private int[] getUnigramIds() {
+		int[] table = new int[vocab.getSize()];
+		for(int i = 0; i < table.length; i++) {
+			if(hasUnigram(i))
+				table[i] = i;
+			else {
+				try { table[i] = findUnknownId(vocab.getSymbol(i)); }
+				catch(IllegalArgumentException e) { table[i] = -1; }
+			}
+		}
+		unigramIds = table;
+		return table;
+	}
+
 	@Override
-	public float[] getWordEntropies(int[] iids) {
+	protected void scoreIds(int[] iids, SentenceScores scores) {
 		// check to make sure that nodes exist for every id
 		for(int i = 0; i < iids.length; i++)
-			if(root.getChild(iids[i]) == null)
+			if(!hasUnigram(iids[i]))
 				iids[i] = this.findUnknownId(vocab.getSymbol(iids[i]));
-		wordEnts = new float[iids.length-1];
-		simpleEnts = new float[iids.length-1];
-		classEnts = new float[iids.length-1];
+		float[] wordEnts = scores.getWordEntropies(), simpleEnts = scores.getSimpleEntropies(),
+			classEnts = scores.getClassEntropies();
+		int[] hits = scores.getHits(n+1);
 		// convert to classes
 		int[] mids;
 		if(classMap != null) {
@@ -114,8 +173,24 @@ public class NgramLM extends LanguageModel implements Serializable {
 			}
 		} else
 			mids = iids;
+		if(trie != null)
+			scoreTrieIds(mids, wordEnts, simpleEnts, hits);
+		else
+			scoreTreeIds(mids, wordEnts, simpleEnts, hits);
+		addHits(hits);
+	}
+
+	// add the hits of one sentence to the totals used by printReport()
+	private void addHits(int[] sentenceHits) {
+		for(int i = 0; i < sentenceHits.length; i++)
+			if(sentenceHits[i] != 0)
+				hits.addAndGet(i, sentenceHits[i]);
+		sentHits.incrementAndGet();
+	}
+
+	// score the words of a sentence by walking over the tree
+	private void scoreTreeIds(int[] mids, float[] wordEnts, float[] simpleEnts, int[] hits) {
 		int idx;
-		sentHits++;
 		// start with the terminal symbol as the context
 		NgramNode context = root.getChild(0), child;
 		int lev = 2;
@@ -145,11 +220,49 @@ public class NgramLM extends LanguageModel implements Serializable {
 			wordEnts[i] += simpleEnts[i];
 			context = child;
 		}
-		return wordEnts;
+	}
+
+	// the same as scoreTreeIds, but walking over the packed trie
+	private void scoreTrieIds(int[] mids, float[] wordEnts, float[] simpleEnts, int[] hits) {
+		int idx;
+		// start with the terminal symbol as the context
+		long context = trie.getChild(trie.getRoot(), mids[0]), child;
+		for(int i = 0; i < wordEnts.length; i++) {
+			idx = mids[i+1];
+			// first, fall back to a node that has children
+			while(!trie.hasChildren(context))
+				context = getTrieFallback(context, mids, i+1);
+			// then, fall back to a node that actually can predict the word
+			while((child = trie.getChild(context, idx)) == NgramTrie.NONE) {
+				// add the fallback penalty
+				simpleEnts[i] += trie.getBackoffScore(context);
+				if(context == trie.getRoot())
+					throw new IllegalArgumentException("Could not find word in unigram vocabulary.");
+				context = getTrieFallback(context, mids, i+1);
+			}
+			// add the level that we got a hit at
+			hits[isInVocab(idx)?NgramTrie.getLevel(child):0]++;
+
+			// add the score
+			simpleEnts[i] += trie.getScore(child);
+			wordEnts[i] += simpleEnts[i];
+			context = child;
+		}
+	}
+
+	// get the fallback of a context that ends at ids[end-1], dropping more
+	//  words from the start if the fallback does not exist
+	private long getTrieFallback(long context, int[] ids, int end) {
+		long ret = trie.getFallback(context);
+		for(int start = end-NgramTrie.getLevel(context)+2; ret == NgramTrie.NONE; start++)
+			ret = trie.findNgram(ids, start, end);
+		return ret;
 	}
 
 	@Override
 	public float getWordEntropy(int[] ids, int pos) {
+		if(trie != null)
+			return getTrieEntropy(ids, pos);
 		float ret = 0;
 		int i, context, idx;
 		NgramNode node = root, child;
@@ -177,6 +290,31 @@ public class NgramLM extends LanguageModel implements Serializable {
 		throw new IllegalArgumentException("could not find n-gram");
 	}
 
+	// the same as getWordEntropy, but searching in the packed trie
+	private float getTrieEntropy(int[] ids, int pos) {
+		float ret = 0;
+		int i, context, idx;
+		long node = trie.getRoot(), child;
+		for(context = Math.max(0, pos-n+1); context <= pos; context++) {
+			// go down the tree trying to find the ngram
+			for(i = context; i <= pos; i++) {
+				idx = (classMap==null?ids[i]:classMap.getWordClass(ids[i]));
+				child = trie.getChild(node, idx);
+				if(child == NgramTrie.NONE)
+					break;
+				node = child;
+			}
+			// if found, return the score
+			if(i == pos+1)
+				return ret+trie.getScore(node);
+			// if not found, but only one behind in context
+			else if(i == pos)
+				ret += trie.getBackoffScore(node);
+			node = trie.getRoot();
+		}
+		throw new IllegalArgumentException("could not find n-gram");
+	}
+
 	/**
 	 * Get the perplexity of a sentence
 	 * @param sent The string of words
@@ -209,8 +347,12 @@ public class NgramLM extends LanguageModel implements Serializable {
 
 		// check to make sure that nodes exist for every id
 		for(int i = 0; i < iids.length; i++)
-			if(root.getChild(iids[i]) == null)
+			if(!hasUnigram(iids[i]))
 				iids[i] = this.findUnknownId(vocab.getSymbol(iids[i]));
+		if(trie != null && cache != null && classMap == null)
+			return getCachedProb(iids);
+		if(trie != null)
+			return getTrieProb(iids);
 
 		// convert to classes
 //		int[] mids;
@@ -252,6 +394,386 @@ public class NgramLM extends LanguageModel implements Serializable {
 		return prob;
 	}
 
+	// the same as getSentenceProb, but walking over the packed trie
+	private float getTrieProb(int[] iids) {
+		float prob = 0.0f;
+		int idx;
+		// start with the terminal symbol as the context
+		long context = trie.getChild(trie.getRoot(), iids[0]), child;
+		for(int i = 0; i < iids.length-1; i++) {
+			idx = iids[i+1];
+			// first, fall back to a node that has children
+			while(!trie.hasChildren(context))
+				context = getTrieFallback(context, iids, i+1);
+			// then, fall back to a node that actually can predict the word
+			while((child = trie.getChild(context, idx)) == NgramTrie.NONE) {
+				// add the fallback penalty
+				prob += trie.getBackoffScore(context);
+				if(context == trie.getRoot())
+					throw new IllegalArgumentException("Could not find word in unigram vocabulary.");
+				context = getTrieFallback(context, iids, i+1);
+			}
+			// add the score
+			prob += trie.getScore(child);
+			context = child;
+		}
+		return prob;
+	}
+
+	// the same as getTrieProb, but taking the n-gram that predicts each word
+	//  from the cache, so that only the fallbacks down to its context need
+	//  to be followed. The backoffs and scores are added in the same order, so
+	//  the result is exactly the same.
+	private float getCachedProb(int[] iids) {
+		float prob = 0.0f;
+		int idx, level;
+		// start with the terminal symbol as the context
+		long context = trie.getChild(trie.getRoot(), iids[0]), child, start;
+		for(int i = 0; i < iids.length-1; i++) {
+			idx = iids[i+1];
+			// first, fall back to a node that has children
+			while(!trie.hasChildren(context))
+				context = getTrieFallback(context, iids, i+1);
+			start = context;
+			child = cache.getNgram(start, idx);
+			if(child == NgramTrie.NONE) {
+				// search as getTrieProb does, and remember what was found
+				while((child = trie.getChild(context, idx)) == NgramTrie.NONE) {
+					prob += trie.getBackoffScore(context);
+					if(context == trie.getRoot())
+						throw new IllegalArgumentException("Could not find word in unigram vocabulary.");
+					context = getTrieFallback(context, iids, i+1);
+				}
+				cache.putNgram(start, idx, child);
+			} else {
+				// add the backoffs of every context above the n-gram's parent
+				level = NgramTrie.getLevel(child)-1;
+				while(NgramTrie.getLevel(context) != level) {
+					prob += trie.getBackoffScore(context);
+					context = getTrieFallback(context, iids, i+1);
+				}
+			}
+			// add the score
+			prob += trie.getScore(child);
+			context = child;
+		}
+		return prob;
+	}
+
+	///////////////////////////
+	// word-by-word scoring //
+	///////////////////////////
+
+	/**
+	 * Get the state at the start of a sentence, for scoring one word at a time
+	 *  with score(). A state is the handle of the longest suffix of the words
+	 *  so far that is the context of some n-gram in the trie, so it is never
+	 *  longer than it needs to be. Hypotheses with equal states will give
+	 *  the same score to any continuation, so states can be compared and
+	 *  hashed as longs to recombine hypotheses in a decoder. The model must
+	 *  be packed or frozen first.
+	 * @return The state after the sentence start symbol
+	 */
+	public long getStartState() {
+		checkTrie();
+		int id = (classMap == null ? 0 : classMap.getWordClass(0));
+		return getNextState(trie.getChild(trie.getRoot(), id), trie.getRoot(), id);
+	}
+
+	/**
+	 * Get the state that has no context, which predicts words with their
+	 *  unigram probabilities
+	 * @return The empty state
+	 */
+	public long getNullState() {
+		checkTrie();
+		return trie.getRoot();
+	}
+
+	/**
+	 * Score a word given the state of the words before it. The end of the
+	 *  sentence is scored by passing the id of the terminal symbol. Unknown
+	 *  word models are not used, as in getSentenceProb(). This does not change
+	 *  the model, so one model can be used by several decoding threads. If a
+	 *  cache has been set, the score is taken from it when possible.
+	 * @param state The state of the words before, from getStartState() or an
+	 *  earlier call
+	 * @param id The id of the word, as returned by getId()
+	 * @param nextState An array whose first element is set to the state after
+	 *  the word, or null if the state is not needed
+	 * @return The log10 probability of the word
+	 */
+	public float score(long state, int id, long[] nextState) {
+		checkTrie();
+		if(cache == null)
+			return scoreState(state, id, nextState);
+		float prob = cache.get(state, id, nextState);
+		if(Float.isNaN(prob)) {
+			if(nextState == null)
+				nextState = new long[1];
+			prob = scoreState(state, id, nextState);
+			cache.put(state, id, prob, nextState[0]);
+		}
+		return prob;
+	}
+
+	// score a word given a state without using the cache
+	private float scoreState(long state, int id, long[] nextState) {
+		float prob = 0;
+		if(classMap != null) {
+			prob = classMap.getWordProb(id);
+			id = classMap.getWordClass(id);
+		} else
+			id = getUnigramId(id);
+		long context = state, child;
+		// fall back to a context that can predict the word
+		while((child = trie.getChild(context, id)) == NgramTrie.NONE) {
+			if(context == trie.getRoot())
+				throw new IllegalArgumentException("Could not find word in unigram vocabulary.");
+			prob += trie.getBackoffScore(context);
+			context = trie.getFallback(context);
+		}
+		prob += trie.getScore(child);
+		if(nextState != null)
+			nextState[0] = getNextState(child, context, id);
+		return prob;
+	}
+
+	// find the longest suffix of an n-gram that is a context in the trie,
+	//  given the context that the n-gram was found under
+	private long getNextState(long ngram, long context, int id) {
+		final long root = trie.getRoot();
+		while(ngram == NgramTrie.NONE || !trie.hasChildren(ngram) || !hasFallbacks(ngram)) {
+			if(context == root)
+				return root;
+			context = trie.getFallback(context);
+			ngram = trie.getChild(context, id);
+		}
+		return ngram;
+	}
+
+	// check that every suffix of an n-gram exists, so that a state can always
+	//  fall back without knowing its words
+	private boolean hasFallbacks(long ngram) {
+		for(long node = ngram; NgramTrie.getLevel(node) > 1; )
+			if((node = trie.getFallback(node)) == NgramTrie.NONE)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Score many sentences that have already been converted to ids, writing
+	 *  the results into the given buffers. Nothing is allocated, so this is
+	 *  suited to scoring large amounts of text. Each sentence is laid out as
+	 *  by getSentenceIds(), starting with the sentence start symbol and ending
+	 *  with the terminal symbol if terminals are counted. As in score(), the
+	 *  model must be packed or frozen, unknown word models are not used, and
+	 *  the coverage in printReport() is not updated. The cache set by
+	 *  setCache() is not used, so that nothing needs to be allocated. Ids
+	 *  with no unigram are scored as their unknown word symbol through a
+	 *  table of every id in the vocabulary, which is built by the first call
+	 *  after the model is packed or frozen. Only ids added to the vocabulary
+	 *  after that need their symbol to be looked up.
+	 * @param ids The ids of every sentence, one after another
+	 * @param offsets The position in ids where each sentence starts, followed
+	 *  by the position after the last sentence, so sentence i is held in
+	 *  ids[offsets[i]] to ids[offsets[i+1]-1]
+	 * @param count The number of sentences to score
+	 * @param tokenScores A buffer at least as long as ids that receives the
+	 *  log10 probability of each word at its position in ids, with 0 at the
+	 *  start of each sentence, or null if the scores of words are not needed
+	 * @param sentenceScores A buffer of at least count elements that receives
+	 *  the log10 probability of each sentence, or null if not needed
+	 */
+	public void scoreBatch(int[] ids, int[] offsets, int count, float[] tokenScores, float[] sentenceScores) {
+		checkTrie();
+		final long root = trie.getRoot();
+		for(int s = 0; s < count; s++) {
+			final int begin = offsets[s], end = offsets[s+1];
+			if(end <= begin)
+				throw new IllegalArgumentException("Sentence "+s+" does not have a start symbol");
+			int id = (classMap == null ? ids[begin] : classMap.getWordClass(ids[begin]));
+			long context = getNextState(trie.getChild(root, id), root, id), child;
+			float total = 0, prob;
+			if(tokenScores != null)
+				tokenScores[begin] = 0;
+			for(int i = begin+1; i < end; i++) {
+				id = ids[i];
+				prob = 0;
+				if(classMap != null) {
+					prob = classMap.getWordProb(id);
+					id = classMap.getWordClass(id);
+				} else
+					id = getUnigramId(id);
+				// fall back to a context that can predict the word
+				while((child = trie.getChild(context, id)) == NgramTrie.NONE) {
+					if(context == root)
+						throw new IllegalArgumentException("Could not find word in unigram vocabulary.");
+					prob += trie.getBackoffScore(context);
+					context = trie.getFallback(context);
+				}
+				prob += trie.getScore(child);
+				if(tokenScores != null)
+					tokenScores[i] = prob;
+				total += prob;
+				context = getNextState(child, context, id);
+			}
+			if(sentenceScores != null)
+				sentenceScores[s] = total;
+		}
+	}
+
+	/**
+	 * Get the entropy of the spelling of a word. When the model is packed or
+	 *  frozen and has neither classes nor unknown word models of its own, the
+	 *  characters are looked up by code point and scored as by scoreBatch(),
+	 *  so nothing is allocated unless a character is not in the vocabulary.
+	 *  As with scoreBatch(), the coverage in printReport() is not updated.
+	 * @param word The word to score
+	 * @return The entropy of the word's characters, including the terminal
+	 *  symbol if it is counted
+	 */
+	@Override
+	public float scoreChars(String word) {
+		if(trie == null || classMap != null || ukModels != null)
+			return super.scoreChars(word);
+		CharBuffers buff = charBuffers.get();
+		final int len = word.codePointCount(0, word.length())+(countTerminals?2:1);
+		if(buff.ids.length < len) {
+			buff.ids = new int[len*2];
+			buff.scores = new float[len*2];
+		}
+		final int[] ids = buff.ids;
+		final float[] scores = buff.scores;
+		ids[0] = 0;
+		for(int i = 1, pos = 0, next, id; pos < word.length(); i++, pos = next) {
+			next = word.offsetByCodePoints(pos, 1);
+			id = vocab.findId(word, pos, next);
+			ids[i] = (id == -1 ? getId(word.substring(pos, next)) : id);
+		}
+		if(countTerminals)
+			ids[len-1] = 0;
+		buff.offsets[1] = len;
+		scoreBatch(ids, buff.offsets, 1, scores, null);
+		// add the penalty for unknown characters if there's a vocabulary limit
+		float ukPenalty = 0;
+		if(vocabLimit > 0) {
+			int remaining = vocabLimit-vocab.getSize();
+			if(remaining <= 0)
+				throw new IllegalArgumentException("vocab size has exceeded the vocab size limit");
+			ukPenalty = (float) Math.log10(1.0/remaining);
+		}
+		float total = 0;
+		for(int i = 1; i < len; i++)
+			total += (isInVocab(ids[i]) ? scores[i] : scores[i]+ukPenalty);
+		return total;
+	}
+
+	// buffers for scoreChars(), held by each thread
+	private static class CharBuffers {
+		int[] ids = new int[64];
+		float[] scores = new float[64];
+		final int[] offsets = new int[2];
+	}
+	private static final ThreadLocal<CharBuffers> charBuffers = new ThreadLocal<CharBuffers>() {
+		@Override
+		protected CharBuffers initialValue() {
+			return new CharBuffers();
+		}
+	};
+
+	/**
+	 * Build the index used by topK(), which holds the children of each
+	 *  context sorted by score. This should be done once the model has been
+	 *  loaded, packed or frozen, and must be done again if the n-grams are
+	 *  replaced. Models held in a HashedNgramTrie, which cannot list the
+	 *  children of an n-gram, and class-based models cannot be indexed.
+	 */
+	public void buildNextWordIndex() {
+		checkTrie();
+		if(classMap != null)
+			throw new IllegalArgumentException("The most likely next words cannot be found for class-based models");
+		if(trie instanceof HashedNgramTrie)
+			throw new IllegalArgumentException("The most likely next words cannot be found in a hashed trie, as its children cannot be listed");
+		nextWords = new NextWordIndex(trie);
+	}
+
+	/**
+	 * @return The index of the most likely words after each context, or null
+	 *  if it has not been built
+	 */
+	public NextWordIndex getNextWordIndex() {
+		return nextWords;
+	}
+
+	/**
+	 * Find the k most likely words after a context, for example to predict
+	 *  the next word that is typed. The time taken depends on k and not on
+	 *  the number of words that can follow the context. The index must be
+	 *  built with buildNextWordIndex() first.
+	 * @param contextIds The ids of the words before, as returned by getId(),
+	 *  starting with the sentence start symbol (0) at the start of a sentence
+	 * @param k The number of words to find
+	 * @param ids A buffer of at least k elements that receives the ids of the
+	 *  words, the most likely first. The terminal symbol has id 0.
+	 * @param scores A buffer of at least k elements that receives the log10
+	 *  probability of each word as given by score(), or null if not needed
+	 * @return The number of words found
+	 */
+	public int topK(int[] contextIds, int k, int[] ids, float[] scores) {
+		if(nextWords == null)
+			throw new IllegalArgumentException("The next word index must be built with buildNextWordIndex() before calling topK()");
+		return nextWords.topK(getKnownIds(contextIds), k, ids, scores);
+	}
+
+	// replace the ids of words that are not in the model with the unknown word
+	//  symbols, copying the array only if necessary
+	int[] getKnownIds(int[] ids) {
+		int[] ret = ids;
+		for(int i = 0, id; i < ret.length; i++) {
+			if((id = getUnigramId(ret[i])) != ret[i]) {
+				if(ret == ids)
+					ret = ids.clone();
+				ret[i] = id;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Find the ids of the k most likely words after a context, as in
+	 *  topK(int[], int, int[], float[])
+	 * @param contextIds The ids of the words before
+	 * @param k The number of words to find
+	 * @return The ids of the words, the most likely first
+	 */
+	public int[] topK(int[] contextIds, int k) {
+		int[] ids = new int[k];
+		int found = topK(contextIds, k, ids, null);
+		return (found == k ? ids : Arrays.copyOf(ids, found));
+	}
+
+	/**
+	 * Check that the n-grams of the model, and of its unknown word models,
+	 *  can be listed, which is needed to write, pack, quantize or compress
+	 *  them. Models held in a HashedNgramTrie can only find n-grams one at a
+	 *  time.
+	 * @throws IllegalArgumentException If the n-grams are held in a HashedNgramTrie
+	 */
+	public void checkListable() {
+		if(trie instanceof HashedNgramTrie)
+			throw new IllegalArgumentException("The n-grams of "+name+" are held in a HashedNgramTrie, which cannot list them, so they cannot be written, packed, quantized or compressed");
+		if(ukModels != null)
+			for(LanguageModel lm : ukModels)
+				if(lm instanceof NgramLM)
+					((NgramLM)lm).checkListable();
+	}
+
+	private void checkTrie() {
+		if(trie == null)
+			throw new IllegalArgumentException("The model must be packed or frozen before it can be scored one word at a time");
+	}
+
 	@Override
 	public void trainModel(Iterable<String[]> sl) throws Exception {
 		if(debug > 0)
@@ -259,13 +781,14 @@ public class NgramLM extends LanguageModel implements Serializable {
 		// count the n-grams
 		countNgrams(sl);
 		// smooth the n-grams
+		linkFallbacks();
 		if(smoother != null)
 			smoother.smooth(this);
 		// check to see if the model is closed
 		if(!closed) {
 			closed = true;
 			for(int i = 2; i <= ukModelCount+1; i++)
-				if(root.getChild(i) != null)
+				if(hasUnigram(i))
 					closed = false;
 		}
 		// train the unknown models
@@ -289,10 +812,24 @@ public class NgramLM extends LanguageModel implements Serializable {
 	public void countNgrams(Iterable<String[]> sl) throws IOException {
 		if(debug > 0)
 			System.err.println("NgramLM.countNgrams(): Started for "+name);
+		if(trie != null)
+			throw new IllegalArgumentException("Cannot count n-grams in a model that has been packed");
 		// import the vocabulary if necessary
 		if(vocab == null)
 			importVocabulary(sl);
-		root.setChildrenSize(classMap==null?vocab.getSize():classMap.getClassSize());
+		// large models are counted outside of the heap
+		OffHeapNgramTrie.Builder builder = (offHeap ? new OffHeapNgramTrie.Builder(n) : null);
+		if(builder != null && countThreads > 1)
+			throw new IllegalArgumentException("N-grams cannot be counted by several threads off the heap");
+		ShardedNgramCounter counter = null;
+		if(builder == null) {
+			root.setChildrenSize(classMap==null?vocab.getSize():classMap.getClassSize());
+			// put off sorting the children of each node until counting is done
+			root.setCounting(true);
+			// several threads count the n-grams starting with different words
+			if(countThreads > 1)
+				counter = new ShardedNgramCounter(n, countThreads, root.children.length);
+		}
 		int[] vocabCounts = (classMap == null?null:new int[vocab.getSize()]);
 		int[] classCounts = (classMap == null?null:new int[classMap.getClassSize()]);
 		// set up the variables
@@ -329,7 +866,7 @@ public class NgramLM extends LanguageModel implements Serializable {
 					vocabCounts[buff[len]]++;
 					int myClass = classMap.getWordClass(buff[len]);
 					classCounts[myClass]++;
-					buff[len] = classMap.getWordClass(buff[len]);
+					buff[len] = myClass;
 				}
 			}
 			// add a terminal symbol at the start and end if necessary
@@ -337,9 +874,26 @@ public class NgramLM extends LanguageModel implements Serializable {
 			if(buff[sent.length] != 0)
 				buff[len++] = 0;
 			// add to the total word count
+			int i,j,k;
+			if(builder != null) {
+				builder.addRootCount(len-start-1);
+				// cycle through all, adding the n-grams by their parent's index
+				for(i = start; i < len-1; i++) {
+					long parent = 0;
+					for(j = 0; j < n && (k=i+j) < len; j++) {
+						parent = builder.addCount(j+1, parent, buff[k]);
+						if(builder.getCount(j+1, parent) == 1)
+							counts[j]++;
+					}
+				}
+				continue;
+			}
 			root.count += len-start-1;
+			if(counter != null) {
+				counter.add(buff, start, len);
+				continue;
+			}
 			// cycle through all, adding the n-grams one-by-one
-			int i,j,k;
 			for(i = start; i < len-1; i++) {
 				node = root;
 				for(j = 0; j < n && (k=i+j) < len; j++) {
@@ -350,8 +904,15 @@ public class NgramLM extends LanguageModel implements Serializable {
 				}
 			}
 		}
+		if(builder != null)
+			setTrie(builder.build());
+		else {
+			if(counter != null)
+				counter.finish(root, counts);
+			root.setCounting(false);
+		}
 		// re-adjust for the number of nodes
-		if(root.getChild(1)==null && !terminalSymbol.equals(startSymbol))
+		if(!hasUnigram(1) && !terminalSymbol.equals(startSymbol))
 			counts[0]++;
 		// get the class probabilities
 		if(classMap != null) {
@@ -367,14 +928,243 @@ public class NgramLM extends LanguageModel implements Serializable {
 		}
 	}
 
+	/**
+	 * Find the fallback of every node in the tree in a single pass, so later
+	 *  calls to getFallback() do not need to search the tree. This must be
+	 *  called again after nodes are removed from the tree by hand.
+	 */
+	public void linkFallbacks() {
+		if(root != null)
+			linkFallbacks(root);
+	}
+	private static void linkFallbacks(NgramNode node) {
+		if(!node.hasChildren())
+			return;
+		// parents are linked before their children, so each link is found
+		//  from the parent's fallback in one step
+		for(NgramNode child : node) {
+			child.clearFallback();
+			child.getFallback();
+			linkFallbacks(child);
+		}
+	}
+
 	/**
 	 * Get the root node of the n-gram Tree
-	 * @return The root node of the n-gram tree
+	 * @return The root node of the n-gram tree, or null if the model has been packed
 	 */
 	public BranchNode getRoot() {
 		return root;
 	}
 
+	/**
+	 * Get the root node of the n-grams, whether they are held in a tree or
+	 *  have been packed into a trie. Nodes of a packed trie cannot be modified.
+	 * @return The root node
+	 */
+	public NgramNode getRootNode() {
+		return (trie != null ? trie.getRootNode() : root);
+	}
+
+	/**
+	 * Set whether n-grams are counted in an OffHeapNgramTrie, which is held
+	 *  outside of the Java heap and can hold more than 2^31 n-grams, instead
+	 *  of the tree. The model can still be smoothed, but n-grams cannot be
+	 *  removed by cutoffs.
+	 * @param offHeap Whether to count n-grams off the heap
+	 */
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * @return Whether n-grams are counted in an OffHeapNgramTrie
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * Set the number of threads that n-grams are counted with. Sentences are
+	 *  still read and converted to ids by the calling thread, but the n-grams
+	 *  are counted by the other threads, each of which holds the n-grams that
+	 *  start with some of the words. The counts are the same as when counting
+	 *  with one thread. N-grams counted off the heap use a single thread, so
+	 *  this cannot be used with setOffHeap().
+	 * @param countThreads The number of threads
+	 */
+	public void setCountThreads(int countThreads) {
+		if(countThreads < 1)
+			throw new IllegalArgumentException("The number of threads must be at least 1, but got "+countThreads);
+		this.countThreads = countThreads;
+	}
+
+	/**
+	 * @return The number of threads that n-grams are counted with
+	 */
+	public int getCountThreads() {
+		return countThreads;
+	}
+
+	/**
+	 * Get the packed trie that holds the n-grams
+	 * @return The trie, or null if the n-grams are held in a tree
+	 */
+	public NgramTrie getTrie() {
+		return trie;
+	}
+
+	/**
+	 * Replace the n-gram tree with a packed trie. The tree is discarded.
+	 * @param trie The trie to use
+	 */
+	public void setTrie(NgramTrie trie) {
+		this.trie = trie;
+		root = null;
+		if(cache != null)
+			cache.clear();
+		nextWords = null;
+		unigramIds = null;
+	}
+
+	/**
+	 * Set a cache that holds the scores of words after states, which speeds
+	 *  up score() and getSentenceProb() when the same words are often scored
+	 *  after the same context. getSentenceProb() caches the n-gram found for
+	 *  each word rather than its score, so its results are exactly the same
+	 *  as without the cache. It is only used once the model has been packed
+	 *  or frozen, and is cleared when the n-grams are replaced.
+	 * @param cache The cache to use, which should only be used by this model,
+	 *  or null to use no cache
+	 */
+	public void setCache(NgramCache cache) {
+		if(cache != null)
+			cache.clear();
+		this.cache = cache;
+	}
+
+	/**
+	 * @return The cache of the scores of words after states, or null if there
+	 *  is none
+	 */
+	public NgramCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Convert the n-gram tree into a PackedNgramTrie, which takes much less
+	 *  memory and is faster to score with, but can no longer be trained.
+	 *  Unknown word models are packed as well.
+	 */
+	public void pack() {
+		if(trie == null) {
+			PackedNgramTrie.Builder builder = new PackedNgramTrie.Builder(n);
+			builder.addTree(root);
+			setTrie(builder.build());
+		}
+		if(ukModels != null)
+			for(LanguageModel lm : ukModels)
+				if(lm instanceof NgramLM)
+					((NgramLM)lm).pack();
+	}
+
+	/**
+	 * Quantize the scores and backoffs of each level into a codebook, which
+	 *  reduces memory further at a small cost in accuracy. The model is packed
+	 *  first if necessary. Unknown word models are quantized as well.
+	 * @param scoreBits The number of bits to use for scores (typically 8 to 16)
+	 * @param backoffBits The number of bits to use for backoffs
+	 */
+	public void quantize(int scoreBits, int backoffBits) {
+		checkListable();
+		setTrie(QuantizedNgramTrie.quantize(getPackedTrie(), scoreBits, backoffBits));
+		if(ukModels != null)
+			for(LanguageModel lm : ukModels)
+				if(lm instanceof NgramLM)
+					((NgramLM)lm).quantize(scoreBits, backoffBits);
+	}
+
+	/**
+	 * Compress the n-grams into a SuccinctNgramTrie, which takes only a few
+	 *  bytes per n-gram but is slower to search. Scores are kept exactly, or
+	 *  as they are if the model has already been quantized. Unknown word
+	 *  models are compressed as well.
+	 */
+	public void compress() {
+		checkListable();
+		if(!(trie instanceof SuccinctNgramTrie))
+			setTrie(new SuccinctNgramTrie(getPackedTrie()));
+		if(ukModels != null)
+			for(LanguageModel lm : ukModels)
+				if(lm instanceof NgramLM)
+					((NgramLM)lm).compress();
+	}
+
+	// get the n-grams as a packed trie, building one if they are held elsewhere
+	PackedNgramTrie getPackedTrie() {
+		if(trie instanceof PackedNgramTrie)
+			return (PackedNgramTrie)trie;
+		checkListable();
+		PackedNgramTrie.Builder builder = new PackedNgramTrie.Builder(n);
+		builder.addTree(getRootNode());
+		return builder.build();
+	}
+
+	/**
+	 * Freeze the model once it has been trained, leaving only what is needed
+	 *  to score and write it. The n-gram tree, which holds counts, parent
+	 *  pointers and growable child arrays, is packed into a PackedNgramTrie.
+	 *  N-grams counted off the heap stay there, but their counts are dropped.
+	 *  The words kept for training unknown word models are dropped as well,
+	 *  and the model is made read-only. Unknown word models are also frozen.
+	 * @return The estimated number of bytes of memory that were reclaimed
+	 */
+	public long freeze() {
+		long before = getMemorySize();
+		if(trie == null)
+			pack();
+		else if(trie instanceof OffHeapNgramTrie)
+			((OffHeapNgramTrie)trie).dropCounts();
+		ukWords = null;
+		if(ukModels != null)
+			for(LanguageModel lm : ukModels)
+				if(lm instanceof NgramLM)
+					((NgramLM)lm).freeze();
+		setReadOnly(true);
+		frozen = true;
+		long reclaimed = before - getMemorySize();
+		if(debug > 0)
+			System.err.println("NgramLM.freeze(): Reclaimed about "+reclaimed+" bytes for "+name);
+		return reclaimed;
+	}
+
+	/**
+	 * @return Whether the model has been frozen and can no longer be trained
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Estimate the number of bytes of memory used by the n-grams of the model
+	 *  and its unknown word models. N-grams held in a mapped file are not
+	 *  counted.
+	 * @return The estimated size in bytes
+	 */
+	public long getMemorySize() {
+		long size = (trie != null ? trie.getMemorySize() : root.getMemorySize());
+		if(nextWords != null)
+			size += nextWords.getMemorySize();
+		int[] table = unigramIds;
+		if(table != null)
+			size += NgramNode.getArraySize(table.length);
+		if(ukModels != null)
+			for(LanguageModel lm : ukModels)
+				if(lm instanceof NgramLM)
+					size += ((NgramLM)lm).getMemorySize();
+		return size;
+	}
+
 	/**
 	 * Get the length of the n-gram context
 	 * @return The length
@@ -389,9 +1179,9 @@ public class NgramLM extends LanguageModel implements Serializable {
 	 */
 	public void setN(int n) {
 		this.n = n;
-		counts = new int[n];
-		hits = new int[n+1];
-		sentHits = 0;
+		counts = new long[n];
+		hits = new AtomicLongArray(n+1);
+		sentHits = new AtomicLong();
 	}
 
 	/**
@@ -400,6 +1190,8 @@ public class NgramLM extends LanguageModel implements Serializable {
 	 * TODO: This assigns a uniform probability, doesn't take unknown word models into account
 	 */
 	public void expandUnknowns() {
+		if(trie != null)
+			throw new IllegalArgumentException("Cannot expand unknown words in a model that has been packed");
 		int unkNext = 0;
 		Vector<Integer> vec = new Vector<Integer>();
 		vec.add(vocab.getId(ukSymbol));
@@ -422,11 +1214,12 @@ public class NgramLM extends LanguageModel implements Serializable {
 	// methods for serialization //
 	///////////////////////////////
 	private void writeObject(ObjectOutputStream out) throws IOException {
+		checkListable();
 		out.writeInt(n);
 		out.writeObject(counts);
 		out.writeObject(smoother);
 		out.writeInt(vocab.getSize());
-		writeNgrams(out, root, 0);
+		writeNgrams(out, getRootNode(), 0);
 	}
 	private void writeNgrams(ObjectOutputStream out, NgramNode node, int lev) throws IOException {
 		out.writeInt(node.getId());
@@ -434,8 +1227,9 @@ public class NgramLM extends LanguageModel implements Serializable {
 		// skip ones that are already on the top level
 		if(lev == n)
 			return;
-		// skip ones with no children
-		if(!node.hasChildren()) {
+		// skip ones with no children, including those whose children were
+		//  all trimmed, as no backoff is read for them
+		if(!node.hasChildren() || node.getChildCount() == 0) {
 			out.writeInt(0);
 			return;
 		}
@@ -448,15 +1242,39 @@ public class NgramLM extends LanguageModel implements Serializable {
 	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
 		// the size of the n-gram context
 		setN(in.readInt());
-		counts = (int[]) in.readObject();
+		counts = toCounts(in.readObject());
 		smoother = (NgramSmoother) in.readObject();
 		int vocabSize = in.readInt();
+		// read directly into a packed trie if the reader asked for one
+		int storage = (in instanceof SerializedNgramReader.StorageInputStream ?
+				((SerializedNgramReader.StorageInputStream)in).getStorage() : NgramReader.TREE_STORAGE);
+		if(storage != NgramReader.TREE_STORAGE) {
+			NgramTrie.Builder builder = NgramReader.createBuilder(n, storage);
+			readNgrams(in, builder, 0, 0, in.readInt());
+			setTrie(NgramReader.buildTrie(builder, storage));
+			return;
+		}
 		root = new BranchNode(-1, null);
 		root.setChildrenSize(classMap==null?vocabSize:classMap.getClassSize());
 		root.setId(in.readInt());
 		readNgrams(in, root, 0);
 	}
 
+	private void readNgrams(ObjectInputStream in, NgramTrie.Builder builder, int lev, long parent, int id) throws IOException {
+		float score = in.readFloat(), backoff = Float.NaN;
+		int childCount = (lev == n ? 0 : in.readInt());
+		// skip ones with no children
+		if(childCount != 0)
+			backoff = in.readFloat();
+		long index = 0;
+		if(lev == 0)
+			builder.setRoot(score, (backoff == backoff ? backoff : 0));
+		else
+			index = builder.add(lev, parent, id, score, backoff);
+		for(int i = 0; i < childCount; i++)
+			readNgrams(in, builder, lev+1, index, in.readInt());
+	}
+
 	private void readNgrams(ObjectInputStream in, NgramNode node, int lev) throws IOException {
 		node.setScore(in.readFloat());
 		if(lev == n) return;
@@ -493,9 +1311,27 @@ public class NgramLM extends LanguageModel implements Serializable {
 
 	/**
 	 * Get the number of n-grams at each level
-	 * @return An array containing the number of n-gram counts at each level
+	 * @return A copy of the number of n-gram counts at each level
+	 * @throws IllegalArgumentException If a level has more than
+	 *  Integer.MAX_VALUE n-grams, which can only happen for n-grams counted
+	 *  off the heap, whose numbers must be read with getNgramCountsLong()
 	 */
 	public int[] getNgramCounts() {
+		int[] ret = new int[counts.length];
+		for(int i = 0; i < counts.length; i++) {
+			if(counts[i] > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Level "+(i+1)+" has "+counts[i]+" n-grams, which is too many for an int, use getNgramCountsLong()");
+			ret[i] = (int)counts[i];
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the number of n-grams at each level, which may be more than
+	 *  Integer.MAX_VALUE for n-grams counted off the heap
+	 * @return The array holding the number of n-grams at each level
+	 */
+	public long[] getNgramCountsLong() {
 		return counts;
 	}
 
@@ -508,9 +1344,24 @@ public class NgramLM extends LanguageModel implements Serializable {
 	}
 
 	public void setNgramCounts(int[] cs) {
+		counts = toCounts(cs);
+	}
+
+	public void setNgramCountsLong(long[] cs) {
 		counts = cs;
 	}
 
+	// read counts that were saved as ints by older versions, or as longs
+	protected static long[] toCounts(Object obj) {
+		if(!(obj instanceof int[]))
+			return (long[])obj;
+		int[] old = (int[])obj;
+		long[] ret = new long[old.length];
+		for(int i = 0; i < old.length; i++)
+			ret[i] = old[i];
+		return ret;
+	}
+
 	public String getNodeName(NgramNode child) {
 		if(child.getParent() == null)
 			return "";
@@ -523,15 +1374,15 @@ public class NgramLM extends LanguageModel implements Serializable {
 	public String printReport() {
 		StringBuffer sb = new StringBuffer();
 		sb.append(name).append(" coverage: ");
-		int[] newHits = new int[n+1], tries = new int[n+1];
+		long[] newHits = new long[n+1], tries = new long[n+1];
 		// hits of a greater order are also hits of a lesser order
-		newHits[n] = hits[n];
+		newHits[n] = hits.get(n);
 		for(int i = n-1; i >= 0; i--)
-			newHits[i] = hits[i] + newHits[i+1];
+			newHits[i] = hits.get(i) + newHits[i+1];
 		// unigram and bigram tries are equal, but 3-gram up decrease
 		tries[0] = newHits[0];
 		for(int i = 1; i < tries.length; i++)
-			tries[i] = tries[i-1] - (i>2?sentHits:0);
+			tries[i] = tries[i-1] - (i>2?sentHits.get():0);
 		for(int i = 1; i <= n; i++)
 			sb.append(i).append("-gram ").append(newHits[i]*100.0/tries[i]).append("% ");
 		return sb.toString();
@@ -50,6 +50,8 @@ public class NgramNode implements Serializable, Iterable<NgramNode> {
 	protected int count = 0;
 	protected float score = 0;
 	protected NgramNode parent = null;
+	// the node to fall back to, once it has been resolved
+	protected transient NgramNode fallback = null;
 
 	public static class NgramNodeIdComparator implements Comparator<NgramNode> {
 		@Override
@@ -107,9 +109,17 @@ public class NgramNode implements Serializable, Iterable<NgramNode> {
 
 	/**
 	 * Get the node to be fallen back to when the context doesn't exist.
+	 *  The fallback is found once and remembered, and only found again if
+	 *  the remembered node has been removed from the tree by trimming.
+	 *  Nodes removed in other ways must be followed by a call to
+	 *  NgramLM.linkFallbacks().
 	 * @return The fallback node
 	 */
 	public NgramNode getFallback() {
+		// trimmed nodes are detached from their parents, and the fallback of
+		//  an n-gram of two or more words is never the root
+		if(fallback != null && fallback.parent != null)
+			return fallback;
 		// if the fallback doesn't exist, find it
 		if(parent == null)
 			return null;
@@ -117,22 +127,62 @@ public class NgramNode implements Serializable, Iterable<NgramNode> {
 		else if(parent.parent == null)
 			return parent;
 		// otherwise, get the parent's fallback and advance one
-		else
-			return parent.getFallback().getChild(id);
+		NgramNode parentFallback = parent.getFallback();
+		fallback = (parentFallback == null ? null : parentFallback.getChild(id));
+		return fallback;
+	}
+
+	/**
+	 * Forget the remembered fallback, so it is found again when next needed
+	 */
+	public final void clearFallback() {
+		fallback = null;
 	}
 
 	public String toString() {
-		return id+"("+score+")"+parent;
+		return id+"("+getScore()+")"+parent;
 	}
 
 	public final NgramNode getParent() { return parent; }
-	public final void setParent(NgramNode parent) { this.parent = parent; }
+	public final void setParent(NgramNode parent) {
+		this.parent = parent;
+		fallback = null;
+	}
 	public final int getId() { return id; }
 	public final void setId(int id) { this.id = id; }
-	public final int getCount() { return count; }
-	public final void setCount(int count) { this.count = count; }
-	public final float getScore() { return score; }
-	public final void setScore(float score) {
+	/**
+	 * Get the count of the node
+	 * @return The count
+	 * @throws IllegalArgumentException If the count is larger than
+	 *  Integer.MAX_VALUE, which can only happen for n-grams counted in an
+	 *  OffHeapNgramTrie, whose counts must be read with getCountLong()
+	 */
+	public final int getCount() {
+		final long count = getCountLong();
+		if(count > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Count "+count+" is too large for an int, use getCountLong()");
+		return (int)count;
+	}
+	public final void setCount(int count) { setCountLong(count); }
+	/**
+	 * Get the count of the node, which may be larger than Integer.MAX_VALUE
+	 *  for n-grams counted in an OffHeapNgramTrie
+	 * @return The count
+	 */
+	public long getCountLong() { return count; }
+	/**
+	 * Set the count of the node. Nodes in the tree hold counts of up to
+	 *  Integer.MAX_VALUE; larger counts need an OffHeapNgramTrie.
+	 * @param count The count
+	 */
+	public void setCountLong(long count) {
+		if(count > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Count "+count+" is too large for the n-gram tree, use off-heap storage");
+		this.count = (int)count;
+	}
+	// scores are not final, as nodes of a trie read and write them there
+	public float getScore() { return score; }
+	public void setScore(float score) {
 		this.score = score;
 	}
 	public float getBackoffScore() {
@@ -170,7 +220,7 @@ public class NgramNode implements Serializable, Iterable<NgramNode> {
 			NgramNode nod = (NgramNode)obj;
 			return
 				eq(id, nod.id) &&
-				eq(score, nod.score);
+				eq(getScore(), nod.getScore());
 		} catch(Exception e) { }
 		return false;
 	}
@@ -190,7 +240,7 @@ public class NgramNode implements Serializable, Iterable<NgramNode> {
 	}
 
 	public final void incrementCount() {
-		count++;
+		setCountLong(getCountLong()+1);
 	}
 
 	public void setChildren(Vector<NgramNode> children) {
@@ -206,4 +256,19 @@ public class NgramNode implements Serializable, Iterable<NgramNode> {
 		return 0;
 	}
 
+	/**
+	 * Estimate the number of bytes of Java heap used by this node and every
+	 *  node below it, assuming compressed references.
+	 * @return The estimated size in bytes
+	 */
+	public long getMemorySize() {
+		// header, id, count, score, parent and fallback
+		return 32;
+	}
+
+	// estimate the size of an array of 4-byte elements
+	protected static long getArraySize(int length) {
+		return (16 + 4L*length + 7) & ~7L;
+	}
+
 }
@@ -0,0 +1,302 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.nio.Buffer;
+
+import kylm.util.BitArray;
+
+/**
+ * An abstract class for read-only n-gram storage that is used in place of the
+ * tree of NgramNode objects once a model is no longer being trained.<br>
+ * Every n-gram is addressed by a long handle that encodes its level (the
+ * length of the n-gram, with 0 being the root) and its index in that level.
+ * Children of a node occupy consecutive handles on the next level.
+ * @author neubig
+ *
+ */
+public abstract class NgramTrie {
+
+	/**
+	 * A class that collects n-grams and builds them into a trie. The parent of
+	 * an n-gram is given by its index on the previous level, which is returned
+	 * when the parent is added or found.
+	 */
+	public static abstract class Builder {
+
+		/**
+		 * Set the score and backoff of the root node
+		 */
+		public abstract void setRoot(float score, float backoff);
+
+		/**
+		 * Add an n-gram to the trie
+		 * @param level The length of the n-gram
+		 * @param parent The index of the parent on the previous level (ignored for unigrams)
+		 * @param id The id of the last word of the n-gram
+		 * @param score The score, or NaN if not set
+		 * @param backoff The backoff, or NaN if not set
+		 * @return The index of the n-gram, which can be used as a parent
+		 */
+		public abstract long add(int level, long parent, int id, float score, float backoff);
+
+		/**
+		 * Find an n-gram that has been added
+		 * @param ids The array holding the n-gram
+		 * @param start The position of the first word
+		 * @param end The position after the last word
+		 * @return The handle of the n-gram, or NONE if it does not exist
+		 */
+		public abstract long findNgram(int[] ids, int start, int end);
+
+		/**
+		 * Finish a level, after which no more n-grams will be added to it.
+		 *  Some builders can only find n-grams on levels that are finished.
+		 * @param k The level to finish
+		 */
+		public abstract void finishLevel(int k);
+
+		/**
+		 * @return The trie holding every n-gram that was added
+		 */
+		public abstract NgramTrie build();
+
+	}
+
+	/**
+	 * The handle returned when an n-gram does not exist
+	 */
+	public static final long NONE = -1;
+
+	// the number of bits used for the index in a handle
+	private static final int INDEX_BITS = 48;
+	private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+	/**
+	 * Create a handle from a level and an index
+	 * @param level The level of the n-gram (0 for the root)
+	 * @param index The index of the n-gram within the level
+	 * @return The handle
+	 */
+	public static final long getHandle(int level, long index) {
+		return ((long)level << INDEX_BITS) | index;
+	}
+
+	/**
+	 * Get the level (the length of the n-gram) from a handle
+	 * @param handle The handle
+	 * @return The level, 0 for the root
+	 */
+	public static final int getLevel(long handle) {
+		return (int)(handle >>> INDEX_BITS);
+	}
+
+	/**
+	 * Get the index within a level from a handle
+	 * @param handle The handle
+	 * @return The index
+	 */
+	public static final long getIndex(long handle) {
+		return handle & INDEX_MASK;
+	}
+
+	/**
+	 * @return The length of the longest n-grams in the trie
+	 */
+	public abstract int getN();
+
+	/**
+	 * @return The handle of the root node
+	 */
+	public long getRoot() {
+		return 0;
+	}
+
+	/**
+	 * Find a child of a node.
+	 * @param node The handle of the parent
+	 * @param id The id of the child to find
+	 * @return The handle of the child, or NONE if it does not exist
+	 */
+	public abstract long getChild(long node, int id);
+
+	/**
+	 * Find an n-gram by walking down from the root.
+	 * @param ids The array holding the n-gram
+	 * @param start The position of the first word of the n-gram
+	 * @param end The position after the last word of the n-gram
+	 * @return The handle of the n-gram, or NONE if it does not exist
+	 */
+	public long findNgram(int[] ids, int start, int end) {
+		long node = getRoot();
+		for(int i = start; i < end && node != NONE; i++)
+			node = getChild(node, ids[i]);
+		return node;
+	}
+
+	/**
+	 * Get the n-gram that is fallen back to from an n-gram, which is the
+	 *  n-gram without its first word. Fallbacks are found when the trie is
+	 *  built, so this does not need to search.
+	 * @param node The handle of the n-gram
+	 * @return The handle of the fallback, or NONE if it does not exist or node
+	 *  is the root
+	 */
+	public abstract long getFallback(long node);
+
+	/**
+	 * @param node The handle of the n-gram
+	 * @return The id of the last word in the n-gram, or -1 for the root and
+	 *  unused slots
+	 */
+	public abstract int getId(long node);
+
+	/**
+	 * @param node The handle of the n-gram
+	 * @return The log10 probability of the n-gram
+	 */
+	public abstract float getScore(long node);
+
+	/**
+	 * @param node The handle of the n-gram
+	 * @return The log10 backoff weight of the n-gram, NaN for the highest level
+	 */
+	public abstract float getBackoffScore(long node);
+
+	/**
+	 * @param node The handle of the n-gram
+	 * @return The number of times the n-gram occurred, or 0 if the trie does
+	 *  not hold counts
+	 */
+	public long getCount(long node) {
+		return 0;
+	}
+
+	/**
+	 * Set the number of times an n-gram occurred, if the trie can be modified
+	 * @param node The handle of the n-gram
+	 * @param count The count
+	 */
+	public void setCount(long node, long count) {
+		throw new UnsupportedOperationException("Cannot change the counts of a read-only trie");
+	}
+
+	/**
+	 * Set the score of an n-gram, if the trie can be modified
+	 * @param node The handle of the n-gram
+	 * @param score The log10 probability
+	 */
+	public void setScore(long node, float score) {
+		throw new UnsupportedOperationException("Cannot change the scores of a read-only trie");
+	}
+
+	/**
+	 * Set the backoff of an n-gram, if the trie can be modified
+	 * @param node The handle of the n-gram
+	 * @param backoff The log10 backoff weight
+	 */
+	public void setBackoffScore(long node, float backoff) {
+		throw new UnsupportedOperationException("Cannot change the backoffs of a read-only trie");
+	}
+
+	/**
+	 * @param node The handle of the n-gram
+	 * @return Whether the n-gram is the context of any longer n-gram
+	 */
+	public abstract boolean hasChildren(long node);
+
+	/**
+	 * @param node The handle of the n-gram
+	 * @return The number of children of the n-gram
+	 */
+	public abstract int getChildCount(long node);
+
+	/**
+	 * Get the first handle in the range holding the children of a node. Slots
+	 *  in the range that are not in use have an id of -1.
+	 * @param node The handle of the parent
+	 * @return The handle of the first child slot
+	 */
+	public abstract long getChildBegin(long node);
+
+	/**
+	 * @param node The handle of the parent
+	 * @return The handle one past the last child slot
+	 */
+	public abstract long getChildEnd(long node);
+
+	/**
+	 * Estimate the number of bytes of memory used by the trie, including
+	 *  memory allocated outside of the Java heap. Data that is held in a
+	 *  mapped file is not counted.
+	 * @return The estimated size in bytes
+	 */
+	public abstract long getMemorySize();
+
+	// estimate the heap size of arrays of 4-byte elements
+	protected static long getArraySize(int[][] arrs) {
+		long size = 0;
+		for(int[] arr : arrs)
+			if(arr != null)
+				size += NgramNode.getArraySize(arr.length);
+		return size;
+	}
+	protected static long getArraySize(float[][] arrs) {
+		long size = 0;
+		for(float[] arr : arrs)
+			if(arr != null)
+				size += NgramNode.getArraySize(arr.length);
+		return size;
+	}
+
+	// estimate the heap size of buffers of 4-byte elements, skipping direct
+	//  buffers, which include mapped files
+	protected static long getBufferSize(Buffer[] bufs) {
+		long size = 0;
+		if(bufs != null)
+			for(Buffer buf : bufs)
+				if(buf != null && !buf.isDirect())
+					size += NgramNode.getArraySize(buf.capacity());
+		return size;
+	}
+
+	// estimate the heap size of arrays of bits
+	protected static long getBitArraySize(BitArray[] arrs) {
+		long size = 0;
+		for(BitArray arr : arrs)
+			if(arr != null)
+				size += arr.getMemorySize();
+		return size;
+	}
+
+	/**
+	 * Get a view of the trie that can be used wherever an NgramNode tree is
+	 *  expected, such as by the writers. The scores and counts of the view can
+	 *  only be changed if the trie can be modified, and n-grams can never be
+	 *  added or removed.
+	 * @return The root node of the view
+	 */
+	public NgramNode getRootNode() {
+		return new TrieNgramNode(this, getRoot(), null);
+	}
+
+}
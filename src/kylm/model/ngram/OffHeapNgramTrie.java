@@ -0,0 +1,529 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.util.Arrays;
+
+import kylm.util.OffHeapArray;
+
+/**
+ * An n-gram trie that is held outside of the Java heap, so it can hold more
+ * than 2^31 n-grams without putting pressure on the garbage collector.<br>
+ * The levels are laid out as in PackedNgramTrie, but every array is an
+ * OffHeapArray indexed by longs, child offsets and fallbacks are longs, and
+ * each n-gram also has a long count. Scores, backoffs and counts can be
+ * changed, so a model can be counted and smoothed in this trie, but n-grams
+ * cannot be added after it has been built.
+ * @author neubig
+ *
+ */
+public class OffHeapNgramTrie extends NgramTrie {
+
+	/**
+	 * A class that collects n-grams in off-heap hash tables, either by
+	 * counting them or by adding them with their scores, and sorts them into
+	 * a trie when it is built. N-grams may be added in any order, and can be
+	 * found at any time. The index of an n-gram is the order in which it was
+	 * added, except for unigrams, which are indexed by id.
+	 */
+	public static class Builder extends NgramTrie.Builder {
+
+		private int n = 0;
+		private float rootScore = 0, rootBackoff = 0;
+		private long rootCount = 0;
+		// the number of n-grams on each level, or the number of unigram ids
+		private long[] sizes = null;
+		// the n-grams of each level, with ids stored plus one so unused unigram
+		//  ids are zero
+		private OffHeapArray[] parents = null, ids = null, counts = null, scores = null, backoffs = null;
+		// hash tables holding the index+1 of the n-grams of levels 2 and up
+		private OffHeapArray[] tables = null;
+
+		/**
+		 * Create a builder for a trie holding n-grams of length up to n
+		 * @param n The length of the longest n-grams
+		 */
+		public Builder(int n) {
+			this.n = n;
+			sizes = new long[n+1];
+			parents = new OffHeapArray[n+1];
+			ids = new OffHeapArray[n+1];
+			counts = new OffHeapArray[n+1];
+			scores = new OffHeapArray[n+1];
+			backoffs = new OffHeapArray[n+1];
+			tables = new OffHeapArray[n+1];
+			for(int i = 1; i <= n; i++) {
+				if(i > 1) {
+					parents[i] = new OffHeapArray(0, 8);
+					tables[i] = new OffHeapArray(1024, 8);
+				}
+				ids[i] = new OffHeapArray(0, 4);
+				counts[i] = new OffHeapArray(0, 8);
+				scores[i] = new OffHeapArray(0, 4);
+				backoffs[i] = new OffHeapArray(0, 4);
+			}
+		}
+
+		private static long getSlot(long parent, int id, long mask) {
+			long z = parent * 0x9E3779B97F4A7C15L + id;
+			z = (z ^ (z >>> 32)) * 0xBF58476D1CE4E5B9L;
+			return (z ^ (z >>> 29)) & mask;
+		}
+
+		// find the index of an n-gram, or -1 if it has not been added
+		private long lookup(int level, long parent, int id) {
+			if(id < 0)
+				return -1;
+			if(level == 1)
+				return (id < sizes[1] && ids[1].getInt(id) != 0 ? id : -1);
+			final OffHeapArray table = tables[level];
+			final long mask = table.getSize()-1;
+			long idx;
+			for(long slot = getSlot(parent, id, mask); (idx = table.getLong(slot)) != 0; slot = (slot+1) & mask)
+				if(ids[level].getInt(idx-1) == id+1 && parents[level].getLong(idx-1) == parent)
+					return idx-1;
+			return -1;
+		}
+
+		// add an n-gram that does not exist yet, returning its index
+		private long insert(int level, long parent, int id) {
+			final long idx = (level == 1 ? id : sizes[level]);
+			if(idx >= sizes[level]) {
+				sizes[level] = idx+1;
+				ids[level].resize(idx+1);
+				counts[level].resize(idx+1);
+				scores[level].resize(idx+1);
+				backoffs[level].resize(idx+1);
+			}
+			ids[level].setInt(idx, id+1);
+			if(level > 1) {
+				parents[level].resize(idx+1);
+				parents[level].setLong(idx, parent);
+				if(sizes[level]*2 > tables[level].getSize())
+					rehash(level);
+				else
+					addToTable(level, idx);
+			}
+			return idx;
+		}
+
+		private void addToTable(int level, long idx) {
+			final OffHeapArray table = tables[level];
+			final long mask = table.getSize()-1;
+			long slot = getSlot(parents[level].getLong(idx), ids[level].getInt(idx)-1, mask);
+			while(table.getLong(slot) != 0)
+				slot = (slot+1) & mask;
+			table.setLong(slot, idx+1);
+		}
+
+		private void rehash(int level) {
+			tables[level] = new OffHeapArray(tables[level].getSize()*2, 8);
+			for(long i = 0; i < sizes[level]; i++)
+				addToTable(level, i);
+		}
+
+		@Override
+		public void setRoot(float score, float backoff) {
+			rootScore = score;
+			rootBackoff = backoff;
+		}
+
+		/**
+		 * Add to the count of the root, which is the total number of words
+		 * @param count The number to add
+		 */
+		public void addRootCount(long count) {
+			rootCount += count;
+		}
+
+		@Override
+		public long add(int level, long parent, int id, float score, float backoff) {
+			long idx = lookup(level, parent, id);
+			if(idx == -1) {
+				idx = insert(level, parent, id);
+				scores[level].setFloat(idx, score);
+				backoffs[level].setFloat(idx, backoff);
+			} else {
+				if(score == score)
+					scores[level].setFloat(idx, score);
+				if(backoff == backoff)
+					backoffs[level].setFloat(idx, backoff);
+			}
+			return idx;
+		}
+
+		/**
+		 * Add one to the count of an n-gram, adding it with a score and backoff
+		 *  of zero if it does not exist
+		 * @param level The length of the n-gram
+		 * @param parent The index of the parent on the previous level (ignored for unigrams)
+		 * @param id The id of the last word of the n-gram
+		 * @return The index of the n-gram
+		 */
+		public long addCount(int level, long parent, int id) {
+			long idx = lookup(level, parent, id);
+			if(idx == -1)
+				idx = insert(level, parent, id);
+			counts[level].setLong(idx, counts[level].getLong(idx)+1);
+			return idx;
+		}
+
+		/**
+		 * @param level The length of the n-gram
+		 * @param idx The index of the n-gram
+		 * @return The number of times the n-gram has been counted
+		 */
+		public long getCount(int level, long idx) {
+			return counts[level].getLong(idx);
+		}
+
+		@Override
+		public long findNgram(int[] ngram, int start, int end) {
+			if(end-start > n)
+				return NONE;
+			long idx = 0;
+			for(int i = start; i < end; i++)
+				if((idx = lookup(i-start+1, idx, ngram[i])) == -1)
+					return NONE;
+			return getHandle(end-start, idx);
+		}
+
+		@Override
+		public void finishLevel(int k) {
+			// n-grams can be found before they are sorted, so there is nothing to do
+		}
+
+		/**
+		 * Sort the n-grams of each level by their parent and id. After this,
+		 *  the builder can no longer be used.
+		 * @return The trie
+		 */
+		@Override
+		public OffHeapNgramTrie build() {
+			OffHeapNgramTrie trie = new OffHeapNgramTrie(n);
+			trie.ids[0].setInt(0, -1);
+			trie.scores[0].setFloat(0, rootScore);
+			trie.counts[0].setLong(0, rootCount);
+			if(n > 0) {
+				trie.backoffs[0].setFloat(0, rootBackoff);
+				trie.offsets[0].setLong(1, sizes[1]);
+			}
+			// the unigrams are indexed by id, so they are copied directly
+			OffHeapArray remap = null;
+			for(int k = 1; k <= n; k++) {
+				final long size = sizes[k];
+				trie.allocate(k, size);
+				if(k == 1) {
+					for(long i = 0; i < size; i++) {
+						copy(trie, 1, i, i);
+						if(ids[1].getInt(i) != 0)
+							trie.unigramCount++;
+					}
+					clear(1);
+					continue;
+				}
+				// count the children of each parent to find the offsets
+				final long psize = sizes[k-1];
+				OffHeapArray offs = new OffHeapArray(psize+1, 8);
+				for(long e = 0; e < size; e++) {
+					final long p = getParent(k, e, remap)+1;
+					offs.setLong(p, offs.getLong(p)+1);
+				}
+				for(long p = 1; p <= psize; p++)
+					offs.setLong(p, offs.getLong(p)+offs.getLong(p-1));
+				// put the n-grams in order of their parents
+				OffHeapArray cursor = new OffHeapArray(psize, 8), order = new OffHeapArray(size, 8);
+				for(long p = 0; p < psize; p++)
+					cursor.setLong(p, offs.getLong(p));
+				for(long e = 0; e < size; e++) {
+					final long p = getParent(k, e, remap), pos = cursor.getLong(p);
+					cursor.setLong(p, pos+1);
+					order.setLong(pos, e);
+				}
+				cursor = null;
+				// sort the children of each parent by id
+				for(long p = 0; p < psize; p++)
+					sortRange(ids[k], order, offs.getLong(p), offs.getLong(p+1));
+				// copy the n-grams into place, and remember where they went
+				remap = new OffHeapArray(size, 8);
+				for(long pos = 0; pos < size; pos++) {
+					final long e = order.getLong(pos);
+					copy(trie, k, e, pos);
+					remap.setLong(e, pos);
+				}
+				trie.offsets[k-1] = offs;
+				clear(k);
+			}
+			trie.linkFallbacks();
+			return trie;
+		}
+
+		// get the final index of the parent of an n-gram
+		private long getParent(int k, long e, OffHeapArray remap) {
+			final long p = parents[k].getLong(e);
+			return (k == 2 ? p : remap.getLong(p));
+		}
+
+		// copy an n-gram into the trie, where values that were never set are
+		//  zero, as in the tree
+		private void copy(OffHeapNgramTrie trie, int k, long from, long to) {
+			trie.ids[k].setInt(to, ids[k].getInt(from)-1);
+			final float score = scores[k].getFloat(from);
+			trie.scores[k].setFloat(to, (score == score ? score : 0));
+			trie.counts[k].setLong(to, counts[k].getLong(from));
+			if(k < n) {
+				final float backoff = backoffs[k].getFloat(from);
+				trie.backoffs[k].setFloat(to, (backoff == backoff ? backoff : 0));
+			}
+		}
+
+		// the children of one parent are no more than the vocabulary, so they
+		//  are sorted on the heap
+		private static void sortRange(OffHeapArray ids, OffHeapArray order, long begin, long end) {
+			final int len = (int)(end-begin);
+			if(len < 2)
+				return;
+			long[] keys = new long[len], olds = new long[len];
+			for(int i = 0; i < len; i++) {
+				olds[i] = order.getLong(begin+i);
+				keys[i] = ((long)ids.getInt(olds[i]) << 32) | i;
+			}
+			Arrays.sort(keys);
+			for(int i = 0; i < len; i++)
+				order.setLong(begin+i, olds[(int)keys[i]]);
+		}
+
+		private void clear(int k) {
+			parents[k] = ids[k] = counts[k] = scores[k] = backoffs[k] = tables[k] = null;
+		}
+
+	}
+
+	// the length of the longest n-grams
+	protected int n = 0;
+
+	// the arrays for each level, with level 0 holding only the root
+	protected OffHeapArray[] ids = null;
+	protected OffHeapArray[] scores = null;
+	protected OffHeapArray[] backoffs = null;
+	protected OffHeapArray[] counts = null;
+	protected OffHeapArray[] offsets = null;
+	// the index of the fallback on the previous level, or -1 if it does not
+	//  exist, for levels 3 and up
+	protected OffHeapArray[] fallbacks = null;
+
+	// the number of unigrams that actually exist
+	protected long unigramCount = 0;
+
+	/**
+	 * Create an empty trie. Tries should be created with a Builder.
+	 * @param n The length of the longest n-grams
+	 */
+	protected OffHeapNgramTrie(int n) {
+		this.n = n;
+		ids = new OffHeapArray[n+1];
+		scores = new OffHeapArray[n+1];
+		backoffs = new OffHeapArray[n];
+		counts = new OffHeapArray[n+1];
+		offsets = new OffHeapArray[n];
+		fallbacks = new OffHeapArray[n+1];
+		allocate(0, 1);
+		if(n > 0)
+			offsets[0] = new OffHeapArray(2, 8);
+	}
+
+	// create the arrays of a level
+	private void allocate(int k, long size) {
+		ids[k] = new OffHeapArray(size, 4);
+		scores[k] = new OffHeapArray(size, 4);
+		counts[k] = new OffHeapArray(size, 8);
+		if(k < n)
+			backoffs[k] = new OffHeapArray(size, 4);
+	}
+
+	// link each n-gram to its fallback, using the fallback of its parent
+	private void linkFallbacks() {
+		for(int k = 3; k <= n; k++) {
+			final OffHeapArray offs = offsets[k-1];
+			final long psize = ids[k-1].getSize();
+			fallbacks[k] = new OffHeapArray(ids[k].getSize(), 8);
+			for(long p = 0; p < psize; p++) {
+				final long begin = offs.getLong(p), end = offs.getLong(p+1);
+				if(begin == end)
+					continue;
+				long parentFb = getFallback(getHandle(k-1, p)), fb;
+				for(long i = begin; i < end; i++) {
+					fb = (parentFb == NONE ? NONE : getChild(parentFb, ids[k].getInt(i)));
+					fallbacks[k].setLong(i, (fb == NONE ? -1 : getIndex(fb)));
+				}
+			}
+		}
+	}
+
+	@Override
+	public int getN() {
+		return n;
+	}
+
+	@Override
+	public long getMemorySize() {
+		return getMemorySize(ids) + getMemorySize(scores) + getMemorySize(backoffs) +
+			getMemorySize(counts) + getMemorySize(offsets) + getMemorySize(fallbacks);
+	}
+	private static long getMemorySize(OffHeapArray[] arrs) {
+		long size = 0;
+		if(arrs != null)
+			for(OffHeapArray arr : arrs)
+				if(arr != null)
+					size += arr.getMemorySize();
+		return size;
+	}
+
+	/**
+	 * Release the counts, which are only needed for training. Scores can still
+	 *  be read and changed, but every count becomes 0.
+	 */
+	public void dropCounts() {
+		counts = null;
+	}
+
+	@Override
+	public long getChild(long node, int id) {
+		final int lev = getLevel(node);
+		if(lev >= n || id < 0)
+			return NONE;
+		final long idx = getIndex(node);
+		final OffHeapArray myIds = ids[lev+1];
+		// unigrams are indexed by id
+		if(lev == 0)
+			return (id < myIds.getSize() && myIds.getInt(id) == id ? getHandle(1, id) : NONE);
+		// otherwise search
+		long bot = offsets[lev].getLong(idx), top = offsets[lev].getLong(idx+1), mid;
+		int midId;
+		while(bot < top) {
+			mid = (bot+top) >>> 1;
+			midId = myIds.getInt(mid);
+			if(midId > id)
+				top = mid;
+			else if(midId < id)
+				bot = mid+1;
+			else
+				return getHandle(lev+1, mid);
+		}
+		return NONE;
+	}
+
+	@Override
+	public long getFallback(long node) {
+		final int lev = getLevel(node);
+		if(lev < 2)
+			return (lev == 0 ? NONE : getRoot());
+		final long idx = getIndex(node);
+		// bigrams fall back to the unigram of their last word
+		if(lev == 2)
+			return getChild(getRoot(), ids[2].getInt(idx));
+		final long fb = fallbacks[lev].getLong(idx);
+		return (fb == -1 ? NONE : getHandle(lev-1, fb));
+	}
+
+	@Override
+	public int getId(long node) {
+		return ids[getLevel(node)].getInt(getIndex(node));
+	}
+
+	@Override
+	public float getScore(long node) {
+		return scores[getLevel(node)].getFloat(getIndex(node));
+	}
+
+	@Override
+	public void setScore(long node, float score) {
+		scores[getLevel(node)].setFloat(getIndex(node), score);
+	}
+
+	@Override
+	public float getBackoffScore(long node) {
+		final int lev = getLevel(node);
+		return (lev < n ? backoffs[lev].getFloat(getIndex(node)) : Float.NaN);
+	}
+
+	@Override
+	public void setBackoffScore(long node, float backoff) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			throw new IllegalArgumentException("Leaf nodes have no backoff score");
+		backoffs[lev].setFloat(getIndex(node), backoff);
+	}
+
+	@Override
+	public long getCount(long node) {
+		return (counts == null ? 0 : counts[getLevel(node)].getLong(getIndex(node)));
+	}
+
+	@Override
+	public void setCount(long node, long count) {
+		if(counts == null)
+			super.setCount(node, count);
+		counts[getLevel(node)].setLong(getIndex(node), count);
+	}
+
+	@Override
+	public boolean hasChildren(long node) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return false;
+		final long idx = getIndex(node);
+		return offsets[lev].getLong(idx+1) > offsets[lev].getLong(idx);
+	}
+
+	@Override
+	public int getChildCount(long node) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return 0;
+		if(lev == 0)
+			return (int)unigramCount;
+		final long idx = getIndex(node);
+		return (int)(offsets[lev].getLong(idx+1) - offsets[lev].getLong(idx));
+	}
+
+	@Override
+	public long getChildBegin(long node) {
+		final int lev = getLevel(node);
+		return getHandle(lev+1, (lev < n ? offsets[lev].getLong(getIndex(node)) : 0));
+	}
+
+	@Override
+	public long getChildEnd(long node) {
+		final int lev = getLevel(node);
+		return getHandle(lev+1, (lev < n ? offsets[lev].getLong(getIndex(node)+1) : 0));
+	}
+
+	/**
+	 * @param level The level
+	 * @return The number of slots in the level, including unused unigram ids
+	 */
+	public long getLevelSize(int level) {
+		return ids[level].getSize();
+	}
+
+}
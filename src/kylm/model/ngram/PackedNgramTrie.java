@@ -0,0 +1,427 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.util.Arrays;
+
+/**
+ * An n-gram trie where every level is stored as parallel primitive arrays.
+ * Each level holds the word ids, scores and backoffs of its n-grams, sorted by
+ * their parent and then by id, and the children of an n-gram are found in the
+ * range given by the offsets of its level. Unigrams are indexed directly by id.
+ * @author neubig
+ *
+ */
+public class PackedNgramTrie extends NgramTrie {
+
+	/**
+	 * A class that collects n-grams level by level and packs them into a trie.
+	 * N-grams may be added in any order. When a level is finished, it is sorted
+	 * and duplicate n-grams are merged, with later values that are not NaN
+	 * overwriting earlier ones.<br>
+	 * Parents are given by their index in the previous level. If the previous
+	 * level has been finished, this is the final index. Otherwise, it is the
+	 * order in which the parent was added, and will be updated when the level
+	 * is finished.
+	 */
+	public static class Builder extends NgramTrie.Builder {
+
+		// the n-grams of a level that has not been finished yet
+		private class Level {
+			int size = 0;
+			int[] parents = new int[16], ids = new int[16];
+			float[] scores = new float[16], backoffs = new float[16];
+			int add(int parent, int id, float score, float backoff) {
+				if(size == ids.length) {
+					int len = size*2;
+					parents = Arrays.copyOf(parents, len);
+					ids = Arrays.copyOf(ids, len);
+					scores = Arrays.copyOf(scores, len);
+					backoffs = Arrays.copyOf(backoffs, len);
+				}
+				parents[size] = parent;
+				ids[size] = id;
+				scores[size] = score;
+				backoffs[size] = backoff;
+				return size++;
+			}
+		}
+
+		private PackedNgramTrie trie = null;
+		private Level[] levels = null;
+
+		/**
+		 * Create a builder for a trie holding n-grams of length up to n
+		 * @param n The length of the longest n-grams
+		 */
+		public Builder(int n) {
+			trie = new PackedNgramTrie(n);
+			levels = new Level[n+1];
+			for(int i = 1; i <= n; i++)
+				levels[i] = new Level();
+		}
+
+		@Override
+		public void setRoot(float score, float backoff) {
+			trie.scores[0][0] = score;
+			trie.backoffs[0][0] = backoff;
+		}
+
+		/**
+		 * Add an n-gram to the trie
+		 * @param level The length of the n-gram
+		 * @param parent The index of the parent on the previous level (ignored for unigrams)
+		 * @param id The id of the last word of the n-gram
+		 * @param score The score, or NaN if not set
+		 * @param backoff The backoff, or NaN if not set
+		 * @return The index of the n-gram, which can be used as a parent until
+		 *  the level is finished
+		 */
+		public int add(int level, int parent, int id, float score, float backoff) {
+			if(levels[level] == null)
+				throw new IllegalArgumentException("Level "+level+" of the trie has already been finished");
+			return levels[level].add(parent, id, score, backoff);
+		}
+
+		@Override
+		public long add(int level, long parent, int id, float score, float backoff) {
+			return add(level, (int)parent, id, score, backoff);
+		}
+
+		/**
+		 * Add every n-gram under a node of a tree
+		 * @param root The root of the tree
+		 */
+		public void addTree(NgramNode root) {
+			setRoot(root.getScore(), root.getBackoffScore());
+			addChildren(root, 0, 0);
+		}
+
+		private void addChildren(NgramNode node, int level, int index) {
+			if(level == trie.n || !node.hasChildren())
+				return;
+			for(NgramNode child : node) {
+				int next = add(level+1, index, child.getId(), child.getScore(), child.getBackoffScore());
+				addChildren(child, level+1, next);
+			}
+		}
+
+		/**
+		 * Find an n-gram in the levels that have already been finished
+		 */
+		@Override
+		public long findNgram(int[] ids, int start, int end) {
+			return trie.findNgram(ids, start, end);
+		}
+
+		/**
+		 * Sort and pack a level. All previous levels must be finished.
+		 * @param k The level to finish
+		 */
+		@Override
+		public void finishLevel(int k) {
+			for(int i = 1; i < k; i++)
+				if(levels[i] != null)
+					finishLevel(i);
+			Level l = levels[k];
+			if(l == null)
+				return;
+			final int n = trie.n;
+			int[] remap = new int[l.size];
+			int[] ids;
+			float[] scores, backoffs;
+			// unigrams are indexed directly by id
+			if(k == 1) {
+				int size = 0;
+				for(int i = 0; i < l.size; i++)
+					size = Math.max(size, l.ids[i]+1);
+				ids = new int[size];
+				Arrays.fill(ids, -1);
+				scores = new float[size];
+				Arrays.fill(scores, Float.NaN);
+				backoffs = (k < n ? new float[size] : null);
+				if(backoffs != null)
+					Arrays.fill(backoffs, Float.NaN);
+				for(int i = 0; i < l.size; i++) {
+					int id = l.ids[i];
+					merge(ids, scores, backoffs, id, l, i);
+					remap[i] = id;
+				}
+				trie.offsets[0][1] = size;
+			}
+			// other levels are sorted by parent, then id
+			else {
+				int parentSize = trie.ids[k-1].length;
+				int[] offs = new int[parentSize+1];
+				for(int i = 0; i < l.size; i++)
+					offs[l.parents[i]+1]++;
+				for(int i = 0; i < parentSize; i++)
+					offs[i+1] += offs[i];
+				// place the n-grams in order of their parents
+				int[] order = new int[l.size], fill = Arrays.copyOf(offs, parentSize);
+				for(int i = 0; i < l.size; i++)
+					order[fill[l.parents[i]]++] = i;
+				// sort the children of each parent that are out of order
+				for(int p = 0; p < parentSize; p++) {
+					int b = offs[p], e = offs[p+1];
+					boolean sorted = true;
+					for(int j = b+1; sorted && j < e; j++)
+						sorted = (l.ids[order[j-1]] <= l.ids[order[j]]);
+					if(sorted)
+						continue;
+					long[] keys = new long[e-b];
+					for(int j = b; j < e; j++)
+						keys[j-b] = ((long)l.ids[order[j]] << 32) | order[j];
+					Arrays.sort(keys);
+					for(int j = b; j < e; j++)
+						order[j] = (int)keys[j-b];
+				}
+				// copy in order, merging duplicates
+				ids = new int[l.size];
+				scores = new float[l.size];
+				backoffs = (k < n ? new float[l.size] : null);
+				Arrays.fill(scores, Float.NaN);
+				if(backoffs != null)
+					Arrays.fill(backoffs, Float.NaN);
+				int out = 0;
+				for(int p = 0; p < parentSize; p++) {
+					int b = offs[p], e = offs[p+1];
+					offs[p] = out;
+					for(int j = b; j < e; j++) {
+						int i = order[j];
+						if(out == offs[p] || ids[out-1] != l.ids[i]) {
+							ids[out] = l.ids[i];
+							out++;
+						}
+						merge(ids, scores, backoffs, out-1, l, i);
+						remap[i] = out-1;
+					}
+				}
+				offs[parentSize] = out;
+				if(out != l.size) {
+					ids = Arrays.copyOf(ids, out);
+					scores = Arrays.copyOf(scores, out);
+					if(backoffs != null)
+						backoffs = Arrays.copyOf(backoffs, out);
+				}
+				trie.offsets[k-1] = offs;
+			}
+			// values that were never set are zero, as in the tree
+			for(int i = 0; i < scores.length; i++) {
+				if(scores[i] != scores[i]) scores[i] = 0;
+				if(backoffs != null && backoffs[i] != backoffs[i]) backoffs[i] = 0;
+			}
+			trie.ids[k] = ids;
+			trie.scores[k] = scores;
+			if(k < n) {
+				trie.backoffs[k] = backoffs;
+				// update the parents of children that have already been added
+				Level next = levels[k+1];
+				for(int i = 0; i < next.size; i++)
+					next.parents[i] = remap[next.parents[i]];
+			}
+			levels[k] = null;
+		}
+
+		// merge the values of n-gram i in l into position pos
+		private static void merge(int[] ids, float[] scores, float[] backoffs, int pos, Level l, int i) {
+			ids[pos] = l.ids[i];
+			if(l.scores[i] == l.scores[i])
+				scores[pos] = l.scores[i];
+			if(backoffs != null && l.backoffs[i] == l.backoffs[i])
+				backoffs[pos] = l.backoffs[i];
+		}
+
+		/**
+		 * Finish all the levels and return the trie
+		 * @return The packed trie
+		 */
+		@Override
+		public PackedNgramTrie build() {
+			final int n = trie.n;
+			for(int i = 1; i <= n; i++)
+				finishLevel(i);
+			if(n > 0) {
+				int[] ids = trie.ids[1];
+				for(int i = 0; i < ids.length; i++)
+					if(ids[i] >= 0)
+						trie.unigramCount++;
+			}
+			// link each n-gram to its fallback, using the fallback of its parent
+			for(int k = 3; k <= n; k++) {
+				final int[] ids = trie.ids[k], offs = trie.offsets[k-1];
+				final int[] fbs = new int[ids.length];
+				for(int p = 0; p+1 < offs.length; p++) {
+					if(offs[p] == offs[p+1])
+						continue;
+					long parentFb = trie.getFallback(getHandle(k-1, p)), fb;
+					for(int i = offs[p]; i < offs[p+1]; i++) {
+						fb = (parentFb == NONE ? NONE : trie.getChild(parentFb, ids[i]));
+						fbs[i] = (fb == NONE ? -1 : (int)getIndex(fb));
+					}
+				}
+				trie.fallbacks[k] = fbs;
+			}
+			return trie;
+		}
+
+	}
+
+	// the length of the longest n-grams
+	protected int n = 0;
+
+	// the arrays for each level, with level 0 holding only the root
+	protected int[][] ids = null;
+	protected float[][] scores = null;
+	protected float[][] backoffs = null;
+	protected int[][] offsets = null;
+	// the index of the fallback on the previous level, for levels 3 and up
+	protected int[][] fallbacks = null;
+
+	// the number of unigrams that actually exist
+	protected int unigramCount = 0;
+
+	/**
+	 * Create an empty trie. Tries should be created with a Builder.
+	 * @param n The length of the longest n-grams
+	 */
+	protected PackedNgramTrie(int n) {
+		this.n = n;
+		ids = new int[n+1][];
+		scores = new float[n+1][];
+		backoffs = new float[n][];
+		offsets = new int[n][];
+		fallbacks = new int[n+1][];
+		ids[0] = new int[] { -1 };
+		scores[0] = new float[1];
+		if(n > 0) {
+			backoffs[0] = new float[1];
+			offsets[0] = new int[2];
+		}
+	}
+
+	@Override
+	public int getN() {
+		return n;
+	}
+
+	@Override
+	public long getMemorySize() {
+		return getArraySize(ids) + getArraySize(scores) + getArraySize(backoffs) +
+			getArraySize(offsets) + getArraySize(fallbacks);
+	}
+
+	@Override
+	public long getChild(long node, int id) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return NONE;
+		final int idx = (int)getIndex(node);
+		final int[] myIds = ids[lev+1];
+		// unigrams are indexed by id
+		if(lev == 0)
+			return (id >= 0 && id < myIds.length && myIds[id] == id ? getHandle(1, id) : NONE);
+		// otherwise search
+		int bot = offsets[lev][idx], top = offsets[lev][idx+1], mid, midId;
+		while(bot < top) {
+			mid = (bot+top) >>> 1;
+			midId = myIds[mid];
+			if(midId > id)
+				top = mid;
+			else if(midId < id)
+				bot = mid+1;
+			else
+				return getHandle(lev+1, mid);
+		}
+		return NONE;
+	}
+
+	@Override
+	public long getFallback(long node) {
+		final int lev = getLevel(node);
+		if(lev < 2)
+			return (lev == 0 ? NONE : getRoot());
+		final int idx = (int)getIndex(node);
+		// bigrams fall back to the unigram of their last word
+		if(lev == 2)
+			return getChild(getRoot(), ids[2][idx]);
+		final int fb = fallbacks[lev][idx];
+		return (fb == -1 ? NONE : getHandle(lev-1, fb));
+	}
+
+	@Override
+	public int getId(long node) {
+		return ids[getLevel(node)][(int)getIndex(node)];
+	}
+
+	@Override
+	public float getScore(long node) {
+		return scores[getLevel(node)][(int)getIndex(node)];
+	}
+
+	@Override
+	public float getBackoffScore(long node) {
+		final int lev = getLevel(node);
+		return (lev < n ? backoffs[lev][(int)getIndex(node)] : Float.NaN);
+	}
+
+	@Override
+	public boolean hasChildren(long node) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return false;
+		final int idx = (int)getIndex(node);
+		return offsets[lev][idx+1] > offsets[lev][idx];
+	}
+
+	@Override
+	public int getChildCount(long node) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return 0;
+		if(lev == 0)
+			return unigramCount;
+		final int idx = (int)getIndex(node);
+		return offsets[lev][idx+1] - offsets[lev][idx];
+	}
+
+	@Override
+	public long getChildBegin(long node) {
+		final int lev = getLevel(node);
+		return getHandle(lev+1, (lev < n ? offsets[lev][(int)getIndex(node)] : 0));
+	}
+
+	@Override
+	public long getChildEnd(long node) {
+		final int lev = getLevel(node);
+		return getHandle(lev+1, (lev < n ? offsets[lev][(int)getIndex(node)+1] : 0));
+	}
+
+	/**
+	 * @param level The level
+	 * @return The number of slots in the level, including unused unigram ids
+	 */
+	public int getLevelSize(int level) {
+		return ids[level].length;
+	}
+
+}
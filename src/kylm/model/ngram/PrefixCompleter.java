@@ -0,0 +1,448 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import kylm.util.SymbolSet;
+
+/**
+ * A class that completes a partly typed word, finding the words that start
+ *  with a prefix that are most likely after a context.<br>
+ * The words of the model are sorted as strings, so the words with a prefix
+ *  are a range that is found by binary search. The unigram scores are held
+ *  in a segment tree over the sorted words, so the best unigrams in a range
+ *  can be taken one at a time without looking at the rest. The words that
+ *  the longer contexts predict are found either by looking up each word of
+ *  a small range, or by walking the children of the context in order of
+ *  score with the model's NextWordIndex. These are merged as in
+ *  NextWordIndex.topK(), so the time taken depends mostly on k and not on
+ *  the size of the vocabulary.<br>
+ * The model must be packed or frozen, must not be class-based or hashed,
+ *  and must not change after the completer is created. Queries do not
+ *  change the completer, so it can be used by several threads at once.
+ *  Each thread keeps the buffers of its queries, so once they have grown
+ *  large enough a query only allocates if the context has unknown words.
+ * @author neubig
+ *
+ */
+public class PrefixCompleter {
+
+	// look up each word of ranges up to this size in longer contexts, instead
+	//  of walking the sorted children of the context
+	private static final int LOOKUP_RANGE = 256;
+
+	private NgramLM lm = null;
+	private NgramTrie trie = null;
+	private NextWordIndex index = null;
+	// the words sorted as strings, with their ids and unigram scores
+	private String[] words = null;
+	private int[] ids = null;
+	private float[] scores = null;
+	// the position of each id in the sorted words, or -1 if it is not there
+	private int[] ranks = null;
+	// a segment tree holding the position of the best unigram under each node,
+	//  with the leaves starting at leaves
+	private int[] tree = null;
+	private int leaves = 0;
+
+	// the candidates of one context, taken in order of score
+	private static class Level {
+		private long context;
+		private float backoff;
+		// the candidates if they are listed in advance, in buffers that are
+		//  kept for later queries
+		private boolean listed = false;
+		private int[] ids = new int[16];
+		private float[] scores = new float[16];
+		private long[] keys = new long[16];
+		private int count = 0;
+		// the position in the sorted children if they are walked
+		private int level = 0, pos = 0, end = 0;
+		// the best candidate left, or an id of -1 if there is none
+		private int headId = -1;
+		private float headScore = 0;
+	}
+
+	// the buffers used by one thread's queries, so that a query does not
+	//  need to allocate anything once they are large enough
+	private class Workspace {
+		private int[] range = new int[2];
+		private long[] contexts = new long[trie.getN()];
+		private Level[] levels = new Level[trie.getN()];
+		private int[] heap = new int[64];
+		public Workspace() {
+			for(int i = 0; i < levels.length; i++)
+				levels[i] = new Level();
+		}
+	}
+	private final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+		@Override
+		protected Workspace initialValue() {
+			return new Workspace();
+		}
+	};
+
+	/**
+	 * Create a completer, sorting the words of the model and building its
+	 *  NextWordIndex if it does not have one
+	 * @param lm The model to complete words with
+	 */
+	public PrefixCompleter(NgramLM lm) {
+		this.lm = lm;
+		trie = lm.getTrie();
+		if(trie == null)
+			throw new IllegalArgumentException("The model must be packed or frozen before words can be completed");
+		if(lm.getNextWordIndex() == null)
+			lm.buildNextWordIndex();
+		index = lm.getNextWordIndex();
+		// find the words that have unigrams, leaving out the sentence symbols
+		//  and unknown word symbols, getting the string of each once
+		SymbolSet vocab = lm.getVocab();
+		final int size = vocab.getSize();
+		final String[] symbols = new String[size];
+		int[] symbolIds = new int[size];
+		int count = 0;
+		for(int id = lm.getUnknownModelCount()+2; id < size; id++) {
+			String word = vocab.getSymbol(id);
+			if(word != null && trie.getChild(trie.getRoot(), id) != NgramTrie.NONE) {
+				symbols[count] = word;
+				symbolIds[count++] = id;
+			}
+		}
+		// sort the positions of the words by their strings
+		Integer[] order = new Integer[count];
+		for(int i = 0; i < count; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return symbols[a].compareTo(symbols[b]);
+			}
+		});
+		words = new String[count];
+		ids = new int[count];
+		scores = new float[count];
+		ranks = new int[size];
+		Arrays.fill(ranks, -1);
+		for(int i = 0; i < count; i++) {
+			words[i] = symbols[order[i]];
+			ids[i] = symbolIds[order[i]];
+			scores[i] = trie.getScore(trie.getChild(trie.getRoot(), ids[i]));
+			ranks[ids[i]] = i;
+		}
+		// build the segment tree bottom up
+		leaves = 1;
+		while(leaves < count)
+			leaves <<= 1;
+		tree = new int[leaves*2];
+		for(int i = 0; i < leaves; i++)
+			tree[leaves+i] = (i < count ? i : -1);
+		for(int i = leaves-1; i > 0; i--)
+			tree[i] = better(tree[i*2], tree[i*2+1]);
+	}
+
+	// choose the position with the higher unigram score
+	private int better(int a, int b) {
+		if(a == -1) return b;
+		if(b == -1) return a;
+		return (scores[b] > scores[a] ? b : a);
+	}
+
+	/**
+	 * Find the range of sorted words that start with a prefix
+	 * @param prefix The prefix
+	 * @return The first position with the prefix and the position after the
+	 *  last, which are equal if no words have the prefix
+	 */
+	public int[] getRange(String prefix) {
+		return findRange(prefix, new int[2]);
+	}
+
+	// find the range of sorted words that start with a prefix, writing its
+	//  start and end into range
+	private int[] findRange(String prefix, int[] range) {
+		int lo = 0, hi = words.length;
+		while(lo < hi) {
+			int mid = (lo+hi) >>> 1;
+			if(words[mid].compareTo(prefix) < 0)
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+		int begin = lo;
+		hi = words.length;
+		while(lo < hi) {
+			int mid = (lo+hi) >>> 1;
+			if(words[mid].startsWith(prefix))
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+		range[0] = begin;
+		range[1] = lo;
+		return range;
+	}
+
+	/**
+	 * Find the k most likely words that start with a prefix after a context
+	 * @param contextIds The ids of the words before, as returned by getId(),
+	 *  starting with the sentence start symbol (0) at the start of a sentence
+	 * @param prefix The characters that have been typed of the word
+	 * @param k The number of words to find
+	 * @param retIds A buffer of at least k elements that receives the ids of
+	 *  the words, the most likely first
+	 * @param retScores A buffer of at least k elements that receives the log10
+	 *  probability of each word as given by NgramLM.score(), or null if not
+	 *  needed
+	 * @return The number of words found
+	 */
+	public int complete(int[] contextIds, String prefix, int k, int[] retIds, float[] retScores) {
+		Workspace w = workspace.get();
+		int[] range = findRange(prefix, w.range);
+		final int begin = range[0], end = range[1];
+		if(begin == end || k <= 0)
+			return 0;
+		final long[] contexts = w.contexts;
+		int count = NextWordIndex.findContexts(trie, lm.getKnownIds(contextIds), contexts);
+		// prepare the candidates of each context, the last of which is the root
+		final Level[] levels = w.levels;
+		float backoff = 0;
+		for(int j = 0; j < count; j++) {
+			Level l = levels[j];
+			l.context = contexts[j];
+			l.backoff = backoff;
+			l.listed = false;
+			l.count = 0;
+			l.headId = -1;
+			if(j == count-1)
+				break;
+			l.level = NgramTrie.getLevel(l.context)+1;
+			l.pos = (int)NgramTrie.getIndex(trie.getChildBegin(l.context));
+			l.end = (int)NgramTrie.getIndex(trie.getChildEnd(l.context));
+			if(end-begin <= LOOKUP_RANGE)
+				listCandidates(l, begin, end);
+			advance(l, begin, end);
+			backoff += trie.getBackoffScore(l.context);
+		}
+		// the unigrams are taken from the segment tree with a heap of nodes
+		Level root = levels[count-1];
+		int[] heap = w.heap;
+		int heapSize = 0;
+		for(int lo = begin+leaves, hi = end-1+leaves; lo <= hi; lo >>= 1, hi >>= 1) {
+			if((lo & 1) == 1)
+				heap = push(heap, heapSize++, lo++);
+			if((hi & 1) == 0)
+				heap = push(heap, heapSize++, hi--);
+		}
+		int found = 0;
+		while(found < k) {
+			// take the best candidate of any level
+			int best = -1;
+			float bestScore = 0;
+			for(int j = 0; j < count-1; j++)
+				if(levels[j].headId != -1 && (best == -1 || levels[j].headScore > bestScore)) {
+					best = j;
+					bestScore = levels[j].headScore;
+				}
+			if(heapSize > 0 && (best == -1 || root.backoff+scores[tree[heap[0]]] > bestScore)) {
+				// expand nodes until the best is a leaf
+				while(heap[0] < leaves) {
+					int node = heap[0];
+					heapSize = pop(heap, heapSize);
+					if(tree[node*2] != -1)
+						heap = push(heap, heapSize++, node*2);
+					if(tree[node*2+1] != -1)
+						heap = push(heap, heapSize++, node*2+1);
+				}
+				best = count-1;
+				root.headId = ids[tree[heap[0]]];
+				root.headScore = root.backoff+scores[tree[heap[0]]];
+				heapSize = pop(heap, heapSize);
+			}
+			if(best == -1)
+				break;
+			Level l = levels[best];
+			int id = l.headId;
+			float score = l.headScore;
+			if(best < count-1)
+				advance(l, begin, end);
+			// skip the word if a longer context predicts it
+			int j;
+			for(j = 0; j < best && trie.getChild(contexts[j], id) == NgramTrie.NONE; j++);
+			if(j < best)
+				continue;
+			retIds[found] = id;
+			if(retScores != null)
+				retScores[found] = score;
+			found++;
+		}
+		// keep the heap if it had to grow
+		w.heap = heap;
+		return found;
+	}
+
+	/**
+	 * Find the k most likely words that start with a prefix after the words
+	 *  at the start of a sentence
+	 * @param context The words of the sentence before the word that is being
+	 *  typed, without the sentence start symbol
+	 * @param prefix The characters that have been typed of the word
+	 * @param k The number of words to find
+	 * @return The words, the most likely first
+	 */
+	public String[] complete(String[] context, String prefix, int k) {
+		int[] contextIds = new int[context.length+1];
+		for(int i = 0; i < context.length; i++)
+			contextIds[i+1] = lm.getId(context[i]);
+		int[] retIds = new int[k];
+		String[] ret = new String[complete(contextIds, prefix, k, retIds, null)];
+		for(int i = 0; i < ret.length; i++)
+			ret[i] = lm.getVocab().getSymbol(retIds[i]);
+		return ret;
+	}
+
+	// list the children of a context in a range of words in order of score,
+	//  looking up each word of the range or each child, whichever is fewer
+	private void listCandidates(Level l, int begin, int end) {
+		final int size = Math.min(end-begin, l.end-l.pos);
+		if(l.ids.length < size) {
+			l.ids = new int[size];
+			l.scores = new float[size];
+			l.keys = new long[size];
+		}
+		final long[] keys = l.keys;
+		if(end-begin <= l.end-l.pos) {
+			for(int r = begin; r < end; r++) {
+				long child = trie.getChild(l.context, ids[r]);
+				if(child != NgramTrie.NONE)
+					keys[l.count++] = getKey(trie.getScore(child), r);
+			}
+		} else {
+			for(int i = l.pos; i < l.end; i++) {
+				long child = NgramTrie.getHandle(l.level, i);
+				int id = trie.getId(child), r;
+				if(id >= 0 && id < ranks.length && (r = ranks[id]) >= begin && r < end)
+					keys[l.count++] = getKey(trie.getScore(child), r);
+			}
+		}
+		Arrays.sort(keys, 0, l.count);
+		for(int i = 0; i < l.count; i++) {
+			l.ids[i] = ids[(int)keys[i]];
+			l.scores[i] = l.backoff+getScore(keys[i]);
+		}
+		l.pos = 0;
+		l.end = l.count;
+		l.listed = true;
+	}
+
+	// make a key that sorts higher scores first, as in NextWordIndex
+	private static long getKey(float score, int pos) {
+		int bits = Float.floatToIntBits(score);
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return ((long)~bits << 32) | pos;
+	}
+
+	// get the score back from a key
+	private static float getScore(long key) {
+		int bits = ~(int)(key >>> 32);
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return Float.intBitsToFloat(bits);
+	}
+
+	// move to the next candidate of a context
+	private void advance(Level l, int begin, int end) {
+		l.headId = -1;
+		if(l.listed) {
+			if(l.pos < l.end) {
+				l.headId = l.ids[l.pos];
+				l.headScore = l.scores[l.pos++];
+			}
+			return;
+		}
+		while(l.pos < l.end) {
+			int child = index.getSortedChild(l.level, l.pos++);
+			if(child == -1) {
+				l.pos = l.end;
+				break;
+			}
+			long handle = NgramTrie.getHandle(l.level, child);
+			int id = trie.getId(handle), r;
+			if(id >= 0 && id < ranks.length && (r = ranks[id]) >= begin && r < end) {
+				l.headId = id;
+				l.headScore = l.backoff+trie.getScore(handle);
+				return;
+			}
+		}
+	}
+
+	// add a node to the heap of segment tree nodes, growing it if necessary
+	private int[] push(int[] heap, int size, int node) {
+		if(size == heap.length)
+			heap = Arrays.copyOf(heap, size*2);
+		int i = size;
+		float score = scores[tree[node]];
+		while(i > 0 && scores[tree[heap[(i-1)/2]]] < score) {
+			heap[i] = heap[(i-1)/2];
+			i = (i-1)/2;
+		}
+		heap[i] = node;
+		return heap;
+	}
+
+	// remove the best node from the heap, returning the new size
+	private int pop(int[] heap, int size) {
+		int node = heap[--size], i = 0;
+		float score = scores[tree[node]];
+		while(i*2+1 < size) {
+			int c = i*2+1;
+			if(c+1 < size && scores[tree[heap[c+1]]] > scores[tree[heap[c]]])
+				c++;
+			if(scores[tree[heap[c]]] <= score)
+				break;
+			heap[i] = heap[c];
+			i = c;
+		}
+		heap[i] = node;
+		return size;
+	}
+
+	/**
+	 * @return The number of words that can be completed
+	 */
+	public int getWordCount() {
+		return words.length;
+	}
+
+	/**
+	 * Estimate the number of bytes of memory used by the completer, not
+	 *  including the model or the strings of the words
+	 * @return The estimated size in bytes
+	 */
+	public long getMemorySize() {
+		return 64+NgramNode.getArraySize(words.length)+NgramNode.getArraySize(ids.length)+
+			NgramNode.getArraySize(scores.length)+NgramNode.getArraySize(ranks.length)+
+			NgramNode.getArraySize(tree.length);
+	}
+
+}
@@ -0,0 +1,212 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import kylm.util.BitArray;
+
+/**
+ * A trie where the scores and backoffs of each level are quantized into a
+ * codebook for that level, and each n-gram only holds the code of its value.
+ * Codebooks are learned from the distribution of the values by splitting
+ * them into bins holding equal numbers of values, and using the mean of each
+ * bin. If a level has no more distinct values than the codebook can hold,
+ * the values are kept exactly.<br>
+ * The ids and offsets are laid out as in PackedNgramTrie.
+ * @author neubig
+ *
+ */
+public class QuantizedNgramTrie extends MappedNgramTrie {
+
+	// the codebooks and codes of each level
+	protected float[][] scoreBooks = null;
+	protected BitArray[] scoreCodes = null;
+	protected float[][] backoffBooks = null;
+	protected BitArray[] backoffCodes = null;
+
+	/**
+	 * Create a trie over quantized values
+	 * @param ids The ids of each level from 0 to n
+	 * @param offsets The child offsets of each level from 0 to n-1
+	 * @param fallbacks The fallback indices of each level from 3 to n
+	 * @param scoreBooks The score codebooks of each level from 0 to n
+	 * @param scoreCodes The score codes of each level from 0 to n
+	 * @param backoffBooks The backoff codebooks of each level from 0 to n-1
+	 * @param backoffCodes The backoff codes of each level from 0 to n-1
+	 * @param unigramCount The number of unigrams that exist
+	 */
+	public QuantizedNgramTrie(IntBuffer[] ids, IntBuffer[] offsets, IntBuffer[] fallbacks,
+			float[][] scoreBooks, BitArray[] scoreCodes,
+			float[][] backoffBooks, BitArray[] backoffCodes, int unigramCount) {
+		super(ids, null, null, offsets, fallbacks, unigramCount);
+		this.scoreBooks = scoreBooks;
+		this.scoreCodes = scoreCodes;
+		this.backoffBooks = backoffBooks;
+		this.backoffCodes = backoffCodes;
+	}
+
+	@Override
+	public long getMemorySize() {
+		return super.getMemorySize() + getArraySize(scoreBooks) + getBitArraySize(scoreCodes) +
+			getArraySize(backoffBooks) + getBitArraySize(backoffCodes);
+	}
+
+	/**
+	 * Quantize the scores and backoffs of a packed trie. The ids and offsets
+	 *  are shared with the packed trie.
+	 * @param trie The trie to quantize
+	 * @param scoreBits The number of bits to use for scores
+	 * @param backoffBits The number of bits to use for backoffs
+	 * @return The quantized trie
+	 */
+	public static QuantizedNgramTrie quantize(PackedNgramTrie trie, int scoreBits, int backoffBits) {
+		final int n = trie.getN();
+		IntBuffer[] ids = new IntBuffer[n+1], offsets = new IntBuffer[n], fallbacks = new IntBuffer[n+1];
+		float[][] scoreBooks = new float[n+1][], backoffBooks = new float[n][];
+		BitArray[] scoreCodes = new BitArray[n+1], backoffCodes = new BitArray[n];
+		for(int i = 0; i <= n; i++) {
+			ids[i] = IntBuffer.wrap(trie.ids[i]);
+			if(i > 2)
+				fallbacks[i] = IntBuffer.wrap(trie.fallbacks[i]);
+			scoreBooks[i] = makeCodebook(trie.scores[i], scoreBits);
+			scoreCodes[i] = encode(trie.scores[i], scoreBooks[i]);
+			if(i < n) {
+				offsets[i] = IntBuffer.wrap(trie.offsets[i]);
+				backoffBooks[i] = makeCodebook(trie.backoffs[i], backoffBits);
+				backoffCodes[i] = encode(trie.backoffs[i], backoffBooks[i]);
+			}
+		}
+		return new QuantizedNgramTrie(ids, offsets, fallbacks, scoreBooks, scoreCodes, backoffBooks, backoffCodes, trie.unigramCount);
+	}
+
+	/**
+	 * Learn a codebook for a set of values
+	 * @param vals The values
+	 * @param bits The largest number of bits that codes may use
+	 * @return The codebook, sorted in ascending order
+	 */
+	public static float[] makeCodebook(float[] vals, int bits) {
+		if(bits < 1 || bits > 24)
+			throw new IllegalArgumentException("Quantization bits must be between 1 and 24, but got "+bits);
+		// keep the distinct values if they fit
+		float[] sorted = getDistinct(vals);
+		final int max = 1 << bits;
+		if(sorted.length <= max)
+			return sorted;
+		Arrays.sort(sorted = Arrays.copyOf(vals, vals.length));
+		int begin = 0, end = sorted.length;
+		while(begin < end && sorted[begin] == Float.NEGATIVE_INFINITY)
+			begin++;
+		while(end > begin && !(sorted[end-1] < Float.POSITIVE_INFINITY))
+			end--;
+		// values that are not finite each get their own code, as long as one
+		//  is left for the finite values
+		float[] ret = new float[max];
+		int pos = 0;
+		if(begin > 0)
+			ret[pos++] = Float.NEGATIVE_INFINITY;
+		for(int i = end; i < sorted.length && pos < max-1; i++)
+			if(i == end || Float.compare(sorted[i-1], sorted[i]) != 0)
+				ret[pos++] = sorted[i];
+		// split the finite values into bins of equal size, and use their means
+		final int bins = max-pos, count = end-begin;
+		for(int i = 0; i < bins; i++) {
+			int b = begin + (int)((long)count*i/bins), e = begin + (int)((long)count*(i+1)/bins);
+			double sum = 0;
+			for(int j = b; j < e; j++)
+				sum += sorted[j];
+			ret[pos++] = (float)(sum/(e-b));
+		}
+		Arrays.sort(ret = Arrays.copyOf(ret, pos));
+		return ret;
+	}
+
+	/**
+	 * Get a codebook that holds every distinct value exactly
+	 * @param vals The values
+	 * @return The distinct values, sorted in ascending order
+	 */
+	public static float[] getDistinct(float[] vals) {
+		float[] sorted = Arrays.copyOf(vals, vals.length);
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for(int i = 0; i < sorted.length; i++)
+			if(i == 0 || Float.compare(sorted[i-1], sorted[i]) != 0)
+				sorted[distinct++] = sorted[i];
+		return Arrays.copyOf(sorted, distinct);
+	}
+
+	/**
+	 * Find the code whose value is closest to a value
+	 * @param book The codebook, sorted in ascending order
+	 * @param val The value
+	 * @return The code
+	 */
+	public static int getCode(float[] book, float val) {
+		int pos = Arrays.binarySearch(book, val);
+		if(pos >= 0)
+			return pos;
+		pos = -pos-1;
+		if(pos == 0)
+			return 0;
+		if(pos == book.length || !(book[pos] < Float.POSITIVE_INFINITY))
+			return pos-1;
+		if(book[pos-1] == Float.NEGATIVE_INFINITY)
+			return pos;
+		return (val-book[pos-1] <= book[pos]-val ? pos-1 : pos);
+	}
+
+	/**
+	 * @param book The codebook
+	 * @return The number of bits needed for each code
+	 */
+	public static int getCodeWidth(float[] book) {
+		return BitArray.getWidth(Math.max(book.length-1, 0));
+	}
+
+	/**
+	 * Encode a set of values with a codebook
+	 * @param vals The values
+	 * @param book The codebook
+	 * @return The codes, using as many bits as the codebook needs
+	 */
+	public static BitArray encode(float[] vals, float[] book) {
+		BitArray ret = new BitArray(vals.length, getCodeWidth(book));
+		for(int i = 0; i < vals.length; i++)
+			ret.set(i, getCode(book, vals[i]));
+		return ret;
+	}
+
+	@Override
+	public float getScore(long node) {
+		final int lev = getLevel(node);
+		return scoreBooks[lev][(int)scoreCodes[lev].get(getIndex(node))];
+	}
+
+	@Override
+	public float getBackoffScore(long node) {
+		final int lev = getLevel(node);
+		return (lev < n ? backoffBooks[lev][(int)backoffCodes[lev].get(getIndex(node))] : Float.NaN);
+	}
+
+}
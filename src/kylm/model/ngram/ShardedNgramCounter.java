@@ -0,0 +1,217 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Counts n-grams with several threads, each of which counts into a tree of
+ *  its own.<br>
+ * The calling thread converts sentences into ids and gathers them into
+ *  batches. Every thread looks at each batch, but only counts the n-grams
+ *  that start with the words assigned to it, which are chosen by the id of
+ *  the first word. As the n-grams under each unigram are all counted by one
+ *  thread, the trees can be merged by moving their unigrams under the root,
+ *  and the merged tree is identical to one counted by a single thread.
+ *  While one batch is being counted, the calling thread fills the next.
+ * @author neubig
+ *
+ */
+public class ShardedNgramCounter {
+
+	// the number of ids gathered before a batch is counted
+	private static final int BATCH_SIZE = 1 << 18;
+
+	// sentences laid out one after another, as in NgramLM.scoreBatch()
+	private static class Batch {
+		private int[] ids = new int[BATCH_SIZE];
+		private int[] offsets = new int[1024];
+		private int count = 0;
+	}
+
+	// the tree counted by one thread
+	private class Shard implements Callable<Shard> {
+		private final int index;
+		private final BranchNode root = new BranchNode(-1, null);
+		private final long[] counts = new long[n];
+		// the batch to count, or null if counting is finished
+		private Batch batch = null;
+		public Shard(int index, int rootSize) {
+			this.index = index;
+			root.setChildrenSize(rootSize);
+			root.setCounting(true);
+		}
+		@Override
+		public Shard call() {
+			// sort the children of every node once counting is finished
+			if(batch == null) {
+				root.setCounting(false);
+				return this;
+			}
+			final int[] ids = batch.ids, offsets = batch.offsets;
+			NgramNode node;
+			for(int s = 0; s < batch.count; s++) {
+				final int end = offsets[s+1];
+				for(int i = offsets[s], j, k; i < end-1; i++) {
+					if(ids[i] % shards.length != index)
+						continue;
+					node = root;
+					for(j = 0; j < n && (k=i+j) < end; j++) {
+						node = node.getChild(ids[k], (j==n-1?NgramNode.ADD_LEAF:NgramNode.ADD_BRANCH));
+						if(node.count == 0)
+							counts[j]++;
+						node.count++;
+					}
+				}
+			}
+			return this;
+		}
+	}
+
+	private final int n;
+	private final Shard[] shards;
+	private final ExecutorService executor;
+	// the batch being filled, and the one being counted
+	private Batch current = new Batch(), counting = new Batch();
+	// the work on the batch being counted
+	private Vector<Future<Shard>> pending = new Vector<Future<Shard>>();
+
+	/**
+	 * Create a counter
+	 * @param n The length of the longest n-grams to count
+	 * @param threads The number of threads to count with
+	 * @param rootSize The number of ids that can start an n-gram
+	 */
+	public ShardedNgramCounter(int n, int threads, int rootSize) {
+		if(threads < 1)
+			throw new IllegalArgumentException("The number of threads must be at least 1, but got "+threads);
+		this.n = n;
+		shards = new Shard[threads];
+		for(int i = 0; i < threads; i++)
+			shards[i] = new Shard(i, rootSize);
+		// the threads should not keep the program running if counting fails
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Add a sentence to be counted. Every n-gram that starts before the last
+	 *  id is counted, as in NgramLM.countNgrams().
+	 * @param buff The ids of the sentence, including the terminal symbols
+	 * @param start The position of the first id
+	 * @param end The position after the last id
+	 * @throws IOException If the n-grams of an earlier batch could not be counted
+	 */
+	public void add(int[] buff, int start, int end) throws IOException {
+		final int len = end-start;
+		if(current.count > 0 && current.offsets[current.count]+len > current.ids.length)
+			countBatch();
+		Batch b = current;
+		int pos = b.offsets[b.count];
+		if(pos+len > b.ids.length)
+			b.ids = new int[pos+len];
+		if(b.count+2 > b.offsets.length) {
+			int[] offsets = new int[b.offsets.length*2];
+			System.arraycopy(b.offsets, 0, offsets, 0, b.count+1);
+			b.offsets = offsets;
+		}
+		System.arraycopy(buff, start, b.ids, pos, len);
+		b.offsets[++b.count] = pos+len;
+	}
+
+	/**
+	 * Finish counting, and move the n-grams counted by every thread under
+	 *  the root of the model. The threads are shut down afterwards.
+	 * @param root The root to move the n-grams under
+	 * @param counts The number of unique n-grams of each length, which the
+	 *  n-grams counted are added to
+	 * @throws IOException If the n-grams could not be counted
+	 */
+	public void finish(BranchNode root, long[] counts) throws IOException {
+		try {
+			if(current.count > 0)
+				countBatch();
+			waitForShards();
+			for(Shard shard : shards) {
+				shard.batch = null;
+				pending.add(executor.submit(shard));
+			}
+			waitForShards();
+		} finally {
+			executor.shutdownNow();
+		}
+		for(Shard shard : shards) {
+			root.moveChildren(shard.root);
+			for(int i = 0; i < n; i++)
+				counts[i] += shard.counts[i];
+		}
+	}
+
+	// wait until the batch being counted is done, then start counting the
+	//  current batch and fill the other
+	private void countBatch() throws IOException {
+		waitForShards();
+		Batch b = counting;
+		counting = current;
+		current = b;
+		current.count = 0;
+		for(Shard shard : shards) {
+			shard.batch = counting;
+			pending.add(executor.submit(shard));
+		}
+	}
+
+	// wait for every thread to finish its work, passing on errors as they
+	//  would have been thrown
+	private void waitForShards() throws IOException {
+		try {
+			for(Future<Shard> f : pending)
+				f.get();
+		} catch(InterruptedException e) {
+			executor.shutdownNow();
+			throw new IOException("Interrupted while counting n-grams");
+		} catch(ExecutionException e) {
+			executor.shutdownNow();
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			else if(e.getCause() instanceof Error)
+				throw (Error)e.getCause();
+			throw new IOException("Could not count n-grams: "+e.getCause());
+		} finally {
+			pending.clear();
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import kylm.util.BitArray;
+import kylm.util.EliasFanoArray;
+
+/**
+ * A read-only n-gram trie that is compressed to a few bytes per n-gram while
+ * still allowing random access.<br>
+ * The n-grams are laid out in the same order as in PackedNgramTrie. The
+ * child offsets of each level are held in an EliasFanoArray. The ids of
+ * each level are also held in an EliasFanoArray, by adding each id to the
+ * value of the n-gram before the range of its siblings, which makes the
+ * sequence of values non-decreasing. The scores and backoffs of each level
+ * are held exactly as codes into a table of their distinct values, and the
+ * fallbacks of levels 3 and up are held in as few bits as they need.<br>
+ * Finding a child only needs the range of its siblings, but finding the id
+ * of an n-gram must first find its parent, so listing the n-grams is slower
+ * than with the other tries.
+ * @author neubig
+ *
+ */
+public class SuccinctNgramTrie extends NgramTrie {
+
+	// the length of the longest n-grams
+	protected int n = 0;
+
+	// the distinct values and codes of the scores and backoffs of each level
+	protected float[][] scoreBooks = null;
+	protected BitArray[] scoreCodes = null;
+	protected float[][] backoffBooks = null;
+	protected BitArray[] backoffCodes = null;
+	// whether each unigram id exists
+	protected BitArray unigrams = null;
+	// the ids of levels 2 and up, added to the value before their siblings
+	protected EliasFanoArray[] ids = null;
+	// the child offsets of levels 1 to n-1
+	protected EliasFanoArray[] offsets = null;
+	// the index+1 of the fallback on the previous level, for levels 3 and up
+	protected BitArray[] fallbacks = null;
+
+	// the number of unigrams that actually exist
+	protected int unigramCount = 0;
+
+	/**
+	 * Create a trie from its parts
+	 * @param scoreBooks The distinct scores of each level from 0 to n
+	 * @param scoreCodes The score codes of each level from 0 to n
+	 * @param backoffBooks The distinct backoffs of each level from 0 to n-1
+	 * @param backoffCodes The backoff codes of each level from 0 to n-1
+	 * @param unigrams A bit for each unigram id, set if the unigram exists
+	 * @param ids The ids of each level from 2 to n
+	 * @param offsets The child offsets of each level from 1 to n-1
+	 * @param fallbacks The fallback indices plus one of each level from 3 to n
+	 * @param unigramCount The number of unigrams that exist
+	 */
+	public SuccinctNgramTrie(float[][] scoreBooks, BitArray[] scoreCodes,
+			float[][] backoffBooks, BitArray[] backoffCodes, BitArray unigrams,
+			EliasFanoArray[] ids, EliasFanoArray[] offsets, BitArray[] fallbacks, int unigramCount) {
+		this.n = scoreBooks.length-1;
+		this.scoreBooks = scoreBooks;
+		this.scoreCodes = scoreCodes;
+		this.backoffBooks = backoffBooks;
+		this.backoffCodes = backoffCodes;
+		this.unigrams = unigrams;
+		this.ids = ids;
+		this.offsets = offsets;
+		this.fallbacks = fallbacks;
+		this.unigramCount = unigramCount;
+	}
+
+	/**
+	 * Compress a packed trie
+	 * @param trie The packed trie
+	 */
+	public SuccinctNgramTrie(PackedNgramTrie trie) {
+		n = trie.getN();
+		unigramCount = trie.unigramCount;
+		scoreBooks = new float[n+1][];
+		scoreCodes = new BitArray[n+1];
+		backoffBooks = new float[n][];
+		backoffCodes = new BitArray[n];
+		ids = new EliasFanoArray[n+1];
+		offsets = new EliasFanoArray[n];
+		fallbacks = new BitArray[n+1];
+		for(int lev = 0; lev <= n; lev++) {
+			final int size = trie.ids[lev].length;
+			scoreBooks[lev] = QuantizedNgramTrie.getDistinct(trie.scores[lev]);
+			scoreCodes[lev] = QuantizedNgramTrie.encode(trie.scores[lev], scoreBooks[lev]);
+			if(lev < n) {
+				backoffBooks[lev] = QuantizedNgramTrie.getDistinct(trie.backoffs[lev]);
+				backoffCodes[lev] = QuantizedNgramTrie.encode(trie.backoffs[lev], backoffBooks[lev]);
+			}
+			if(lev == 1) {
+				unigrams = new BitArray(size, 1);
+				for(int i = 0; i < size; i++)
+					if(trie.ids[1][i] >= 0)
+						unigrams.set(i, 1);
+			}
+			if(lev > 0 && lev < n) {
+				final int[] offs = trie.offsets[lev];
+				offsets[lev] = new EliasFanoArray(size+1, offs[size]);
+				for(int i = 0; i <= size; i++)
+					offsets[lev].add(offs[i]);
+			}
+			if(lev > 1)
+				ids[lev] = makeIds(trie.ids[lev], trie.offsets[lev-1]);
+			if(lev > 2) {
+				final int[] fbs = trie.fallbacks[lev];
+				fallbacks[lev] = new BitArray(size, BitArray.getWidth(trie.ids[lev-1].length));
+				for(int i = 0; i < size; i++)
+					fallbacks[lev].set(i, fbs[i]+1);
+			}
+		}
+	}
+
+	// add each id to the value before the range of its siblings, so the
+	//  values do not decrease
+	private static EliasFanoArray makeIds(int[] myIds, int[] offs) {
+		long[] vals = new long[myIds.length];
+		long base = 0;
+		for(int p = 0; p+1 < offs.length; p++) {
+			for(int i = offs[p]; i < offs[p+1]; i++)
+				vals[i] = base + myIds[i];
+			if(offs[p+1] > offs[p])
+				base = vals[offs[p+1]-1];
+		}
+		EliasFanoArray ret = new EliasFanoArray(vals.length, base);
+		for(long val : vals)
+			ret.add(val);
+		return ret;
+	}
+
+	/**
+	 * @param level The level
+	 * @return The number of slots in the level, including unused unigram ids
+	 */
+	public long getLevelSize(int level) {
+		if(level < 2)
+			return (level == 0 ? 1 : unigrams.getSize());
+		return ids[level].getSize();
+	}
+
+	@Override
+	public int getN() {
+		return n;
+	}
+
+	@Override
+	public long getMemorySize() {
+		long size = getArraySize(scoreBooks) + getBitArraySize(scoreCodes) +
+			getArraySize(backoffBooks) + getBitArraySize(backoffCodes) +
+			getBitArraySize(fallbacks) + unigrams.getMemorySize();
+		for(int i = 0; i < ids.length; i++) {
+			if(ids[i] != null)
+				size += ids[i].getMemorySize();
+			if(i < offsets.length && offsets[i] != null)
+				size += offsets[i].getMemorySize();
+		}
+		return size;
+	}
+
+	// get the index where the children of a node begin
+	private long getBegin(int lev, long idx) {
+		return (lev == 0 ? 0 : offsets[lev].get(idx));
+	}
+
+	// get the index where the children of a node end
+	private long getEnd(int lev, long idx) {
+		return (lev == 0 ? unigrams.getSize() : offsets[lev].get(idx+1));
+	}
+
+	// get the value that the ids of children beginning at begin were added to
+	private long getBase(int lev, long begin) {
+		return (begin == 0 ? 0 : ids[lev].get(begin-1));
+	}
+
+	@Override
+	public long getChild(long node, int id) {
+		final int lev = getLevel(node);
+		if(lev >= n || id < 0)
+			return NONE;
+		final long idx = getIndex(node);
+		// unigrams are indexed by id
+		if(lev == 0)
+			return (id < unigrams.getSize() && unigrams.get(id) != 0 ? getHandle(1, id) : NONE);
+		// otherwise search the range of the children
+		final long begin = getBegin(lev, idx), end = getEnd(lev, idx);
+		if(begin == end)
+			return NONE;
+		final long pos = ids[lev+1].find(begin, end, getBase(lev+1, begin)+id);
+		return (pos == -1 ? NONE : getHandle(lev+1, pos));
+	}
+
+	@Override
+	public long getFallback(long node) {
+		final int lev = getLevel(node);
+		if(lev < 2)
+			return (lev == 0 ? NONE : getRoot());
+		// bigrams fall back to the unigram of their last word
+		if(lev == 2)
+			return getChild(getRoot(), getId(node));
+		final long fb = fallbacks[lev].get(getIndex(node));
+		return (fb == 0 ? NONE : getHandle(lev-1, fb-1));
+	}
+
+	@Override
+	public int getId(long node) {
+		final int lev = getLevel(node);
+		final long idx = getIndex(node);
+		if(lev < 2)
+			return (lev == 0 || unigrams.get(idx) == 0 ? -1 : (int)idx);
+		// find the parent, which is the last whose children begin at or before idx
+		final long begin = offsets[lev-1].get(offsets[lev-1].countAtMost(idx)-1);
+		return (int)(ids[lev].get(idx) - getBase(lev, begin));
+	}
+
+	@Override
+	public float getScore(long node) {
+		final int lev = getLevel(node);
+		return scoreBooks[lev][(int)scoreCodes[lev].get(getIndex(node))];
+	}
+
+	@Override
+	public float getBackoffScore(long node) {
+		final int lev = getLevel(node);
+		return (lev < n ? backoffBooks[lev][(int)backoffCodes[lev].get(getIndex(node))] : Float.NaN);
+	}
+
+	@Override
+	public boolean hasChildren(long node) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return false;
+		final long idx = getIndex(node);
+		return getEnd(lev, idx) > getBegin(lev, idx);
+	}
+
+	@Override
+	public int getChildCount(long node) {
+		final int lev = getLevel(node);
+		if(lev >= n)
+			return 0;
+		if(lev == 0)
+			return unigramCount;
+		final long idx = getIndex(node);
+		return (int)(getEnd(lev, idx) - getBegin(lev, idx));
+	}
+
+	@Override
+	public long getChildBegin(long node) {
+		final int lev = getLevel(node);
+		return getHandle(lev+1, (lev < n ? getBegin(lev, getIndex(node)) : 0));
+	}
+
+	@Override
+	public long getChildEnd(long node) {
+		final int lev = getLevel(node);
+		return getHandle(lev+1, (lev < n ? getEnd(lev, getIndex(node)) : 0));
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+/**
+ * A node that points into an NgramTrie. Nodes are created as they are
+ * visited, so the trie can be walked by code written for NgramNode trees.
+ * Scores and counts are read from and written to the trie, if it allows it.
+ * @author neubig
+ *
+ */
+final class TrieNgramNode extends NgramNode {
+
+	private class TrieIterator implements Iterator<NgramNode> {
+
+		private long pos, end;
+
+		public TrieIterator() {
+			pos = trie.getChildBegin(handle);
+			end = trie.getChildEnd(handle);
+		}
+
+		@Override
+		public boolean hasNext() {
+			while(pos < end && trie.getId(pos) < 0)
+				pos++;
+			return pos < end;
+		}
+
+		@Override
+		public NgramNode next() {
+			if(!hasNext())
+				throw new NoSuchElementException();
+			return new TrieNgramNode(trie, pos++, TrieNgramNode.this);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Nodes cannot be removed from a frozen trie");
+		}
+
+	}
+
+	private static final long serialVersionUID = -1785094218537398512L;
+
+	private final transient NgramTrie trie;
+	private final long handle;
+
+	public TrieNgramNode(NgramTrie trie, long handle, NgramNode parent) {
+		super(trie.getId(handle), parent);
+		this.trie = trie;
+		this.handle = handle;
+	}
+
+	@Override
+	public NgramNode getChild(int id, int add) {
+		if(add != ADD_NONE)
+			throw new IllegalArgumentException("Cannot add a child to a frozen trie");
+		long child = trie.getChild(handle, id);
+		return (child == NgramTrie.NONE ? null : new TrieNgramNode(trie, child, this));
+	}
+
+	@Override
+	public boolean hasChildren() {
+		return trie.hasChildren(handle);
+	}
+
+	@Override
+	public long getCountLong() {
+		return trie.getCount(handle);
+	}
+
+	@Override
+	public void setCountLong(long count) {
+		trie.setCount(handle, count);
+	}
+
+	@Override
+	public float getScore() {
+		return trie.getScore(handle);
+	}
+
+	@Override
+	public void setScore(float score) {
+		trie.setScore(handle, score);
+	}
+
+	@Override
+	public float getBackoffScore() {
+		return trie.getBackoffScore(handle);
+	}
+
+	@Override
+	public void setBackoffScore(float backoff) {
+		trie.setBackoffScore(handle, backoff);
+	}
+
+	@Override
+	public void setChildren(Vector<NgramNode> children) {
+		throw new IllegalArgumentException("Cannot change the children of a frozen trie");
+	}
+
+	@Override
+	public Iterator<NgramNode> iterator() {
+		return new TrieIterator();
+	}
+
+	@Override
+	public int getChildCount() {
+		return trie.getChildCount(handle);
+	}
+
+	/**
+	 * @return The handle of the node in its trie
+	 */
+	public long getHandle() {
+		return handle;
+	}
+
+}
@@ -22,7 +22,6 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
 package kylm.model.ngram.reader;
 
 import java.io.*;
-import java.util.StringTokenizer;
 import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -32,6 +31,7 @@ import kylm.model.LanguageModel;
 import kylm.model.ngram.BranchNode;
 import kylm.model.ngram.NgramLM;
 import kylm.model.ngram.NgramNode;
+import kylm.model.ngram.NgramTrie;
 import kylm.model.ngram.smoother.NgramSmoother;
 import kylm.reader.TextStreamClassMapReader;
 import kylm.util.SymbolSet;
@@ -103,12 +103,12 @@ public class ArpaNgramReader extends NgramReader {
 		 */
 		Pattern pat = Pattern.compile("ngram\\s*(\\d+)=\\s*(\\d+)");
 		Matcher m = null;
-		Vector<Integer> counts = new Vector<Integer>();
+		Vector<Long> counts = new Vector<Long>();
 		while((s = br.readLine()) != null) {
 			m = pat.matcher(s);
 			if(!m.matches())
 				break;
-			counts.add(Integer.parseInt(m.group(2)));
+			counts.add(Long.parseLong(m.group(2)));
 		}
 		// check consistency
 		if(n == 0) {
@@ -119,46 +119,56 @@ public class ArpaNgramReader extends NgramReader {
 			throw new IllegalArgumentException("Header n ("+lm.getN()+
 					") doesn't match number of counts ("+counts.size()+")");
 		// convert to a normal array and pass to the lm
-		int[] cs = new int[n];
+		long[] cs = new long[n];
 		for(int i = 0; i < n; i++)
 			cs[i] = counts.get(i);
-		lm.setNgramCounts(cs);
+		lm.setNgramCountsLong(cs);
 
 		// actual data
 		int size, level = 0;
 		int addType = NgramNode.ADD_BRANCH;
-		StringTokenizer st = null;
+		// the start and end of each token in a line
+		int[] bounds = new int[2*(n+2)];
 		String token = null;
 		float score = 0;
-		// initialize the root node
+		// initialize the root node, or the builder if reading into a packed trie
 		SymbolSet vocab = null;
-		if(lm.getClassMap() == null) {
-			lm.getRoot().setChildrenSize(counts.get(0));
+		NgramTrie.Builder builder = null;
+		int[] ids = null;
+		BranchNode root = lm.getRoot();
+		if(storage != TREE_STORAGE) {
+			builder = createBuilder(n, storage);
+			builder.setRoot(0, Float.NEGATIVE_INFINITY);
+			ids = new int[n];
+			vocab = (lm.getClassMap() == null ? lm.getVocab() : lm.getClassMap().getClasses());
+		} else if(lm.getClassMap() == null) {
+			root.setChildrenSize(counts.get(0).intValue());
 			vocab = lm.getVocab();
 		} else {
 			vocab = lm.getClassMap().getClasses();
-			lm.getRoot().setChildrenSize(vocab.getSize());
+			root.setChildrenSize(vocab.getSize());
 		}
 
 		pat = Pattern.compile("\\\\(\\d+)-grams:");
-		BranchNode root = lm.getRoot();
 		root.setBackoffScore( Float.NEGATIVE_INFINITY );
 		for( ; s != null; s = br.readLine()) {
 			// skip blank lines
 			if(s.length() == 0) continue;
-			st = new StringTokenizer(s);
 			// System.err.println(s);
-			size = st.countTokens();
+			size = tokenize(s, bounds);
 			// String[] sent = KylmTextUtils.whiteSpace.split(s);
 			// look for one-word lines
 			if(size == 1) {
-				token = st.nextToken();
+				token = s.substring(bounds[0], bounds[1]);
 				m = pat.matcher(token);
 				if(m.matches()) {
 					level++;
 					if(level != Integer.parseInt(m.group(1)))
 						throw new IOException("Level number "+m.group(1)+" out of order (should be "+level);
 					addType = (level==n?NgramNode.ADD_LEAF:NgramNode.ADD_BRANCH);
+					// contexts must be packed before they can be searched
+					if(builder != null)
+						builder.finishLevel(level-1);
 				}
 				else if(token.equals(endOfData))
 					break;
@@ -168,42 +178,62 @@ public class ArpaNgramReader extends NgramReader {
 			// if the section is too short
 			else if(size <= level)
 				throw new IOException("Bad line in data section: "+s);
+			// add n-grams to the packed trie
+			else if(builder != null) {
+				score = Float.parseFloat(s.substring(bounds[0], bounds[1]));
+				String uniToken = null;
+				if(level == 1) {
+					uniToken = s.substring(bounds[2], bounds[3]);
+					ids[0] = vocab.addSymbol(uniToken);
+					if(uniToken.equals(lm.getStartSymbol()))
+						score = Float.NaN;
+				}
+				else
+					for(int i = 0; i < level; i++)
+						ids[i] = findWord(vocab, s, bounds, i+1);
+				float backoff = Float.NaN;
+				if(size > level+1 && (level != 1 || !uniToken.equals(lm.getTerminalSymbol())))
+					backoff = parseBackoff(s.substring(bounds[2*level+2], bounds[2*level+3]));
+				long parent = (level == 1 ? 0 : builder.findNgram(ids, 0, level-1));
+				if(parent == NgramTrie.NONE)
+					throw new IOException("Context not found for n-gram: "+s);
+				builder.add(level, NgramTrie.getIndex(parent), ids[level-1], score, backoff);
+			}
 			// add nodes
 			else {
 				// get the score
-				score = Float.parseFloat(st.nextToken());
+				score = Float.parseFloat(s.substring(bounds[0], bounds[1]));
 				NgramNode node = root;
 				// deal with unigrams
 				String uniToken = null;
 				if(level == 1) {
-					uniToken = st.nextToken();
+					uniToken = s.substring(bounds[2], bounds[3]);
 					node = node.getChild(vocab.addSymbol(uniToken), addType);
 				}
 				else
 					for(int i = 0; i < level; i++)
-						node = node.getChild(vocab.getId(st.nextToken()), addType);
+						node = node.getChild(findWord(vocab, s, bounds, i+1), addType);
 				if(level != 1 || !uniToken.equals(lm.getStartSymbol()))
 					node.setScore(score);
-				if(st.hasMoreTokens()) {
-					s = st.nextToken();
+				if(size > level+1) {
+					s = s.substring(bounds[2*level+2], bounds[2*level+3]);
 					try {
 						if(level != 1 || !uniToken.equals(lm.getTerminalSymbol()))
-							node.setBackoffScore( Float.parseFloat(s) );
+							node.setBackoffScore( parseBackoff(s) );
 					} catch (NumberFormatException e) {
-						if(s.equals("-∞")) node.setBackoffScore(Float.NEGATIVE_INFINITY);
-						else if(s.equals("∞")) node.setBackoffScore(Float.POSITIVE_INFINITY);
-						else {
-							while(node.getParent() != null) {
-								System.err.println(vocab.getSymbol(node.getId()));
-								node = node.getParent();
-							}
-							throw e;
+						while(node.getParent() != null) {
+							System.err.println(vocab.getSymbol(node.getId()));
+							node = node.getParent();
 						}
+						throw e;
 					}
 				}
 			}
 		}
 
+		if(builder != null)
+			lm.setTrie(buildTrie(builder, storage));
+
 		if(ukModels != null) {
 			for(int i = 0; i < ukModels.length; i++)
 				ukModels[i] = read(br);
@@ -214,6 +244,49 @@ public class ArpaNgramReader extends NgramReader {
 
 	}
 
+	// find the start and end of each token in a line, using the same
+	//  delimiters as StringTokenizer, and return the number of tokens
+	private static int tokenize(String s, int[] bounds) {
+		int count = 0, i = 0, start;
+		final int len = s.length();
+		while(true) {
+			while(i < len && isDelimiter(s.charAt(i)))
+				i++;
+			if(i == len)
+				return count;
+			start = i;
+			while(i < len && !isDelimiter(s.charAt(i)))
+				i++;
+			if(2*count+1 < bounds.length) {
+				bounds[2*count] = start;
+				bounds[2*count+1] = i;
+			}
+			count++;
+		}
+	}
+	private static boolean isDelimiter(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	// look up a token of a line in the vocabulary without creating a string
+	private static int findWord(SymbolSet vocab, String s, int[] bounds, int token) throws IOException {
+		int id = vocab.findId(s, bounds[2*token], bounds[2*token+1]);
+		if(id == -1)
+			throw new IOException("Unknown word "+s.substring(bounds[2*token], bounds[2*token+1])+" in n-gram: "+s);
+		return id;
+	}
+
+	// parse a backoff score, which may be infinite
+	private static float parseBackoff(String s) {
+		try {
+			return Float.parseFloat(s);
+		} catch (NumberFormatException e) {
+			if(s.equals("-∞")) return Float.NEGATIVE_INFINITY;
+			else if(s.equals("∞")) return Float.POSITIVE_INFINITY;
+			throw e;
+		}
+	}
+
 	private ClassMap readClassMap(BufferedReader br, LanguageModel lm) throws NumberFormatException, IOException {
 		TextStreamClassMapReader tcr = new TextStreamClassMapReader(br);
 		ClassMap cm = tcr.readClassMap(lm.getVocab(), 0, true);
@@ -24,10 +24,45 @@ package kylm.model.ngram.reader;
 import java.io.*;
 import java.util.zip.GZIPInputStream;
 
+import kylm.model.ngram.HashedNgramTrie;
 import kylm.model.ngram.NgramLM;
+import kylm.model.ngram.NgramTrie;
+import kylm.model.ngram.OffHeapNgramTrie;
+import kylm.model.ngram.PackedNgramTrie;
+import kylm.model.ngram.SuccinctNgramTrie;
 
 public abstract class NgramReader {
 
+	/**
+	 * Read n-grams into a tree of NgramNodes, which can be trained further
+	 */
+	public static final int TREE_STORAGE = 0;
+	/**
+	 * Read n-grams directly into a PackedNgramTrie
+	 */
+	public static final int PACKED_STORAGE = 1;
+
+	/**
+	 * Read n-grams into a PackedNgramTrie, then convert it into a
+	 * HashedNgramTrie, which is faster to search but can only be used for
+	 * scoring
+	 */
+	public static final int HASH_STORAGE = 2;
+
+	/**
+	 * Read n-grams into a PackedNgramTrie, then compress it into a
+	 * SuccinctNgramTrie, which takes the least memory but is slower to search
+	 */
+	public static final int SUCCINCT_STORAGE = 3;
+
+	/**
+	 * Read n-grams into an OffHeapNgramTrie, which is held outside of the Java
+	 * heap and can hold more than 2^31 n-grams
+	 */
+	public static final int OFFHEAP_STORAGE = 4;
+
+	protected int storage = TREE_STORAGE;
+
 	/**
 	 * Read a language model from a file
 	 * @param fileName The file to read the model from
@@ -52,4 +87,58 @@ public abstract class NgramReader {
 	 */
 	public abstract NgramLM read(InputStream is) throws IOException;
 
+	/**
+	 * Get the type of storage that n-grams are read into
+	 * @return TREE_STORAGE, PACKED_STORAGE, HASH_STORAGE, SUCCINCT_STORAGE or OFFHEAP_STORAGE
+	 */
+	public int getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Set the type of storage that n-grams are read into
+	 * @param storage TREE_STORAGE, PACKED_STORAGE, HASH_STORAGE, SUCCINCT_STORAGE or OFFHEAP_STORAGE
+	 */
+	public void setStorage(int storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * Convert a packed trie into the type of storage that was requested
+	 * @param trie The packed trie
+	 * @param storage PACKED_STORAGE, HASH_STORAGE or SUCCINCT_STORAGE
+	 * @return The trie to use
+	 */
+	public static NgramTrie convertTrie(PackedNgramTrie trie, int storage) {
+		if(storage == HASH_STORAGE)
+			return new HashedNgramTrie(trie);
+		else if(storage == SUCCINCT_STORAGE)
+			return new SuccinctNgramTrie(trie);
+		return trie;
+	}
+
+	/**
+	 * Create a builder for the type of storage that was requested
+	 * @param n The length of the longest n-grams
+	 * @param storage Any storage other than TREE_STORAGE
+	 * @return The builder
+	 */
+	public static NgramTrie.Builder createBuilder(int n, int storage) {
+		if(storage == OFFHEAP_STORAGE)
+			return new OffHeapNgramTrie.Builder(n);
+		return new PackedNgramTrie.Builder(n);
+	}
+
+	/**
+	 * Build a trie from a builder made by createBuilder(), and convert it into
+	 *  the type of storage that was requested
+	 * @param builder The builder
+	 * @param storage Any storage other than TREE_STORAGE
+	 * @return The trie to use
+	 */
+	public static NgramTrie buildTrie(NgramTrie.Builder builder, int storage) {
+		NgramTrie trie = builder.build();
+		return (trie instanceof PackedNgramTrie ? convertTrie((PackedNgramTrie)trie, storage) : trie);
+	}
+
 }
@@ -34,9 +34,27 @@ import kylm.model.ngram.NgramLM;
  */
 public class SerializedNgramReader extends NgramReader {
 
+	/**
+	 * An input stream that tells the models being read what storage to use
+	 */
+	public static class StorageInputStream extends ObjectInputStream {
+
+		private int storage;
+
+		public StorageInputStream(InputStream is, int storage) throws IOException {
+			super(is);
+			this.storage = storage;
+		}
+
+		public int getStorage() {
+			return storage;
+		}
+
+	}
+
 	@Override
 	public NgramLM read(InputStream is) throws IOException {
-		ObjectInputStream ois = new ObjectInputStream(is);
+		ObjectInputStream ois = new StorageInputStream(is, storage);
 		try {
 			return (NgramLM)ois.readObject();
 		} catch(ClassNotFoundException e) {
@@ -81,7 +81,7 @@ public class AbsoluteSmoother extends NgramSmoother {
 			System.err.println("AbsoluteSmoother: interpolating model");
 
 		for(int n = 0; n < lm.getN(); n++)
-			process(lm.getRoot(), 0, n);
+			process(lm.getRootNode(), 0, n);
 
 	}
 
@@ -112,11 +112,12 @@ public class AbsoluteSmoother extends NgramSmoother {
 			return;
 		}
 		// count the sum of the children
-		int sum = 0, numChild = 0;
+		long sum = 0;
+		int numChild = 0;
 		for(NgramNode child : node) {
 			if(child != null) {
 				numChild++;
-				sum += child.getCount();
+				sum += child.getCountLong();
 			}
 		}
 		// calculate the backoff and scores
@@ -125,10 +126,10 @@ public class AbsoluteSmoother extends NgramSmoother {
 		int good = 0;
 		for(NgramNode child : node) {
 			if(child == null) continue;
-			double discount = getDiscount(n, child.getCount());
-			double childScore = (child.getCount()-discount)/sum;
+			double discount = getDiscount(n, (int)Math.min(child.getCountLong(), Integer.MAX_VALUE));
+			double childScore = (child.getCountLong()-discount)/sum;
 			realBackoffScore += discount/sum;
-			System.err.println("Setting score for "+lm.getNodeName(child)+" to "+childScore+"("+child.getCount()+" - "+discount+")/"+sum);
+			System.err.println("Setting score for "+lm.getNodeName(child)+" to "+childScore+"("+child.getCountLong()+" - "+discount+")/"+sum);
 			if(child.getScore() != NgramNode.TRIM_SCORE) {
 				child.setScore( (float) Math.log10(childScore) );
 				good++;
@@ -138,7 +139,7 @@ public class AbsoluteSmoother extends NgramSmoother {
 				realBackoffScore += childScore;
 			}
 		}
-		this.trimNode(node, n, lm.getNgramCounts(), good);
+		this.trimNode(node, n, lm.getNgramCountsLong(), good);
 		node.setBackoffScore((float)Math.log10(realBackoffScore));
 		// interpolate with the fallback state
 		if(i != 0) {
@@ -152,7 +153,7 @@ public class AbsoluteSmoother extends NgramSmoother {
 			if(unk.getScore() != 0.0f)
 				unk.setScore(KylmMathUtils.logAddition(unk.getScore(), node.getBackoffScore()));
 			else {
-				lm.getNgramCounts()[0]++;
+				lm.getNgramCountsLong()[0]++;
 				unk.setScore(node.getBackoffScore());
 			}
 		}
@@ -91,7 +91,7 @@ public class GTSmoother extends NgramSmoother {
 
 		// get the scores and back-offs
 		for(i = 0; i < n; i++) 
-			process(lm, lm.getRoot(), discounted[i], 0, i);
+			process(lm, lm.getRootNode(), discounted[i], 0, i);
 	}
 
 	public void process(NgramLM lm, NgramNode node, float[] discounted, int i, int lev) {
@@ -115,11 +115,11 @@ public class GTSmoother extends NgramSmoother {
 		if(discounted == null) {
 			for(NgramNode child : node)
 				if(child.getScore() == NgramNode.TRIM_SCORE)
-					bo += child.getCount();
-			bo /= node.getCount();
+					bo += child.getCountLong();
+			bo /= node.getCountLong();
 			for(NgramNode child : node) {
 				if(child.getScore() != NgramNode.TRIM_SCORE) {
-					float score = child.getCount()/(float)node.getCount();
+					float score = child.getCountLong()/(float)node.getCountLong();
 					if(bo != 0)
 						score += Math.pow(10, fb.getChild(child.getId()).getScore())*bo;
 					child.setScore( (float) Math.log10(score) );
@@ -134,8 +134,8 @@ public class GTSmoother extends NgramSmoother {
 			for(NgramNode child : node) {
 				if(child.getScore() == NgramNode.TRIM_SCORE)
 					continue;
-				float adj = ( child.getCount() <= k ? discounted[child.getCount()-1] : child.getCount() );
-				child.setScore(adj / node.getCount());
+				float adj = ( child.getCountLong() <= k ? discounted[(int)child.getCountLong()-1] : child.getCountLong() );
+				child.setScore(adj / node.getCountLong());
 				numer -= child.getScore();
 				child.setScore( (float) Math.log10(child.getScore()) );
 				if(fb != null)
@@ -155,12 +155,12 @@ public class GTSmoother extends NgramSmoother {
 			if(unk.getScore() != 0.0f)
 				unk.setScore(KylmMathUtils.logAddition(unk.getScore(),(float)Math.log10(bo)));
 			else {
-				lm.getNgramCounts()[0]++;
+				lm.getNgramCountsLong()[0]++;
 				unk.setScore((float)Math.log10(bo));
 			}
 		} else
 			node.setBackoffScore( bo == 0.0f ? Float.NEGATIVE_INFINITY : (float)Math.log10(bo));
-		trimNode(node, i, lm.getNgramCounts(), good);
+		trimNode(node, i, lm.getNgramCountsLong(), good);
 	}
 
 	public void setK(int k) {
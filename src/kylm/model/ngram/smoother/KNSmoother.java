@@ -51,7 +51,7 @@ public class KNSmoother extends AbsoluteSmoother {
 		
 		// adjust the probability of each n-gram based on how 
 		//  many probabilities it occurs in
-		NgramNode root = lm.getRoot();
+		NgramNode root = lm.getRootNode();
 		adjustCounts(root);
 		root.setScore(0);
 
@@ -39,20 +39,20 @@ public class MLSmoother extends NgramSmoother {
 	@Override
 	public void smooth(NgramLM lm) throws Exception {
 		markTrimmed(lm);
-		smoothRec(lm, lm.getRoot(), 0);
+		smoothRec(lm, lm.getRootNode(), 0);
 	}
 	
 	private void smoothRec(NgramLM lm, NgramNode node, int lev) {
 		if(!node.hasChildren())
 			return;
-		this.trimNode(node, lev, lm.getNgramCounts());
-		int count = 0;
+		this.trimNode(node, lev, lm.getNgramCountsLong());
+		long count = 0;
 		for(NgramNode child : node)
-			count += child.getCount();
+			count += child.getCountLong();
 		float myLog = (float) Math.log10(count);
 		for(NgramNode child : node) {
 			smoothRec(lm, child, lev+1);
-			child.setScore( (float) (Math.log10(child.getCount())-myLog) );
+			child.setScore( (float) (Math.log10(child.getCountLong())-myLog) );
 			node.setBackoffScore( Float.NEGATIVE_INFINITY );
 		}
 	}
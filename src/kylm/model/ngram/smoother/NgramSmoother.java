@@ -63,7 +63,7 @@ public abstract class NgramSmoother implements Serializable {
 	 */
 	protected int[][] calcFofs (NgramLM lm, int fofLimit) {
 		int[][] ret = new int[lm.getN()][fofLimit];
-		addFofs(lm.getRoot(), ret, 0, fofLimit);
+		addFofs(lm.getRootNode(), ret, 0, fofLimit);
 		return ret;
 	}
 	
@@ -71,8 +71,8 @@ public abstract class NgramSmoother implements Serializable {
 		if(!node.hasChildren())
 			return;
 		for(NgramNode child : node) {
-			if(child.getCount()!=0 && child.getCount() <= fofLimit)
-				fofs[currN][child.getCount()-1]++;
+			if(child.getCountLong()!=0 && child.getCountLong() <= fofLimit)
+				fofs[currN][(int)child.getCountLong()-1]++;
 			addFofs(child, fofs, currN+1, fofLimit);
 		}
 	}
@@ -116,14 +116,14 @@ public abstract class NgramSmoother implements Serializable {
 		if(cutoffs == null)
 			return;
 		if(!marked)
-			markTrimmed(lm.getRoot(), 0);
+			markTrimmed(lm.getRootNode(), 0);
 		marked = true;
 	}
 	private void markTrimmed(NgramNode node, int lev) {
 		if(!node.hasChildren())
 			return;
 		for(NgramNode child : node) {
-			if(child.getCount() <= cutoffs[lev])
+			if(child.getCountLong() <= cutoffs[lev])
 				child.setScore(NgramNode.TRIM_SCORE);
 			else
 				markTrimmed(child, lev+1);
@@ -131,10 +131,10 @@ public abstract class NgramSmoother implements Serializable {
 	}
 	
 	// trim the nodes that have been marked for trimming
-	protected void trimNode(NgramNode node, int lev, int[] counts) {
+	protected void trimNode(NgramNode node, int lev, long[] counts) {
 		trimNode(node, lev, counts, 0);
 	}
-	protected void trimNode(NgramNode node, int lev, int[] counts, int good) {
+	protected void trimNode(NgramNode node, int lev, long[] counts, int good) {
 		if(good == node.getChildCount())
 			return;
 		Vector<NgramNode> children = new Vector<NgramNode>(good);
@@ -146,9 +146,15 @@ public abstract class NgramSmoother implements Serializable {
 				trimCounts(child, lev+1, counts);
 			}
 		}
-		node.setChildren(children);
+		// nodes that lost no children are left as they are
+		if(children.size() < node.getChildCount())
+			node.setChildren(children);
 	}
-	private void trimCounts(NgramNode node, int lev, int[] counts) {
+	// remove the counts of a trimmed node's children, and detach the node and
+	//  every node under it, which clears their fallbacks, so fallbacks
+	//  pointing to them are found again
+	private void trimCounts(NgramNode node, int lev, long[] counts) {
+		node.setParent(null);
 		if(!node.hasChildren())
 			return;
 		counts[lev] -= node.getChildCount();
@@ -53,9 +53,9 @@ public class WBSmoother extends NgramSmoother {
 
 		// get the scores
 		for(int i = 0; i < lm.getN(); i++) 
-			process(lm.getRoot(), 0, i);
+			process(lm.getRootNode(), 0, i);
 
-		lm.getRoot().setBackoffScore( Float.NEGATIVE_INFINITY );
+		lm.getRootNode().setBackoffScore( Float.NEGATIVE_INFINITY );
 
 	}
 
@@ -72,11 +72,11 @@ public class WBSmoother extends NgramSmoother {
 		final int numChildren = node.getChildCount();
 		double tempScore;
 		// calculate the backoff and scores
-		float backoffScore = (n==0&&!smoothUnigrams?0:numChildren / (float)(numChildren + node.getCount()));
-		final double otherScore = (n==0&&!smoothUnigrams?1:node.getCount() / (float)(numChildren + node.getCount()));
+		float backoffScore = (n==0&&!smoothUnigrams?0:numChildren / (float)(numChildren + node.getCountLong()));
+		final double otherScore = (n==0&&!smoothUnigrams?1:node.getCountLong() / (float)(numChildren + node.getCountLong()));
 		int good = 0;
 		for(NgramNode child : node) {
-			tempScore = otherScore*child.getCount()/node.getCount();
+			tempScore = otherScore*child.getCountLong()/node.getCountLong();
 			// if ok, add it
 			if(child.getScore() != NgramNode.TRIM_SCORE) {
 				child.setScore((float)Math.log10(tempScore));
@@ -87,7 +87,7 @@ public class WBSmoother extends NgramSmoother {
 		}
 		backoffScore = (float)Math.log10(backoffScore);
 		node.setBackoffScore( backoffScore );
-		trimNode(node, i, lm.getNgramCounts(), good);
+		trimNode(node, i, lm.getNgramCountsLong(), good);
 		// interpolate
 		if(i != 0) {
 			for(NgramNode child : node) 
@@ -100,7 +100,7 @@ public class WBSmoother extends NgramSmoother {
 				unk.setScore(KylmMathUtils.logAddition(unk.getScore(), backoffScore));
 			else {
 				unk.setScore(backoffScore);
-				lm.getNgramCounts()[0]++;
+				lm.getNgramCountsLong()[0]++;
 			}
 		}
 	}
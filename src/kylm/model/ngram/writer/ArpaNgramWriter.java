@@ -61,6 +61,7 @@ public class ArpaNgramWriter extends NgramWriter {
 	@Override
 	public void write(NgramLM lm, OutputStream os) throws IOException {
 
+		lm.checkListable();
 		out = new PrintStream(os);
 		sb = new StringBuffer();
 		br = System.getProperty("line.separator");
@@ -105,10 +106,10 @@ public class ArpaNgramWriter extends NgramWriter {
 		}
 		
 		// start the data and print the counts
-		int[] counts = lm.getNgramCounts();
+		long[] counts = lm.getNgramCountsLong();
 		sb.append(startOfData).append(br);
 		for(int i = 0; i < counts.length; i++) {
-			int myCount = counts[i];
+			long myCount = counts[i];
 			sb.append("ngram ").append(i+1).append("=").append(myCount).append(br);
 		}
 
@@ -120,7 +121,7 @@ public class ArpaNgramWriter extends NgramWriter {
 		vocab = lm.getVocab();
 		for(int i = 1; i <= n; i++) {
 			sb.append("\\").append(i).append("-grams: ").append(br);
-			printLevel(lm.getRoot(), null, i, i != n);
+			printLevel(lm.getRootNode(), null, i, i != n);
 			sb.append(br);
 		}
 
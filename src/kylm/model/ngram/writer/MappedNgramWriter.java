@@ -0,0 +1,43 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.model.ngram.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import kylm.model.ngram.MappedNgramLM;
+import kylm.model.ngram.NgramLM;
+
+/**
+ * A class to write language models in a binary format that can be mapped
+ * into memory and used without loading
+ * @author neubig
+ *
+ */
+public class MappedNgramWriter extends NgramWriter {
+
+	@Override
+	public void write(NgramLM lm, OutputStream os) throws IOException {
+		MappedNgramLM.write(lm, os);
+	}
+
+}
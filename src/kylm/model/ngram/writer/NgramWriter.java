@@ -38,8 +38,10 @@ public abstract class NgramWriter {
 	 * @param lm The language model to write
 	 * @param fileName The file to write it to
 	 * @throws IOException If the file could not be written to
+	 * @throws IllegalArgumentException If the n-grams are held in a HashedNgramTrie, which cannot list them
 	 */
 	public void write(NgramLM lm, String fileName) throws IOException {
+		lm.checkListable();
 		BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(fileName), 1024);
 		write(lm, os);
 		os.close();
@@ -50,6 +52,7 @@ public abstract class NgramWriter {
 	 * @param lm The language model to write
 	 * @param os The output stream to write to
 	 * @throws IOException If there was an error during output
+	 * @throws IllegalArgumentException If the n-grams are held in a HashedNgramTrie, which cannot list them
 	 */
 	public abstract void write(NgramLM lm, OutputStream os) throws IOException;
 	
@@ -36,6 +36,7 @@ public class SerializedNgramWriter extends NgramWriter {
 
 	@Override
 	public void write(NgramLM lm, OutputStream os) throws IOException {
+		lm.checkListable();
 		ObjectOutputStream oos = new ObjectOutputStream(os);
 		oos.writeObject(lm);
 		oos.flush();
@@ -56,6 +56,7 @@ public class WFSTNgramWriter extends NgramWriter {
 	@Override
 	public void write(NgramLM lm, OutputStream os) throws IOException {
 		
+		lm.checkListable();
 		// save the values to global
 		this.lm = lm;
 		out = new PrintStream(os);
@@ -68,10 +69,10 @@ public class WFSTNgramWriter extends NgramWriter {
 		sb = new StringBuffer();
 		
 		// print the output of the terminal symbol separately
-		NgramNode brNode = lm.getRoot().getChild(termId);
+		NgramNode brNode = lm.getRootNode().getChild(termId);
 		String brParent = (n > 2?termString+" ":"");
 		if(!brNode.hasChildren()) {
-			brNode = lm.getRoot();
+			brNode = lm.getRootNode();
 			brParent = "";
 		}
 		for(int i = 0; i < vocab.getSize(); i++) {
@@ -98,7 +99,7 @@ public class WFSTNgramWriter extends NgramWriter {
 		sb.append(states.addSymbol(FINAL_STRING)).append(br);
 		
 		// print recursively
-		recursivePrint(lm.getRoot(), 1, "", "");
+		recursivePrint(lm.getRootNode(), 1, "", "");
 		
 		// print the remainder
 		out.print(sb.toString());
@@ -0,0 +1,146 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package kylm.util;
+
+import java.nio.LongBuffer;
+
+/**
+ * An array of unsigned integers of a fixed number of bits, packed into longs.
+ * The longs are held in a buffer, so the array can be built in memory or read
+ * from a file that has been mapped into memory.
+ * @author neubig
+ *
+ */
+public class BitArray {
+
+	private LongBuffer data = null;
+	private int width = 0;
+	private long mask = 0;
+	private long size = 0;
+
+	/**
+	 * Create an empty array in memory
+	 * @param size The number of elements
+	 * @param width The number of bits per element, from 0 to 63
+	 */
+	public BitArray(long size, int width) {
+		this(LongBuffer.wrap(new long[getLongCount(size, width)]), size, width);
+	}
+
+	/**
+	 * Create an array over a buffer of packed longs
+	 * @param data The buffer holding the elements
+	 * @param size The number of elements
+	 * @param width The number of bits per element, from 0 to 63
+	 */
+	public BitArray(LongBuffer data, long size, int width) {
+		if(width < 0 || width > 63)
+			throw new IllegalArgumentException("Illegal bit width "+width);
+		this.data = data;
+		this.size = size;
+		this.width = width;
+		mask = (1L << width) - 1;
+	}
+
+	/**
+	 * @param size The number of elements
+	 * @param width The number of bits per element
+	 * @return The number of longs needed to hold the elements
+	 */
+	public static int getLongCount(long size, int width) {
+		return (int)((size*width+63) >>> 6);
+	}
+
+	/**
+	 * @param max The largest value that must be held
+	 * @return The number of bits needed to hold every value up to max
+	 */
+	public static int getWidth(long max) {
+		return 64 - Long.numberOfLeadingZeros(max);
+	}
+
+	/**
+	 * Get an element
+	 * @param i The index of the element
+	 * @return The element
+	 */
+	public long get(long i) {
+		if(width == 0)
+			return 0;
+		final long bit = i*width;
+		final int word = (int)(bit >>> 6), off = (int)(bit & 63);
+		long ret = data.get(word) >>> off;
+		if(off+width > 64)
+			ret |= data.get(word+1) << (64-off);
+		return ret & mask;
+	}
+
+	/**
+	 * Set an element, which must be held in a writable buffer
+	 * @param i The index of the element
+	 * @param val The value, which must fit in the width of the array
+	 */
+	public void set(long i, long val) {
+		if(width == 0)
+			return;
+		if((val & mask) != val)
+			throw new IllegalArgumentException("Value "+val+" does not fit in "+width+" bits");
+		final long bit = i*width;
+		final int word = (int)(bit >>> 6), off = (int)(bit & 63);
+		data.put(word, (data.get(word) & ~(mask << off)) | (val << off));
+		if(off+width > 64) {
+			final int rest = 64-off;
+			data.put(word+1, (data.get(word+1) & ~(mask >>> rest)) | (val >>> rest));
+		}
+	}
+
+	/**
+	 * @return The number of elements
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The number of bits per element
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return The number of bytes of Java heap used by the elements, which is
+	 *  0 if they are held in a mapped file or direct buffer
+	 */
+	public long getMemorySize() {
+		return (data.isDirect() ? 0 : 8L*data.capacity());
+	}
+
+	/**
+	 * @return The buffer holding the packed elements
+	 */
+	public LongBuffer getData() {
+		return data;
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package kylm.util;
+
+import java.util.Arrays;
+
+/**
+ * A cache from Strings to values that holds at most a fixed number of
+ *  entries, and evicts them with the CLOCK algorithm, which keeps entries
+ *  that have been used since the clock hand last passed them, as NgramCache
+ *  does. Entries are split into stripes that are locked separately, so
+ *  threads that look up different keys rarely wait for each other, and each
+ *  stripe holds a fixed share of the entries, so the bound holds however
+ *  many threads add entries at once.
+ * @author neubig
+ *
+ * @param <V> The type of the values
+ */
+public class ClockCache<V> {
+
+	// the largest number of stripes
+	private static final int STRIPES = 16;
+	// the smallest number of entries in a stripe, unless the cache is smaller
+	private static final int STRIPE_SIZE = 16;
+
+	// one separately locked part of the cache
+	private static class Stripe {
+		// the entries
+		private String[] keys;
+		private Object[] values;
+		private boolean[] referenced;
+		// a linear probing hash table of entry positions plus one, with zero
+		//  for empty positions
+		private int[] index;
+		private int size = 0, hand = 0;
+		public Stripe(int capacity) {
+			keys = new String[capacity];
+			values = new Object[capacity];
+			referenced = new boolean[capacity];
+			int indexSize = 2;
+			while(indexSize < capacity*2)
+				indexSize <<= 1;
+			index = new int[indexSize];
+		}
+		// find the position of an entry in the index
+		private int find(String key, int hash) {
+			final int mask = index.length-1;
+			for(int pos = hash & mask; index[pos] != 0; pos = (pos+1) & mask)
+				if(keys[index[pos]-1].equals(key))
+					return pos;
+			return -1;
+		}
+		// remove an entry from the index, moving back entries that follow it
+		private void remove(int e) {
+			final int mask = index.length-1;
+			int i = hash(keys[e]) & mask;
+			while(index[i] != e+1)
+				i = (i+1) & mask;
+			for(int j = (i+1) & mask; index[j] != 0; j = (j+1) & mask) {
+				int home = hash(keys[index[j]-1]) & mask;
+				// leave entries whose home is cyclically in (i, j]
+				if(i <= j ? (i < home && home <= j) : (i < home || home <= j))
+					continue;
+				index[i] = index[j];
+				i = j;
+			}
+			index[i] = 0;
+		}
+		private synchronized Object get(String key, int hash) {
+			int pos = find(key, hash);
+			if(pos == -1)
+				return null;
+			int e = index[pos]-1;
+			referenced[e] = true;
+			return values[e];
+		}
+		private synchronized void put(String key, int hash, Object value) {
+			int pos = find(key, hash);
+			if(pos != -1) {
+				values[index[pos]-1] = value;
+				return;
+			}
+			int e;
+			if(size < keys.length)
+				e = size++;
+			else {
+				// move the clock hand past entries that were used recently
+				while(referenced[hand]) {
+					referenced[hand] = false;
+					hand = (hand+1) % keys.length;
+				}
+				e = hand;
+				hand = (hand+1) % keys.length;
+				remove(e);
+			}
+			keys[e] = key;
+			values[e] = value;
+			referenced[e] = false;
+			final int mask = index.length-1;
+			pos = hash & mask;
+			while(index[pos] != 0)
+				pos = (pos+1) & mask;
+			index[pos] = e+1;
+		}
+		private synchronized void clear() {
+			Arrays.fill(index, 0);
+			Arrays.fill(keys, null);
+			Arrays.fill(values, null);
+			size = 0;
+			hand = 0;
+		}
+	}
+
+	private Stripe[] stripes;
+	private int capacity;
+
+	/**
+	 * Create a cache
+	 * @param capacity The largest number of entries to hold
+	 */
+	public ClockCache(int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("The capacity of a cache must be at least 1, but got "+capacity);
+		int count = 1;
+		while(count < STRIPES && count*2*STRIPE_SIZE <= capacity)
+			count <<= 1;
+		// the first stripes hold one more entry if they cannot be equal
+		stripes = new Stripe[count];
+		for(int i = 0; i < count; i++)
+			stripes[i] = new Stripe(capacity/count + (i < capacity%count ? 1 : 0));
+		this.capacity = capacity;
+	}
+
+	// mix the bits of the hash of a key, as those of short Strings are close
+	private static int hash(String key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	// choose the stripe from the high bits, as the low bits are used inside it
+	private Stripe getStripe(int hash) {
+		return stripes[(hash >>> 28) & (stripes.length-1)];
+	}
+
+	/**
+	 * Look up the value of a key
+	 * @param key The key
+	 * @return The value, or null if it is not in the cache
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(String key) {
+		int hash = hash(key);
+		return (V)getStripe(hash).get(key, hash);
+	}
+
+	/**
+	 * Add the value of a key, evicting an entry that has not been used
+	 *  recently if the cache is full
+	 * @param key The key
+	 * @param value The value
+	 */
+	public void put(String key, V value) {
+		int hash = hash(key);
+		getStripe(hash).put(key, hash, value);
+	}
+
+	/**
+	 * Remove every entry
+	 */
+	public void clear() {
+		for(Stripe stripe : stripes)
+			stripe.clear();
+	}
+
+	/**
+	 * @return The largest number of entries the cache can hold
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The number of entries in the cache
+	 */
+	public int getSize() {
+		int ret = 0;
+		for(Stripe stripe : stripes)
+			synchronized(stripe) { ret += stripe.size; }
+		return ret;
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package kylm.util;
+
+import java.nio.LongBuffer;
+
+/**
+ * A non-decreasing sequence of non-negative longs compressed with Elias-Fano
+ * coding. The low bits of each value are held in a BitArray, and the high
+ * bits are held in unary in a bit vector, where the i-th value sets the bit
+ * at (high bits + i). This takes less than 2+log(max/size) bits per value.
+ * The positions of every 256th set and unset bit are sampled, so any value
+ * can be found in close to constant time.<br>
+ * The bits are held in buffers, so the array can be built in memory or read
+ * from a file that has been mapped into memory.
+ * @author neubig
+ *
+ */
+public class EliasFanoArray {
+
+	// the number of set or unset bits between samples
+	private static final int SAMPLE_RATE = 256;
+	// ranges smaller than this are searched by scanning
+	private static final int SCAN_SIZE = 16;
+
+	private long size = 0;
+	private long max = 0;
+	private int lowBits = 0;
+	private BitArray low = null;
+	private LongBuffer high = null;
+	// the positions of every SAMPLE_RATE-th set and unset bit in high
+	private long[] oneSamples = null, zeroSamples = null;
+
+	// the number of values and last value added so far
+	private long added = 0, last = 0;
+
+	/**
+	 * Create an empty array in memory. Values are appended with add().
+	 * @param size The number of values
+	 * @param max The largest value
+	 */
+	public EliasFanoArray(long size, long max) {
+		this.size = size;
+		this.max = max;
+		lowBits = getLowBits(size, max);
+		low = new BitArray(size, lowBits);
+		high = LongBuffer.wrap(new long[getHighLongCount(size, max)]);
+		if(size == 0)
+			makeSamples();
+	}
+
+	/**
+	 * Create an array over buffers holding the low and high bits
+	 * @param lowData The buffer holding the low bits
+	 * @param highData The buffer holding the high bits
+	 * @param size The number of values
+	 * @param max The largest value
+	 */
+	public EliasFanoArray(LongBuffer lowData, LongBuffer highData, long size, long max) {
+		this.size = size;
+		this.max = max;
+		lowBits = getLowBits(size, max);
+		low = new BitArray(lowData, size, lowBits);
+		high = highData;
+		added = size;
+		makeSamples();
+	}
+
+	/**
+	 * @param size The number of values
+	 * @param max The largest value
+	 * @return The number of low bits held for each value
+	 */
+	public static int getLowBits(long size, long max) {
+		// an empty array is split as if it had one value, so a large maximum
+		//  does not need a bucket for every value up to it
+		final long buckets = Math.max(size, 1);
+		return (max < buckets ? 0 : 63 - Long.numberOfLeadingZeros(max/buckets));
+	}
+
+	/**
+	 * @param size The number of values
+	 * @param max The largest value
+	 * @return The number of longs needed to hold the high bits
+	 */
+	public static int getHighLongCount(long size, long max) {
+		return (int)(((max >>> getLowBits(size, max)) + size + 64) >>> 6);
+	}
+
+	/**
+	 * Add a value to the end of the array
+	 * @param val The value, which must be no smaller than the previous value
+	 *  and no larger than the maximum
+	 */
+	public void add(long val) {
+		if(added == size)
+			throw new IllegalArgumentException("Elias-Fano array is already full");
+		if(val < last || val > max)
+			throw new IllegalArgumentException("Value "+val+" is out of order or larger than "+max);
+		low.set(added, val & ((1L << lowBits) - 1));
+		final long bit = (val >>> lowBits) + added;
+		final int word = (int)(bit >>> 6);
+		high.put(word, high.get(word) | (1L << (bit & 63)));
+		last = val;
+		if(++added == size)
+			makeSamples();
+	}
+
+	// find the position of every SAMPLE_RATE-th set and unset bit
+	private void makeSamples() {
+		final long zeros = (max >>> lowBits) + 1;
+		oneSamples = new long[(int)((size+SAMPLE_RATE-1)/SAMPLE_RATE)];
+		zeroSamples = new long[(int)((zeros+SAMPLE_RATE-1)/SAMPLE_RATE)];
+		long ones = 0, unset = 0;
+		int nextOne = 0, nextZero = 0;
+		final int words = high.limit();
+		for(int w = 0; w < words; w++) {
+			final long x = high.get(w);
+			final int count = Long.bitCount(x);
+			for( ; nextOne < oneSamples.length && (long)nextOne*SAMPLE_RATE < ones+count; nextOne++)
+				oneSamples[nextOne] = ((long)w << 6) + selectInWord(x, (int)((long)nextOne*SAMPLE_RATE-ones));
+			for( ; nextZero < zeroSamples.length && (long)nextZero*SAMPLE_RATE < unset+64-count; nextZero++)
+				zeroSamples[nextZero] = ((long)w << 6) + selectInWord(~x, (int)((long)nextZero*SAMPLE_RATE-unset));
+			ones += count;
+			unset += 64-count;
+		}
+	}
+
+	// find the position of the k-th set bit in a word
+	private static int selectInWord(long x, int k) {
+		for( ; k > 0; k--)
+			x &= x-1;
+		return Long.numberOfTrailingZeros(x);
+	}
+
+	// find the position of the i-th set bit, or the i-th unset bit if ones is false
+	private long select(long i, boolean ones) {
+		final int s = (int)(i / SAMPLE_RATE);
+		long pos = (ones ? oneSamples[s] : zeroSamples[s]);
+		long k = i - (long)s*SAMPLE_RATE;
+		if(k == 0)
+			return pos;
+		int word = (int)(pos >>> 6);
+		long x = (ones ? high.get(word) : ~high.get(word)) & (-1L << (pos & 63));
+		int count;
+		while(k >= (count = Long.bitCount(x))) {
+			k -= count;
+			x = (ones ? high.get(++word) : ~high.get(++word));
+		}
+		return ((long)word << 6) + selectInWord(x, (int)k);
+	}
+
+	private boolean isSet(long bit) {
+		return ((high.get((int)(bit >>> 6)) >>> (bit & 63)) & 1) != 0;
+	}
+
+	/**
+	 * Get a value
+	 * @param i The index of the value
+	 * @return The value
+	 */
+	public long get(long i) {
+		return ((select(i, true) - i) << lowBits) | low.get(i);
+	}
+
+	/**
+	 * Count the values that are no larger than a value. As values are in
+	 *  order, this is one more than the index of the last such value.
+	 * @param val The value
+	 * @return The number of values that are no larger than val
+	 */
+	public long countAtMost(long val) {
+		if(val < 0)
+			return 0;
+		else if(val >= max)
+			return size;
+		final long h = val >>> lowBits, l = val & ((1L << lowBits) - 1);
+		// the unset bit before bucket h comes after every smaller value
+		long pos = (h == 0 ? 0 : select(h-1, false)+1), idx = pos - h;
+		// scan the values in the same bucket
+		for( ; isSet(pos) && low.get(idx) <= l; pos++)
+			idx++;
+		return idx;
+	}
+
+	/**
+	 * Find a value in a range of the array
+	 * @param begin The index of the first value in the range
+	 * @param end The index after the last value in the range
+	 * @param val The value to find
+	 * @return The index of the value, or -1 if it is not in the range
+	 */
+	public long find(long begin, long end, long val) {
+		// narrow down large ranges by binary search
+		long mid, midVal;
+		while(end - begin > SCAN_SIZE) {
+			mid = (begin+end) >>> 1;
+			midVal = get(mid);
+			if(midVal > val)
+				end = mid;
+			else if(midVal < val)
+				begin = mid+1;
+			else
+				return mid;
+		}
+		if(begin >= end)
+			return -1;
+		// then scan the rest, moving from one set bit to the next
+		long pos = select(begin, true);
+		for(long i = begin; i < end; i++, pos++) {
+			while(!isSet(pos))
+				pos++;
+			midVal = ((pos - i) << lowBits) | low.get(i);
+			if(midVal == val)
+				return i;
+			else if(midVal > val)
+				break;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The number of values
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The largest value that may be held
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return The number of bytes of Java heap used by the array, not
+	 *  counting bits held in a mapped file or direct buffer
+	 */
+	public long getMemorySize() {
+		long size = low.getMemorySize() + (high.isDirect() ? 0 : 8L*high.capacity());
+		if(oneSamples != null)
+			size += 8L*oneSamples.length;
+		if(zeroSamples != null)
+			size += 8L*zeroSamples.length;
+		return size;
+	}
+
+	/**
+	 * @return The buffer holding the low bits of each value
+	 */
+	public LongBuffer getLowData() {
+		return low.getData();
+	}
+
+	/**
+	 * @return The buffer holding the high bits of each value in unary
+	 */
+	public LongBuffer getHighData() {
+		return high;
+	}
+
+}
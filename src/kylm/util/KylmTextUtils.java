@@ -34,13 +34,18 @@ public class KylmTextUtils {
 	public static String whiteSpaceString = " \t";
 
 	/**
-	 * Splits the input string into an array of strings, each containing one character
+	 * Splits the input string into an array of strings, each containing one character.
+	 * Characters outside of the basic multilingual plane are kept together.
 	 * @param string The string to be split
 	 * @return The output array of one-character strings
 	 */
 	public static String[] splitChars(String string) {
-		String[] ret = new String[string.length()];
-		for(int i = 0; i < ret.length; ret[i] = string.substring(i, ++i));
+		String[] ret = new String[string.codePointCount(0, string.length())];
+		for(int i = 0, pos = 0; i < ret.length; i++) {
+			int next = string.offsetByCodePoints(pos, 1);
+			ret[i] = string.substring(pos, next);
+			pos = next;
+		}
 		return ret;
 	}
 
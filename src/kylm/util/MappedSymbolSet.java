@@ -0,0 +1,203 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package kylm.util;
+
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * A symbol set that is read in place from buffers, usually mapped from a
+ * file, instead of being loaded into a HashMap.<br>
+ * Every symbol and alias is held as a key in a byte array of UTF-8 strings.
+ * The first getSize() keys are the symbols themselves, and the rest are
+ * aliases, whose ids are held in a separate array. Keys are found through an
+ * open addressing hash table of key numbers.<br>
+ * The set cannot be changed, except for adding aliases, which are held in
+ * memory as in a normal SymbolSet. The hash table uses the same hashes as
+ * SymbolSet, so keys can be looked up without creating a String.
+ * @author neubig
+ *
+ */
+public class MappedSymbolSet extends SymbolSet {
+
+	private static final long serialVersionUID = -3630297632047211864L;
+
+	// the buffers holding the keys
+	private transient ByteBuffer bytes = null;
+	private transient IntBuffer offsets = null;
+	private transient IntBuffer aliasIds = null;
+	private transient IntBuffer table = null;
+	private int size = 0;
+
+	/**
+	 * Create a symbol set over buffers written by writeKeys()
+	 * @param bytes The UTF-8 bytes of every key
+	 * @param offsets The offsets of every key in bytes, plus the end
+	 * @param aliasIds The ids of the keys after the symbols
+	 * @param table The hash table of key numbers
+	 * @param size The number of symbols
+	 */
+	public MappedSymbolSet(ByteBuffer bytes, IntBuffer offsets, IntBuffer aliasIds, IntBuffer table, int size) {
+		this.bytes = bytes;
+		this.offsets = offsets;
+		this.aliasIds = aliasIds;
+		this.table = table;
+		this.size = size;
+	}
+
+	/**
+	 * Get the slot in the hash table where the search for a key starts
+	 * @param s The key
+	 * @param mask The size of the table minus one
+	 * @return The slot
+	 */
+	public static int getSlot(String s, int mask) {
+		return getSlot(hash(s, 0, s.length()), mask);
+	}
+
+	/**
+	 * Lay out the keys of a symbol set in the format read by this class.
+	 * @param set The symbol set
+	 * @param keys Is filled with every key, symbols first
+	 * @param aliasIds Is filled with the ids of the aliases
+	 * @return The hash table
+	 */
+	public static int[] makeTable(SymbolSet set, Vector<String> keys, Vector<Integer> aliasIds) {
+		for(int i = 0; i < set.getSize(); i++)
+			keys.add(set.getSymbol(i));
+		int tableSize = 2;
+		while(tableSize < set.getKeyCount()*2)
+			tableSize *= 2;
+		int[] ret = new int[tableSize];
+		for(int i = 0; i < tableSize; i++)
+			ret[i] = -1;
+		for(int i = 0; i < set.getKeyCount(); i++) {
+			String s = set.getKeyString(i);
+			int key = set.getKeyId(i);
+			if(!s.equals(keys.get(key))) {
+				key = keys.size();
+				keys.add(s);
+				aliasIds.add(set.getKeyId(i));
+			}
+			int slot = getSlot(s, tableSize-1);
+			while(ret[slot] != -1)
+				slot = (slot+1) & (tableSize-1);
+			ret[slot] = key;
+		}
+		return ret;
+	}
+
+	// get the string of a key
+	private String getMappedKey(int key) {
+		return decode(bytes, offsets.get(key), offsets.get(key+1));
+	}
+
+	@Override
+	public int findId(CharSequence s, int start, int end) {
+		final int mask = table.limit()-1;
+		int key;
+		for(int slot = getSlot(hash(s, start, end), mask); (key = table.get(slot)) != -1; slot = (slot+1) & mask)
+			if(keyEquals(bytes, offsets.get(key), offsets.get(key+1), s, start, end))
+				return (key < size ? key : aliasIds.get(key-size));
+		return super.findId(s, start, end);
+	}
+
+	@Override
+	public int findId(byte[] b, int start, int end) {
+		final int mask = table.limit()-1;
+		int key;
+		for(int slot = getSlot(hash(b, start, end), mask); (key = table.get(slot)) != -1; slot = (slot+1) & mask)
+			if(keyEquals(bytes, offsets.get(key), offsets.get(key+1), b, start, end))
+				return (key < size ? key : aliasIds.get(key-size));
+		return super.findId(b, start, end);
+	}
+
+	@Override
+	public String getSymbol(int id) {
+		if(id < 0 || id >= size)
+			throw new ArrayIndexOutOfBoundsException(id);
+		String[] strings = getDecodedSymbols(size);
+		String ret = strings[id];
+		if(ret == null)
+			strings[id] = ret = getMappedKey(id);
+		return ret;
+	}
+
+	@Override
+	public int getSize() { return size; }
+
+	@Override
+	public String[] getSymbols() {
+		String[] ret = new String[size];
+		for(int i = 0; i < size; i++)
+			ret[i] = getMappedKey(i);
+		return ret;
+	}
+
+	@Override
+	public int addSymbol(String sym, boolean overrideAlias) {
+		Integer idx = getId(sym);
+		if(idx != null && (!overrideAlias || getMappedKey(idx).equals(sym)))
+			return idx;
+		throw new IllegalArgumentException("Cannot add symbol "+sym+" to a mapped symbol set");
+	}
+
+	@Override
+	public int pushSymbol(String sym) {
+		throw new IllegalArgumentException("Cannot push symbol "+sym+" to a mapped symbol set");
+	}
+
+	/**
+	 * Copy the symbols and aliases into a normal symbol set held in memory
+	 * @return The symbol set
+	 */
+	public SymbolSet toSymbolSet() {
+		SymbolSet ret = new SymbolSet();
+		for(int i = 0; i < size; i++) {
+			String s = getMappedKey(i);
+			if(ret.findId(s) == -1)
+				ret.addSymbol(s);
+			else
+				ret.pushSymbol(s);
+		}
+		for(int i = size; i < offsets.limit()-1; i++)
+			ret.addAlias(getMappedKey(i), aliasIds.get(i-size));
+		for(int i = 0; i < getKeyCount(); i++)
+			ret.addAlias(getKeyString(i), getKeyId(i));
+		return ret;
+	}
+
+	@Override
+	protected HashMap<String, Integer> copyKeys() {
+		return toSymbolSet().copyKeys();
+	}
+
+	// the buffers cannot be serialized, so write a normal symbol set instead
+	private Object writeReplace() throws ObjectStreamException {
+		return toSymbolSet();
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+$Rev$
+
+The Kyoto Language Modeling Toolkit.
+Copyright (C) 2009 Kylm Development Team
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 3 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package kylm.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * An array of fixed-width numbers that is held outside of the Java heap in
+ * direct buffers, so it is not limited to 2^31 elements and is not scanned
+ * by the garbage collector. The buffers are split into chunks of 1GB, and
+ * the array can be grown after it is created. New elements are zero.<br>
+ * Elements are not checked against the size of the array, so reading past
+ * the end may return zeros instead of throwing an exception.
+ * @author neubig
+ *
+ */
+public class OffHeapArray {
+
+	// the number of bytes in a full chunk, as a power of two
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+	// the smallest chunk that is allocated
+	private static final int MIN_BYTES = 1024;
+
+	private ByteBuffer[] chunks = new ByteBuffer[0];
+	private int shift = 0;
+	private long size = 0;
+
+	/**
+	 * Create an array
+	 * @param size The number of elements
+	 * @param width The number of bytes per element, 4 or 8
+	 */
+	public OffHeapArray(long size, int width) {
+		if(width != 4 && width != 8)
+			throw new IllegalArgumentException("Off-heap arrays must have a width of 4 or 8 bytes, but got "+width);
+		shift = (width == 4 ? 2 : 3);
+		resize(size);
+	}
+
+	/**
+	 * Grow the array. The last chunk at least doubles in size whenever it is
+	 *  reallocated, so growing one element at a time is cheap.
+	 * @param newSize The new number of elements, which must not be smaller
+	 *  than the current number
+	 */
+	public void resize(long newSize) {
+		if(newSize < size)
+			throw new IllegalArgumentException("Off-heap arrays cannot shrink from "+size+" to "+newSize);
+		final long bytes = newSize << shift;
+		final int count = (int)((bytes + CHUNK_MASK) >>> CHUNK_BITS);
+		if(count > chunks.length)
+			chunks = Arrays.copyOf(chunks, count);
+		// chunks before the current last one are already full
+		for(int i = (int)((size << shift) >>> CHUNK_BITS); i < count; i++) {
+			final long need = Math.min(bytes - ((long)i << CHUNK_BITS), CHUNK_MASK+1);
+			ByteBuffer old = chunks[i];
+			if(old != null && old.capacity() >= need)
+				continue;
+			final long cap = Math.min(Math.max(Math.max(need, MIN_BYTES), (old == null ? 0 : (long)old.capacity()*2)), CHUNK_MASK+1);
+			ByteBuffer buff = ByteBuffer.allocateDirect((int)cap).order(ByteOrder.nativeOrder());
+			if(old != null) {
+				old.clear();
+				buff.put(old);
+				buff.clear();
+			}
+			chunks[i] = buff;
+		}
+		size = newSize;
+	}
+
+	/**
+	 * @return The number of elements
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The number of bytes allocated for the array, which may be more
+	 *  than are in use
+	 */
+	public long getMemorySize() {
+		long bytes = 0;
+		for(ByteBuffer chunk : chunks)
+			if(chunk != null)
+				bytes += chunk.capacity();
+		return bytes;
+	}
+
+	// get the chunk holding an element
+	private ByteBuffer chunk(long i) {
+		return chunks[(int)((i << shift) >>> CHUNK_BITS)];
+	}
+
+	// get the position of an element in its chunk
+	private int pos(long i) {
+		return (int)((i << shift) & CHUNK_MASK);
+	}
+
+	public int getInt(long i) {
+		return chunk(i).getInt(pos(i));
+	}
+
+	public void setInt(long i, int val) {
+		chunk(i).putInt(pos(i), val);
+	}
+
+	public float getFloat(long i) {
+		return chunk(i).getFloat(pos(i));
+	}
+
+	public void setFloat(long i, float val) {
+		chunk(i).putFloat(pos(i), val);
+	}
+
+	public long getLong(long i) {
+		return chunk(i).getLong(pos(i));
+	}
+
+	public void setLong(long i, long val) {
+		chunk(i).putLong(pos(i), val);
+	}
+
+}
@@ -22,11 +22,22 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
 package kylm.util;
 
 import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.*;
-import java.util.Map.Entry;
 
 /**
- * A class that holds a mapping from vocabulary to integers 
+ * A class that holds a mapping from vocabulary to integers <br>
+ * Every symbol and alias is held as a key in a single array of UTF-8 bytes,
+ * and keys are found through an open addressing hash table of key numbers,
+ * so no objects are held per symbol. Keys can be looked up by String, by
+ * part of any CharSequence, or by a slice of UTF-8 bytes without creating a
+ * String. The hash of a key is the same as the hash of its String. The
+ * Strings returned by getSymbol() are kept until memory runs low, so that
+ * they are only decoded once.<br>
+ * Unpaired surrogates, which UTF-8 cannot hold, are encoded in three bytes
+ * like other characters of the same size, so every String is kept as it is.
  * @author neubig
  *
  */
@@ -37,16 +48,487 @@ public class SymbolSet implements Serializable {
 	 */
 	private static final long serialVersionUID = 6295504917453701558L;
 
-	// the data structures to hold the vocabulary
-	public HashMap<String, Integer> ids = null;
-	public Vector<String> syms = null;
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// the UTF-8 bytes of every key
+	private transient byte[] bytes = null;
+	private transient ByteBuffer buffer = null;
+	// the start of every key in bytes, plus the end of the last key
+	private transient int[] offsets = null;
+	// the hash of every key, and the id that it points to
+	private transient int[] hashes = null, keyIds = null;
+	private transient int keyCount = 0;
+	// the key holding the string of every symbol
+	private transient int[] symKeys = null;
+	private transient int size = 0;
+	// the hash table holding the number+1 of every key
+	private transient int[] table = null;
+	// the Strings of the symbols that have been asked for, so that callers
+	//  that ask for the same symbols again and again, such as the writers,
+	//  do not decode them each time. They are dropped if memory runs low.
+	private transient SoftReference<String[]> decoded = null;
+
+	/**
+	 * The id of every symbol and alias.
+	 * @deprecated The keys are no longer held in a HashMap, so this is a view
+	 *  that finds them in the symbol set. Keys can be added with put(), but
+	 *  not removed, and keySet(), values() and entrySet() return copies. Use
+	 *  getId(), findId() and addAlias() instead.
+	 */
+	@Deprecated
+	public transient HashMap<String, Integer> ids = new IdMap();
+	/**
+	 * The symbol of every id.
+	 * @deprecated The symbols are no longer held in a Vector, so this is a
+	 *  view that finds them in the symbol set. Symbols can be added with
+	 *  add(), which gives them a new id as addSymbol(sym, true) does, or as
+	 *  pushSymbol() does if they already have one, but not changed or
+	 *  removed. Use getSymbol(), getSize() and addSymbol() instead.
+	 */
+	@Deprecated
+	public transient Vector<String> syms = new SymbolList();
+
+	// the view behind the deprecated ids field
+	private class IdMap extends HashMap<String, Integer> {
+		private static final long serialVersionUID = 2826101337590485047L;
+		@Override
+		public Integer get(Object key) {
+			return (key instanceof String ? getId((String)key) : null);
+		}
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+		@Override
+		public boolean containsValue(Object value) {
+			return copyKeys().containsValue(value);
+		}
+		@Override
+		public Integer put(String key, Integer value) {
+			Integer ret = get(key);
+			addAlias(key, value);
+			return ret;
+		}
+		@Override
+		public void putAll(Map<? extends String, ? extends Integer> m) {
+			for(Map.Entry<? extends String, ? extends Integer> e : m.entrySet())
+				put(e.getKey(), e.getValue());
+		}
+		@Override
+		public Integer remove(Object key) {
+			throw new UnsupportedOperationException("Keys cannot be removed from a SymbolSet");
+		}
+		@Override
+		public void clear() {
+			throw new UnsupportedOperationException("Keys cannot be removed from a SymbolSet");
+		}
+		@Override
+		public int size() { return copyKeys().size(); }
+		@Override
+		public boolean isEmpty() { return size() == 0; }
+		@Override
+		public Set<String> keySet() { return copyKeys().keySet(); }
+		@Override
+		public Collection<Integer> values() { return copyKeys().values(); }
+		@Override
+		public Set<Map.Entry<String, Integer>> entrySet() { return copyKeys().entrySet(); }
+		@Override
+		public Object clone() { return copyKeys(); }
+		@Override
+		public boolean equals(Object o) { return copyKeys().equals(o); }
+		@Override
+		public int hashCode() { return copyKeys().hashCode(); }
+		@Override
+		public String toString() { return copyKeys().toString(); }
+	}
+
+	// the view behind the deprecated syms field, which passes reads to a list
+	//  of the symbols
+	private class SymbolList extends Vector<String> {
+		private static final long serialVersionUID = -5950254001346418498L;
+		private final List<String> list = new AbstractList<String>() {
+			@Override
+			public String get(int index) { return getSymbol(index); }
+			@Override
+			public int size() { return getSize(); }
+		};
+		@Override
+		public String get(int index) { return getSymbol(index); }
+		@Override
+		public String elementAt(int index) { return getSymbol(index); }
+		@Override
+		public String firstElement() {
+			if(getSize() == 0)
+				throw new NoSuchElementException();
+			return getSymbol(0);
+		}
+		@Override
+		public String lastElement() {
+			if(getSize() == 0)
+				throw new NoSuchElementException();
+			return getSymbol(getSize()-1);
+		}
+		@Override
+		public int size() { return getSize(); }
+		@Override
+		public boolean isEmpty() { return getSize() == 0; }
+		@Override
+		public boolean contains(Object o) { return list.contains(o); }
+		@Override
+		public boolean containsAll(Collection<?> c) { return list.containsAll(c); }
+		@Override
+		public int indexOf(Object o) { return list.indexOf(o); }
+		@Override
+		public int indexOf(Object o, int index) {
+			int ret = list.subList(index, getSize()).indexOf(o);
+			return (ret == -1 ? -1 : ret+index);
+		}
+		@Override
+		public int lastIndexOf(Object o) { return list.lastIndexOf(o); }
+		@Override
+		public int lastIndexOf(Object o, int index) { return list.subList(0, index+1).lastIndexOf(o); }
+		@Override
+		public Iterator<String> iterator() { return list.iterator(); }
+		@Override
+		public ListIterator<String> listIterator() { return list.listIterator(); }
+		@Override
+		public ListIterator<String> listIterator(int index) { return list.listIterator(index); }
+		@Override
+		public Enumeration<String> elements() { return Collections.enumeration(list); }
+		@Override
+		public Object[] toArray() { return list.toArray(); }
+		@Override
+		public <T> T[] toArray(T[] a) { return list.toArray(a); }
+		@Override
+		public void copyInto(Object[] anArray) {
+			Object[] arr = list.toArray();
+			System.arraycopy(arr, 0, anArray, 0, arr.length);
+		}
+		@Override
+		public List<String> subList(int fromIndex, int toIndex) { return list.subList(fromIndex, toIndex); }
+		@Override
+		public Object clone() { return new Vector<String>(list); }
+		@Override
+		public boolean equals(Object o) { return list.equals(o); }
+		@Override
+		public int hashCode() { return list.hashCode(); }
+		@Override
+		public String toString() { return list.toString(); }
+		@Override
+		public boolean add(String sym) {
+			int id = findId(sym);
+			if(id != -1 && getSymbol(id).equals(sym))
+				pushSymbol(sym);
+			else
+				addSymbol(sym, true);
+			return true;
+		}
+		@Override
+		public void addElement(String sym) { add(sym); }
+		@Override
+		public boolean addAll(Collection<? extends String> c) {
+			for(String sym : c)
+				add(sym);
+			return !c.isEmpty();
+		}
+		@Override
+		public String set(int index, String element) { throw unchangeable(); }
+		@Override
+		public void setElementAt(String obj, int index) { throw unchangeable(); }
+		@Override
+		public void insertElementAt(String obj, int index) { throw unchangeable(); }
+		@Override
+		public void add(int index, String element) { throw unchangeable(); }
+		@Override
+		public boolean addAll(int index, Collection<? extends String> c) { throw unchangeable(); }
+		@Override
+		public String remove(int index) { throw unchangeable(); }
+		@Override
+		public boolean remove(Object o) { throw unchangeable(); }
+		@Override
+		public boolean removeElement(Object obj) { throw unchangeable(); }
+		@Override
+		public void removeElementAt(int index) { throw unchangeable(); }
+		@Override
+		public void removeAllElements() { throw unchangeable(); }
+		@Override
+		public void clear() { throw unchangeable(); }
+		@Override
+		public boolean removeAll(Collection<?> c) { throw unchangeable(); }
+		@Override
+		public boolean retainAll(Collection<?> c) { throw unchangeable(); }
+		@Override
+		public void setSize(int newSize) { throw unchangeable(); }
+		private UnsupportedOperationException unchangeable() {
+			return new UnsupportedOperationException("Symbols can only be added to the end of a SymbolSet");
+		}
+	}
 
 	/**
 	 * Create a new symbol set
 	 */
 	public SymbolSet() {
-		ids = new HashMap<String, Integer>();
-		syms = new Vector<String>();
+		bytes = new byte[256];
+		buffer = ByteBuffer.wrap(bytes);
+		offsets = new int[17];
+		hashes = new int[16];
+		keyIds = new int[16];
+		symKeys = new int[16];
+		table = new int[32];
+	}
+
+	/**
+	 * Get the slot in a hash table where the search for a key starts
+	 * @param hash The hash of the key
+	 * @param mask The size of the table minus one
+	 * @return The slot
+	 */
+	public static int getSlot(int hash, int mask) {
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Find the hash of part of a CharSequence, which is the same as the hash
+	 *  of a String holding it
+	 * @param s The characters
+	 * @param start The position of the first character
+	 * @param end The position after the last character
+	 * @return The hash
+	 */
+	public static int hash(CharSequence s, int start, int end) {
+		int h = 0;
+		for(int i = start; i < end; i++)
+			h = 31*h + s.charAt(i);
+		return h;
+	}
+
+	/**
+	 * Find the hash of a slice of UTF-8 bytes, which is the same as the hash
+	 *  of the String they decode to
+	 * @param b The bytes
+	 * @param start The position of the first byte
+	 * @param end The position after the last byte
+	 * @return The hash
+	 */
+	public static int hash(byte[] b, int start, int end) {
+		int h = 0, c;
+		for(int i = start; i < end; ) {
+			c = b[i++];
+			if(c >= 0) {
+				h = 31*h + c;
+				continue;
+			}
+			// decode the code point, and add it as UTF-16 units
+			int extra = (c >= -32 ? (c >= -16 ? 3 : 2) : 1);
+			c &= (0x3F >> extra);
+			for(int j = 0; j < extra && i < end; j++)
+				c = (c << 6) | (b[i++] & 0x3F);
+			if(c >= 0x10000)
+				h = 31*(31*h + Character.highSurrogate(c)) + Character.lowSurrogate(c);
+			else
+				h = 31*h + c;
+		}
+		return h;
+	}
+
+	/**
+	 * Encode a String as UTF-8. Unpaired surrogates, which UTF-8 cannot hold,
+	 *  are encoded in three bytes like other characters of the same size, so
+	 *  unlike String.getBytes(), which turns them into '?', every String has
+	 *  its own encoding.
+	 * @param s The characters
+	 * @return The bytes
+	 */
+	public static byte[] encode(CharSequence s) {
+		final int end = s.length();
+		int len = 0;
+		for(int i = 0; i < end; i++) {
+			final char c = s.charAt(i);
+			if(c < 0x80)
+				len += 1;
+			else if(c < 0x800)
+				len += 2;
+			else if(Character.isHighSurrogate(c) && i+1 < end && Character.isLowSurrogate(s.charAt(i+1))) {
+				len += 4;
+				i++;
+			} else
+				len += 3;
+		}
+		byte[] ret = new byte[len];
+		int pos = 0;
+		for(int i = 0; i < end; i++) {
+			int c = s.charAt(i), n;
+			if(c < 0x80) {
+				ret[pos++] = (byte)c;
+				continue;
+			}
+			if(c < 0x800)
+				n = 2;
+			else if(Character.isHighSurrogate((char)c) && i+1 < end && Character.isLowSurrogate(s.charAt(i+1))) {
+				c = Character.toCodePoint((char)c, s.charAt(++i));
+				n = 4;
+			} else
+				n = 3;
+			ret[pos++] = (byte)(((0xF00 >> n) & 0xFF) | (c >> (6*(n-1))));
+			for(int j = n-2; j >= 0; j--)
+				ret[pos++] = (byte)(0x80 | ((c >> (6*j)) & 0x3F));
+		}
+		return ret;
+	}
+
+	/**
+	 * Decode UTF-8 bytes held in a buffer, including unpaired surrogates
+	 *  written by encode()
+	 * @param buff The buffer
+	 * @param start The position of the first byte
+	 * @param end The position after the last byte
+	 * @return The String
+	 */
+	public static String decode(ByteBuffer buff, int start, int end) {
+		StringBuilder sb = new StringBuilder(end-start);
+		int c;
+		for(int i = start; i < end; ) {
+			c = buff.get(i++);
+			if(c >= 0) {
+				sb.append((char)c);
+				continue;
+			}
+			int extra = (c >= -32 ? (c >= -16 ? 3 : 2) : 1);
+			c &= (0x3F >> extra);
+			for(int j = 0; j < extra && i < end; j++)
+				c = (c << 6) | (buff.get(i++) & 0x3F);
+			if(c >= 0x10000)
+				sb.append(Character.highSurrogate(c)).append(Character.lowSurrogate(c));
+			else
+				sb.append((char)c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Check whether UTF-8 bytes held in a buffer encode part of a
+	 *  CharSequence, without encoding it. Unpaired surrogates are encoded as
+	 *  encode() does.
+	 * @param buff The buffer
+	 * @param pos The position of the first byte
+	 * @param bend The position after the last byte
+	 * @param s The characters
+	 * @param start The position of the first character
+	 * @param end The position after the last character
+	 * @return Whether they are equal
+	 */
+	public static boolean keyEquals(ByteBuffer buff, int pos, int bend, CharSequence s, int start, int end) {
+		int c;
+		for(int i = start; i < end; i++) {
+			c = s.charAt(i);
+			if(c < 0x80) {
+				if(pos >= bend || buff.get(pos++) != c)
+					return false;
+				continue;
+			}
+			int len;
+			if(c < 0x800)
+				len = 2;
+			else if(Character.isHighSurrogate((char)c) && i+1 < end && Character.isLowSurrogate(s.charAt(i+1))) {
+				c = Character.toCodePoint((char)c, s.charAt(++i));
+				len = 4;
+			} else
+				len = 3;
+			if(pos+len > bend)
+				return false;
+			final int lead = (0xF00 >> len) & 0xFF;
+			if(buff.get(pos++) != (byte)(lead | (c >> (6*(len-1)))))
+				return false;
+			for(int j = len-2; j >= 0; j--)
+				if(buff.get(pos++) != (byte)(0x80 | ((c >> (6*j)) & 0x3F)))
+					return false;
+		}
+		return pos == bend;
+	}
+
+	/**
+	 * Check whether UTF-8 bytes held in a buffer are equal to a slice of bytes
+	 * @param buff The buffer
+	 * @param pos The position of the first byte in the buffer
+	 * @param bend The position after the last byte in the buffer
+	 * @param b The bytes
+	 * @param start The position of the first byte
+	 * @param end The position after the last byte
+	 * @return Whether they are equal
+	 */
+	public static boolean keyEquals(ByteBuffer buff, int pos, int bend, byte[] b, int start, int end) {
+		if(bend-pos != end-start)
+			return false;
+		for(int i = start; i < end; i++)
+			if(buff.get(pos++) != b[i])
+				return false;
+		return true;
+	}
+
+	// find a key in the hash table, or -1 if it does not exist
+	private int findKey(CharSequence s, int start, int end) {
+		final int h = hash(s, start, end), mask = table.length-1;
+		for(int slot = getSlot(h, mask), key; (key = table[slot]-1) != -1; slot = (slot+1) & mask)
+			if(hashes[key] == h && keyEquals(buffer, offsets[key], offsets[key+1], s, start, end))
+				return key;
+		return -1;
+	}
+	private int findKey(byte[] b, int start, int end) {
+		final int h = hash(b, start, end), mask = table.length-1;
+		for(int slot = getSlot(h, mask), key; (key = table[slot]-1) != -1; slot = (slot+1) & mask)
+			if(hashes[key] == h && keyEquals(buffer, offsets[key], offsets[key+1], b, start, end))
+				return key;
+		return -1;
+	}
+
+	// point a key to an id, adding the key if it does not exist
+	private int putKey(String sym, int id) {
+		int key = findKey(sym, 0, sym.length());
+		if(key == -1) {
+			byte[] b = encode(sym);
+			key = keyCount++;
+			if(keyCount == hashes.length) {
+				hashes = Arrays.copyOf(hashes, keyCount*2);
+				keyIds = Arrays.copyOf(keyIds, keyCount*2);
+				offsets = Arrays.copyOf(offsets, keyCount*2+1);
+			}
+			int start = offsets[key];
+			if(start+b.length > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(start+b.length, bytes.length*2));
+				buffer = ByteBuffer.wrap(bytes);
+			}
+			System.arraycopy(b, 0, bytes, start, b.length);
+			offsets[key+1] = start+b.length;
+			hashes[key] = hash(sym, 0, sym.length());
+			if(keyCount*2 > table.length)
+				makeTable(table.length*2);
+			else
+				addToTable(key);
+		}
+		keyIds[key] = id;
+		return key;
+	}
+
+	private void makeTable(int tableSize) {
+		table = new int[tableSize];
+		for(int i = 0; i < keyCount; i++)
+			addToTable(i);
+	}
+
+	private void addToTable(int key) {
+		final int mask = table.length-1;
+		int slot = getSlot(hashes[key], mask);
+		while(table[slot] != 0)
+			slot = (slot+1) & mask;
+		table[slot] = key+1;
+	}
+
+	// add a new symbol whose string is held by a key
+	private int newSymbol(int key) {
+		if(size == symKeys.length)
+			symKeys = Arrays.copyOf(symKeys, size*2);
+		symKeys[size] = key;
+		return size++;
 	}
 
 	/**
@@ -59,15 +541,12 @@ public class SymbolSet implements Serializable {
 	 */
 	public int addSymbol(String sym, boolean overrideAlias) {
 		// check to see if the symbol already exists
-		Integer idx = ids.get(sym);
+		int key = findKey(sym, 0, sym.length());
 		// if the symbol exists and is not an alias, return the proper number
-		if(idx != null && (!overrideAlias || syms.get(idx).equals(sym)))
-			return idx;
+		if(key != -1 && (!overrideAlias || symKeys[keyIds[key]] == key))
+			return keyIds[key];
 		// get the new id, add the symbol, and return
-		idx = syms.size();
-		syms.add(sym);
-		ids.put(sym, idx);
-		return idx;
+		return newSymbol(putKey(sym, size));
 	}
 
 	public int addSymbol(String sym) {
@@ -89,7 +568,7 @@ public class SymbolSet implements Serializable {
 	 * @param id The id number that the alias should point to.
 	 */
 	public void addAlias(String sym, int id) {
-		ids.put(sym, id);
+		putKey(sym, id);
 	}
 
 	/**
@@ -97,19 +576,49 @@ public class SymbolSet implements Serializable {
 	 * @param id The ID to search for.
 	 * @return The symbol that is associated with id.
 	 */
-	public String getSymbol(int id) { return syms.get(id); }
+	public String getSymbol(int id) {
+		if(id < 0 || id >= size)
+			throw new ArrayIndexOutOfBoundsException(id);
+		String[] strings = getDecodedSymbols(size);
+		String ret = strings[id];
+		if(ret == null)
+			strings[id] = ret = getKeyString(symKeys[id]);
+		return ret;
+	}
+
+	/**
+	 * Get the array that holds the Strings of symbols once they have been
+	 *  decoded, which is null for symbols that have not been. Threads may
+	 *  fill it at the same time, as any two Strings for a symbol are equal.
+	 * @param size The number of symbols that the array must have room for
+	 * @return The array
+	 */
+	protected String[] getDecodedSymbols(int size) {
+		SoftReference<String[]> ref = decoded;
+		String[] ret = (ref == null ? null : ref.get());
+		if(ret == null || ret.length < size) {
+			ret = (ret == null ? new String[size] : Arrays.copyOf(ret, Math.max(size, ret.length*2)));
+			decoded = new SoftReference<String[]>(ret);
+		}
+		return ret;
+	}
 
 	/**
 	 * Get the size of the symbol set.
 	 * @return The size.
 	 */
-	public int getSize() { return syms.size(); }
+	public int getSize() { return size; }
 
 	/**
 	 * Return every symbol in the symbol set.
 	 * @return An array containing every symbol in the symbol set
 	 */
-	public String[] getSymbols() { return syms.toArray(new String[syms.size()]); }
+	public String[] getSymbols() {
+		String[] ret = new String[getSize()];
+		for(int i = 0; i < ret.length; i++)
+			ret[i] = getSymbol(i);
+		return ret;
+	}
 
 
 	/**
@@ -118,7 +627,71 @@ public class SymbolSet implements Serializable {
 	 * @return The id, or null if the symbol doesn't exist
 	 */
 	public Integer getId(String s) {
-		return ids.get(s);
+		int id = findId(s, 0, s.length());
+		return (id == -1 ? null : id);
+	}
+
+	/**
+	 * Get the ID associated with a symbol without boxing it
+	 * @param s The symbol
+	 * @return The id, or -1 if the symbol doesn't exist
+	 */
+	public int findId(CharSequence s) {
+		return findId(s, 0, s.length());
+	}
+
+	/**
+	 * Get the ID associated with part of a CharSequence, such as a token in a
+	 *  line, without creating a String
+	 * @param s The characters
+	 * @param start The position of the first character of the symbol
+	 * @param end The position after the last character of the symbol
+	 * @return The id, or -1 if the symbol doesn't exist
+	 */
+	public int findId(CharSequence s, int start, int end) {
+		int key = findKey(s, start, end);
+		return (key == -1 ? -1 : keyIds[key]);
+	}
+
+	/**
+	 * Get the ID associated with a slice of UTF-8 bytes, without decoding them
+	 * @param b The bytes
+	 * @param start The position of the first byte of the symbol
+	 * @param end The position after the last byte of the symbol
+	 * @return The id, or -1 if the symbol doesn't exist
+	 */
+	public int findId(byte[] b, int start, int end) {
+		int key = findKey(b, start, end);
+		return (key == -1 ? -1 : keyIds[key]);
+	}
+
+	/**
+	 * @return The number of symbols and aliases held in memory
+	 */
+	protected int getKeyCount() { return keyCount; }
+
+	/**
+	 * @param key The number of a key
+	 * @return The symbol or alias held by the key
+	 */
+	protected String getKeyString(int key) {
+		return decode(buffer, offsets[key], offsets[key+1]);
+	}
+
+	/**
+	 * @param key The number of a key
+	 * @return The id that the key points to
+	 */
+	protected int getKeyId(int key) { return keyIds[key]; }
+
+	/**
+	 * @return A map from every symbol and alias to the id that it points to
+	 */
+	protected HashMap<String, Integer> copyKeys() {
+		HashMap<String, Integer> ret = new HashMap<String, Integer>(keyCount*2);
+		for(int i = 0; i < keyCount; i++)
+			ret.put(getKeyString(i), keyIds[i]);
+		return ret;
 	}
 
 	/////////////////////////////
@@ -127,17 +700,17 @@ public class SymbolSet implements Serializable {
 	private void writeObject(ObjectOutputStream out) throws IOException {
 		// print the ones in the vocabulary
 		StringBuffer sb = new StringBuffer();
-		for(String s : syms)
-			sb.append(s).append('\n');
+		for(int i = 0; i < size; i++)
+			sb.append(getSymbol(i)).append('\n');
 		sb.deleteCharAt(sb.length()-1);
 		out.writeObject(sb.toString());
 		// print the ones not in the vocabulary
 		LinkedList<Integer> myList = new LinkedList<Integer>();
 		sb  = new StringBuffer();
-		for(Entry<String, Integer> e : ids.entrySet()) {
-			if(!e.getKey().equals(syms.get(e.getValue()))) {
-				sb.append(e.getKey()).append('\n');
-				myList.add(e.getValue());
+		for(int i = 0; i < keyCount; i++) {
+			if(symKeys[keyIds[i]] != i) {
+				sb.append(getKeyString(i)).append('\n');
+				myList.add(keyIds[i]);
 			}
 		}
 		if(sb.length() != 0)
@@ -150,15 +723,25 @@ public class SymbolSet implements Serializable {
 	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
 		String strings = (String)in.readObject();
 		String[] vec = strings.split("\n");
-		syms = new Vector<String>(Arrays.asList(vec));
-		ids =  new HashMap<String, Integer>();
-		for(int i = 0; i < syms.size(); i++)
-			ids.put(syms.get(i), i);
+		// the arrays are not serialized, so start them as in the constructor
+		SymbolSet empty = new SymbolSet();
+		bytes = empty.bytes;
+		buffer = empty.buffer;
+		offsets = empty.offsets;
+		hashes = empty.hashes;
+		keyIds = empty.keyIds;
+		symKeys = empty.symKeys;
+		table = empty.table;
+		ids = new IdMap();
+		syms = new SymbolList();
+		// later copies of a symbol point to the last copy, as they always have
+		for(int i = 0; i < vec.length; i++)
+			newSymbol(putKey(vec[i], i));
 		strings = (String)in.readObject();
 		if(strings.length() > 0){
 			vec = strings.split("\n");
 			for(String s : vec)
-				ids.put(s, in.readInt());
+				putKey(s, in.readInt());
 		}
 	}
 
@@ -168,7 +751,15 @@ public class SymbolSet implements Serializable {
 	public boolean equals(Object obj) {
 		try {
 			SymbolSet set = (SymbolSet)obj;
-			return ids.equals(set.ids) && syms.equals(set.syms);
+			if(size != set.size || keyCount != set.keyCount)
+				return false;
+			for(int i = 0; i < size; i++)
+				if(!getSymbol(i).equals(set.getSymbol(i)))
+					return false;
+			for(int i = 0; i < keyCount; i++)
+				if(set.findId(bytes, offsets[i], offsets[i+1]) != keyIds[i])
+					return false;
+			return true;
 		} catch(Exception e) { }
 		return false;
 	}
@@ -199,8 +790,8 @@ public class SymbolSet implements Serializable {
 	public void writeToFile(String string, boolean writeNumbers) throws IOException {
 		PrintStream ps = new PrintStream(new FileOutputStream(string));
 		HashSet<String> printed = new HashSet<String>();
-		for(int i = 0; i < syms.size(); i++) {
-			String str = syms.get(i);
+		for(int i = 0; i < getSize(); i++) {
+			String str = getSymbol(i);
 			if(!printed.contains(str)) {
 				printed.add(str);
 				ps.print(str);
@@ -223,14 +814,12 @@ public class SymbolSet implements Serializable {
 	 */
 	public int pushSymbol(String sym) {
 		// check to see if the symbol already exists
-		Integer idx = ids.get(sym);
+		int key = findKey(sym, 0, sym.length());
 		// if the symbol exists and is not an alias, return the proper number
-		if(idx == null || (!syms.get(idx).equals(sym)))
+		if(key == -1 || symKeys[keyIds[key]] != key)
 			throw new IllegalArgumentException("Attempt to push symbol that doesn't already exist");
-		// get the new id, add the symbol, and return
-		idx = syms.size();
-		syms.add(sym);
-		return idx;
+		// add the symbol without changing the id of the key
+		return newSymbol(key);
 	}
 
 }